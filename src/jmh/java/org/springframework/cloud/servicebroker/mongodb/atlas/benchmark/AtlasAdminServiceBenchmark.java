@@ -0,0 +1,101 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.DatabaseUserWriter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasAdminService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.ConnectionStringTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the payload and string building done for every binding.
+ *
+ * @author ipolyzos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AtlasAdminServiceBenchmark {
+
+    private final String endpoint = "mongodb://cluster0-shard-00-00.mongodb.net:27017,"
+            + "cluster0-shard-00-01.mongodb.net:27017,cluster0-shard-00-02.mongodb.net:27017/admin"
+            + "?ssl=true&maxIdleTimeMS=60000&replicaSet=Cluster0-shard-0&authSource=admin";
+
+    private final String database = UUID.randomUUID().toString();
+
+    private final String username = UUID.randomUUID().toString();
+
+    private final String password = UUID.randomUUID().toString();
+
+    private final ConnectionStringTemplate connectionStringTemplate = new ConnectionStringTemplate(endpoint);
+
+    @Benchmark
+    public String getConnectionString() {
+        return AtlasAdminService.getConnectionString(endpoint, database, username, password);
+    }
+
+    @Benchmark
+    public String formatConnectionString() {
+        return connectionStringTemplate.format(database, username, password);
+    }
+
+    private final CountingOutputStream entityStream = new CountingOutputStream();
+
+    /**
+     * Former String.format payload, encoded as Jersey encodes string entities
+     */
+    @Benchmark
+    public long formatAddUserRequest() throws IOException {
+        entityStream.write(String.format("{ " +
+                "  \"databaseName\" : \"admin\", \n" +
+                "  \"roles\" : [ { \n" +
+                "    \"databaseName\" : \"%s\", \n" +
+                "    \"roleName\" : \"readWrite\"" +
+                "  }],\n" +
+                "  \"username\" : \"%s\",\n" +
+                "  \"password\" : \"%s\"\n" +
+                "}", database, username, password).getBytes(StandardCharsets.UTF_8));
+        return entityStream.count;
+    }
+
+    @Benchmark
+    public long writeAddUserRequest() throws IOException {
+        DatabaseUserWriter.write(new DatabaseUser(username, password)
+                .withRole(database, AtlasAdminService.READ_WRITE_ROLE), entityStream);
+        return entityStream.count;
+    }
+
+    /**
+     * Entity stream discarding what is written
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(final int b) {
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            count += len;
+        }
+    }
+}
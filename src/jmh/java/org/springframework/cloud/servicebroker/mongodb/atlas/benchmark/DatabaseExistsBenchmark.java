@@ -0,0 +1,115 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.benchmark;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasAdminService;
+
+import javax.ws.rs.client.Client;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Latency of the database existence check as the cluster grows from
+ * 100 to 50k databases, compared with the former listDatabaseNames scan.
+ * <p>
+ * NOTE:
+ *   Needs a disposable MongoDB, given by the benchmark.mongodb.uri system
+ *   property, and is therefore excluded from the default benchmark run:
+ *
+ *     mvn -Pbenchmarks -DskipTests verify -Djmh.include=DatabaseExistsBenchmark -Djmh.exclude=none \
+ *         -Djmh.jvmArgs=-Dbenchmark.mongodb.uri=mongodb://localhost:27017
+ *
+ *   Missing "bench-" databases are created on setup and kept afterwards,
+ *   since creating tens of thousands of them dominates the run. Sizes run
+ *   in ascending order, so start from a server without them.
+ *
+ * @author ipolyzos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseExistsBenchmark {
+
+    private static final String PREFIX = "bench-";
+
+    @Param({"100", "1000", "10000", "50000"})
+    private int databases;
+
+    private MongoClient mongoClient;
+
+    private AtlasAdminService adminService;
+
+    private String existing;
+
+    private String missing;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mongoClient = new MongoClient(new MongoClientURI(System.getProperty("benchmark.mongodb.uri", "mongodb://localhost:27017")));
+        adminService = new AtlasAdminService(new ClusterRegistry(new AtlasCluster("default", "mongodb://localhost:27017",
+                "group-id", mongoClient)), mock(Client.class), null);
+
+        int present = 0;
+        try (MongoCursor<String> names = mongoClient.listDatabaseNames().iterator()) {
+            while (names.hasNext()) {
+                if (names.next().startsWith(PREFIX)) {
+                    present++;
+                }
+            }
+        }
+        for (int i = present; i < databases; i++) {
+            mongoClient.getDatabase(PREFIX + i).getCollection("foobar").insertOne(new Document("foo", "bar"));
+        }
+
+        existing = PREFIX + (databases / 2);
+        missing = PREFIX + "missing";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mongoClient.close();
+    }
+
+    @Benchmark
+    public boolean existingDatabase() {
+        return adminService.databaseExists(null, existing);
+    }
+
+    @Benchmark
+    public boolean missingDatabase() {
+        return adminService.databaseExists(null, missing);
+    }
+
+    @Benchmark
+    public boolean listDatabaseNamesScan() {
+        try (MongoCursor<String> names = mongoClient.listDatabaseNames().iterator()) {
+            while (names.hasNext()) {
+                if (names.next().equals(missing)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,195 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.benchmark;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoClient;
+import com.mongodb.WriteResult;
+import com.mongodb.client.ListCollectionsIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingResponse;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceResponse;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.AdaptiveConcurrencyLimit;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.AtlasRequestExecutor;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.LeastDatabasesPlacement;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanCatalogService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceOperationRepository;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceRepository;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasAdminService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasServiceInstanceBindingService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasServiceInstanceService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.BindingCascade;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.DatabaseDropper;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.LeaseService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.OperationJournal;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.OperationTracker;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.RequestCoalescer;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.WarmPoolService;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Benchmarks of the create-instance and bind paths of the broker services
+ * against in-process mocks of the MongoDB and Jersey clients.
+ * <p>
+ * NOTE:
+ *   Mocks are stub-only so that they do not record invocations, which
+ *   would otherwise grow for the whole run and skew the measurements.
+ *   Instance creation is synchronous, so the measured time includes the
+ *   database work rather than just queueing it. Journal writes go to a
+ *   stubbed broker database, as do lease and uncached lookups, so only
+ *   their in-process cost is measured.
+ *
+ * @author ipolyzos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ProvisioningBenchmark {
+
+    private AtlasServiceInstanceService instanceService;
+
+    private AtlasServiceInstanceBindingService bindingService;
+
+    private CreateServiceInstanceRequest createRequest;
+
+    private CreateServiceInstanceBindingRequest bindRequest;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        // MongoDB: target databases are missing and inserts succeed
+        final MongoClient mongoClient = stub(MongoClient.class);
+        final MongoDatabase database = stub(MongoDatabase.class);
+        final ListCollectionsIterable<String> collectionNames = stub(ListCollectionsIterable.class);
+        final MongoCollection<Document> collection = stub(MongoCollection.class);
+        when(mongoClient.getDatabase(anyString())).thenReturn(database);
+        when(database.listCollectionNames()).thenReturn(collectionNames);
+        when(collectionNames.batchSize(1)).thenReturn(collectionNames);
+        when(database.getCollection(anyString())).thenReturn(collection);
+
+        // Atlas API: every databaseUsers call is created
+        final Client restClient = stub(Client.class);
+        final WebTarget target = stub(WebTarget.class);
+        final Invocation.Builder builder = stub(Invocation.Builder.class);
+        final Invocation invocation = stub(Invocation.class);
+        when(restClient.target(anyString())).thenReturn(target);
+        when(target.path(anyString())).thenReturn(target);
+        when(target.request(anyString())).thenReturn(builder);
+        when(builder.buildPost(any(Entity.class))).thenReturn(invocation);
+        when(invocation.invoke()).thenAnswer(new Answer<Response>() {
+            @Override
+            public Response answer(InvocationOnMock invocationOnMock) {
+                return Response.status(Response.Status.CREATED).build();
+            }
+        });
+
+        final AtlasRequestExecutor requestExecutor = new AtlasRequestExecutor(
+                Double.MAX_VALUE, 0, 1, 1, 60000, new AdaptiveConcurrencyLimit(64, 1, 64));
+        // three clusters sharing the stubbed client, instances placed by database count
+        final List<AtlasCluster> clusters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            clusters.add(new AtlasCluster("cluster" + i,
+                    "mongodb://cluster" + i + "-shard-00-00.mongodb.net:27017,cluster" + i + "-shard-00-01.mongodb.net:27017/admin"
+                            + "?ssl=true&replicaSet=Cluster" + i + "-shard-0&authSource=admin",
+                    "group-id", mongoClient));
+        }
+        final ClusterRegistry clusterRegistry = new ClusterRegistry(clusters, new LeastDatabasesPlacement());
+        final AtlasAdminService adminService = new AtlasAdminService(clusterRegistry, restClient, requestExecutor);
+
+        final BrokerConfig brokerConfig = stub(BrokerConfig.class);
+        when(brokerConfig.getApiBase()).thenReturn("https://cloud.mongodb.com/api/atlas/v1.0");
+
+        final AtlasServiceInstanceRepository instanceRepository = stub(AtlasServiceInstanceRepository.class);
+        final WarmPoolService warmPoolService = stub(WarmPoolService.class);
+
+        // broker database: every journal write succeeds and leases are free
+        final MongoOperations mongoOperations = stub(MongoOperations.class);
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(1, true, null));
+        when(mongoOperations.remove(any(Query.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(1, false, null));
+        final OperationJournal journal = new OperationJournal(mongoOperations, new MetricRegistry());
+        final LeaseService leaseService = new LeaseService(mongoOperations, new MetricRegistry());
+
+        final OperationTracker operations =
+                new OperationTracker(stub(AtlasServiceInstanceOperationRepository.class), new MetricRegistry(), 0, 0, 0, 0);
+
+        // nothing retained by the coalescer, so that every call measures a whole provisioning
+        instanceService = new AtlasServiceInstanceService(adminService, instanceRepository, operations,
+                new SyncTaskExecutor(), warmPoolService,
+                clusterRegistry, stub(PlanCatalogService.class), journal, leaseService, stub(DatabaseDropper.class),
+                stub(BindingCascade.class), new RequestCoalescer(new MetricRegistry(), 0, 0));
+        bindingService = new AtlasServiceInstanceBindingService(adminService, brokerConfig,
+                stub(AtlasServiceInstanceBindingRepository.class), instanceRepository, warmPoolService,
+                clusterRegistry, journal, leaseService, new RequestCoalescer(new MetricRegistry(), 0, 0), operations);
+
+        createRequest = new CreateServiceInstanceRequest("mongodb-atlas-broker", "default-mongodb-atlas-plan",
+                "org-guid", "space-guid")
+                .withServiceInstanceId("service-instance-id");
+        bindRequest = new CreateServiceInstanceBindingRequest("mongodb-atlas-broker", "default-mongodb-atlas-plan",
+                "app-guid", null)
+                .withServiceInstanceId("service-instance-id")
+                .withBindingId("binding-id");
+    }
+
+    @Benchmark
+    public CreateServiceInstanceResponse createInstance() {
+        return instanceService.createServiceInstance(createRequest);
+    }
+
+    @Benchmark
+    public CreateServiceInstanceBindingResponse bind() {
+        return bindingService.createServiceInstanceBinding(bindRequest);
+    }
+
+    @Benchmark
+    public CreateServiceInstanceBindingResponse createInstanceAndBind() {
+        instanceService.createServiceInstance(createRequest);
+        return bindingService.createServiceInstanceBinding(bindRequest);
+    }
+
+    private static <T> T stub(final Class<T> type) {
+        return mock(type, withSettings().stubOnly());
+    }
+}
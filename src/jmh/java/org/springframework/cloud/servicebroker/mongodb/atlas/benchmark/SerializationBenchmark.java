@@ -0,0 +1,82 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.servicebroker.model.Catalog;
+import org.springframework.cloud.servicebroker.mongodb.atlas.fixture.ServiceInstanceBindingFixture;
+import org.springframework.cloud.servicebroker.mongodb.atlas.fixture.ServiceInstanceFixture;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanCatalogService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.quota.QuotaLimits;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the Jackson serialization of broker models and of the catalog.
+ * <p>
+ * NOTE:
+ *   The ObjectMapper is shared and warmed up, as the one of the broker is,
+ *   so only per-request serialization cost is measured. catalogBody is
+ *   what serving the catalog rendered at load time costs instead.
+ *
+ * @author ipolyzos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializationBenchmark {
+
+    private ObjectMapper mapper;
+
+    private ServiceInstance instance;
+
+    private ServiceInstanceBinding binding;
+
+    private Catalog catalog;
+
+    private PlanCatalogService catalogService;
+
+    @Setup
+    public void setup() throws IOException {
+        mapper = new ObjectMapper();
+        instance = ServiceInstanceFixture.getServiceInstance();
+        binding = ServiceInstanceBindingFixture.getServiceInstanceBinding();
+        catalogService = new PlanCatalogService(mapper, "", "", new QuotaLimits(100, 50), false);
+        catalog = catalogService.getCatalog();
+    }
+
+    @Benchmark
+    public byte[] serviceInstance() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(instance);
+    }
+
+    @Benchmark
+    public byte[] serviceInstanceBinding() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(binding);
+    }
+
+    @Benchmark
+    public byte[] catalog() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(catalog);
+    }
+
+    @Benchmark
+    public byte[] catalogBody() {
+        return catalogService.getCatalogBody().getBytes();
+    }
+}
@@ -0,0 +1,115 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.benchmark;
+
+import com.google.common.io.BaseEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.servicebroker.mongodb.atlas.Application;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from a cold start of the broker until it served its first
+ * catalog request, with and without ATLAS_FAST_START.
+ * <p>
+ * NOTE:
+ *   Every measurement runs in a fresh JVM, so class loading and JIT
+ *   warm-up count as they do on a restart. The broker database is given
+ *   by the benchmark.mongodb.uri system property; without a MongoDB there
+ *   the broker still starts and serves the catalog. Class-data sharing
+ *   archives can be compared by appending their JVM options, e.g.:
+ *
+ *     mvn -Pbenchmarks -DskipTests verify -Djmh.include=StartupBenchmark \
+ *         -Djmh.jvmArgs=-XX:SharedArchiveFile=broker.jsa
+ *
+ * @author ipolyzos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class StartupBenchmark {
+
+    private static final int PORT = Integer.getInteger("benchmark.port", 18090);
+
+    @Param({"false", "true"})
+    private boolean fastStart;
+
+    private final ExecutorService starter = Executors.newSingleThreadExecutor();
+
+    private Future<ConfigurableApplicationContext> context;
+
+    @Benchmark
+    public int firstRequest() throws Exception {
+        context = starter.submit(new Callable<ConfigurableApplicationContext>() {
+            @Override
+            public ConfigurableApplicationContext call() {
+                return new SpringApplicationBuilder(Application.class)
+                        .properties("server.port=" + PORT,
+                                "ATLAS_FAST_START=" + fastStart,
+                                "ATLAS_ENDPOINT=" + System.getProperty("benchmark.mongodb.uri",
+                                        "mongodb://localhost:27017/admin?serverSelectionTimeoutMS=2000"),
+                                "ATLAS_GROUPID=group-id",
+                                "ATLAS_API_USER=user",
+                                "ATLAS_API_KEY=key",
+                                "ATLAS_API_BASE=http://localhost:9/api/atlas/v1.0")
+                        .run();
+            }
+        });
+
+        while (true) {
+            try {
+                return catalog();
+            } catch (IOException e) {
+                // not listening yet
+                if (context.isDone()) {
+                    context.get();
+                }
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws Exception {
+        context.get().close();
+        starter.shutdown();
+    }
+
+    private static int catalog() throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://localhost:" + PORT + "/v2/catalog").openConnection();
+        connection.setRequestProperty("Authorization", "Basic "
+                + BaseEncoding.base64().encode("admin:P455w0rd".getBytes(StandardCharsets.UTF_8)));
+        try {
+            final int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IllegalStateException("Catalog request failed with " + status);
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.VirtualThreads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of a create-service/bind-service wave against the request
+ * thread model: the Tomcat default of 200 platform threads or a virtual
+ * thread per request, as with ATLAS_VIRTUAL_THREADS.
+ * <p>
+ * NOTE:
+ *   Every request blocks for the given latency, standing for its MongoDB
+ *   and Atlas API round trips. The virtual thread model needs Java 21, so
+ *   the benchmark is excluded from the default run:
+ *
+ *     mvn -Pbenchmarks -DskipTests verify -Djmh.include=ThreadModelBenchmark -Djmh.exclude=none
+ *
+ * @author ipolyzos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModelBenchmark {
+
+    /**
+     * Tomcat's default maxThreads
+     */
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    private String threads;
+
+    @Param({"2000"})
+    private int requests;
+
+    @Param({"50"})
+    private long latencyMillis;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        if ("virtual".equals(threads)) {
+            final ThreadFactory threadFactory = VirtualThreads.factory("request-");
+            executor = Executors.newCachedThreadPool(threadFactory);
+        } else {
+            executor = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Time to serve a whole wave of concurrent requests
+     */
+    @Benchmark
+    public long wave() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(latencyMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        done.await();
+        return done.getCount();
+    }
+}
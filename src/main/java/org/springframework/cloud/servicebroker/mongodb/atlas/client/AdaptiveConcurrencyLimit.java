@@ -0,0 +1,148 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+/**
+ * Concurrency limit adjusted with additive increase / multiplicative decrease.
+ * <p>
+ * NOTE:
+ *   Every successful call grows the limit by 1/limit, i.e. by about one slot
+ *   per window of calls, while a throttled call halves it. The calls in
+ *   flight when the limit is halved were sent into the same overload, so
+ *   their throttling does not halve it again: each permit remembers the
+ *   window it was acquired in and only a call sent after the last decrease
+ *   starts the next one. A burst of throttled calls therefore costs one
+ *   decrease per window, not a collapse to the minimum, and the limit
+ *   settles just below the rate the server accepts.
+ *
+ *   A permit is released by the first of its onSuccess, onThrottled or
+ *   onIgnored calls; later ones are ignored, so an error path releasing it
+ *   again cannot free a slot twice.
+ *
+ * @author ipolyzos
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private double limit;
+
+    private int inFlight;
+
+    /**
+     * Number of decreases so far, the window permits acquired now belong to
+     */
+    private long window;
+
+    public AdaptiveConcurrencyLimit(final int initialLimit, final int minLimit, final int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Wait for a free slot
+     *
+     * @param deadline absolute time, in milliseconds, to give up at
+     * @return the permit of the slot or null when none was free before the deadline
+     * @throws InterruptedException
+     */
+    public synchronized Permit acquire(final long deadline) throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+        inFlight++;
+        return new Permit(window);
+    }
+
+    /**
+     * Take a free slot without waiting
+     *
+     * @return the permit of the slot or null when none is free
+     */
+    public synchronized Permit tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return null;
+        }
+        inFlight++;
+        return new Permit(window);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private synchronized void onSuccess(final Permit permit) {
+        if (release(permit)) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    private synchronized void onThrottled(final Permit permit) {
+        // calls sent before the last decrease do not decrease again
+        if (release(permit) && permit.window == window) {
+            limit = Math.max(minLimit, limit / 2);
+            window++;
+        }
+    }
+
+    private synchronized void onIgnored(final Permit permit) {
+        release(permit);
+    }
+
+    /**
+     * @return false when the permit was already released
+     */
+    private boolean release(final Permit permit) {
+        if (permit.released) {
+            return false;
+        }
+        permit.released = true;
+        inFlight--;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Slot held by one call, released once its outcome is known
+     */
+    public final class Permit {
+
+        private final long window;
+
+        private boolean released;
+
+        private Permit(final long window) {
+            this.window = window;
+        }
+
+        /**
+         * Release the slot after a call the server accepted
+         */
+        public void onSuccess() {
+            AdaptiveConcurrencyLimit.this.onSuccess(this);
+        }
+
+        /**
+         * Release the slot after a call the server throttled or failed to answer
+         */
+        public void onThrottled() {
+            AdaptiveConcurrencyLimit.this.onThrottled(this);
+        }
+
+        /**
+         * Release the slot without adjusting the limit
+         */
+        public void onIgnored() {
+            AdaptiveConcurrencyLimit.this.onIgnored(this);
+        }
+    }
+}
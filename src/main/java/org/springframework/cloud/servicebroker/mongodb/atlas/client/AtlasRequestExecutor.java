@@ -0,0 +1,270 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes every Atlas Admin API call under a shared set of protections.
+ * <p>
+ * NOTE:
+ *   - a token bucket per Atlas group caps the request rate
+ *   - an AIMD concurrency limit, fed by the response status codes, backs
+ *     off while Atlas throttles or fails and recovers once it does not
+ *   - throttled (429), unavailable (5xx) and unanswered calls are retried
+ *     with exponential backoff and full jitter, honoring Retry-After; a
+ *     call which is not idempotent is only retried unanswered when it
+ *     never reached Atlas, as a retry after e.g. a read timeout would
+ *     repeat a call Atlas may have carried out
+ *   - the whole call, retries included, is bounded by a deadline
+ *
+ * @author ipolyzos
+ */
+public class AtlasRequestExecutor {
+
+    private Logger logger = LoggerFactory.getLogger(AtlasRequestExecutor.class);
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final double permitsPerSecond;
+
+    private final int maxRetries;
+
+    private final long backoffBase;
+
+    private final long backoffMax;
+
+    private final long deadline;
+
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+
+    private final ConcurrentMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+    private final Random random = new Random();
+
+    /**
+     * @param permitsPerSecond requests per second allowed per Atlas group
+     * @param maxRetries       retries after the first attempt
+     * @param backoffBase      first backoff, in milliseconds
+     * @param backoffMax       backoff cap, in milliseconds
+     * @param deadline         time budget of a call including retries, in milliseconds
+     * @param concurrencyLimit limit of concurrent calls
+     */
+    public AtlasRequestExecutor(final double permitsPerSecond,
+                                final int maxRetries,
+                                final long backoffBase,
+                                final long backoffMax,
+                                final long deadline,
+                                final AdaptiveConcurrencyLimit concurrencyLimit) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxRetries = maxRetries;
+        this.backoffBase = backoffBase;
+        this.backoffMax = backoffMax;
+        this.deadline = deadline;
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * Invoke an Atlas API call, retrying it while Atlas throttles or fails.
+     * <p>
+     * The returned response belongs to the caller, which must close it.
+     *
+     * @param groupId    Atlas group the call targets
+     * @param invocation call to execute; invoked once per attempt
+     * @return the first response which is neither throttled nor a server error,
+     *         or the last one once retries are exhausted
+     * @throws AtlasServiceException when the deadline passes or the call cannot be made
+     */
+    public Response execute(final String groupId, final Invocation invocation) throws AtlasServiceException {
+        return execute(groupId, invocation, true);
+    }
+
+    /**
+     * Invoke an Atlas API call, retrying it while Atlas throttles or fails.
+     * <p>
+     * The returned response belongs to the caller, which must close it.
+     *
+     * @param groupId    Atlas group the call targets
+     * @param invocation call to execute; invoked once per attempt
+     * @param idempotent whether the call may be repeated after Atlas may have received it
+     * @return the first response which is neither throttled nor a server error,
+     *         or the last one once retries are exhausted
+     * @throws AtlasServiceException when the deadline passes or the call cannot be made
+     */
+    public Response execute(final String groupId,
+                            final Invocation invocation,
+                            final boolean idempotent) throws AtlasServiceException {
+        final long callDeadline = System.currentTimeMillis() + deadline;
+        final RateLimiter rateLimiter = rateLimiter(groupId);
+
+        for (int attempt = 0; ; attempt++) {
+            final long remaining = callDeadline - System.currentTimeMillis();
+            if (remaining <= 0 || !rateLimiter.tryAcquire(remaining, TimeUnit.MILLISECONDS)) {
+                throw new AtlasServiceException("Atlas API call deadline exceeded for group " + groupId);
+            }
+            final AdaptiveConcurrencyLimit.Permit permit = acquire(callDeadline, groupId);
+
+            final Response response;
+            try {
+                response = invocation.invoke();
+            } catch (ProcessingException e) {
+                permit.onThrottled();
+                if (attempt >= maxRetries || !(idempotent || isUnsent(e))) {
+                    throw new AtlasServiceException("Atlas API call failed for group " + groupId + ": " + e.getMessage());
+                }
+                logger.debug("Atlas API call failed for group {}, attempt {}", groupId, attempt + 1, e);
+                sleepUntilRetry(backoff(attempt), callDeadline, groupId);
+                continue;
+            } catch (RuntimeException e) {
+                permit.onIgnored();
+                throw e;
+            }
+
+            if (!isRetryable(response.getStatus())) {
+                permit.onSuccess();
+                return response;
+            }
+            permit.onThrottled();
+            final long retryAfter = retryAfter(response);
+            if (attempt >= maxRetries) {
+                return response;
+            }
+            logger.debug("Atlas API returned {} for group {}, attempt {}", response.getStatus(), groupId, attempt + 1);
+            close(response);
+
+            sleepUntilRetry(retryAfter >= 0 ? retryAfter : backoff(attempt), callDeadline, groupId);
+        }
+    }
+
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    static boolean isRetryable(final int status) {
+        return status == TOO_MANY_REQUESTS || status >= 500;
+    }
+
+    /**
+     * Whether a call failed before its request could reach Atlas
+     *
+     * @param failure
+     * @return true when no connection could be made
+     */
+    static boolean isUnsent(final Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException
+                    || cause instanceof ConnectTimeoutException
+                    || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exponential backoff with full jitter
+     */
+    long backoff(final int attempt) {
+        final long ceiling = Math.min(backoffMax, backoffBase << Math.min(attempt, 30));
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    /**
+     * Delay requested through Retry-After, either in seconds or as an HTTP date
+     *
+     * @return delay in milliseconds or -1 when absent or unreadable
+     */
+    static long retryAfter(final Response response) {
+        return retryAfter(response.getHeaderString(HttpHeaders.RETRY_AFTER));
+    }
+
+    /**
+     * Delay requested by a Retry-After header value
+     *
+     * @return delay in milliseconds or -1 when absent or unreadable
+     */
+    static long retryAfter(final String value) {
+        if (value == null) {
+            return -1;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            final Date date = DateUtils.parseDate(value.trim());
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    RateLimiter rateLimiter(final String groupId) {
+        RateLimiter rateLimiter = rateLimiters.get(groupId);
+        if (rateLimiter == null) {
+            rateLimiter = RateLimiter.create(permitsPerSecond);
+            final RateLimiter existing = rateLimiters.putIfAbsent(groupId, rateLimiter);
+            if (existing != null) {
+                rateLimiter = existing;
+            }
+        }
+        return rateLimiter;
+    }
+
+    private AdaptiveConcurrencyLimit.Permit acquire(final long callDeadline, final String groupId) {
+        try {
+            final AdaptiveConcurrencyLimit.Permit permit = concurrencyLimit.acquire(callDeadline);
+            if (permit == null) {
+                throw new AtlasServiceException("Atlas API call deadline exceeded for group " + groupId);
+            }
+            return permit;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AtlasServiceException("Interrupted waiting for the Atlas API");
+        }
+    }
+
+    /**
+     * Close a response which is retried, its slot already released
+     */
+    private void close(final Response response) {
+        try {
+            response.close();
+        } catch (ProcessingException e) {
+            logger.debug("Failed to close a retried Atlas API response", e);
+        }
+    }
+
+    private void sleepUntilRetry(final long delay, final long callDeadline, final String groupId) {
+        if (System.currentTimeMillis() + delay >= callDeadline) {
+            throw new AtlasServiceException("Atlas API call deadline exceeded for group " + groupId);
+        }
+
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AtlasServiceException("Interrupted waiting for the Atlas API");
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * Writes databaseUsers payloads straight into the request entity stream.
+ * <p>
+ * NOTE:
+ *   Uses the Jackson streaming generator without data binding, so a payload
+ *   costs no intermediate string and is escaped properly whatever the
+ *   password holds. Field names are encoded once and generators share the
+ *   factory's per-thread recycled buffers.
+ *
+ * @author ipolyzos
+ */
+@Produces(MediaType.APPLICATION_JSON)
+public class DatabaseUserWriter implements MessageBodyWriter<DatabaseUser> {
+
+    /**
+     * Database the users authenticate against
+     */
+    private static final String AUTHENTICATION_DB = "admin";
+
+    private static final SerializedString DATABASE_NAME = new SerializedString("databaseName");
+    private static final SerializedString COLLECTION_NAME = new SerializedString("collectionName");
+    private static final SerializedString ROLE_NAME = new SerializedString("roleName");
+    private static final SerializedString ROLES = new SerializedString("roles");
+    private static final SerializedString SCOPES = new SerializedString("scopes");
+    private static final SerializedString NAME = new SerializedString("name");
+    private static final SerializedString TYPE = new SerializedString("type");
+    private static final SerializedString DELETE_AFTER_DATE = new SerializedString("deleteAfterDate");
+    private static final SerializedString USERNAME = new SerializedString("username");
+    private static final SerializedString PASSWORD = new SerializedString("password");
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final ThreadLocal<DateFormat> ISO_8601 = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            final DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+    };
+
+    @Override
+    public boolean isWriteable(final Class<?> type,
+                               final Type genericType,
+                               final Annotation[] annotations,
+                               final MediaType mediaType) {
+        return DatabaseUser.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(final DatabaseUser user,
+                        final Class<?> type,
+                        final Type genericType,
+                        final Annotation[] annotations,
+                        final MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(final DatabaseUser user,
+                        final Class<?> type,
+                        final Type genericType,
+                        final Annotation[] annotations,
+                        final MediaType mediaType,
+                        final MultivaluedMap<String, Object> httpHeaders,
+                        final OutputStream entityStream) throws IOException {
+        write(user, entityStream);
+    }
+
+    /**
+     * Write the JSON payload of a user, leaving the stream open
+     *
+     * @param user
+     * @param out
+     * @throws IOException
+     */
+    public static void write(final DatabaseUser user, final OutputStream out) throws IOException {
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            field(json, DATABASE_NAME, AUTHENTICATION_DB);
+
+            json.writeFieldName(ROLES);
+            json.writeStartArray();
+            for (DatabaseUser.Role role : user.getRoles()) {
+                json.writeStartObject();
+                field(json, DATABASE_NAME, role.getDatabaseName());
+                if (role.getCollectionName() != null) {
+                    field(json, COLLECTION_NAME, role.getCollectionName());
+                }
+                field(json, ROLE_NAME, role.getRoleName());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+
+            if (!user.getScopes().isEmpty()) {
+                json.writeFieldName(SCOPES);
+                json.writeStartArray();
+                for (DatabaseUser.Scope scope : user.getScopes()) {
+                    json.writeStartObject();
+                    field(json, NAME, scope.getName());
+                    field(json, TYPE, scope.getType());
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+
+            if (user.getDeleteAfterDate() != null) {
+                field(json, DELETE_AFTER_DATE, ISO_8601.get().format(user.getDeleteAfterDate()));
+            }
+
+            field(json, USERNAME, user.getUsername());
+            if (user.getPassword() != null) {
+                field(json, PASSWORD, user.getPassword());
+            }
+            json.writeEndObject();
+        }
+    }
+
+    private static void field(final JsonGenerator json,
+                              final SerializedString name,
+                              final String value) throws IOException {
+        json.writeFieldName(name);
+        json.writeString(value);
+    }
+}
@@ -0,0 +1,380 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP Digest authentication (RFC 2617) sending credentials preemptively.
+ * <p>
+ * NOTE:
+ *   The realm and nonce of the last challenge are cached per host, so that
+ *   subsequent requests, whatever their URI, carry the Authorization header
+ *   up front with an incrementing nonce count. A challenge round trip only
+ *   happens for the first request to a host or when the server rejects the
+ *   cached nonce (e.g. reports it as stale).
+ *
+ * @author ipolyzos
+ */
+public class DigestAuthenticationFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    private Logger logger = LoggerFactory.getLogger(DigestAuthenticationFilter.class);
+
+    private static final String PREEMPTIVE_PROPERTY = DigestAuthenticationFilter.class.getName() + ".preemptive";
+
+    private static final String RETRY_PROPERTY = DigestAuthenticationFilter.class.getName() + ".retry";
+
+    private static final Pattern CHALLENGE_PARAMETER = Pattern.compile("(\\w+)\\s*=\\s*(?:\"([^\"]*)\"|([^,\\s]*))");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String username;
+
+    private final String password;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Last challenge received, per scheme, host and port
+     */
+    private final ConcurrentMap<String, Challenge> challenges = new ConcurrentHashMap<>();
+
+    private final AtomicLong challengeHits = new AtomicLong();
+
+    private final AtomicLong challengeMisses = new AtomicLong();
+
+    public DigestAuthenticationFilter(final String username, final String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    @Override
+    public void filter(final ClientRequestContext request) {
+        if (request.getHeaders().containsKey(HttpHeaders.AUTHORIZATION)) {
+            return;
+        }
+
+        final String authorization = authorize(request.getMethod(), request.getUri());
+        if (authorization != null) {
+            request.getHeaders().add(HttpHeaders.AUTHORIZATION, authorization);
+            request.setProperty(PREEMPTIVE_PROPERTY, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void filter(final ClientRequestContext request, final ClientResponseContext response) {
+        final boolean preemptive = request.getProperty(PREEMPTIVE_PROPERTY) != null;
+        if (response.getStatus() != Response.Status.UNAUTHORIZED.getStatusCode()) {
+            accepted(preemptive);
+            return;
+        }
+
+        // never answer the challenge of a request that already answered one
+        if (request.getProperty(RETRY_PROPERTY) != null) {
+            return;
+        }
+
+        final String authorization = answer(request.getMethod(), request.getUri(),
+                response.getHeaders().get(HttpHeaders.WWW_AUTHENTICATE), preemptive);
+        if (authorization != null) {
+            repeatRequest(request, response, authorization);
+        }
+    }
+
+    /**
+     * Authorization header to send up front, for clients other than Jersey
+     *
+     * @param method
+     * @param uri
+     * @return the header or null when no challenge of the host is cached
+     */
+    public String authorize(final String method, final URI uri) {
+        final Challenge challenge = challenges.get(hostKey(uri));
+        return challenge == null ? null : authorization(challenge, method, uri);
+    }
+
+    /**
+     * Record a response other than 401
+     *
+     * @param preemptive whether the request carried a cached authorization
+     */
+    public void accepted(final boolean preemptive) {
+        if (preemptive) {
+            challengeHits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Cache the challenge of a 401 response and answer it
+     *
+     * @param method
+     * @param uri
+     * @param wwwAuthenticate WWW-Authenticate header values
+     * @param preemptive whether the request carried a cached authorization
+     * @return the Authorization header to repeat the request with, or null
+     *         when the response holds no digest challenge
+     */
+    public String answer(final String method,
+                         final URI uri,
+                         final List<String> wwwAuthenticate,
+                         final boolean preemptive) {
+        final Challenge challenge = parseChallenge(wwwAuthenticate);
+        if (challenge == null) {
+            return null;
+        }
+
+        if (preemptive && !challenge.stale) {
+            logger.debug("Cached digest nonce rejected by {}", uri.getHost());
+        }
+
+        challengeMisses.incrementAndGet();
+        challenges.put(hostKey(uri), challenge);
+        return authorization(challenge, method, uri);
+    }
+
+    /**
+     * Requests authenticated with a cached nonce, without a challenge round trip
+     *
+     * @return
+     */
+    public long getChallengeHits() {
+        return challengeHits.get();
+    }
+
+    /**
+     * Requests which had to answer a 401 challenge
+     *
+     * @return
+     */
+    public long getChallengeMisses() {
+        return challengeMisses.get();
+    }
+
+    /**
+     * Resend the request with the given Authorization header and copy the
+     * outcome into the original response.
+     */
+    private void repeatRequest(final ClientRequestContext request,
+                               final ClientResponseContext response,
+                               final String authorization) {
+        final Invocation.Builder builder = request.getClient().target(request.getUri()).request();
+
+        final MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>(request.getHeaders());
+        headers.putSingle(HttpHeaders.AUTHORIZATION, authorization);
+        builder.headers(headers);
+        builder.property(RETRY_PROPERTY, Boolean.TRUE);
+
+        final Invocation invocation = request.getEntity() == null
+                ? builder.build(request.getMethod())
+                : builder.build(request.getMethod(),
+                        Entity.entity(request.getEntity(), request.getMediaType()));
+        // the challenge holds its pooled connection until its entity is closed, which the retry may need
+        closeEntity(response);
+        final Response retried = invocation.invoke();
+
+        if (retried.hasEntity()) {
+            // closed along with the original response
+            response.setEntityStream(retried.readEntity(InputStream.class));
+        } else {
+            retried.close();
+        }
+        final MultivaluedMap<String, String> responseHeaders = response.getHeaders();
+        responseHeaders.clear();
+        for (final Map.Entry<String, List<String>> header : retried.getStringHeaders().entrySet()) {
+            responseHeaders.put(header.getKey(), header.getValue());
+        }
+        response.setStatus(retried.getStatus());
+    }
+
+    /**
+     * Close the entity of a response being replaced, releasing its connection
+     */
+    private void closeEntity(final ClientResponseContext response) {
+        final InputStream entity = response.getEntityStream();
+        if (entity == null) {
+            return;
+        }
+        try {
+            entity.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close the entity of a digest challenge", e);
+        }
+    }
+
+    /**
+     * Build the Authorization header answering the challenge
+     */
+    private String authorization(final Challenge challenge, final String method, final URI uri) {
+        final String digestUri = uri.getRawQuery() == null
+                ? uri.getRawPath()
+                : uri.getRawPath() + '?' + uri.getRawQuery();
+        final String cnonce = randomHex(8);
+        final String nc = String.format("%08x", challenge.nonceCount.incrementAndGet());
+
+        final StringBuilder header = new StringBuilder(256)
+                .append("Digest username=\"").append(username)
+                .append("\", realm=\"").append(challenge.realm)
+                .append("\", nonce=\"").append(challenge.nonce)
+                .append("\", uri=\"").append(digestUri)
+                .append("\", response=\"")
+                .append(digestResponse(username, password, challenge.realm, challenge.nonce, challenge.algorithm,
+                        challenge.qop, nc, cnonce, method, digestUri))
+                .append('"');
+        if (challenge.algorithm != null) {
+            header.append(", algorithm=").append(challenge.algorithm);
+        }
+        if (challenge.opaque != null) {
+            header.append(", opaque=\"").append(challenge.opaque).append('"');
+        }
+        if (challenge.qop != null) {
+            header.append(", qop=").append(challenge.qop)
+                    .append(", nc=").append(nc)
+                    .append(", cnonce=\"").append(cnonce).append('"');
+        }
+        return header.toString();
+    }
+
+    /**
+     * Compute the request-digest of RFC 2617 section 3.2.2.1
+     */
+    static String digestResponse(final String username, final String password,
+                                 final String realm, final String nonce, final String algorithm,
+                                 final String qop, final String nc, final String cnonce,
+                                 final String method, final String digestUri) {
+        String ha1 = md5(username + ':' + realm + ':' + password);
+        if ("MD5-sess".equalsIgnoreCase(algorithm)) {
+            ha1 = md5(ha1 + ':' + nonce + ':' + cnonce);
+        }
+        final String ha2 = md5(method + ':' + digestUri);
+
+        return qop == null
+                ? md5(ha1 + ':' + nonce + ':' + ha2)
+                : md5(ha1 + ':' + nonce + ':' + nc + ':' + cnonce + ':' + qop + ':' + ha2);
+    }
+
+    /**
+     * Parse the first Digest challenge of the WWW-Authenticate headers
+     */
+    private static Challenge parseChallenge(final List<String> headers) {
+        if (headers == null) {
+            return null;
+        }
+
+        for (final String header : headers) {
+            final String value = header.trim();
+            if (!value.regionMatches(true, 0, "Digest ", 0, 7)) {
+                continue;
+            }
+
+            final Map<String, String> parameters = new HashMap<>();
+            final Matcher matcher = CHALLENGE_PARAMETER.matcher(value.substring(7));
+            while (matcher.find()) {
+                parameters.put(matcher.group(1).toLowerCase(Locale.ROOT),
+                        matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+            }
+
+            if (parameters.get("nonce") != null) {
+                return new Challenge(parameters.get("realm"),
+                        parameters.get("nonce"),
+                        parameters.get("opaque"),
+                        parameters.get("algorithm"),
+                        selectQop(parameters.get("qop")),
+                        Boolean.parseBoolean(parameters.get("stale")));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pick "auth" out of the offered qop options; auth-int is not supported
+     */
+    private static String selectQop(final String qop) {
+        if (qop == null) {
+            return null;
+        }
+        for (final String option : qop.split(",")) {
+            if ("auth".equalsIgnoreCase(option.trim())) {
+                return "auth";
+            }
+        }
+        return null;
+    }
+
+    private static String hostKey(final URI uri) {
+        return uri.getScheme() + "://" + uri.getHost() + ':' + uri.getPort();
+    }
+
+    private String randomHex(final int bytes) {
+        final byte[] value = new byte[bytes];
+        random.nextBytes(value);
+        return toHex(value);
+    }
+
+    private static String md5(final String value) {
+        try {
+            return toHex(MessageDigest.getInstance("MD5").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported by this JVM", e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Digest challenge parameters and the nonce count used against them
+     */
+    private static final class Challenge {
+
+        private final String realm;
+        private final String nonce;
+        private final String opaque;
+        private final String algorithm;
+        private final String qop;
+        private final boolean stale;
+        private final AtomicInteger nonceCount = new AtomicInteger();
+
+        private Challenge(final String realm, final String nonce, final String opaque,
+                          final String algorithm, final String qop, final boolean stale) {
+            this.realm = realm;
+            this.nonce = nonce;
+            this.opaque = opaque;
+            this.algorithm = algorithm;
+            this.qop = qop;
+            this.stale = stale;
+        }
+    }
+}
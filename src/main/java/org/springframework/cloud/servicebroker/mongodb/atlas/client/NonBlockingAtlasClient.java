@@ -0,0 +1,234 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of the Jersey client and AtlasRequestExecutor.
+ * <p>
+ * NOTE:
+ *   Calls run on the I/O reactor of an Apache HttpAsyncClient and hold no
+ *   thread while waiting for Atlas. They share the rate limits, adaptive
+ *   concurrency limit, retry policy and digest challenges of the blocking
+ *   path; waits for a permit, a slot or a retry are scheduled on a timer
+ *   instead of sleeping.
+ *
+ * @author ipolyzos
+ */
+public class NonBlockingAtlasClient {
+
+    private Logger logger = LoggerFactory.getLogger(NonBlockingAtlasClient.class);
+
+    /**
+     * Delay before trying again for a rate permit or a concurrency slot, in milliseconds
+     */
+    private static final long POLL_INTERVAL = 10;
+
+    private final CloseableHttpAsyncClient httpClient;
+
+    private final AtlasRequestExecutor policy;
+
+    private final DigestAuthenticationFilter authentication;
+
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param httpClient     started asynchronous HTTP client
+     * @param policy         executor whose limits and retry policy calls share
+     * @param authentication digest authentication whose challenges calls share
+     * @param timer          scheduler of waits and retries
+     */
+    public NonBlockingAtlasClient(final CloseableHttpAsyncClient httpClient,
+                                  final AtlasRequestExecutor policy,
+                                  final DigestAuthenticationFilter authentication,
+                                  final ScheduledExecutorService timer) {
+        this.httpClient = httpClient;
+        this.policy = policy;
+        this.authentication = authentication;
+        this.timer = timer;
+    }
+
+    /**
+     * Start an Atlas API call, retrying it while Atlas throttles or fails.
+     * <p>
+     * The request is sent once per attempt, so its entity must be repeatable.
+     * A POST is only retried unanswered when it never reached Atlas.
+     *
+     * @param groupId Atlas group the call targets
+     * @param request call to execute
+     * @return the first response which is neither throttled nor a server error,
+     *         or the last one once retries are exhausted; fails with
+     *         AtlasServiceException when the deadline passes or the call cannot be made
+     */
+    public ListenableFuture<HttpResponse> execute(final String groupId, final HttpRequestBase request) {
+        final Call call = new Call(groupId, request, System.currentTimeMillis() + policy.getDeadline());
+        call.run();
+        return call.result;
+    }
+
+    /**
+     * State of one call across its attempts
+     */
+    private final class Call implements Runnable, FutureCallback<HttpResponse> {
+
+        private final SettableFuture<HttpResponse> result = SettableFuture.create();
+
+        private final String groupId;
+
+        private final HttpRequestBase request;
+
+        private final long deadline;
+
+        private int attempt;
+
+        private boolean preemptive;
+
+        private boolean challenged;
+
+        /**
+         * Concurrency slot of the attempt in flight
+         */
+        private AdaptiveConcurrencyLimit.Permit permit;
+
+        private Call(final String groupId, final HttpRequestBase request, final long deadline) {
+            this.groupId = groupId;
+            this.request = request;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Send the next attempt once a concurrency slot and a rate permit are free
+         */
+        @Override
+        public void run() {
+            if (System.currentTimeMillis() >= deadline) {
+                result.setException(new AtlasServiceException("Atlas API call deadline exceeded for group " + groupId));
+                return;
+            }
+
+            permit = policy.getConcurrencyLimit().tryAcquire();
+            if (permit == null) {
+                schedule(POLL_INTERVAL);
+                return;
+            }
+            if (!policy.rateLimiter(groupId).tryAcquire()) {
+                permit.onIgnored();
+                schedule(POLL_INTERVAL);
+                return;
+            }
+
+            final String authorization = authentication.authorize(request.getMethod(), request.getURI());
+            preemptive = authorization != null && !challenged;
+            if (authorization != null) {
+                request.setHeader(HttpHeaders.AUTHORIZATION, authorization);
+            }
+
+            try {
+                httpClient.execute(request, this);
+            } catch (RuntimeException e) {
+                permit.onIgnored();
+                result.setException(e);
+            }
+        }
+
+        @Override
+        public void completed(final HttpResponse response) {
+            final int status = response.getStatusLine().getStatusCode();
+
+            if (status == HttpStatus.SC_UNAUTHORIZED && !challenged) {
+                permit.onIgnored();
+                if (authentication.answer(request.getMethod(), request.getURI(),
+                        headerValues(response, HttpHeaders.WWW_AUTHENTICATE), preemptive) != null) {
+                    // the challenge is now cached and answered by the next attempt
+                    challenged = true;
+                    run();
+                } else {
+                    result.set(response);
+                }
+                return;
+            }
+            authentication.accepted(preemptive);
+
+            if (!AtlasRequestExecutor.isRetryable(status)) {
+                permit.onSuccess();
+                result.set(response);
+                return;
+            }
+
+            permit.onThrottled();
+            if (attempt >= policy.getMaxRetries()) {
+                result.set(response);
+                return;
+            }
+
+            logger.debug("Atlas API returned {} for group {}, attempt {}", status, groupId, attempt + 1);
+            final Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+            final long delay = AtlasRequestExecutor.retryAfter(retryAfter == null ? null : retryAfter.getValue());
+            retry(delay >= 0 ? delay : policy.backoff(attempt));
+        }
+
+        @Override
+        public void failed(final Exception e) {
+            permit.onThrottled();
+            // a POST Atlas may have received is not repeated
+            if (attempt >= policy.getMaxRetries()
+                    || (HttpPost.METHOD_NAME.equals(request.getMethod()) && !AtlasRequestExecutor.isUnsent(e))) {
+                result.setException(new AtlasServiceException("Atlas API call failed for group " + groupId + ": " + e.getMessage()));
+                return;
+            }
+
+            logger.debug("Atlas API call failed for group {}, attempt {}", groupId, attempt + 1, e);
+            retry(policy.backoff(attempt));
+        }
+
+        @Override
+        public void cancelled() {
+            permit.onIgnored();
+            result.cancel(false);
+        }
+
+        private void retry(final long delay) {
+            if (System.currentTimeMillis() + delay >= deadline) {
+                result.setException(new AtlasServiceException("Atlas API call deadline exceeded for group " + groupId));
+                return;
+            }
+
+            attempt++;
+            challenged = false;
+            schedule(delay);
+        }
+
+        private void schedule(final long delay) {
+            try {
+                timer.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                result.setException(e);
+            }
+        }
+    }
+
+    private static List<String> headerValues(final HttpResponse response, final String name) {
+        final Header[] headers = response.getHeaders(name);
+        final List<String> values = new ArrayList<>(headers.length);
+        for (final Header header : headers) {
+            values.add(header.getValue());
+        }
+        return values;
+    }
+}
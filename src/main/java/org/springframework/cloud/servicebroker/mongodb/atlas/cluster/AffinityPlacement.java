@@ -0,0 +1,43 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Places instances of an organization or space on the clusters reserved for it.
+ * <p>
+ * NOTE:
+ *   Instances without a reserved cluster go to the clusters reserved for
+ *   nobody, or to any cluster when every one is reserved. The delegate
+ *   strategy chooses among the clusters left.
+ *
+ * @author ipolyzos
+ */
+public class AffinityPlacement implements PlacementStrategy {
+
+    private final PlacementStrategy delegate;
+
+    public AffinityPlacement(final PlacementStrategy delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public AtlasCluster place(final ServiceInstance instance, final List<AtlasCluster> candidates) {
+        final List<AtlasCluster> reserved = new ArrayList<>();
+        final List<AtlasCluster> shared = new ArrayList<>();
+        for (final AtlasCluster cluster : candidates) {
+            if (!cluster.hasAffinity()) {
+                shared.add(cluster);
+            } else if (instance != null && cluster.hasAffinity(instance.getOrganizationGuid(), instance.getSpaceGuid())) {
+                reserved.add(cluster);
+            }
+        }
+
+        if (!reserved.isEmpty()) {
+            return delegate.place(instance, reserved);
+        }
+        return delegate.place(instance, shared.isEmpty() ? candidates : shared);
+    }
+}
@@ -0,0 +1,205 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import com.mongodb.MongoClient;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanDefinition;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.ConnectionStringTemplate;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An Atlas cluster hosting service instance databases.
+ * <p>
+ * NOTE:
+ *   Besides its client and the connection string template of its bindings,
+ *   a cluster carries the load figures placement strategies compare: the
+ *   number of databases and their storage size, as last sampled by the
+ *   ClusterRegistry. Databases placed since the last sample are counted
+ *   right away so that a burst of requests does not land on one cluster.
+ *
+ *   A cluster of a given tier only takes instances of plans of that tier,
+ *   or of no tier, and a dedicated one only those of dedicated plans.
+ *
+ * @author ipolyzos
+ */
+public class AtlasCluster {
+
+    private final String id;
+
+    private final String endpoint;
+
+    private final String groupId;
+
+    private final MongoClient mongoClient;
+
+    private final ConnectionStringTemplate connectionStringTemplate;
+
+    private int weight = 1;
+
+    private Set<String> organizations = Collections.emptySet();
+
+    private Set<String> spaces = Collections.emptySet();
+
+    private String tier;
+
+    private boolean dedicated;
+
+    private final AtomicLong databases = new AtomicLong();
+
+    private volatile long storageSize;
+
+    /**
+     * @param id          identifier recorded on the instances placed on the cluster
+     * @param endpoint    connection string of the cluster
+     * @param groupId     Atlas group (project) of the cluster
+     * @param mongoClient client connected to the endpoint
+     */
+    public AtlasCluster(final String id,
+                        final String endpoint,
+                        final String groupId,
+                        final MongoClient mongoClient) {
+        this.id = id;
+        this.endpoint = endpoint;
+        this.groupId = groupId;
+        this.mongoClient = mongoClient;
+        this.connectionStringTemplate = new ConnectionStringTemplate(endpoint);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public MongoClient getMongoClient() {
+        return mongoClient;
+    }
+
+    public ConnectionStringTemplate getConnectionStringTemplate() {
+        return connectionStringTemplate;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Whether the cluster takes new service instances; a weight of 0 drains it
+     *
+     * @return
+     */
+    public boolean isPlaceable() {
+        return weight > 0;
+    }
+
+    /**
+     * Whether the cluster is reserved for some organizations or spaces
+     *
+     * @return
+     */
+    public boolean hasAffinity() {
+        return !organizations.isEmpty() || !spaces.isEmpty();
+    }
+
+    /**
+     * Whether the cluster is reserved for the organization or the space
+     *
+     * @param organizationGuid
+     * @param spaceGuid
+     * @return
+     */
+    public boolean hasAffinity(final String organizationGuid, final String spaceGuid) {
+        return (organizationGuid != null && organizations.contains(organizationGuid))
+                || (spaceGuid != null && spaces.contains(spaceGuid));
+    }
+
+    public String getTier() {
+        return tier;
+    }
+
+    public boolean isDedicated() {
+        return dedicated;
+    }
+
+    /**
+     * Whether the cluster suits instances of the plan
+     *
+     * @param plan plan of the instance, null for a warm pool database or a plan no longer in the catalog
+     * @return
+     */
+    public boolean serves(final PlanDefinition plan) {
+        if (plan == null) {
+            return !dedicated;
+        }
+        return plan.isDedicated() == dedicated && (plan.getTier() == null || plan.getTier().equals(tier));
+    }
+
+    /**
+     * Databases on the cluster, including those placed since the last sample
+     *
+     * @return
+     */
+    public long getDatabases() {
+        return databases.get();
+    }
+
+    /**
+     * Storage size of the cluster's databases at the last sample, in bytes
+     *
+     * @return
+     */
+    public long getStorageSize() {
+        return storageSize;
+    }
+
+    /**
+     * Record a sample of the cluster's load
+     *
+     * @param databases
+     * @param storageSize
+     */
+    public void sampled(final long databases, final long storageSize) {
+        this.databases.set(databases);
+        this.storageSize = storageSize;
+    }
+
+    /**
+     * Count a database placed on the cluster ahead of the next sample
+     */
+    public void placed() {
+        databases.incrementAndGet();
+    }
+
+    public AtlasCluster withWeight(final int weight) {
+        this.weight = weight;
+        return this;
+    }
+
+    public AtlasCluster withOrganizations(final Set<String> organizations) {
+        this.organizations = organizations == null ? Collections.<String>emptySet() : new HashSet<>(organizations);
+        return this;
+    }
+
+    public AtlasCluster withTier(final String tier) {
+        this.tier = tier;
+        return this;
+    }
+
+    public AtlasCluster withDedicated(final boolean dedicated) {
+        this.dedicated = dedicated;
+        return this;
+    }
+
+    public AtlasCluster withSpaces(final Set<String> spaces) {
+        this.spaces = spaces == null ? Collections.<String>emptySet() : new HashSet<>(spaces);
+        return this;
+    }
+}
@@ -0,0 +1,84 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Set;
+
+/**
+ * An additional cluster, as listed in ATLAS_CLUSTERS:
+ * <pre>
+ * [{"id": "cluster1", "endpoint": "mongodb://...", "groupId": "...", "weight": 2,
+ *   "organizations": ["org-guid"], "spaces": ["space-guid"], "tier": "M10", "dedicated": false}]
+ * </pre>
+ * Only id and endpoint are required; the group defaults to ATLAS_GROUPID.
+ *
+ * @author ipolyzos
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ClusterDefinition {
+
+    @JsonProperty("id")
+    private String id;
+
+    @JsonProperty("endpoint")
+    private String endpoint;
+
+    @JsonProperty("groupId")
+    private String groupId;
+
+    @JsonProperty("weight")
+    private int weight = 1;
+
+    @JsonProperty("organizations")
+    private Set<String> organizations;
+
+    @JsonProperty("spaces")
+    private Set<String> spaces;
+
+    @JsonProperty("tier")
+    private String tier;
+
+    @JsonProperty("dedicated")
+    private boolean dedicated;
+
+    @SuppressWarnings("unused")
+    private ClusterDefinition() {}
+
+    public ClusterDefinition(String id, String endpoint) {
+        this.id = id;
+        this.endpoint = endpoint;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public Set<String> getOrganizations() {
+        return organizations;
+    }
+
+    public Set<String> getSpaces() {
+        return spaces;
+    }
+
+    public String getTier() {
+        return tier;
+    }
+
+    public boolean isDedicated() {
+        return dedicated;
+    }
+}
@@ -0,0 +1,158 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanDefinition;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Atlas clusters service instance databases are spread across.
+ * <p>
+ * NOTE:
+ *   The first cluster is the default one, at ATLAS_ENDPOINT, which also
+ *   holds the broker's own collections and owns every instance created
+ *   before placement was introduced. New instances are placed by the
+ *   configured PlacementStrategy among the clusters of non-zero weight,
+ *   and every operation on an instance is routed to the cluster recorded
+ *   on it, so capacity grows by adding clusters.
+ *
+ *   The load figures strategies compare are sampled in the background
+ *   with one listDatabases command per cluster.
+ *
+ * @author ipolyzos
+ */
+public class ClusterRegistry {
+
+    private Logger logger = LoggerFactory.getLogger(ClusterRegistry.class);
+
+    private final Map<String, AtlasCluster> clusters = new LinkedHashMap<>();
+
+    private final AtlasCluster defaultCluster;
+
+    private final PlacementStrategy placementStrategy;
+
+    /**
+     * @param clusters          clusters, the default one first
+     * @param placementStrategy
+     */
+    public ClusterRegistry(final List<AtlasCluster> clusters, final PlacementStrategy placementStrategy) {
+        for (final AtlasCluster cluster : clusters) {
+            if (this.clusters.put(cluster.getId(), cluster) != null) {
+                throw new IllegalArgumentException("Duplicate Atlas cluster id " + cluster.getId());
+            }
+        }
+        this.defaultCluster = clusters.get(0);
+        this.placementStrategy = placementStrategy;
+    }
+
+    /**
+     * Registry of a single cluster
+     *
+     * @param cluster
+     */
+    public ClusterRegistry(final AtlasCluster cluster) {
+        this(Collections.singletonList(cluster), new LeastDatabasesPlacement());
+    }
+
+    public AtlasCluster getDefault() {
+        return defaultCluster;
+    }
+
+    public List<AtlasCluster> getClusters() {
+        return new ArrayList<>(clusters.values());
+    }
+
+    /**
+     * Cluster owning an instance
+     *
+     * @param clusterId cluster recorded on the instance, null for the default one
+     * @return
+     * @throws ServiceBrokerException when the cluster is no longer configured
+     */
+    public AtlasCluster get(final String clusterId) {
+        if (clusterId == null) {
+            return defaultCluster;
+        }
+
+        final AtlasCluster cluster = clusters.get(clusterId);
+        if (cluster == null) {
+            throw new ServiceBrokerException("Unknown Atlas cluster: " + clusterId);
+        }
+        return cluster;
+    }
+
+    /**
+     * Choose the cluster of a new instance database among the shared clusters
+     *
+     * @param instance instance being created, or null for a warm pool database
+     * @return
+     * @throws ServiceBrokerException when every shared cluster is drained
+     */
+    public AtlasCluster place(final ServiceInstance instance) {
+        return place(instance, null);
+    }
+
+    /**
+     * Choose the cluster of a new instance database among the clusters serving its plan
+     *
+     * @param instance instance being created, or null for a warm pool database
+     * @param plan     plan of the instance, null for a warm pool database or a plan no longer in the catalog
+     * @return
+     * @throws ServiceBrokerException when every cluster serving the plan is drained
+     */
+    public AtlasCluster place(final ServiceInstance instance, final PlanDefinition plan) {
+        final List<AtlasCluster> candidates = new ArrayList<>(clusters.size());
+        for (final AtlasCluster cluster : clusters.values()) {
+            if (cluster.isPlaceable() && cluster.serves(plan)) {
+                candidates.add(cluster);
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new ServiceBrokerException(plan == null
+                    ? "No Atlas cluster takes new service instances"
+                    : "No Atlas cluster takes new service instances of plan " + plan.getId());
+        }
+
+        final AtlasCluster cluster = placementStrategy.place(instance, candidates);
+        cluster.placed();
+        return cluster;
+    }
+
+    /**
+     * Sample the database count and storage size of every cluster
+     */
+    @Scheduled(fixedDelayString = "${ATLAS_CLUSTER_SAMPLE_INTERVAL_MS:60000}")
+    public void sample() {
+        for (final AtlasCluster cluster : clusters.values()) {
+            try {
+                final Document result = cluster.getMongoClient().getDatabase("admin")
+                        .runCommand(new Document("listDatabases", 1));
+                final List<?> databases = (List<?>) result.get("databases");
+                final Number totalSize = (Number) result.get("totalSize");
+                cluster.sampled(databases == null ? 0 : databases.size(), totalSize == null ? 0 : totalSize.longValue());
+            } catch (RuntimeException e) {
+                logger.warn("Failed to sample the load of Atlas cluster {}", cluster.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Close the clients of the additional clusters; the default client is a bean of its own
+     */
+    public void close() {
+        for (final AtlasCluster cluster : clusters.values()) {
+            if (cluster != defaultCluster) {
+                cluster.getMongoClient().close();
+            }
+        }
+    }
+}
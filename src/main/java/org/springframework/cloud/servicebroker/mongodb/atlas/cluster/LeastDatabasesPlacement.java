@@ -0,0 +1,27 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+
+import java.util.List;
+
+/**
+ * Places instances on the cluster holding the fewest databases per unit of weight.
+ *
+ * @author ipolyzos
+ */
+public class LeastDatabasesPlacement implements PlacementStrategy {
+
+    @Override
+    public AtlasCluster place(final ServiceInstance instance, final List<AtlasCluster> candidates) {
+        AtlasCluster chosen = null;
+        double lowest = Double.MAX_VALUE;
+        for (final AtlasCluster cluster : candidates) {
+            final double load = (double) cluster.getDatabases() / cluster.getWeight();
+            if (load < lowest) {
+                chosen = cluster;
+                lowest = load;
+            }
+        }
+        return chosen;
+    }
+}
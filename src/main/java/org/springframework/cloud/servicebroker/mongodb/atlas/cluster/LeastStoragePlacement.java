@@ -0,0 +1,31 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+
+import java.util.List;
+
+/**
+ * Places instances on the cluster using the least storage per unit of weight.
+ * <p>
+ * NOTE:
+ *   Storage is only known as of the last sample, therefore ties and
+ *   clusters within the same storage are broken by their database count.
+ *
+ * @author ipolyzos
+ */
+public class LeastStoragePlacement implements PlacementStrategy {
+
+    @Override
+    public AtlasCluster place(final ServiceInstance instance, final List<AtlasCluster> candidates) {
+        AtlasCluster chosen = null;
+        double lowest = Double.MAX_VALUE;
+        for (final AtlasCluster cluster : candidates) {
+            final double load = (double) cluster.getStorageSize() / cluster.getWeight();
+            if (chosen == null || load < lowest || (load == lowest && cluster.getDatabases() < chosen.getDatabases())) {
+                chosen = cluster;
+                lowest = load;
+            }
+        }
+        return chosen;
+    }
+}
@@ -0,0 +1,22 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+
+import java.util.List;
+
+/**
+ * Chooses the Atlas cluster a new service instance database is created on.
+ *
+ * @author ipolyzos
+ */
+public interface PlacementStrategy {
+
+    /**
+     * Choose a cluster for the instance
+     *
+     * @param instance   instance being created, or null for a warm pool database
+     * @param candidates clusters taking new instances, never empty
+     * @return one of the candidates
+     */
+    AtlasCluster place(ServiceInstance instance, List<AtlasCluster> candidates);
+}
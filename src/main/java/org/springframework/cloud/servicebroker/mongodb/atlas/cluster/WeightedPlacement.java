@@ -0,0 +1,31 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Places instances on a random cluster, each chosen in proportion to its weight.
+ *
+ * @author ipolyzos
+ */
+public class WeightedPlacement implements PlacementStrategy {
+
+    @Override
+    public AtlasCluster place(final ServiceInstance instance, final List<AtlasCluster> candidates) {
+        int total = 0;
+        for (final AtlasCluster cluster : candidates) {
+            total += cluster.getWeight();
+        }
+
+        int pick = ThreadLocalRandom.current().nextInt(total);
+        for (final AtlasCluster cluster : candidates) {
+            pick -= cluster.getWeight();
+            if (pick < 0) {
+                return cluster;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+}
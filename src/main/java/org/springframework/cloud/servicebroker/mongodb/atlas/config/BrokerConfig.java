@@ -1,19 +1,52 @@
 package org.springframework.cloud.servicebroker.mongodb.atlas.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoClientURI;
-import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.AdaptiveConcurrencyLimit;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.AtlasRequestExecutor;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.DatabaseUserWriter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.DigestAuthenticationFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AffinityPlacement;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterDefinition;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.LeastDatabasesPlacement;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.LeastStoragePlacement;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.PlacementStrategy;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.WeightedPlacement;
+import org.springframework.cloud.servicebroker.mongodb.atlas.metrics.AtlasApiMetricsFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.metrics.MongoMetricsListener;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.AtlasApiTracingFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.MongoTracingListener;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.Tracer;
+import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
+@EnableCaching
+@EnableScheduling
 @EnableMongoRepositories(basePackages = "org.springframework.cloud.servicebroker.mongodb.atlas.repository")
 public class BrokerConfig {
 
@@ -23,6 +56,21 @@ public class BrokerConfig {
 	@Value("${ATLAS_GROUPID}")
 	private String groupId;
 
+	@Value("${ATLAS_CLUSTER_ID:default}")
+	private String clusterId;
+
+	@Value("${ATLAS_CLUSTER_WEIGHT:1}")
+	private int clusterWeight;
+
+	@Value("${ATLAS_CLUSTER_TIER:}")
+	private String clusterTier;
+
+	@Value("${ATLAS_CLUSTERS:}")
+	private String additionalClusters;
+
+	@Value("${ATLAS_PLACEMENT_STRATEGY:least-databases}")
+	private String placementStrategy;
+
 	@Value("${ATLAS_API_USER}")
 	private String apiUser;
 
@@ -32,32 +80,307 @@ public class BrokerConfig {
 	@Value("${ATLAS_API_BASE}")
 	private String apiBase;
 
+	@Value("${ATLAS_API_MAX_CONNECTIONS:50}")
+	private int apiMaxConnections;
+
+	@Value("${ATLAS_API_MAX_CONNECTIONS_PER_ROUTE:20}")
+	private int apiMaxConnectionsPerRoute;
+
+	@Value("${ATLAS_API_CONNECT_TIMEOUT_MS:5000}")
+	private int apiConnectTimeout;
+
+	@Value("${ATLAS_API_READ_TIMEOUT_MS:30000}")
+	private int apiReadTimeout;
+
+	@Value("${ATLAS_API_IDLE_TIMEOUT_MS:60000}")
+	private long apiIdleTimeout;
+
+	@Value("${ATLAS_API_REQUESTS_PER_SECOND:10}")
+	private double apiRequestsPerSecond;
+
+	@Value("${ATLAS_API_MAX_RETRIES:5}")
+	private int apiMaxRetries;
+
+	@Value("${ATLAS_API_BACKOFF_BASE_MS:200}")
+	private long apiBackoffBase;
+
+	@Value("${ATLAS_API_BACKOFF_MAX_MS:10000}")
+	private long apiBackoffMax;
+
+	@Value("${ATLAS_API_DEADLINE_MS:60000}")
+	private long apiDeadline;
+
+	@Value("${ATLAS_API_CONCURRENCY_INITIAL:10}")
+	private int apiConcurrencyInitial;
+
+	@Value("${ATLAS_API_CONCURRENCY_MIN:1}")
+	private int apiConcurrencyMin;
+
+	@Value("${ATLAS_API_CONCURRENCY_MAX:50}")
+	private int apiConcurrencyMax;
+
+	@Value("${ATLAS_PROVISIONING_THREADS:8}")
+	private int provisioningThreads;
+
+	@Value("${ATLAS_PROVISIONING_QUEUE_CAPACITY:500}")
+	private int provisioningQueueCapacity;
+
+	@Value("${ATLAS_VIRTUAL_THREADS:false}")
+	private boolean virtualThreads;
+
+	@Value("${ATLAS_VIRTUAL_PROVISIONING_THREADS:1000}")
+	private int virtualProvisioningThreads;
+
+	@Value("${ATLAS_QUOTA_PARALLELISM:4}")
+	private int quotaParallelism;
+
+	@Value("${ATLAS_RECONCILE_PARALLELISM:4}")
+	private int reconcileParallelism;
+
+	@Value("${ATLAS_CASCADE_PARALLELISM:16}")
+	private int cascadeParallelism;
+
 	/**
 	 * Build a MongoDB Client
 	 *
+	 * @param metricsListener records command and connection pool metrics
+	 * @param tracingListener records command spans
 	 * @return
 	 * @throws UnknownHostException
 	 */
 	@Bean
-	public MongoClient mongoClient() throws UnknownHostException {
-		MongoClientURI uri = new MongoClientURI(endpoint);
-		return new MongoClient(uri);
+	public MongoClient mongoClient(final MongoMetricsListener metricsListener,
+								   final MongoTracingListener tracingListener) throws UnknownHostException {
+		return mongoClient(endpoint, metricsListener, tracingListener);
+	}
+
+	/**
+	 * Build the registry of the clusters instances are placed on: the
+	 * ATLAS_ENDPOINT cluster followed by those listed in ATLAS_CLUSTERS
+	 *
+	 * @param mongoClient client of the ATLAS_ENDPOINT cluster
+	 * @param metricsListener records command and connection pool metrics
+	 * @param tracingListener records command spans
+	 * @return ClusterRegistry
+	 * @throws IOException when ATLAS_CLUSTERS is malformed
+	 */
+	@Bean(destroyMethod = "close")
+	public ClusterRegistry clusterRegistry(final MongoClient mongoClient,
+										   final MongoMetricsListener metricsListener,
+										   final MongoTracingListener tracingListener) throws IOException {
+		final List<AtlasCluster> clusters = new ArrayList<>();
+		clusters.add(new AtlasCluster(clusterId, endpoint, groupId, mongoClient)
+				.withWeight(clusterWeight)
+				.withTier(clusterTier.isEmpty() ? null : clusterTier));
+
+		if (!additionalClusters.trim().isEmpty()) {
+			for (final ClusterDefinition definition : new ObjectMapper().readValue(additionalClusters, ClusterDefinition[].class)) {
+				clusters.add(new AtlasCluster(definition.getId(),
+						definition.getEndpoint(),
+						definition.getGroupId() == null ? groupId : definition.getGroupId(),
+						mongoClient(definition.getEndpoint(), metricsListener, tracingListener))
+						.withWeight(definition.getWeight())
+						.withOrganizations(definition.getOrganizations())
+						.withSpaces(definition.getSpaces())
+						.withTier(definition.getTier())
+						.withDedicated(definition.isDedicated()));
+			}
+		}
+
+		return new ClusterRegistry(clusters, placementStrategy());
+	}
+
+	/**
+	 * Build the placement strategy named by ATLAS_PLACEMENT_STRATEGY
+	 *
+	 * @return PlacementStrategy
+	 */
+	@Bean
+	public PlacementStrategy placementStrategy() {
+		switch (placementStrategy) {
+			case "least-databases":
+				return new LeastDatabasesPlacement();
+			case "least-storage":
+				return new LeastStoragePlacement();
+			case "weighted":
+				return new WeightedPlacement();
+			case "affinity":
+				return new AffinityPlacement(new LeastDatabasesPlacement());
+			default:
+				throw new IllegalArgumentException("Unknown ATLAS_PLACEMENT_STRATEGY: " + placementStrategy);
+		}
+	}
+
+	/**
+	 * Build the pool of keep-alive connections to the Atlas API
+	 *
+	 * @return PoolingHttpClientConnectionManager
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public PoolingHttpClientConnectionManager atlasConnectionManager() {
+		final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(apiMaxConnections);
+		connectionManager.setDefaultMaxPerRoute(apiMaxConnectionsPerRoute);
+
+		return connectionManager;
+	}
+
+	/**
+	 * Build the preemptive digest authentication of Atlas API calls
+	 *
+	 * @return DigestAuthenticationFilter
+	 */
+	@Bean
+	public DigestAuthenticationFilter atlasDigestAuthentication() {
+		return new DigestAuthenticationFilter(apiUser, apiKey);
 	}
 
 	/**
-	 * Build a jersey http client instance
+	 * Build a jersey http client instance backed by the pooled connector
 	 *
+	 * @param metricsFilter records Atlas API call metrics
+	 * @param tracingFilter records Atlas API call spans
 	 * @return Client
 	 */
 	@Bean
-	public Client restClient(){
-		final HttpAuthenticationFeature digestFeature = HttpAuthenticationFeature.digest(apiUser, apiKey);
-		final Client client = ClientBuilder.newClient();
-		client.register(digestFeature);
+	public Client restClient(final AtlasApiMetricsFilter metricsFilter,
+							 final AtlasApiTracingFilter tracingFilter){
+		final ClientConfig clientConfig = new ClientConfig()
+				.connectorProvider(new ApacheConnectorProvider())
+				.property(ApacheClientProperties.CONNECTION_MANAGER, atlasConnectionManager())
+				.property(ClientProperties.CONNECT_TIMEOUT, apiConnectTimeout)
+				.property(ClientProperties.READ_TIMEOUT, apiReadTimeout);
+
+		final Client client = ClientBuilder.newClient(clientConfig);
+		client.register(atlasDigestAuthentication());
+		client.register(new DatabaseUserWriter());
+		client.register(metricsFilter);
+		client.register(tracingFilter);
 
 		return client;
 	}
 
+	/**
+	 * Build the rate limiting and retrying executor shared by all Atlas API calls
+	 *
+	 * @return AtlasRequestExecutor
+	 */
+	@Bean
+	public AtlasRequestExecutor atlasRequestExecutor() {
+		return new AtlasRequestExecutor(apiRequestsPerSecond,
+				apiMaxRetries,
+				apiBackoffBase,
+				apiBackoffMax,
+				apiDeadline,
+				new AdaptiveConcurrencyLimit(apiConcurrencyInitial, apiConcurrencyMin, apiConcurrencyMax));
+	}
+
+	/**
+	 * Evict expired and idle connections from the Atlas API pool
+	 */
+	@Scheduled(fixedDelayString = "${ATLAS_API_IDLE_EVICTION_INTERVAL_MS:30000}")
+	public void evictIdleConnections() {
+		final PoolingHttpClientConnectionManager connectionManager = atlasConnectionManager();
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(apiIdleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Build the bounded worker pool executing asynchronous provisioning
+	 * operations. Submissions beyond the queue capacity are rejected.
+	 * <p>
+	 * With virtual threads the pool holds up to ATLAS_VIRTUAL_PROVISIONING_THREADS
+	 * of them, started on demand, instead of ATLAS_PROVISIONING_THREADS platform threads.
+	 *
+	 * @param tracer carries the trace of the request over to its operation
+	 * @return ThreadPoolTaskExecutor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor provisioningExecutor(final Tracer tracer) {
+		final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setTaskDecorator(tracer);
+		if (virtualThreads) {
+			executor.setThreadFactory(VirtualThreads.factory("atlas-provisioning-"));
+			executor.setCorePoolSize(virtualProvisioningThreads);
+			executor.setMaxPoolSize(virtualProvisioningThreads);
+			executor.setAllowCoreThreadTimeOut(true);
+		} else {
+			executor.setCorePoolSize(provisioningThreads);
+			executor.setMaxPoolSize(provisioningThreads);
+			executor.setThreadNamePrefix("atlas-provisioning-");
+		}
+		executor.setQueueCapacity(provisioningQueueCapacity);
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+
+		return executor;
+	}
+
+	/**
+	 * Build a MongoDB Client of a cluster
+	 *
+	 * @param endpoint
+	 * @param metricsListener
+	 * @param tracingListener
+	 * @return
+	 * @throws UnknownHostException
+	 */
+	private static MongoClient mongoClient(final String endpoint,
+										   final MongoMetricsListener metricsListener,
+										   final MongoTracingListener tracingListener) throws UnknownHostException {
+		MongoClientURI uri = new MongoClientURI(endpoint, MongoClientOptions.builder()
+				.addCommandListener(metricsListener)
+				.addCommandListener(tracingListener)
+				.addConnectionPoolListener(metricsListener));
+		return new MongoClient(uri);
+	}
+
+	/**
+	 * Build the pool running the commands of quota samples
+	 *
+	 * @return ThreadPoolTaskExecutor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor quotaExecutor() {
+		final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(quotaParallelism);
+		executor.setMaxPoolSize(quotaParallelism);
+		executor.setThreadNamePrefix("atlas-quota-");
+
+		return executor;
+	}
+
+	/**
+	 * Build the pool removing the orphans found by the reconciler
+	 *
+	 * @return ThreadPoolTaskExecutor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor reconcileExecutor() {
+		final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(reconcileParallelism);
+		executor.setMaxPoolSize(reconcileParallelism);
+		executor.setThreadNamePrefix("atlas-reconcile-");
+
+		return executor;
+	}
+
+	/**
+	 * Build the pool deleting the bindings of deleted instances
+	 *
+	 * @param tracer carries the trace of the deletion over to the workers
+	 * @return ThreadPoolTaskExecutor
+	 */
+	@Bean
+	public ThreadPoolTaskExecutor cascadeExecutor(final Tracer tracer) {
+		final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setTaskDecorator(tracer);
+		executor.setCorePoolSize(cascadeParallelism);
+		executor.setMaxPoolSize(cascadeParallelism);
+		executor.setThreadNamePrefix("atlas-cascade-");
+
+		return executor;
+	}
+
 	public String getEndpoint() {
 		return endpoint;
 	}
@@ -1,74 +1,52 @@
 package org.springframework.cloud.servicebroker.mongodb.atlas.config;
 
-import org.springframework.cloud.servicebroker.model.Catalog;
-import org.springframework.cloud.servicebroker.model.Plan;
-import org.springframework.cloud.servicebroker.model.ServiceDefinition;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.CatalogFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanCatalogService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.quota.QuotaLimits;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.util.*;
+import java.io.IOException;
 
 @Configuration
 public class CatalogConfig {
 
-    @Bean
-    public Catalog catalog() {
-        return new Catalog(Collections.singletonList(
-                new ServiceDefinition(
-                        "mongodb-atlas-broker",
-                        "mongodb-atlas",
-                        "MongoDB Atlas Service Broker",
-                        true,
-                        true,
-                        Collections.singletonList(
-                                new Plan("default-mongodb-atlas-plan",
-                                        "default",
-                                        "This is a default mongo plan. All services are created equally.",
-                                        getPlanMetadata())),
-                        Arrays.asList("mongodb-atlas", "document"),
-                        getServiceDefinitionMetadata(),
-                        null,
-                        null)));
-    }
-
-    /* Used by CF Console */
-	
-    private Map<String, Object> getServiceDefinitionMetadata() {
-        Map<String, Object> sdMetadata = new HashMap<>();
-        sdMetadata.put("displayName", "MongoDB");
-        sdMetadata.put("imageUrl", "http://info.mongodb.com/rs/mongodb/images/MongoDB_Logo_Full.png");
-        sdMetadata.put("longDescription", "MongoDB Altas Service");
-        sdMetadata.put("providerDisplayName", "MongoDB");
-        sdMetadata.put("documentationUrl", "https://docs.atlas.mongodb.com");
-        sdMetadata.put("supportUrl", "https://www.mongodb.com/contact?jmp=footer");
-        return sdMetadata;
-    }
+    @Value("${ATLAS_PLANS:}")
+    private String plans;
 
-    private Map<String, Object> getPlanMetadata() {
-        Map<String, Object> planMetadata = new HashMap<>();
-        planMetadata.put("costs", getCosts());
-        planMetadata.put("bullets", getBullets());
+    @Value("${ATLAS_PLANS_FILE:}")
+    private String plansFile;
 
-        return planMetadata;
-    }
-
-    private List<Map<String, Object>> getCosts() {
-        Map<String, Object> costsMap = new HashMap<>();
+    @Value("${ATLAS_QUOTA_ENABLED:false}")
+    private boolean quotaEnabled;
 
-        Map<String, Object> amount = new HashMap<>();
-        amount.put("USD", 0.0);
+    @Value("${ATLAS_QUOTA_STORAGE_MB:100}")
+    private long quotaStorageMb;
 
-        costsMap.put("amount", amount);
-        costsMap.put("unit", "MONTHLY");
+    @Value("${ATLAS_QUOTA_CONNECTIONS:50}")
+    private int quotaConnections;
 
-        List costMapList = Collections.singletonList(costsMap);
-        return costMapList;
+    /**
+     * Catalog of the configured plans; takes the place of the service broker's BeanCatalogService
+     *
+     * @param objectMapper
+     * @return
+     * @throws IOException when ATLAS_PLANS or ATLAS_PLANS_FILE is malformed
+     */
+    @Bean
+    public PlanCatalogService catalogService(final ObjectMapper objectMapper) throws IOException {
+        return new PlanCatalogService(objectMapper, plans, plansFile,
+                new QuotaLimits(quotaStorageMb, quotaConnections), quotaEnabled);
     }
 
-    private List<String> getBullets() {
-        return Arrays.asList("Shared MongoDB Cluster",
-                "100 MB Storage (not enforced)",
-                "50 concurrent connections (not enforced)");
+    @Bean
+    public FilterRegistrationBean catalogFilter(final PlanCatalogService catalogService) {
+        final FilterRegistrationBean registration = new FilterRegistrationBean(new CatalogFilter(catalogService));
+        registration.addUrlPatterns("/v2/catalog");
+        return registration;
     }
 
 }
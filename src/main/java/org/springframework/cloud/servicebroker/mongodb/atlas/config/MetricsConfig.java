@@ -0,0 +1,66 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.config;
+
+import com.codahale.metrics.MetricRegistry;
+import io.prometheus.client.dropwizard.DropwizardExports;
+import io.prometheus.client.spring.boot.EnablePrometheusEndpoint;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.CacheManager;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.AtlasRequestExecutor;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.DigestAuthenticationFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.metrics.AtlasApiMetricsFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.metrics.BrokerGauges;
+import org.springframework.cloud.servicebroker.mongodb.atlas.metrics.MongoMetricsListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Metrics of broker operations, Atlas API calls and MongoDB commands.
+ * <p>
+ * NOTE:
+ *   Metrics live in the Dropwizard registry auto-configured by Spring Boot,
+ *   which the actuator serves under /metrics, and are exported in the
+ *   Prometheus format under /prometheus.
+ *
+ * @author ipolyzos
+ */
+@Configuration
+@EnablePrometheusEndpoint
+public class MetricsConfig {
+
+	@Bean
+	public MongoMetricsListener mongoMetricsListener(final MetricRegistry metricRegistry) {
+		return new MongoMetricsListener(metricRegistry);
+	}
+
+	@Bean
+	public AtlasApiMetricsFilter atlasApiMetricsFilter(final MetricRegistry metricRegistry) {
+		return new AtlasApiMetricsFilter(metricRegistry);
+	}
+
+	@Bean
+	public BrokerGauges brokerGauges(final MetricRegistry metricRegistry,
+									 final PoolingHttpClientConnectionManager atlasConnectionManager,
+									 final AtlasRequestExecutor atlasRequestExecutor,
+									 final DigestAuthenticationFilter atlasDigestAuthentication,
+									 @Qualifier("provisioningExecutor") final ThreadPoolTaskExecutor provisioningExecutor,
+									 final CacheManager cacheManager,
+									 final ClusterRegistry clusterRegistry) {
+		final BrokerGauges gauges = new BrokerGauges(atlasConnectionManager,
+				atlasRequestExecutor,
+				atlasDigestAuthentication,
+				provisioningExecutor,
+				cacheManager,
+				clusterRegistry);
+		metricRegistry.registerAll(gauges);
+
+		return gauges;
+	}
+
+	@Bean
+	public DropwizardExports prometheusDropwizardExports(final MetricRegistry metricRegistry) {
+		return new DropwizardExports(metricRegistry).register();
+	}
+}
@@ -0,0 +1,149 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.config;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.ConnectionString;
+import com.mongodb.async.client.MongoClient;
+import com.mongodb.async.client.MongoClientSettings;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.connection.ClusterSettings;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.connection.SocketSettings;
+import com.mongodb.connection.SslSettings;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.AtlasRequestExecutor;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.DigestAuthenticationFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.NonBlockingAtlasClient;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.metrics.MongoMetricsListener;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.MongoTracingListener;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.NonBlockingAtlasAdminService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Clients of the non-blocking provisioning mode, enabled by
+ * ATLAS_NON_BLOCKING_PROVISIONING.
+ * <p>
+ * NOTE:
+ *   Asynchronous create and delete operations then wait for MongoDB and
+ *   the Atlas API on a few event loop threads instead of occupying a
+ *   provisioning worker each. The Atlas client shares the rate limits,
+ *   concurrency limit and digest challenges of the blocking client.
+ *
+ * @author ipolyzos
+ */
+@Configuration
+@ConditionalOnProperty(name = "ATLAS_NON_BLOCKING_PROVISIONING", havingValue = "true")
+public class NonBlockingConfig {
+
+	@Value("${ATLAS_EVENT_LOOP_THREADS:2}")
+	private int eventLoopThreads;
+
+	@Value("${ATLAS_API_MAX_CONNECTIONS:50}")
+	private int apiMaxConnections;
+
+	@Value("${ATLAS_API_MAX_CONNECTIONS_PER_ROUTE:20}")
+	private int apiMaxConnectionsPerRoute;
+
+	@Value("${ATLAS_API_CONNECT_TIMEOUT_MS:5000}")
+	private int apiConnectTimeout;
+
+	@Value("${ATLAS_API_READ_TIMEOUT_MS:30000}")
+	private int apiReadTimeout;
+
+	/**
+	 * Build the asynchronous Atlas API HTTP client on its own I/O reactor
+	 *
+	 * @return started CloseableHttpAsyncClient
+	 */
+	@Bean(destroyMethod = "close")
+	public CloseableHttpAsyncClient atlasAsyncHttpClient() {
+		final CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+				.setDefaultIOReactorConfig(IOReactorConfig.custom()
+						.setIoThreadCount(eventLoopThreads)
+						.setConnectTimeout(apiConnectTimeout)
+						.setSoTimeout(apiReadTimeout)
+						.build())
+				.setThreadFactory(new ThreadFactoryBuilder().setNameFormat("atlas-event-loop-%d").build())
+				.setMaxConnTotal(apiMaxConnections)
+				.setMaxConnPerRoute(apiMaxConnectionsPerRoute)
+				.build();
+		client.start();
+
+		return client;
+	}
+
+	/**
+	 * Build the timer of Atlas API waits and retries
+	 *
+	 * @return
+	 */
+	@Bean(destroyMethod = "shutdownNow")
+	public ScheduledExecutorService atlasRetryTimer() {
+		return Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("atlas-retry-timer").setDaemon(true).build());
+	}
+
+	@Bean
+	public NonBlockingAtlasClient nonBlockingAtlasClient(final AtlasRequestExecutor atlasRequestExecutor,
+														 final DigestAuthenticationFilter atlasDigestAuthentication) {
+		return new NonBlockingAtlasClient(atlasAsyncHttpClient(), atlasRequestExecutor,
+				atlasDigestAuthentication, atlasRetryTimer());
+	}
+
+	/**
+	 * Build the non-blocking admin service with an asynchronous MongoDB client per cluster
+	 *
+	 * @param clusterRegistry
+	 * @param nonBlockingAtlasClient
+	 * @param metricsListener records command metrics
+	 * @param tracingListener records command spans
+	 * @return
+	 */
+	@Bean(destroyMethod = "close")
+	public NonBlockingAtlasAdminService nonBlockingAtlasAdminService(final ClusterRegistry clusterRegistry,
+																	 final NonBlockingAtlasClient nonBlockingAtlasClient,
+																	 final MongoMetricsListener metricsListener,
+																	 final MongoTracingListener tracingListener) {
+		final Map<String, MongoClient> mongoClients = new HashMap<>();
+		for (final AtlasCluster cluster : clusterRegistry.getClusters()) {
+			mongoClients.put(cluster.getId(), asyncMongoClient(cluster.getEndpoint(), metricsListener, tracingListener));
+		}
+		return new NonBlockingAtlasAdminService(clusterRegistry, mongoClients, nonBlockingAtlasClient);
+	}
+
+	/**
+	 * Build the asynchronous MongoDB client of a cluster
+	 *
+	 * @param endpoint
+	 * @param metricsListener
+	 * @param tracingListener
+	 * @return
+	 */
+	private static MongoClient asyncMongoClient(final String endpoint,
+												final MongoMetricsListener metricsListener,
+												final MongoTracingListener tracingListener) {
+		final ConnectionString connectionString = new ConnectionString(endpoint);
+		final MongoClientSettings.Builder settings = MongoClientSettings.builder()
+				.clusterSettings(ClusterSettings.builder().applyConnectionString(connectionString).build())
+				.connectionPoolSettings(ConnectionPoolSettings.builder().applyConnectionString(connectionString).build())
+				.socketSettings(SocketSettings.builder().applyConnectionString(connectionString).build())
+				.sslSettings(SslSettings.builder().applyConnectionString(connectionString).build())
+				.addCommandListener(metricsListener)
+				.addCommandListener(tracingListener);
+		if (connectionString.getCredential() != null) {
+			settings.credential(connectionString.getCredential());
+		}
+		return MongoClients.create(settings.build());
+	}
+}
@@ -0,0 +1,51 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.config;
+
+import com.codahale.metrics.MetricRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.startup.ConnectionWarmer;
+import org.springframework.cloud.servicebroker.mongodb.atlas.startup.StartupReport;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.ws.rs.client.Client;
+
+/**
+ * Startup of the broker: the time-to-first-request report and, with
+ * ATLAS_FAST_START, the warm-up of the connection pools in the background.
+ *
+ * @author ipolyzos
+ */
+@Configuration
+public class StartupConfig {
+
+	@Value("${ATLAS_WARM_UP_MONGO_CONNECTIONS:4}")
+	private int warmUpMongoConnections;
+
+	@Value("${ATLAS_WARM_UP_API_CONNECTIONS:2}")
+	private int warmUpApiConnections;
+
+	@Bean
+	public StartupReport startupReport(final MetricRegistry metricRegistry) {
+		return new StartupReport(metricRegistry);
+	}
+
+	@Bean
+	public FilterRegistrationBean startupReportFilter(final StartupReport startupReport) {
+		final FilterRegistrationBean registration = new FilterRegistrationBean(startupReport);
+		registration.addUrlPatterns("/v2/*");
+		return registration;
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "ATLAS_FAST_START", havingValue = "true")
+	public ConnectionWarmer connectionWarmer(final ClusterRegistry clusterRegistry,
+											 final Client restClient,
+											 final BrokerConfig brokerConfig,
+											 final StartupReport startupReport) {
+		return new ConnectionWarmer(clusterRegistry, restClient, brokerConfig.getApiBase(),
+				warmUpMongoConnections, warmUpApiConnections, startupReport);
+	}
+}
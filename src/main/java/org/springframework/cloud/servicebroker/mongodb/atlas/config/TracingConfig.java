@@ -0,0 +1,64 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.config;
+
+import com.codahale.metrics.MetricRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.AtlasApiTracingFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.FileSpanExporter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.MongoTracingListener;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.Tracer;
+import org.springframework.cloud.servicebroker.mongodb.atlas.tracing.TracingFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import java.io.IOException;
+
+/**
+ * Tracing of broker requests down to their Atlas API calls and MongoDB commands.
+ * <p>
+ * NOTE:
+ *   Tracing is enabled by ATLAS_TRACE_FILE, the file spans are written to
+ *   in the OTLP JSON format, and samples ATLAS_TRACE_SAMPLE_RATE of the
+ *   requests not carrying a trace context of their own.
+ *
+ * @author ipolyzos
+ */
+@Configuration
+public class TracingConfig {
+
+	@Value("${ATLAS_TRACE_FILE:}")
+	private String traceFile;
+
+	@Value("${ATLAS_TRACE_SAMPLE_RATE:0.01}")
+	private double sampleRate;
+
+	@Value("${ATLAS_TRACE_QUEUE_CAPACITY:10000}")
+	private int queueCapacity;
+
+	@Bean(destroyMethod = "close")
+	public Tracer tracer(final MetricRegistry metricRegistry) throws IOException {
+		return new Tracer(sampleRate,
+				traceFile.isEmpty() ? null : new FileSpanExporter(traceFile, queueCapacity, metricRegistry));
+	}
+
+	@Bean
+	public FilterRegistrationBean tracingFilter(final Tracer tracer) {
+		final FilterRegistrationBean registration = new FilterRegistrationBean(new TracingFilter(tracer));
+		registration.addUrlPatterns("/v2/*");
+		// outermost, so that the span covers authentication as well
+		registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+
+		return registration;
+	}
+
+	@Bean
+	public MongoTracingListener mongoTracingListener(final Tracer tracer) {
+		return new MongoTracingListener(tracer);
+	}
+
+	@Bean
+	public AtlasApiTracingFilter atlasApiTracingFilter(final Tracer tracer) {
+		return new AtlasApiTracingFilter(tracer);
+	}
+}
@@ -0,0 +1,56 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 and later.
+ * <p>
+ * NOTE:
+ *   The broker still compiles for older JDKs, so the Thread.Builder API
+ *   is reached through reflection.
+ *
+ * @author ipolyzos
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Whether the running JVM provides virtual threads
+     *
+     * @return
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Factory of virtual threads named prefix0, prefix1, ...
+     *
+     * @param namePrefix
+     * @return
+     * @throws IllegalStateException when the JVM has no virtual threads
+     */
+    public static ThreadFactory factory(final String namePrefix) {
+        if (!isSupported()) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later, running on "
+                    + System.getProperty("java.version"));
+        }
+
+        try {
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create a virtual thread factory", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.config;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Broker request handling on virtual threads, enabled by ATLAS_VIRTUAL_THREADS.
+ * <p>
+ * NOTE:
+ *   Tomcat then starts a virtual thread per request instead of taking one
+ *   of its maxThreads platform threads, so requests blocked on MongoDB or
+ *   the Atlas API are bounded by server.tomcat.max-connections only.
+ *   The provisioning executor switches to virtual threads as well, see
+ *   BrokerConfig. Requires Java 21 or later; startup fails otherwise.
+ *
+ * @author ipolyzos
+ */
+@Configuration
+@ConditionalOnProperty(name = "ATLAS_VIRTUAL_THREADS", havingValue = "true")
+public class VirtualThreadsConfig {
+
+	private Logger logger = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+	@Bean
+	public EmbeddedServletContainerCustomizer virtualThreadsContainerCustomizer() {
+		final ThreadFactory threadFactory = VirtualThreads.factory("http-virtual-");
+		final Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				threadFactory.newThread(command).start();
+			}
+		};
+
+		return new EmbeddedServletContainerCustomizer() {
+			@Override
+			public void customize(ConfigurableEmbeddedServletContainer container) {
+				if (!(container instanceof TomcatEmbeddedServletContainerFactory)) {
+					logger.warn("Virtual threads are only supported on Tomcat, keeping the container thread pool");
+					return;
+				}
+
+				((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(new TomcatConnectorCustomizer() {
+					@Override
+					public void customize(Connector connector) {
+						final ProtocolHandler protocolHandler = connector.getProtocolHandler();
+						if (protocolHandler instanceof AbstractProtocol) {
+							((AbstractProtocol<?>) protocolHandler).setExecutor(executor);
+							logger.info("Handling {} requests on virtual threads", connector.getScheme());
+						}
+					}
+				});
+			}
+		};
+	}
+}
@@ -0,0 +1,60 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.exception;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ConcurrencyErrorMessage;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reports a ServiceInstanceConcurrencyException as a 422 ConcurrencyError.
+ * <p>
+ * NOTE:
+ *   The broker controllers handle every other exception themselves, so
+ *   this resolver runs ahead of their exception handlers.
+ *
+ * @author ipolyzos
+ */
+@Component
+public class ConcurrencyExceptionResolver implements HandlerExceptionResolver, Ordered {
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ConcurrencyExceptionResolver(final ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public ModelAndView resolveException(final HttpServletRequest request,
+                                         final HttpServletResponse response,
+                                         final Object handler,
+                                         final Exception ex) {
+        if (!(ex instanceof ServiceInstanceConcurrencyException)) {
+            return null;
+        }
+
+        try {
+            response.setStatus(HttpStatus.UNPROCESSABLE_ENTITY.value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(), new ConcurrencyErrorMessage(ex.getMessage()));
+        } catch (IOException e) {
+            // left to the controller exception handlers
+            return null;
+        }
+        return new ModelAndView();
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
@@ -0,0 +1,22 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.exception;
+
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+
+/**
+ * Exception thrown when a request arrives while an asynchronous operation
+ * of its service instance is in progress.
+ * NOTE: reported to the platform as a 422 ConcurrencyError, which it
+ * retries once the operation completed.
+ *
+ * @author ipolyzos
+ */
+public class ServiceInstanceConcurrencyException extends ServiceBrokerException {
+
+	private static final long serialVersionUID = -2947391745285463110L;
+
+	public ServiceInstanceConcurrencyException(String serviceInstanceId, ServiceInstanceOperation.Type type) {
+		super("Operation " + type + " is in progress on service instance " + serviceInstanceId + ", retry later");
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every HTTP exchange with the Atlas API.
+ * <p>
+ * NOTE:
+ *   Records an "atlas.api.[method]" timer and an "atlas.api.status.[code]"
+ *   meter per exchange. The filter runs closest to the wire, before the
+ *   digest authentication filter reacts to the response, so that digest
+ *   challenges show up as 401 exchanges of their own.
+ *
+ * @author ipolyzos
+ */
+@Priority(Priorities.USER + 1000)
+public class AtlasApiMetricsFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    private static final String START_PROPERTY = AtlasApiMetricsFilter.class.getName() + ".start";
+
+    private final MetricRegistry metricRegistry;
+
+    public AtlasApiMetricsFilter(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    @Override
+    public void filter(final ClientRequestContext request) {
+        request.setProperty(START_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(final ClientRequestContext request, final ClientResponseContext response) {
+        final Object start = request.getProperty(START_PROPERTY);
+        if (start == null) {
+            return;
+        }
+
+        metricRegistry.timer("atlas.api." + request.getMethod())
+                .update(System.nanoTime() - (Long) start, TimeUnit.NANOSECONDS);
+        metricRegistry.meter("atlas.api.status." + response.getStatus()).mark();
+    }
+}
@@ -0,0 +1,150 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.cache.Cache;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.cache.CacheManager;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.AtlasRequestExecutor;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.DigestAuthenticationFilter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Gauges sampling the broker's pools, limits and caches when read.
+ * <p>
+ * NOTE:
+ *   Nothing is recorded on the request path; every value is read from the
+ *   owning component only when the metrics are scraped.
+ *
+ * @author ipolyzos
+ */
+public class BrokerGauges implements MetricSet {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+
+    private final AtlasRequestExecutor requestExecutor;
+
+    private final DigestAuthenticationFilter digestAuthentication;
+
+    private final ThreadPoolTaskExecutor provisioningExecutor;
+
+    private final CacheManager cacheManager;
+
+    private final ClusterRegistry clusterRegistry;
+
+    public BrokerGauges(final PoolingHttpClientConnectionManager connectionManager,
+                        final AtlasRequestExecutor requestExecutor,
+                        final DigestAuthenticationFilter digestAuthentication,
+                        final ThreadPoolTaskExecutor provisioningExecutor,
+                        final CacheManager cacheManager,
+                        final ClusterRegistry clusterRegistry) {
+        this.connectionManager = connectionManager;
+        this.requestExecutor = requestExecutor;
+        this.digestAuthentication = digestAuthentication;
+        this.provisioningExecutor = provisioningExecutor;
+        this.cacheManager = cacheManager;
+        this.clusterRegistry = clusterRegistry;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        final Map<String, Metric> gauges = new HashMap<>();
+
+        gauges.put("atlas.api.pool.leased", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connectionManager.getTotalStats().getLeased();
+            }
+        });
+        gauges.put("atlas.api.pool.available", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connectionManager.getTotalStats().getAvailable();
+            }
+        });
+        gauges.put("atlas.api.pool.pending", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connectionManager.getTotalStats().getPending();
+            }
+        });
+        gauges.put("atlas.api.concurrency.limit", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return requestExecutor.getConcurrencyLimit().getLimit();
+            }
+        });
+        gauges.put("atlas.api.inflight", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return requestExecutor.getConcurrencyLimit().getInFlight();
+            }
+        });
+        gauges.put("atlas.api.digest.hits", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return digestAuthentication.getChallengeHits();
+            }
+        });
+        gauges.put("atlas.api.digest.misses", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return digestAuthentication.getChallengeMisses();
+            }
+        });
+        gauges.put("provisioning.active", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return provisioningExecutor.getActiveCount();
+            }
+        });
+        gauges.put("provisioning.queued", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return provisioningExecutor.getThreadPoolExecutor().getQueue().size();
+            }
+        });
+
+        for (final String cacheName : cacheManager.getCacheNames()) {
+            final Object nativeCache = cacheManager.getCache(cacheName).getNativeCache();
+            if (nativeCache instanceof Cache) {
+                final Cache<?, ?> cache = (Cache<?, ?>) nativeCache;
+                gauges.put("cache." + cacheName + ".hitratio", new Gauge<Double>() {
+                    @Override
+                    public Double getValue() {
+                        return cache.stats().hitRate();
+                    }
+                });
+                gauges.put("cache." + cacheName + ".size", new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return cache.size();
+                    }
+                });
+            }
+        }
+
+        for (final AtlasCluster cluster : clusterRegistry.getClusters()) {
+            gauges.put("cluster." + cluster.getId() + ".databases", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return cluster.getDatabases();
+                }
+            });
+            gauges.put("cluster." + cluster.getId() + ".storage", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return cluster.getStorageSize();
+                }
+            });
+        }
+
+        return gauges;
+    }
+}
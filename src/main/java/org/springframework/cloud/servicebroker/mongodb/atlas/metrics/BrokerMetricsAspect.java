@@ -0,0 +1,52 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every service broker operation.
+ * <p>
+ * NOTE:
+ *   Records a "broker.[method]" timer per ServiceInstanceService and
+ *   ServiceInstanceBindingService method, a "broker.[method].errors" meter
+ *   for failed calls and the "broker.requests.inflight" counter.
+ *
+ * @author ipolyzos
+ */
+@Aspect
+@Component
+public class BrokerMetricsAspect {
+
+    private final MetricRegistry metricRegistry;
+
+    private final Counter inFlight;
+
+    @Autowired
+    public BrokerMetricsAspect(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        this.inFlight = metricRegistry.counter("broker.requests.inflight");
+    }
+
+    @Around("execution(public * org.springframework.cloud.servicebroker.service.ServiceInstanceService.*(..))"
+            + " || execution(public * org.springframework.cloud.servicebroker.service.ServiceInstanceBindingService.*(..))")
+    public Object time(final ProceedingJoinPoint joinPoint) throws Throwable {
+        final String name = "broker." + joinPoint.getSignature().getName();
+        final Timer.Context context = metricRegistry.timer(name).time();
+        inFlight.inc();
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable t) {
+            metricRegistry.meter(name + ".errors").mark();
+            throw t;
+        } finally {
+            inFlight.dec();
+            context.stop();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionAddedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import com.mongodb.event.ConnectionPoolOpenedEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueEnteredEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueExitedEvent;
+import com.mongodb.event.ConnectionRemovedEvent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records MongoDB driver command and connection pool metrics.
+ * <p>
+ * NOTE:
+ *   - "mongodb.command.[name]" timer and "mongodb.command.[name].errors" meter
+ *   - "mongodb.pool.size", "mongodb.pool.checkedout" and "mongodb.pool.waitqueue"
+ *     counters, "mongodb.pool.wait" histogram of nanoseconds spent waiting
+ *     for a connection
+ *
+ *   Both listeners are invoked on the thread running the command, therefore
+ *   timers are looked up by command name only and the pool wait is tracked
+ *   through a thread local.
+ *
+ * @author ipolyzos
+ */
+public class MongoMetricsListener implements CommandListener, ConnectionPoolListener {
+
+    private final MetricRegistry metricRegistry;
+
+    private final ConcurrentMap<String, Timer> commandTimers = new ConcurrentHashMap<>();
+
+    private final Counter poolSize;
+
+    private final Counter checkedOut;
+
+    private final Counter waitQueue;
+
+    private final Histogram poolWait;
+
+    private final ThreadLocal<Long> waitStart = new ThreadLocal<>();
+
+    public MongoMetricsListener(final MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        this.poolSize = metricRegistry.counter("mongodb.pool.size");
+        this.checkedOut = metricRegistry.counter("mongodb.pool.checkedout");
+        this.waitQueue = metricRegistry.counter("mongodb.pool.waitqueue");
+        this.poolWait = metricRegistry.histogram("mongodb.pool.wait");
+    }
+
+    /* ********************************************************************* CommandListener */
+
+    @Override
+    public void commandStarted(final CommandStartedEvent event) {
+    }
+
+    @Override
+    public void commandSucceeded(final CommandSucceededEvent event) {
+        commandTimer(event.getCommandName()).update(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void commandFailed(final CommandFailedEvent event) {
+        commandTimer(event.getCommandName()).update(event.getElapsedTime(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        metricRegistry.meter("mongodb.command." + event.getCommandName() + ".errors").mark();
+    }
+
+    private Timer commandTimer(final String commandName) {
+        Timer timer = commandTimers.get(commandName);
+        if (timer == null) {
+            timer = metricRegistry.timer("mongodb.command." + commandName);
+            commandTimers.putIfAbsent(commandName, timer);
+        }
+        return timer;
+    }
+
+    /* ********************************************************************* ConnectionPoolListener */
+
+    @Override
+    public void connectionPoolOpened(final ConnectionPoolOpenedEvent event) {
+    }
+
+    @Override
+    public void connectionPoolClosed(final ConnectionPoolClosedEvent event) {
+    }
+
+    @Override
+    public void connectionCheckedOut(final ConnectionCheckedOutEvent event) {
+        checkedOut.inc();
+    }
+
+    @Override
+    public void connectionCheckedIn(final ConnectionCheckedInEvent event) {
+        checkedOut.dec();
+    }
+
+    @Override
+    public void waitQueueEntered(final ConnectionPoolWaitQueueEnteredEvent event) {
+        waitQueue.inc();
+        waitStart.set(System.nanoTime());
+    }
+
+    @Override
+    public void waitQueueExited(final ConnectionPoolWaitQueueExitedEvent event) {
+        waitQueue.dec();
+        final Long start = waitStart.get();
+        if (start != null) {
+            poolWait.update(System.nanoTime() - start);
+            waitStart.remove();
+        }
+    }
+
+    @Override
+    public void connectionAdded(final ConnectionAddedEvent event) {
+        poolSize.inc();
+    }
+
+    @Override
+    public void connectionRemoved(final ConnectionRemovedEvent event) {
+        poolSize.dec();
+    }
+}
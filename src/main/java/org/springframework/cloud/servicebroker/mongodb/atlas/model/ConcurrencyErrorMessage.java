@@ -0,0 +1,24 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.cloud.servicebroker.model.ErrorMessage;
+
+/**
+ * Error returned for a request conflicting with an operation in progress,
+ * as the Open Service Broker API defines it.
+ *
+ * @author ipolyzos
+ */
+public class ConcurrencyErrorMessage extends ErrorMessage {
+
+	public static final String CONCURRENCY_ERROR = "ConcurrencyError";
+
+	public ConcurrencyErrorMessage(String description) {
+		super(description);
+	}
+
+	@JsonProperty("error")
+	public String getError() {
+		return CONCURRENCY_ERROR;
+	}
+}
@@ -0,0 +1,118 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.model;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+
+import java.util.Date;
+
+/**
+ * Database of a deleted service instance waiting to be dropped.
+ * <p>
+ * NOTE:
+ *   Stored under "{clusterId}:{databaseName}", so that queueing the same
+ *   database twice keeps a single drop. The entry is removed once the
+ *   database is dropped, or when a new instance claims the database first.
+ *
+ * @author ipolyzos
+ */
+public class DatabaseDrop {
+
+	/**
+	 * Progress of the drop
+	 */
+	public enum State {
+		/** waiting for the dropper */
+		PENDING,
+		/** claimed by a dropper */
+		DROPPING
+	}
+
+	private String id;
+
+	private String clusterId;
+
+	@Indexed
+	private String databaseName;
+
+	private String serviceInstanceId;
+
+	private State state;
+
+	@Indexed
+	private Date notBefore;
+
+	private int attempts;
+
+	private String failure;
+
+	private Date enqueuedAt;
+
+	private Date lastUpdated;
+
+	@SuppressWarnings("unused")
+	private DatabaseDrop() {}
+
+	public DatabaseDrop(String clusterId, String databaseName, String serviceInstanceId) {
+		this.id = key(clusterId, databaseName);
+		this.clusterId = clusterId;
+		this.databaseName = databaseName;
+		this.serviceInstanceId = serviceInstanceId;
+		this.state = State.PENDING;
+		this.enqueuedAt = new Date();
+		this.notBefore = this.enqueuedAt;
+		this.lastUpdated = this.enqueuedAt;
+	}
+
+	/**
+	 * Key of the drop of a database
+	 *
+	 * @param clusterId
+	 * @param databaseName
+	 * @return
+	 */
+	public static String key(String clusterId, String databaseName) {
+		return clusterId + ":" + databaseName;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getClusterId() {
+		return clusterId;
+	}
+
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	public String getServiceInstanceId() {
+		return serviceInstanceId;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return when the drop may next be attempted
+	 */
+	public Date getNotBefore() {
+		return notBefore;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public String getFailure() {
+		return failure;
+	}
+
+	public Date getEnqueuedAt() {
+		return enqueuedAt;
+	}
+
+	public Date getLastUpdated() {
+		return lastUpdated;
+	}
+}
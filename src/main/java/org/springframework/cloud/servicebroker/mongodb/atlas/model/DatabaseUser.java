@@ -0,0 +1,135 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Payload of the Atlas databaseUsers API for a user authenticating
+ * against the admin database.
+ *
+ * @author ipolyzos
+ */
+public class DatabaseUser {
+
+	/**
+	 * Role granted to the user on a database, or a collection of it
+	 */
+	public static class Role {
+
+		private final String databaseName;
+
+		private final String collectionName;
+
+		private final String roleName;
+
+		public Role(String databaseName, String roleName) {
+			this(databaseName, null, roleName);
+		}
+
+		public Role(String databaseName, String collectionName, String roleName) {
+			this.databaseName = databaseName;
+			this.collectionName = collectionName;
+			this.roleName = roleName;
+		}
+
+		public String getDatabaseName() {
+			return databaseName;
+		}
+
+		public String getCollectionName() {
+			return collectionName;
+		}
+
+		public String getRoleName() {
+			return roleName;
+		}
+	}
+
+	/**
+	 * Cluster or Data Lake the user is restricted to
+	 */
+	public static class Scope {
+
+		private final String name;
+
+		private final String type;
+
+		public Scope(String name, String type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getType() {
+			return type;
+		}
+	}
+
+	private final String username;
+
+	private final String password;
+
+	private final List<Role> roles = new ArrayList<>(1);
+
+	private List<Scope> scopes = Collections.emptyList();
+
+	private Date deleteAfterDate;
+
+	public DatabaseUser(String username, String password) {
+		this.username = username;
+		this.password = password;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public List<Role> getRoles() {
+		return roles;
+	}
+
+	public List<Scope> getScopes() {
+		return scopes;
+	}
+
+	/**
+	 * Time Atlas deletes the user at, none when null
+	 *
+	 * @return deleteAfterDate
+	 */
+	public Date getDeleteAfterDate() {
+		return deleteAfterDate;
+	}
+
+	public DatabaseUser withRole(String databaseName, String roleName) {
+		this.roles.add(new Role(databaseName, roleName));
+		return this;
+	}
+
+	public DatabaseUser withRole(Role role) {
+		this.roles.add(role);
+		return this;
+	}
+
+	public DatabaseUser withScope(Scope scope) {
+		if (this.scopes.isEmpty()) {
+			this.scopes = new ArrayList<>(1);
+		}
+		this.scopes.add(scope);
+		return this;
+	}
+
+	public DatabaseUser withDeleteAfterDate(Date deleteAfterDate) {
+		this.deleteAfterDate = deleteAfterDate;
+		return this;
+	}
+}
@@ -0,0 +1,283 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.model;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Write-ahead record of a provisioning operation and the steps it completed.
+ * <p>
+ * NOTE:
+ *   Stored under the idempotency key of the operation, e.g.
+ *   "create-instance:{id}", so that a retry of the same request, or the
+ *   recovery after a restart, finds the steps already done and skips them.
+ *   The entry is removed once the operation completes; entries of failed
+ *   operations the platform never retries expire after a week.
+ *
+ *   Every write is conditional on the version read, so that two brokers
+ *   resuming the same operation cannot both record progress.
+ *
+ *   Passwords are never journaled: a binding resumed after its user was
+ *   created sets a new password on the user instead.
+ *
+ * @author ipolyzos
+ */
+public class JournalEntry {
+
+	/**
+	 * Kind of operation journaled
+	 */
+	public enum Type {
+		CREATE_INSTANCE,
+		DELETE_INSTANCE,
+		CREATE_BINDING,
+		DELETE_BINDING
+	}
+
+	/**
+	 * Steps of the operations, in the order they run
+	 */
+	public enum Step {
+		PLACE,
+		CLAIM_POOL,
+		SAVE_INSTANCE,
+		CHECK_DATABASE,
+		DROP_DATABASE,
+		CREATE_DATABASE,
+		DELETE_BINDINGS,
+		RELEASE_POOL,
+		QUEUE_DROP,
+		CLAIM_USER,
+		CREATE_USER,
+		DELETE_USER
+	}
+
+	/**
+	 * Progress of the operation
+	 */
+	public enum State {
+		IN_PROGRESS,
+		FAILED
+	}
+
+	private String id;
+
+	private Type type;
+
+	private State state;
+
+	@Indexed
+	private String serviceInstanceId;
+
+	private String bindingId;
+
+	private ServiceInstance instance;
+
+	private String clusterId;
+
+	private String databaseName;
+
+	private boolean leftover;
+
+	private String username;
+
+	private String appGuid;
+
+	private boolean async;
+
+	private List<Step> steps = new ArrayList<>();
+
+	private int attempts;
+
+	private long version;
+
+	private String failure;
+
+	@Indexed(expireAfterSeconds = 604800)
+	private Date lastUpdated;
+
+	@SuppressWarnings("unused")
+	private JournalEntry() {}
+
+	private JournalEntry(Type type, String serviceInstanceId, String bindingId) {
+		this.id = key(type, bindingId == null ? serviceInstanceId : bindingId);
+		this.type = type;
+		this.serviceInstanceId = serviceInstanceId;
+		this.bindingId = bindingId;
+	}
+
+	/**
+	 * Idempotency key of an operation
+	 *
+	 * @param type
+	 * @param id instance id, or binding id for binding operations
+	 * @return
+	 */
+	public static String key(Type type, String id) {
+		return type.name().toLowerCase().replace('_', '-') + ":" + id;
+	}
+
+	public static JournalEntry createInstance(ServiceInstance instance, boolean async) {
+		final JournalEntry entry = new JournalEntry(Type.CREATE_INSTANCE, instance.getServiceInstanceId(), null);
+		entry.instance = instance;
+		entry.async = async;
+		return entry;
+	}
+
+	public static JournalEntry deleteInstance(ServiceInstance instance, boolean async) {
+		final JournalEntry entry = new JournalEntry(Type.DELETE_INSTANCE, instance.getServiceInstanceId(), null);
+		entry.instance = instance;
+		entry.clusterId = instance.getClusterId();
+		entry.databaseName = instance.getDatabaseName();
+		entry.async = async;
+		return entry;
+	}
+
+	public static JournalEntry createBinding(String serviceInstanceId, String bindingId, String appGuid) {
+		final JournalEntry entry = new JournalEntry(Type.CREATE_BINDING, serviceInstanceId, bindingId);
+		entry.appGuid = appGuid;
+		return entry;
+	}
+
+	public static JournalEntry deleteBinding(String serviceInstanceId, String bindingId, String username) {
+		final JournalEntry entry = new JournalEntry(Type.DELETE_BINDING, serviceInstanceId, bindingId);
+		entry.username = username;
+		return entry;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public String getServiceInstanceId() {
+		return serviceInstanceId;
+	}
+
+	public String getBindingId() {
+		return bindingId;
+	}
+
+	public ServiceInstance getInstance() {
+		return instance;
+	}
+
+	public String getClusterId() {
+		return clusterId;
+	}
+
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	/**
+	 * @return whether the database check found a leftover database to drop
+	 */
+	public boolean isLeftover() {
+		return leftover;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public String getAppGuid() {
+		return appGuid;
+	}
+
+	/**
+	 * @return whether the platform tracks the operation as a last operation
+	 */
+	public boolean isAsync() {
+		return async;
+	}
+
+	public List<Step> getSteps() {
+		return steps;
+	}
+
+	public boolean isDone(Step step) {
+		return steps.contains(step);
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public String getFailure() {
+		return failure;
+	}
+
+	public Date getLastUpdated() {
+		return lastUpdated;
+	}
+
+	public JournalEntry withClusterId(String clusterId) {
+		this.clusterId = clusterId;
+		return this;
+	}
+
+	public JournalEntry withDatabaseName(String databaseName) {
+		this.databaseName = databaseName;
+		return this;
+	}
+
+	public JournalEntry withLeftover(boolean leftover) {
+		this.leftover = leftover;
+		return this;
+	}
+
+	public JournalEntry withUsername(String username) {
+		this.username = username;
+		return this;
+	}
+
+	/**
+	 * Stamp the entry as a new attempt in progress
+	 *
+	 * @return
+	 */
+	public JournalEntry started() {
+		this.state = State.IN_PROGRESS;
+		this.attempts++;
+		this.lastUpdated = new Date();
+		return this;
+	}
+
+	/**
+	 * Record a step as written to the journal
+	 *
+	 * @param step
+	 * @param lastUpdated
+	 * @return
+	 */
+	public JournalEntry completed(Step step, Date lastUpdated) {
+		this.steps.add(step);
+		return written(lastUpdated);
+	}
+
+	/**
+	 * Record a write to the journal
+	 *
+	 * @param lastUpdated
+	 * @return
+	 */
+	public JournalEntry written(Date lastUpdated) {
+		this.version++;
+		this.lastUpdated = lastUpdated;
+		return this;
+	}
+}
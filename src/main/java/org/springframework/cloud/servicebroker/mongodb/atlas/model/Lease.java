@@ -0,0 +1,79 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.model;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+
+import java.util.Date;
+
+/**
+ * Lock on a resource shared by the broker replicas.
+ * <p>
+ * NOTE:
+ *   Stored under the key of the resource, e.g. "instance:{id}", and owned
+ *   by a token unique to every acquisition. A lease left behind by a
+ *   stopped replica may be taken over once expired, and is removed by
+ *   MongoDB shortly after. A holder working for longer than the lease
+ *   duration renews it to keep it.
+ *
+ * @author ipolyzos
+ */
+public class Lease {
+
+	private String id;
+
+	private String owner;
+
+	@Indexed(expireAfterSeconds = 0)
+	private Date expiresAt;
+
+	@SuppressWarnings("unused")
+	private Lease() {}
+
+	public Lease(String key, String owner, Date expiresAt) {
+		this.id = key;
+		this.owner = owner;
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * Key of the lease on a service instance and its bindings
+	 *
+	 * @param serviceInstanceId
+	 * @return
+	 */
+	public static String instanceKey(String serviceInstanceId) {
+		return "instance:" + serviceInstanceId;
+	}
+
+	/**
+	 * Key of the lease on a background job run by a single replica at a time
+	 *
+	 * @param job
+	 * @return
+	 */
+	public static String jobKey(String job) {
+		return "job:" + job;
+	}
+
+	public String getKey() {
+		return id;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public Date getExpiresAt() {
+		return expiresAt;
+	}
+
+	/**
+	 * Record a renewal of the lease
+	 *
+	 * @param expiresAt
+	 * @return
+	 */
+	public Lease renewed(Date expiresAt) {
+		this.expiresAt = expiresAt;
+		return this;
+	}
+}
@@ -0,0 +1,92 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.model;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Restriction applied to a ServiceInstance exceeding a quota of its plan.
+ * <p>
+ * NOTE:
+ *   Stored under the id of the service instance, together with the users
+ *   restricted so far, so that exactly those get their role back once the
+ *   instance is within its quota again. Each user is removed as soon as
+ *   it is restored, so a restore failing midway is resumed where it stopped.
+ *
+ * @author ipolyzos
+ */
+public class QuotaEnforcement {
+
+	/**
+	 * Quota being exceeded
+	 */
+	public enum Resource {
+		STORAGE,
+		CONNECTIONS
+	}
+
+	private String id;
+
+	private String clusterId;
+
+	private String databaseName;
+
+	private Resource resource;
+
+	private String action;
+
+	private Set<String> usernames = new HashSet<>();
+
+	private Date since;
+
+	@SuppressWarnings("unused")
+	private QuotaEnforcement() {}
+
+	public QuotaEnforcement(String serviceInstanceId, String clusterId, String databaseName,
+							Resource resource, String action) {
+		this.id = serviceInstanceId;
+		this.clusterId = clusterId;
+		this.databaseName = databaseName;
+		this.resource = resource;
+		this.action = action;
+		this.since = new Date();
+	}
+
+	public String getServiceInstanceId() {
+		return id;
+	}
+
+	public String getClusterId() {
+		return clusterId;
+	}
+
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	public Resource getResource() {
+		return resource;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public Set<String> getUsernames() {
+		return usernames;
+	}
+
+	public Date getSince() {
+		return since;
+	}
+
+	public QuotaEnforcement withUsernames(Set<String> usernames) {
+		this.usernames.addAll(usernames);
+		return this;
+	}
+
+	public QuotaEnforcement withoutUsername(String username) {
+		this.usernames.remove(username);
+		return this;
+	}
+}
@@ -6,9 +6,16 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.UpdateServiceInstanceRequest;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.Indexed;
 
 /**
  * An instance of a ServiceDefinition.
+ * <p>
+ * NOTE:
+ *   Records are versioned: saving a new instance inserts it and fails when
+ *   one with the same id exists, while saving a loaded one only updates it
+ *   if nobody else did since it was read.
  *
  * @author ipolyzos
  */
@@ -39,6 +46,14 @@ public class ServiceInstance {
 	@JsonProperty("dashboard_url")
 	private String dashboardUrl;
 
+	@Indexed(sparse = true)
+	private String databaseName;
+
+	private String clusterId;
+
+	@Version
+	private Long version;
+
 	@SuppressWarnings("unused")
 	private ServiceInstance() {}
 
@@ -113,6 +128,35 @@ public class ServiceInstance {
 		return dashboardUrl;
 	}
 
+	/**
+	 * Name of the database backing the instance; instances whose database
+	 * was not taken from the warm pool use their own id.
+	 *
+	 * @return database name
+	 */
+	public String getDatabaseName() {
+		return databaseName == null ? id : databaseName;
+	}
+
+	/**
+	 * Atlas cluster hosting the instance database; null for instances
+	 * created before placement, which live on the default cluster.
+	 *
+	 * @return cluster id
+	 */
+	public String getClusterId() {
+		return clusterId;
+	}
+
+	/**
+	 * Version of the record, null until first saved
+	 *
+	 * @return version
+	 */
+	public Long getVersion() {
+		return version;
+	}
+
 	public ServiceInstance and() {
 		return this;
 	}
@@ -121,4 +165,19 @@ public class ServiceInstance {
 		this.dashboardUrl = dashboardUrl;
 		return this;
 	}
+
+	public ServiceInstance withDatabaseName(String databaseName) {
+		this.databaseName = databaseName;
+		return this;
+	}
+
+	public ServiceInstance withPlanId(String planId) {
+		this.planId = planId;
+		return this;
+	}
+
+	public ServiceInstance withClusterId(String clusterId) {
+		this.clusterId = clusterId;
+		return this;
+	}
 }
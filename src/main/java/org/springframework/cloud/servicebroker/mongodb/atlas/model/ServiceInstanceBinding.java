@@ -1,20 +1,33 @@
 package org.springframework.cloud.servicebroker.mongodb.atlas.model;
 
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.Indexed;
+
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Binding to a service instance
+ * <p>
+ * NOTE:
+ *   Records are versioned, so saving a new binding inserts it and fails
+ *   when one with the same id exists. They are indexed by instance, so
+ *   that deleting an instance finds its bindings.
  *
  * @author ipolyzos
  */
 public class ServiceInstanceBinding {
 
 	private String id;
+	@Indexed
 	private String serviceInstanceId;
 	private Map<String,Object> credentials = new HashMap<>();
 	private String syslogDrainUrl;
 	private String appGuid;
+	@Indexed(sparse = true)
+	private String username;
+	@Version
+	private Long version;
 
 	public ServiceInstanceBinding(String id,
 								  String serviceInstanceId,
@@ -55,4 +68,28 @@ public class ServiceInstanceBinding {
 		return appGuid;
 	}
 
+	/**
+	 * Atlas user of the binding; bindings whose user was not taken from
+	 * the warm pool use their own id.
+	 *
+	 * @return username
+	 */
+	public String getUsername() {
+		return username == null ? id : username;
+	}
+
+	/**
+	 * Version of the record, null until first saved
+	 *
+	 * @return version
+	 */
+	public Long getVersion() {
+		return version;
+	}
+
+	public ServiceInstanceBinding withUsername(String username) {
+		this.username = username;
+		return this;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.model;
+
+import org.springframework.cloud.servicebroker.model.OperationState;
+
+import java.util.Date;
+
+/**
+ * Last asynchronous operation executed against a ServiceInstance.
+ * <p>
+ * NOTE:
+ *   Stored under the id of the service instance it belongs to, therefore
+ *   only the most recent operation of every instance is kept.
+ *
+ * @author ipolyzos
+ */
+public class ServiceInstanceOperation {
+
+	/**
+	 * Kind of operation in progress
+	 */
+	public enum Type {
+		CREATE,
+		DELETE
+	}
+
+	private String id;
+
+	private Type type;
+
+	private OperationState state;
+
+	private String description;
+
+	private Date lastUpdated;
+
+	@SuppressWarnings("unused")
+	private ServiceInstanceOperation() {}
+
+	/**
+	 * Create a new in progress operation for a service instance.
+	 *
+	 * @param serviceInstanceId the instance the operation applies to
+	 * @param type kind of operation
+	 */
+	public ServiceInstanceOperation(String serviceInstanceId, Type type) {
+		this.id = serviceInstanceId;
+		this.type = type;
+		withState(OperationState.IN_PROGRESS, null);
+	}
+
+	public String getServiceInstanceId() {
+		return id;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public OperationState getState() {
+		return state;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public Date getLastUpdated() {
+		return lastUpdated;
+	}
+
+	public boolean isDeleteOperation() {
+		return type == Type.DELETE;
+	}
+
+	/**
+	 * Copy of the operation as it is now, unaffected by later state changes
+	 *
+	 * @return
+	 */
+	public ServiceInstanceOperation snapshot() {
+		final ServiceInstanceOperation snapshot = new ServiceInstanceOperation();
+		snapshot.id = id;
+		snapshot.type = type;
+		snapshot.state = state;
+		snapshot.description = description;
+		snapshot.lastUpdated = lastUpdated;
+		return snapshot;
+	}
+
+	public ServiceInstanceOperation withState(OperationState state, String description) {
+		this.state = state;
+		this.description = description;
+		this.lastUpdated = new Date();
+		return this;
+	}
+}
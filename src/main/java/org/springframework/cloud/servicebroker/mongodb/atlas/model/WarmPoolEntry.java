@@ -0,0 +1,97 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.model;
+
+import org.springframework.data.mongodb.core.index.Indexed;
+
+import java.util.Date;
+
+/**
+ * A pre-provisioned database together with a user holding the readWrite
+ * role on it, kept ready to be assigned to a new ServiceInstance.
+ * <p>
+ * NOTE:
+ *   The password of the user is not kept; the binding claiming the user
+ *   sets a new one.
+ *
+ * @author ipolyzos
+ */
+public class WarmPoolEntry {
+
+	/**
+	 * Lifecycle of a pool entry
+	 */
+	public enum State {
+		/** database and user are being created */
+		PROVISIONING,
+		/** ready to be assigned */
+		AVAILABLE,
+		/** database assigned to an instance, user not yet claimed by a binding */
+		ASSIGNED,
+		/** provisioning kept failing; the entry is left for inspection and its leftovers to the reconciler */
+		FAILED
+	}
+
+	private String id;
+
+	@Indexed(sparse = true)
+	private String username;
+
+	private String clusterId;
+
+	private State state;
+
+	private String serviceInstanceId;
+
+	private int attempts;
+
+	private Date lastUpdated;
+
+	@SuppressWarnings("unused")
+	private WarmPoolEntry() {}
+
+	public WarmPoolEntry(String databaseName, String username, String clusterId) {
+		this.id = databaseName;
+		this.username = username;
+		this.clusterId = clusterId;
+		this.state = State.PROVISIONING;
+		this.lastUpdated = new Date();
+	}
+
+	public String getDatabaseName() {
+		return id;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * Atlas cluster hosting the database; null for entries created before
+	 * placement, which live on the default cluster.
+	 *
+	 * @return cluster id
+	 */
+	public String getClusterId() {
+		return clusterId;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public String getServiceInstanceId() {
+		return serviceInstanceId;
+	}
+
+	/**
+	 * Provisioning attempts started so far
+	 *
+	 * @return attempts
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public Date getLastUpdated() {
+		return lastUpdated;
+	}
+}
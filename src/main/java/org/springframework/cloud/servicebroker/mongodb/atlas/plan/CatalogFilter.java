@@ -0,0 +1,79 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.plan;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves GET /v2/catalog from the catalog body rendered when plans are loaded.
+ * <p>
+ * NOTE:
+ *   Requests carrying the current ETag in If-None-Match get a 304 without a
+ *   body, so repeated polls of an unchanged catalog cost neither
+ *   serialization nor transfer. The filter is registered after the
+ *   security filters, so the catalog keeps its authentication.
+ *
+ * @author ipolyzos
+ */
+public class CatalogFilter extends OncePerRequestFilter {
+
+    private final PlanCatalogService catalogService;
+
+    public CatalogFilter(final PlanCatalogService catalogService) {
+        this.catalogService = catalogService;
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request,
+                                    final HttpServletResponse response,
+                                    final FilterChain filterChain) throws ServletException, IOException {
+        final boolean head = "HEAD".equals(request.getMethod());
+        if (!head && !"GET".equals(request.getMethod())) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        final PlanCatalogService.CatalogBody body = catalogService.getCatalogBody();
+        response.setHeader(HttpHeaders.ETAG, body.getETag());
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), body.getETag())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setContentLength(body.getBytes().length);
+        if (!head) {
+            response.getOutputStream().write(body.getBytes());
+        }
+    }
+
+    /**
+     * Whether an If-None-Match header lists the entity tag
+     *
+     * @param ifNoneMatch
+     * @param eTag
+     * @return
+     */
+    static boolean matches(final String ifNoneMatch, final String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,318 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.plan;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.servicebroker.model.Catalog;
+import org.springframework.cloud.servicebroker.model.Plan;
+import org.springframework.cloud.servicebroker.model.ServiceDefinition;
+import org.springframework.cloud.servicebroker.mongodb.atlas.quota.QuotaLimits;
+import org.springframework.cloud.servicebroker.service.CatalogService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.DigestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The catalog of the broker, built from the configured plans.
+ * <p>
+ * NOTE:
+ *   The catalog is rendered to JSON once, when plans are loaded, and
+ *   served as is with an ETag by the CatalogFilter, as the Cloud Controller
+ *   polls it far more often than it changes. Plans come from ATLAS_PLANS,
+ *   or from the ATLAS_PLANS_FILE file, which is checked for changes every
+ *   ATLAS_PLANS_RELOAD_INTERVAL_MS; a reload swaps the catalog, its body and
+ *   the plan profiles at once, and a malformed file keeps the current ones.
+ *
+ *   Plan changes keep the database of an instance on its cluster, so the
+ *   service is only plan_updateable when some two plans may share a cluster.
+ *
+ * @author ipolyzos
+ */
+public class PlanCatalogService implements CatalogService {
+
+    public static final String SERVICE_ID = "mongodb-atlas-broker";
+
+    public static final String DEFAULT_PLAN_ID = "default-mongodb-atlas-plan";
+
+    private Logger logger = LoggerFactory.getLogger(PlanCatalogService.class);
+
+    private final ObjectMapper objectMapper;
+
+    private final String plans;
+
+    private final File plansFile;
+
+    private final QuotaLimits defaultLimits;
+
+    private final boolean quotaEnforced;
+
+    private long plansFileModified;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param objectMapper  mapper of the broker's responses
+     * @param plans         JSON array of plans, empty for the default plan
+     * @param plansFile     file holding the JSON array of plans instead, or empty
+     * @param defaultLimits limits of plans which do not set them
+     * @param quotaEnforced whether the limits are enforced
+     * @throws IOException when the plans are malformed
+     */
+    public PlanCatalogService(final ObjectMapper objectMapper,
+                              final String plans,
+                              final String plansFile,
+                              final QuotaLimits defaultLimits,
+                              final boolean quotaEnforced) throws IOException {
+        this.objectMapper = objectMapper;
+        this.plans = plans.trim();
+        this.plansFile = plansFile.trim().isEmpty() ? null : new File(plansFile.trim());
+        this.defaultLimits = defaultLimits;
+        this.quotaEnforced = quotaEnforced;
+        this.snapshot = load();
+    }
+
+    @Override
+    public Catalog getCatalog() {
+        return snapshot.catalog;
+    }
+
+    @Override
+    public ServiceDefinition getServiceDefinition(final String serviceId) {
+        for (final ServiceDefinition definition : snapshot.catalog.getServiceDefinitions()) {
+            if (definition.getId().equals(serviceId)) {
+                return definition;
+            }
+        }
+        return null;
+    }
+
+    public List<PlanDefinition> getPlans() {
+        return new ArrayList<>(snapshot.plans.values());
+    }
+
+    /**
+     * Profile of a plan
+     *
+     * @param planId
+     * @return null when the plan is no longer in the catalog
+     */
+    public PlanDefinition getPlan(final String planId) {
+        return snapshot.plans.get(planId);
+    }
+
+    /**
+     * Limits of plans which do not set them
+     *
+     * @return
+     */
+    public QuotaLimits getDefaultLimits() {
+        return defaultLimits;
+    }
+
+    /**
+     * Limits of a plan
+     *
+     * @param planId
+     * @return the default limits when the plan is no longer in the catalog
+     */
+    public QuotaLimits getLimits(final String planId) {
+        final PlanDefinition plan = getPlan(planId);
+        return plan == null ? defaultLimits : plan.getLimits(defaultLimits);
+    }
+
+    /**
+     * The catalog rendered to JSON
+     *
+     * @return
+     */
+    public CatalogBody getCatalogBody() {
+        return snapshot.body;
+    }
+
+    /**
+     * Reload the plans when their file has changed
+     */
+    @Scheduled(fixedDelayString = "${ATLAS_PLANS_RELOAD_INTERVAL_MS:30000}")
+    public void reload() {
+        if (plansFile == null || plansFile.lastModified() == plansFileModified) {
+            return;
+        }
+
+        try {
+            snapshot = load();
+            logger.info("Reloaded {} plans from {}", snapshot.plans.size(), plansFile);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to reload the plans from {}, keeping the current catalog", plansFile, e);
+        }
+    }
+
+    private Snapshot load() throws IOException {
+        final PlanDefinition[] definitions;
+        if (plansFile != null) {
+            plansFileModified = plansFile.lastModified();
+            definitions = objectMapper.readValue(Files.readAllBytes(plansFile.toPath()), PlanDefinition[].class);
+        } else if (!plans.isEmpty()) {
+            definitions = objectMapper.readValue(plans, PlanDefinition[].class);
+        } else {
+            definitions = new PlanDefinition[]{new PlanDefinition(DEFAULT_PLAN_ID, "default",
+                    "This is a default mongo plan. All services are created equally.")};
+        }
+        if (definitions.length == 0) {
+            throw new IllegalArgumentException("The catalog has no plans");
+        }
+
+        final Map<String, PlanDefinition> planDefinitions = new LinkedHashMap<>();
+        final List<Plan> catalogPlans = new ArrayList<>(definitions.length);
+        for (final PlanDefinition definition : definitions) {
+            if (definition.getId() == null || definition.getName() == null) {
+                throw new IllegalArgumentException("Plans need an id and a name");
+            }
+            if (!PlanDefinition.SHARED.equals(definition.getPlacement()) && !definition.isDedicated()) {
+                throw new IllegalArgumentException("Unknown placement of plan " + definition.getId() + ": "
+                        + definition.getPlacement());
+            }
+            if (planDefinitions.put(definition.getId(), definition) != null) {
+                throw new IllegalArgumentException("Duplicate plan id " + definition.getId());
+            }
+            catalogPlans.add(new Plan(definition.getId(),
+                    definition.getName(),
+                    definition.getDescription(),
+                    getPlanMetadata(definition),
+                    definition.isFree()));
+        }
+
+        final Catalog catalog = new Catalog(Collections.singletonList(
+                new ServiceDefinition(
+                        SERVICE_ID,
+                        "mongodb-atlas",
+                        "MongoDB Atlas Service Broker",
+                        true,
+                        isPlanUpdateable(planDefinitions.values()),
+                        catalogPlans,
+                        Arrays.asList("mongodb-atlas", "document"),
+                        getServiceDefinitionMetadata(),
+                        null,
+                        null)));
+        return new Snapshot(catalog, planDefinitions, new CatalogBody(objectMapper.writeValueAsBytes(catalog)));
+    }
+
+    /**
+     * Whether an instance may change between some two of the plans without moving its database
+     *
+     * @param plans
+     * @return
+     */
+    private static boolean isPlanUpdateable(final Collection<PlanDefinition> plans) {
+        final List<PlanDefinition> seen = new ArrayList<>(plans.size());
+        for (final PlanDefinition plan : plans) {
+            for (final PlanDefinition other : seen) {
+                if (plan.mayShareClusterWith(other)) {
+                    return true;
+                }
+            }
+            seen.add(plan);
+        }
+        return false;
+    }
+
+    /* Used by CF Console */
+
+    private Map<String, Object> getServiceDefinitionMetadata() {
+        Map<String, Object> sdMetadata = new HashMap<>();
+        sdMetadata.put("displayName", "MongoDB");
+        sdMetadata.put("imageUrl", "http://info.mongodb.com/rs/mongodb/images/MongoDB_Logo_Full.png");
+        sdMetadata.put("longDescription", "MongoDB Altas Service");
+        sdMetadata.put("providerDisplayName", "MongoDB");
+        sdMetadata.put("documentationUrl", "https://docs.atlas.mongodb.com");
+        sdMetadata.put("supportUrl", "https://www.mongodb.com/contact?jmp=footer");
+        return sdMetadata;
+    }
+
+    private Map<String, Object> getPlanMetadata(final PlanDefinition plan) {
+        Map<String, Object> planMetadata = new HashMap<>();
+        planMetadata.put("costs", getCosts(plan));
+        planMetadata.put("bullets", getBullets(plan));
+
+        return planMetadata;
+    }
+
+    private List<Map<String, Object>> getCosts(final PlanDefinition plan) {
+        Map<String, Object> costsMap = new HashMap<>();
+
+        Map<String, Object> amount = new HashMap<>();
+        amount.put("USD", plan.getMonthlyCost());
+
+        costsMap.put("amount", amount);
+        costsMap.put("unit", "MONTHLY");
+
+        return Collections.singletonList(costsMap);
+    }
+
+    private List<String> getBullets(final PlanDefinition plan) {
+        final List<String> bullets = new ArrayList<>();
+        bullets.add((plan.isDedicated() ? "Dedicated" : "Shared") + " MongoDB Cluster"
+                + (plan.getTier() == null ? "" : " (" + plan.getTier() + ")"));
+
+        final QuotaLimits limits = plan.getLimits(defaultLimits);
+        final String enforced = quotaEnforced ? "" : " (not enforced)";
+        if (limits.getStorageMb() > 0) {
+            bullets.add(limits.getStorageMb() + " MB Storage" + enforced);
+        }
+        if (limits.getConnections() > 0) {
+            bullets.add(limits.getConnections() + " concurrent connections" + enforced);
+        }
+        return bullets;
+    }
+
+    /**
+     * The catalog as served, with its entity tag
+     */
+    public static class CatalogBody {
+
+        private final byte[] bytes;
+
+        private final String eTag;
+
+        private CatalogBody(final byte[] bytes) {
+            this.bytes = bytes;
+            this.eTag = "\"" + DigestUtils.md5DigestAsHex(bytes) + "\"";
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+    }
+
+    /**
+     * Plans and catalog loaded together
+     */
+    private static class Snapshot {
+
+        private final Catalog catalog;
+
+        private final Map<String, PlanDefinition> plans;
+
+        private final CatalogBody body;
+
+        private Snapshot(final Catalog catalog, final Map<String, PlanDefinition> plans, final CatalogBody body) {
+            this.catalog = catalog;
+            this.plans = plans;
+            this.body = body;
+        }
+    }
+}
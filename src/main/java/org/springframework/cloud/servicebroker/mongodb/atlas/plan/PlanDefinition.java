@@ -0,0 +1,137 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.plan;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.cloud.servicebroker.mongodb.atlas.quota.QuotaLimits;
+
+/**
+ * A plan of the catalog and its resource profile, as listed in ATLAS_PLANS:
+ * <pre>
+ * [{"id": "small", "name": "small", "description": "...", "free": false, "monthlyCost": 10.0,
+ *   "storageMb": 500, "connections": 100, "tier": "M10", "placement": "dedicated"}]
+ * </pre>
+ * Only id and name are required. Missing limits default to ATLAS_QUOTA_STORAGE_MB
+ * and ATLAS_QUOTA_CONNECTIONS; instances of a plan with a tier are placed on
+ * clusters of that tier, and those of a dedicated plan on dedicated clusters only.
+ *
+ * @author ipolyzos
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PlanDefinition {
+
+    public static final String SHARED = "shared";
+
+    public static final String DEDICATED = "dedicated";
+
+    @JsonProperty("id")
+    private String id;
+
+    @JsonProperty("name")
+    private String name;
+
+    @JsonProperty("description")
+    private String description;
+
+    @JsonProperty("free")
+    private boolean free = true;
+
+    @JsonProperty("monthlyCost")
+    private double monthlyCost;
+
+    @JsonProperty("storageMb")
+    private Long storageMb;
+
+    @JsonProperty("connections")
+    private Integer connections;
+
+    @JsonProperty("tier")
+    private String tier;
+
+    @JsonProperty("placement")
+    private String placement = SHARED;
+
+    @SuppressWarnings("unused")
+    private PlanDefinition() {}
+
+    public PlanDefinition(String id, String name, String description) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public boolean isFree() {
+        return free;
+    }
+
+    public double getMonthlyCost() {
+        return monthlyCost;
+    }
+
+    public String getTier() {
+        return tier;
+    }
+
+    public String getPlacement() {
+        return placement;
+    }
+
+    /**
+     * Whether instances of the plan go to dedicated clusters only
+     *
+     * @return
+     */
+    public boolean isDedicated() {
+        return DEDICATED.equals(placement);
+    }
+
+    /**
+     * Whether a cluster may serve instances of both plans, so that an
+     * instance may change between them without moving its database
+     *
+     * @param other
+     * @return
+     */
+    public boolean mayShareClusterWith(final PlanDefinition other) {
+        return isDedicated() == other.isDedicated()
+                && (tier == null || other.tier == null || tier.equals(other.tier));
+    }
+
+    /**
+     * Limits of the plan
+     *
+     * @param defaults limits the plan does not set
+     * @return
+     */
+    public QuotaLimits getLimits(final QuotaLimits defaults) {
+        return new QuotaLimits(storageMb == null ? defaults.getStorageMb() : storageMb,
+                connections == null ? defaults.getConnections() : connections);
+    }
+
+    public PlanDefinition withLimits(final long storageMb, final int connections) {
+        this.storageMb = storageMb;
+        this.connections = connections;
+        return this;
+    }
+
+    public PlanDefinition withTier(final String tier) {
+        this.tier = tier;
+        return this;
+    }
+
+    public PlanDefinition withPlacement(final String placement) {
+        this.placement = placement;
+        return this;
+    }
+}
@@ -0,0 +1,45 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.quota;
+
+/**
+ * What happens to the users of an instance exceeding its quota, as set by
+ * ATLAS_QUOTA_ACTION. A QuotaEvent is published in every case.
+ *
+ * @author ipolyzos
+ */
+public enum QuotaAction {
+
+    /** only publish the event */
+    EVENT("event"),
+    /** downgrade the users from readWrite to read */
+    READ_ONLY("read-only"),
+    /**
+     * revoke every role of the users on the instance database; as the Atlas
+     * PATCH replaces the whole roles array, and a user keeps at least one
+     * role, they are left with read on QuotaService.REVOKED_COLLECTION only
+     */
+    REVOKE("revoke");
+
+    private final String name;
+
+    QuotaAction(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name
+     * @return
+     * @throws IllegalArgumentException for an unknown action
+     */
+    public static QuotaAction forName(final String name) {
+        for (final QuotaAction action : values()) {
+            if (action.name.equals(name)) {
+                return action;
+            }
+        }
+        throw new IllegalArgumentException("Unknown ATLAS_QUOTA_ACTION: " + name);
+    }
+}
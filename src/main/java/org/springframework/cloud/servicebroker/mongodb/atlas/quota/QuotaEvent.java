@@ -0,0 +1,86 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.quota;
+
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.QuotaEnforcement;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when a service instance exceeds a quota of its plan and when
+ * it is back within it.
+ *
+ * @author ipolyzos
+ */
+public class QuotaEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 4412895061236437193L;
+
+    /**
+     * Transition being reported
+     */
+    public enum Type {
+        EXCEEDED,
+        RESTORED
+    }
+
+    private final Type type;
+
+    private final String serviceInstanceId;
+
+    private final QuotaEnforcement.Resource resource;
+
+    private final long usage;
+
+    private final long limit;
+
+    private final QuotaAction action;
+
+    public QuotaEvent(final Object source,
+                      final Type type,
+                      final String serviceInstanceId,
+                      final QuotaEnforcement.Resource resource,
+                      final long usage,
+                      final long limit,
+                      final QuotaAction action) {
+        super(source);
+        this.type = type;
+        this.serviceInstanceId = serviceInstanceId;
+        this.resource = resource;
+        this.usage = usage;
+        this.limit = limit;
+        this.action = action;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getServiceInstanceId() {
+        return serviceInstanceId;
+    }
+
+    public QuotaEnforcement.Resource getResource() {
+        return resource;
+    }
+
+    /**
+     * Bytes of storage or number of connections sampled
+     *
+     * @return
+     */
+    public long getUsage() {
+        return usage;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public QuotaAction getAction() {
+        return action;
+    }
+
+    @Override
+    public String toString() {
+        return "QuotaEvent{" + type + " " + resource + " of " + serviceInstanceId
+                + ": " + usage + "/" + limit + ", action " + action.getName() + "}";
+    }
+}
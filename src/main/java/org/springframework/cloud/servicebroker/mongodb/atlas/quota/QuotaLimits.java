@@ -0,0 +1,32 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.quota;
+
+/**
+ * Storage and connection limits of a plan. A limit of 0 is not enforced.
+ *
+ * @author ipolyzos
+ */
+public class QuotaLimits {
+
+    private static final long MB = 1024L * 1024L;
+
+    private final long storageMb;
+
+    private final int connections;
+
+    public QuotaLimits(long storageMb, int connections) {
+        this.storageMb = storageMb;
+        this.connections = connections;
+    }
+
+    public long getStorageMb() {
+        return storageMb;
+    }
+
+    public long getStorageBytes() {
+        return storageMb * MB;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+}
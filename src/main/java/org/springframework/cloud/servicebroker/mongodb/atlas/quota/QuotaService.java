@@ -0,0 +1,642 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.quota;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.QuotaEnforcement;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanCatalogService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanDefinition;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasAdminService;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Enforces the storage and connection quotas of the plans.
+ * <p>
+ * NOTE:
+ *   A sample costs two commands per cluster whatever the number of tenants:
+ *   listDatabases gives the size on disk of every database and currentOp
+ *   the connections of every user. Only databases above 80% of the smallest
+ *   storage quota are then measured with dbStats, largest first and at most
+ *   ATLAS_QUOTA_BATCH_SIZE per sample; one found within its quota is left
+ *   alone for ATLAS_QUOTA_RECHECK_INTERVAL_MS. Instance records are only
+ *   read for those databases and for users not seen in the last minutes.
+ *   Commands run on the quota executor, ATLAS_QUOTA_PARALLELISM at a time.
+ *
+ *   The users of an instance exceeding a quota get ATLAS_QUOTA_ACTION
+ *   applied, which is recorded as a QuotaEnforcement and undone once the
+ *   instance is below 90% of its quotas. Bindings created meanwhile are
+ *   restricted by the following sample. A QuotaEvent is published on
+ *   both transitions.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class QuotaService {
+
+    private Logger logger = LoggerFactory.getLogger(QuotaService.class);
+
+    /**
+     * Share of the smallest quota above which a database or instance is looked at closely
+     */
+    private static final double SCREEN_RATIO = 0.8;
+
+    /**
+     * Share of its quotas below which a restricted instance is restored
+     */
+    private static final double RESTORE_RATIO = 0.9;
+
+    /**
+     * Role granted to the users of restricted instances in read-only mode
+     */
+    public static final String READ_ROLE = "read";
+
+    /**
+     * Collection of the instance database holding no data, the only one
+     * the users of restricted instances can read in revoke mode
+     */
+    public static final String REVOKED_COLLECTION = "quotaRevoked";
+
+    /**
+     * Cached instance id of users belonging to no instance
+     */
+    private static final String NO_INSTANCE = "";
+
+    private ClusterRegistry clusterRegistry;
+
+    private AtlasAdminService atlasAdminService;
+
+    private BrokerConfig brokerConfig;
+
+    private MongoOperations mongoOperations;
+
+    private AsyncTaskExecutor quotaExecutor;
+
+    private ApplicationEventPublisher eventPublisher;
+
+    private final Counter exceeded;
+
+    private final Counter restored;
+
+    private final QuotaAction action;
+
+    private final PlanCatalogService catalogService;
+
+    @Value("${ATLAS_QUOTA_ENABLED:false}")
+    private boolean enabled;
+
+    @Value("${ATLAS_QUOTA_BATCH_SIZE:50}")
+    private int batchSize;
+
+    @Value("${ATLAS_QUOTA_RECHECK_INTERVAL_MS:600000}")
+    private long recheckInterval;
+
+    /**
+     * Instance id of connected users
+     */
+    private final Cache<String, String> instanceIds = CacheBuilder.newBuilder()
+            .maximumSize(100000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Time before which a database found within its quota is not measured again, per cluster and database
+     */
+    private final ConcurrentMap<String, Long> recheckAfter = new ConcurrentHashMap<>();
+
+    @Autowired
+    public QuotaService(final ClusterRegistry clusterRegistry,
+                        final AtlasAdminService atlasAdminService,
+                        final BrokerConfig brokerConfig,
+                        final MongoOperations mongoOperations,
+                        @Qualifier("quotaExecutor") final AsyncTaskExecutor quotaExecutor,
+                        final ApplicationEventPublisher eventPublisher,
+                        final MetricRegistry metricRegistry,
+                        final PlanCatalogService catalogService,
+                        @Value("${ATLAS_QUOTA_ACTION:event}") final String action) {
+        this.clusterRegistry = clusterRegistry;
+        this.atlasAdminService = atlasAdminService;
+        this.brokerConfig = brokerConfig;
+        this.mongoOperations = mongoOperations;
+        this.quotaExecutor = quotaExecutor;
+        this.eventPublisher = eventPublisher;
+        this.exceeded = metricRegistry.counter("quota.exceeded");
+        this.restored = metricRegistry.counter("quota.restored");
+        this.action = QuotaAction.forName(action);
+        this.catalogService = catalogService;
+    }
+
+    /**
+     * Limits of a plan
+     *
+     * @param planId
+     * @return
+     */
+    public QuotaLimits getLimits(final String planId) {
+        return catalogService.getLimits(planId);
+    }
+
+    /**
+     * Sample the usage of every cluster and enforce the quotas
+     */
+    @Scheduled(fixedDelayString = "${ATLAS_QUOTA_SAMPLE_INTERVAL_MS:60000}")
+    public void sample() {
+        if (!enabled) {
+            return;
+        }
+
+        final Map<String, Future<Usage>> pending = new LinkedHashMap<>();
+        for (final AtlasCluster cluster : clusterRegistry.getClusters()) {
+            pending.put(cluster.getId(), quotaExecutor.submit(sample(cluster)));
+        }
+
+        final Map<String, Usage> usages = new HashMap<>();
+        for (final Map.Entry<String, Future<Usage>> entry : pending.entrySet()) {
+            try {
+                usages.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                logger.warn("Failed to sample the usage of Atlas cluster {}", entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        final Map<String, Long> connections = connectionsPerInstance(usages.values());
+        final Set<String> enforced = new HashSet<>();
+        for (final QuotaEnforcement enforcement : mongoOperations.findAll(QuotaEnforcement.class)) {
+            enforced.add(enforcement.getServiceInstanceId());
+            review(enforcement, usages.get(enforcement.getClusterId()), connections);
+        }
+
+        enforceStorage(usages.values(), enforced);
+        enforceConnections(connections, enforced);
+    }
+
+    /**
+     * Sizes of the databases and connections of the users of a cluster
+     *
+     * @param cluster
+     * @return
+     */
+    private Callable<Usage> sample(final AtlasCluster cluster) {
+        return new Callable<Usage>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Usage call() {
+                final MongoDatabase admin = cluster.getMongoClient().getDatabase(AtlasAdminService.ADMIN_DB);
+                final Usage usage = new Usage(cluster);
+
+                final Document databases = admin.runCommand(new Document("listDatabases", 1));
+                for (final Document database : (List<Document>) databases.get("databases")) {
+                    usage.sizes.put(database.getString("name"), ((Number) database.get("sizeOnDisk")).longValue());
+                }
+
+                try {
+                    final Document operations = admin.runCommand(new Document("currentOp", 1).append("$all", true));
+                    for (final Document operation : (List<Document>) operations.get("inprog")) {
+                        final List<Document> users = (List<Document>) operation.get("effectiveUsers");
+                        if (users != null && !users.isEmpty()) {
+                            final String username = users.get(0).getString("user");
+                            final Integer count = usage.connections.get(username);
+                            usage.connections.put(username, count == null ? 1 : count + 1);
+                        }
+                    }
+                } catch (MongoException e) {
+                    logger.warn("Failed to sample the connections of Atlas cluster {}", cluster.getId(), e);
+                }
+
+                return usage;
+            }
+        };
+    }
+
+    /**
+     * Restore an instance back within its quotas, or restrict the users of its new bindings
+     *
+     * @param enforcement
+     * @param usage       usage of the instance's cluster, null when it could not be sampled
+     * @param connections connections per instance
+     */
+    private void review(final QuotaEnforcement enforcement,
+                        final Usage usage,
+                        final Map<String, Long> connections) {
+        if (usage == null) {
+            return;
+        }
+
+        final String instanceId = enforcement.getServiceInstanceId();
+        final ServiceInstance instance = mongoOperations.findById(instanceId, ServiceInstance.class);
+        if (instance == null) {
+            mongoOperations.remove(enforcement);
+            return;
+        }
+
+        final QuotaLimits limits = getLimits(instance.getPlanId());
+        final Long size = usage.sizes.get(enforcement.getDatabaseName());
+        final Long connected = connections.get(instanceId);
+        final boolean withinStorage = limits.getStorageBytes() <= 0 || size == null
+                || size < limits.getStorageBytes() * RESTORE_RATIO;
+        final boolean withinConnections = limits.getConnections() <= 0 || connected == null
+                || connected < limits.getConnections() * RESTORE_RATIO;
+
+        if (!withinStorage || !withinConnections) {
+            if (!restrict(enforcement, usage.cluster, bindingUsernames(instanceId)).isEmpty()) {
+                mongoOperations.save(enforcement);
+            }
+            return;
+        }
+
+        for (final String username : new ArrayList<>(enforcement.getUsernames())) {
+            try {
+                atlasAdminService.updateUser(brokerConfig.getApiBase(), usage.cluster.getGroupId(),
+                        new DatabaseUser(username, null)
+                                .withRole(enforcement.getDatabaseName(), AtlasAdminService.READ_WRITE_ROLE));
+            } catch (ServiceBrokerException e) {
+                logger.warn("Failed to restore user {} of service instance {}", username, instanceId, e);
+                return;
+            }
+            // the users restored so far are not restricted again, should the next user fail
+            mongoOperations.save(enforcement.withoutUsername(username));
+        }
+        mongoOperations.remove(enforcement);
+
+        restored.inc();
+        final boolean storage = enforcement.getResource() == QuotaEnforcement.Resource.STORAGE;
+        final QuotaEvent event = new QuotaEvent(this, QuotaEvent.Type.RESTORED, instanceId, enforcement.getResource(),
+                storage ? (size == null ? 0 : size) : (connected == null ? 0 : connected),
+                storage ? limits.getStorageBytes() : limits.getConnections(),
+                QuotaAction.forName(enforcement.getAction()));
+        logger.info("{}", event);
+        eventPublisher.publishEvent(event);
+    }
+
+    /**
+     * Measure the databases close to their storage quota and enforce it
+     *
+     * @param usages
+     * @param enforced ids of instances already restricted
+     */
+    private void enforceStorage(final Collection<Usage> usages, final Set<String> enforced) {
+        final long smallest = smallestLimit(true);
+        if (smallest <= 0) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        for (final Iterator<Long> after = recheckAfter.values().iterator(); after.hasNext(); ) {
+            if (after.next() <= now) {
+                after.remove();
+            }
+        }
+
+        final List<Suspect> suspects = new ArrayList<>();
+        for (final Usage usage : usages) {
+            for (final Map.Entry<String, Long> size : usage.sizes.entrySet()) {
+                if (size.getValue() >= smallest * SCREEN_RATIO
+                        && !recheckAfter.containsKey(key(usage.cluster.getId(), size.getKey()))) {
+                    suspects.add(new Suspect(usage.cluster, size.getKey(), size.getValue()));
+                }
+            }
+        }
+        if (suspects.isEmpty()) {
+            return;
+        }
+
+        // owners of the suspect databases, found by the database each instance uses
+        final Set<String> databaseNames = new HashSet<>();
+        for (final Suspect suspect : suspects) {
+            databaseNames.add(suspect.databaseName);
+        }
+        final Map<String, ServiceInstance> owners = new HashMap<>();
+        for (final ServiceInstance instance : mongoOperations.find(query(new Criteria().orOperator(
+                where("_id").in(databaseNames), where("databaseName").in(databaseNames))), ServiceInstance.class)) {
+            owners.put(key(clusterId(instance), instance.getDatabaseName()), instance);
+        }
+
+        Collections.sort(suspects, new Comparator<Suspect>() {
+            @Override
+            public int compare(final Suspect a, final Suspect b) {
+                return Long.compare(b.size, a.size);
+            }
+        });
+
+        final Map<Suspect, Future<Long>> measurements = new LinkedHashMap<>();
+        for (final Suspect suspect : suspects) {
+            final ServiceInstance instance = owners.get(key(suspect.cluster.getId(), suspect.databaseName));
+            if (instance == null || enforced.contains(instance.getServiceInstanceId())) {
+                continue;
+            }
+            final long limit = getLimits(instance.getPlanId()).getStorageBytes();
+            if (limit <= 0 || suspect.size < limit * SCREEN_RATIO) {
+                continue;
+            }
+
+            suspect.instance = instance;
+            suspect.limit = limit;
+            measurements.put(suspect, quotaExecutor.submit(storageSize(suspect)));
+            if (measurements.size() >= batchSize) {
+                break;
+            }
+        }
+
+        for (final Map.Entry<Suspect, Future<Long>> measurement : measurements.entrySet()) {
+            final Suspect suspect = measurement.getKey();
+            final long storageSize;
+            try {
+                storageSize = measurement.getValue().get();
+            } catch (ExecutionException e) {
+                logger.warn("Failed to measure database {}", suspect.databaseName, e.getCause());
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (storageSize > suspect.limit) {
+                exceeded(suspect.instance, QuotaEnforcement.Resource.STORAGE, storageSize, suspect.limit);
+            } else {
+                recheckAfter.put(key(suspect.cluster.getId(), suspect.databaseName), now + recheckInterval);
+            }
+        }
+    }
+
+    /**
+     * Enforce the connection quota of the instances with most connections
+     *
+     * @param connections connections per instance
+     * @param enforced    ids of instances already restricted
+     */
+    private void enforceConnections(final Map<String, Long> connections, final Set<String> enforced) {
+        final long smallest = smallestLimit(false);
+        if (smallest <= 0) {
+            return;
+        }
+
+        final Set<String> suspects = new HashSet<>();
+        for (final Map.Entry<String, Long> connected : connections.entrySet()) {
+            if (connected.getValue() > smallest && !enforced.contains(connected.getKey())) {
+                suspects.add(connected.getKey());
+            }
+        }
+        if (suspects.isEmpty()) {
+            return;
+        }
+
+        for (final ServiceInstance instance : mongoOperations.find(query(where("_id").in(suspects)), ServiceInstance.class)) {
+            final long limit = getLimits(instance.getPlanId()).getConnections();
+            final long connected = connections.get(instance.getServiceInstanceId());
+            if (limit > 0 && connected > limit) {
+                exceeded(instance, QuotaEnforcement.Resource.CONNECTIONS, connected, limit);
+            }
+        }
+    }
+
+    /**
+     * Restrict an instance exceeding a quota
+     *
+     * @param instance
+     * @param resource
+     * @param usage
+     * @param limit
+     */
+    private void exceeded(final ServiceInstance instance,
+                          final QuotaEnforcement.Resource resource,
+                          final long usage,
+                          final long limit) {
+        final AtlasCluster cluster = clusterRegistry.get(instance.getClusterId());
+        final QuotaEnforcement enforcement = new QuotaEnforcement(instance.getServiceInstanceId(), cluster.getId(),
+                instance.getDatabaseName(), resource, action.getName());
+        restrict(enforcement, cluster, bindingUsernames(instance.getServiceInstanceId()));
+        mongoOperations.save(enforcement);
+
+        exceeded.inc();
+        final QuotaEvent event = new QuotaEvent(this, QuotaEvent.Type.EXCEEDED, instance.getServiceInstanceId(),
+                resource, usage, limit, action);
+        logger.warn("{}", event);
+        eventPublisher.publishEvent(event);
+    }
+
+    /**
+     * Apply the enforcement action to the users not restricted yet
+     *
+     * @param enforcement records the restricted users
+     * @param cluster
+     * @param usernames   users of the instance bindings
+     * @return the users restricted now
+     */
+    private Set<String> restrict(final QuotaEnforcement enforcement,
+                                 final AtlasCluster cluster,
+                                 final Set<String> usernames) {
+        final QuotaAction enforced = QuotaAction.forName(enforcement.getAction());
+        if (enforced == QuotaAction.EVENT) {
+            return Collections.emptySet();
+        }
+
+        final Set<String> restricted = new HashSet<>();
+        for (final String username : usernames) {
+            if (enforcement.getUsernames().contains(username)) {
+                continue;
+            }
+
+            // the PATCH replaces every role of the user, so it never sends an empty list
+            final DatabaseUser user = new DatabaseUser(username, null);
+            if (enforced == QuotaAction.READ_ONLY) {
+                user.withRole(enforcement.getDatabaseName(), READ_ROLE);
+            } else {
+                user.withRole(new DatabaseUser.Role(enforcement.getDatabaseName(), REVOKED_COLLECTION, READ_ROLE));
+            }
+            try {
+                atlasAdminService.updateUser(brokerConfig.getApiBase(), cluster.getGroupId(), user);
+                restricted.add(username);
+            } catch (ServiceBrokerException e) {
+                logger.warn("Failed to restrict user {} of service instance {}",
+                        username, enforcement.getServiceInstanceId(), e);
+            }
+        }
+        enforcement.withUsernames(restricted);
+        return restricted;
+    }
+
+    /**
+     * Sum the connections of users per instance, looking up the owners of users not seen recently
+     *
+     * @param usages
+     * @return
+     */
+    private Map<String, Long> connectionsPerInstance(final Collection<Usage> usages) {
+        final Set<String> unknown = new HashSet<>();
+        for (final Usage usage : usages) {
+            for (final String username : usage.connections.keySet()) {
+                if (instanceIds.getIfPresent(username) == null) {
+                    unknown.add(username);
+                }
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            for (final ServiceInstanceBinding binding : mongoOperations.find(
+                    query(where("username").in(unknown)), ServiceInstanceBinding.class)) {
+                instanceIds.put(binding.getUsername(), binding.getServiceInstanceId());
+                unknown.remove(binding.getUsername());
+            }
+            for (final String username : unknown) {
+                instanceIds.put(username, NO_INSTANCE);
+            }
+        }
+
+        final Map<String, Long> connections = new HashMap<>();
+        for (final Usage usage : usages) {
+            for (final Map.Entry<String, Integer> connected : usage.connections.entrySet()) {
+                final String instanceId = instanceIds.getIfPresent(connected.getKey());
+                if (instanceId != null && !NO_INSTANCE.equals(instanceId)) {
+                    final Long count = connections.get(instanceId);
+                    connections.put(instanceId, (count == null ? 0 : count) + connected.getValue());
+                }
+            }
+        }
+        return connections;
+    }
+
+    private Set<String> bindingUsernames(final String instanceId) {
+        final Set<String> usernames = new HashSet<>();
+        for (final ServiceInstanceBinding binding : mongoOperations.find(
+                query(where("serviceInstanceId").is(instanceId)), ServiceInstanceBinding.class)) {
+            if (binding.getUsername() != null) {
+                usernames.add(binding.getUsername());
+            }
+        }
+        return usernames;
+    }
+
+    private Callable<Long> storageSize(final Suspect suspect) {
+        return new Callable<Long>() {
+            @Override
+            public Long call() {
+                final Document stats = suspect.cluster.getMongoClient().getDatabase(suspect.databaseName)
+                        .runCommand(new Document("dbStats", 1));
+                return ((Number) stats.get("storageSize")).longValue() + ((Number) stats.get("indexSize")).longValue();
+            }
+        };
+    }
+
+    /**
+     * Smallest enforced storage, in bytes, or connection quota of all plans
+     *
+     * @param storage
+     * @return 0 when no plan has the quota
+     */
+    private long smallestLimit(final boolean storage) {
+        long smallest = 0;
+        // instances of plans dropped from the catalog keep the default limits
+        final List<QuotaLimits> all = new ArrayList<>();
+        all.add(catalogService.getDefaultLimits());
+        for (final PlanDefinition plan : catalogService.getPlans()) {
+            all.add(getLimits(plan.getId()));
+        }
+        for (final QuotaLimits limits : all) {
+            final long limit = storage ? limits.getStorageBytes() : limits.getConnections();
+            if (limit > 0 && (smallest == 0 || limit < smallest)) {
+                smallest = limit;
+            }
+        }
+        return smallest;
+    }
+
+    private String clusterId(final ServiceInstance instance) {
+        try {
+            return clusterRegistry.get(instance.getClusterId()).getId();
+        } catch (ServiceBrokerException e) {
+            return instance.getClusterId();
+        }
+    }
+
+    private static String key(final String clusterId, final String databaseName) {
+        return clusterId + '/' + databaseName;
+    }
+
+    /**
+     * Usage sampled on a cluster
+     */
+    private static class Usage {
+
+        private final AtlasCluster cluster;
+
+        /**
+         * Size on disk per database
+         */
+        private final Map<String, Long> sizes = new HashMap<>();
+
+        /**
+         * Connections per user
+         */
+        private final Map<String, Integer> connections = new HashMap<>();
+
+        private Usage(final AtlasCluster cluster) {
+            this.cluster = cluster;
+        }
+    }
+
+    /**
+     * Database close to a storage quota
+     */
+    private static class Suspect {
+
+        private final AtlasCluster cluster;
+
+        private final String databaseName;
+
+        private final long size;
+
+        private ServiceInstance instance;
+
+        private long limit;
+
+        private Suspect(final AtlasCluster cluster, final String databaseName, final long size) {
+            this.cluster = cluster;
+            this.databaseName = databaseName;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.reconcile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a reconciliation run.
+ *
+ * @author ipolyzos
+ */
+public class ReconcileReport {
+
+    private final boolean dryRun;
+
+    final AtomicLong databases = new AtomicLong();
+
+    final AtomicLong users = new AtomicLong();
+
+    final AtomicLong orphanDatabases = new AtomicLong();
+
+    final AtomicLong orphanUsers = new AtomicLong();
+
+    final AtomicLong removed = new AtomicLong();
+
+    final AtomicLong failed = new AtomicLong();
+
+    final AtomicLong danglingInstances = new AtomicLong();
+
+    final AtomicLong danglingBindings = new AtomicLong();
+
+    ReconcileReport(final boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Tenant databases scanned
+     *
+     * @return
+     */
+    public long getDatabases() {
+        return databases.get();
+    }
+
+    /**
+     * Tenant users scanned
+     *
+     * @return
+     */
+    public long getUsers() {
+        return users.get();
+    }
+
+    /**
+     * Databases no instance or warm pool entry owns, past the grace period
+     *
+     * @return
+     */
+    public long getOrphanDatabases() {
+        return orphanDatabases.get();
+    }
+
+    /**
+     * Users no binding or warm pool entry owns, past the grace period
+     *
+     * @return
+     */
+    public long getOrphanUsers() {
+        return orphanUsers.get();
+    }
+
+    public long getRemoved() {
+        return removed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Instance records whose database is missing
+     *
+     * @return
+     */
+    public long getDanglingInstances() {
+        return danglingInstances.get();
+    }
+
+    /**
+     * Binding records whose user is missing
+     *
+     * @return
+     */
+    public long getDanglingBindings() {
+        return danglingBindings.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReconcileReport{" +
+                "dryRun=" + dryRun +
+                ", databases=" + databases +
+                ", users=" + users +
+                ", orphanDatabases=" + orphanDatabases +
+                ", orphanUsers=" + orphanUsers +
+                ", removed=" + removed +
+                ", failed=" + failed +
+                ", danglingInstances=" + danglingInstances +
+                ", danglingBindings=" + danglingBindings +
+                '}';
+    }
+}
@@ -0,0 +1,632 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.reconcile;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseDrop;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasAdminService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.LeaseService;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Finds the databases and users left behind by broker calls which failed
+ * partway through, and the records whose database or user is gone.
+ * <p>
+ * NOTE:
+ *   A run streams the database names of every cluster and pages through
+ *   the Atlas users of every group, ATLAS_RECONCILE_PAGE_SIZE at a time.
+ *   Each page is checked against the instance, binding, warm pool and
+ *   journal collections with one indexed query per collection, so memory is
+ *   bounded by the page size whatever the number of tenants. Only names
+ *   matching ATLAS_RECONCILE_DATABASE_PATTERN and ATLAS_RECONCILE_USER_PATTERN
+ *   are considered.
+ *
+ *   An orphan is only acted upon once it has been found in runs spanning
+ *   ATLAS_RECONCILE_GRACE_PERIOD_MS, so that resources of calls still in
+ *   progress are left alone, and its ownership is checked again right
+ *   before removal. Removals run on the reconcile executor, at most
+ *   ATLAS_RECONCILE_PARALLELISM at a time; in dry-run mode orphans are
+ *   only logged and counted.
+ *
+ *   Records are then streamed and checked against Bloom filters of the
+ *   names scanned, which may miss a few dangling records but never report
+ *   a sound one. Those are reported only, as the platform still knows them.
+ *
+ *   Scheduled runs take a job lease, so only one broker replica reconciles
+ *   at a time; the grace period of an orphan is tracked by every replica
+ *   finding it. The lease is renewed before every page and record checked,
+ *   and a run stops once it was lost, keeping the orphans tracked so far.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class Reconciler {
+
+    private Logger logger = LoggerFactory.getLogger(Reconciler.class);
+
+    /**
+     * Most users the Atlas API returns per page
+     */
+    private static final int MAX_USERS_PER_PAGE = 500;
+
+    private ClusterRegistry clusterRegistry;
+
+    private AtlasAdminService atlasAdminService;
+
+    private BrokerConfig brokerConfig;
+
+    private MongoOperations mongoOperations;
+
+    private AsyncTaskExecutor reconcileExecutor;
+
+    private LeaseService leaseService;
+
+    private final Pattern databasePattern;
+
+    private final Pattern userPattern;
+
+    private final Counter orphanDatabases;
+
+    private final Counter orphanUsers;
+
+    private final Counter removed;
+
+    private final Counter failed;
+
+    private final Counter danglingInstances;
+
+    private final Counter danglingBindings;
+
+    private final Timer runs;
+
+    @Value("${ATLAS_RECONCILE_ENABLED:false}")
+    private boolean enabled;
+
+    @Value("${ATLAS_RECONCILE_DRY_RUN:true}")
+    private boolean dryRun;
+
+    @Value("${ATLAS_RECONCILE_PAGE_SIZE:500}")
+    private int pageSize;
+
+    @Value("${ATLAS_RECONCILE_GRACE_PERIOD_MS:3600000}")
+    private long gracePeriod;
+
+    @Value("${ATLAS_RECONCILE_PARALLELISM:4}")
+    private int parallelism;
+
+    @Value("${ATLAS_RECONCILE_EXPECTED_OBJECTS:1000000}")
+    private int expectedObjects;
+
+    @Value("${ATLAS_RECONCILE_MAX_SUSPECTS:10000}")
+    private int maxSuspects;
+
+    /**
+     * Time each orphan found by the last run was first found, by kind, location and name
+     */
+    private Map<String, Long> suspects = Collections.emptyMap();
+
+    @Autowired
+    public Reconciler(final ClusterRegistry clusterRegistry,
+                      final AtlasAdminService atlasAdminService,
+                      final BrokerConfig brokerConfig,
+                      final MongoOperations mongoOperations,
+                      @Qualifier("reconcileExecutor") final AsyncTaskExecutor reconcileExecutor,
+                      final LeaseService leaseService,
+                      final MetricRegistry metricRegistry,
+                      @Value("${ATLAS_RECONCILE_DATABASE_PATTERN:(pool-)?[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}}") final String databasePattern,
+                      @Value("${ATLAS_RECONCILE_USER_PATTERN:[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}}") final String userPattern) {
+        this.clusterRegistry = clusterRegistry;
+        this.atlasAdminService = atlasAdminService;
+        this.brokerConfig = brokerConfig;
+        this.mongoOperations = mongoOperations;
+        this.reconcileExecutor = reconcileExecutor;
+        this.leaseService = leaseService;
+        this.databasePattern = Pattern.compile(databasePattern);
+        this.userPattern = Pattern.compile(userPattern);
+        this.orphanDatabases = metricRegistry.counter("reconcile.orphan.databases");
+        this.orphanUsers = metricRegistry.counter("reconcile.orphan.users");
+        this.removed = metricRegistry.counter("reconcile.removed");
+        this.failed = metricRegistry.counter("reconcile.failed");
+        this.danglingInstances = metricRegistry.counter("reconcile.dangling.instances");
+        this.danglingBindings = metricRegistry.counter("reconcile.dangling.bindings");
+        this.runs = metricRegistry.timer("reconcile.runs");
+    }
+
+    /**
+     * Reconcile every ATLAS_RECONCILE_INTERVAL_MS when enabled
+     */
+    @Scheduled(initialDelayString = "${ATLAS_RECONCILE_INTERVAL_MS:3600000}",
+            fixedDelayString = "${ATLAS_RECONCILE_INTERVAL_MS:3600000}")
+    public void scheduledReconcile() {
+        if (!enabled) {
+            return;
+        }
+
+        final Lease lease = leaseService.tryAcquire(Lease.jobKey("reconcile"));
+        if (lease == null) {
+            // another replica is reconciling
+            return;
+        }
+        try {
+            reconcile(lease);
+        } finally {
+            leaseService.release(lease);
+        }
+    }
+
+    /**
+     * Find the orphans and dangling records, and remove the orphans unless in dry-run mode
+     *
+     * @return
+     */
+    public ReconcileReport reconcile() {
+        return reconcile(null);
+    }
+
+    /**
+     * Find the orphans and dangling records, and remove the orphans unless in dry-run mode
+     *
+     * @param lease lease of the scheduled job, renewed as the run goes, or null
+     * @return
+     */
+    private synchronized ReconcileReport reconcile(final Lease lease) {
+        final Run run = new Run(new ReconcileReport(dryRun), lease);
+        final Timer.Context timer = runs.time();
+        try {
+            for (final AtlasCluster cluster : clusterRegistry.getClusters()) {
+                try {
+                    scanDatabases(run, cluster);
+                    if (run.lost) {
+                        break;
+                    }
+                    run.scannedClusters.add(cluster.getId());
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to scan the databases of Atlas cluster {}", cluster.getId(), e);
+                }
+            }
+
+            final Set<String> groupIds = new LinkedHashSet<>();
+            for (final AtlasCluster cluster : clusterRegistry.getClusters()) {
+                groupIds.add(cluster.getGroupId());
+            }
+            boolean usersScanned = true;
+            for (final String groupId : groupIds) {
+                if (run.lost) {
+                    break;
+                }
+                try {
+                    scanUsers(run, groupId);
+                } catch (RuntimeException e) {
+                    usersScanned = false;
+                    logger.warn("Failed to scan the users of Atlas group {}", groupId, e);
+                }
+            }
+
+            run.awaitRemovals();
+            if (run.lost) {
+                logger.warn("Lost the reconcile lease, stopping: {}", run.report);
+                // the orphans not reached keep the time they were first found
+                final Map<String, Long> tracked = new HashMap<>(suspects);
+                tracked.putAll(run.suspects);
+                suspects = tracked;
+                return run.report;
+            }
+            suspects = run.suspects;
+
+            checkInstances(run);
+            if (usersScanned) {
+                checkBindings(run);
+            }
+        } finally {
+            timer.stop();
+        }
+
+        logger.info("Reconciled: {}", run.report);
+        return run.report;
+    }
+
+    private void scanDatabases(final Run run, final AtlasCluster cluster) {
+        final List<String> page = new ArrayList<>(pageSize);
+        for (final String name : cluster.getMongoClient().listDatabaseNames()) {
+            run.databases.put(key(cluster.getId(), name));
+            if (databasePattern.matcher(name).matches()) {
+                page.add(name);
+                if (page.size() == pageSize) {
+                    if (!run.renew()) {
+                        return;
+                    }
+                    checkDatabases(run, cluster, page);
+                    page.clear();
+                }
+            }
+        }
+        if (!page.isEmpty() && run.renew()) {
+            checkDatabases(run, cluster, page);
+        }
+    }
+
+    private void checkDatabases(final Run run, final AtlasCluster cluster, final List<String> names) {
+        run.report.databases.addAndGet(names.size());
+        final Set<String> owned = ownedDatabases(cluster, names);
+        for (final String name : names) {
+            if (!owned.contains(name)) {
+                orphan(run, "database:" + key(cluster.getId(), name), new Removal() {
+                    @Override
+                    boolean isOwned() {
+                        return ownedDatabases(cluster, Collections.singletonList(name)).contains(name);
+                    }
+
+                    @Override
+                    void remove() {
+                        atlasAdminService.deleteDatabase(cluster.getId(), name);
+                    }
+                });
+            }
+        }
+    }
+
+    private void scanUsers(final Run run, final String groupId) {
+        final int perPage = Math.min(pageSize, MAX_USERS_PER_PAGE);
+        for (int pageNum = 1; run.renew(); pageNum++) {
+            final List<DatabaseUser> users = atlasAdminService.listUsers(brokerConfig.getApiBase(), groupId, pageNum, perPage);
+            final List<String> names = new ArrayList<>(users.size());
+            for (final DatabaseUser user : users) {
+                run.users.put(user.getUsername());
+                if (userPattern.matcher(user.getUsername()).matches()) {
+                    names.add(user.getUsername());
+                }
+            }
+            if (!names.isEmpty()) {
+                checkUsers(run, groupId, names);
+            }
+            if (users.size() < perPage) {
+                return;
+            }
+        }
+    }
+
+    private void checkUsers(final Run run, final String groupId, final List<String> names) {
+        run.report.users.addAndGet(names.size());
+        final Set<String> owned = ownedUsers(names);
+        for (final String name : names) {
+            if (!owned.contains(name)) {
+                orphan(run, "user:" + key(groupId, name), new Removal() {
+                    @Override
+                    boolean isOwned() {
+                        return ownedUsers(Collections.singletonList(name)).contains(name);
+                    }
+
+                    @Override
+                    void remove() {
+                        atlasAdminService.deleteUser(brokerConfig.getApiBase(), groupId, name);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Names of the databases of a cluster owned by an instance, a warm pool entry
+     * or an unfinished operation, or queued to be dropped
+     *
+     * @param cluster
+     * @param names
+     * @return
+     */
+    private Set<String> ownedDatabases(final AtlasCluster cluster, final Collection<String> names) {
+        final Set<String> owned = new HashSet<>();
+
+        final Query instances = query(new Criteria().orOperator(where("_id").in(names), where("databaseName").in(names)));
+        instances.fields().include("databaseName").include("clusterId");
+        for (final ServiceInstance instance : mongoOperations.find(instances, ServiceInstance.class)) {
+            if (isOn(cluster, instance.getClusterId())) {
+                owned.add(instance.getDatabaseName());
+            }
+        }
+
+        // the leftovers of failed entries are orphans
+        final Query entries = query(where("_id").in(names).and("state").ne(WarmPoolEntry.State.FAILED));
+        entries.fields().include("clusterId");
+        for (final WarmPoolEntry entry : mongoOperations.find(entries, WarmPoolEntry.class)) {
+            if (isOn(cluster, entry.getClusterId())) {
+                owned.add(entry.getDatabaseName());
+            }
+        }
+
+        // a retry of an unfinished operation resumes with the database it made
+        final Query operations = query(where("type").in(JournalEntry.Type.CREATE_INSTANCE, JournalEntry.Type.DELETE_INSTANCE)
+                .orOperator(where("serviceInstanceId").in(names), where("databaseName").in(names)));
+        operations.fields().include("serviceInstanceId").include("databaseName").include("clusterId");
+        for (final JournalEntry operation : mongoOperations.find(operations, JournalEntry.class)) {
+            // new databases are named after the instance
+            final String name = operation.getDatabaseName() == null
+                    ? operation.getServiceInstanceId()
+                    : operation.getDatabaseName();
+            if (names.contains(name) && isOn(cluster, operation.getClusterId())) {
+                owned.add(name);
+            }
+        }
+
+        // queued drops are left to the dropper
+        final Query drops = query(where("databaseName").in(names));
+        drops.fields().include("databaseName").include("clusterId");
+        for (final DatabaseDrop drop : mongoOperations.find(drops, DatabaseDrop.class)) {
+            if (isOn(cluster, drop.getClusterId())) {
+                owned.add(drop.getDatabaseName());
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * Users owned by a binding, a warm pool entry or an unfinished operation
+     *
+     * @param names
+     * @return
+     */
+    private Set<String> ownedUsers(final Collection<String> names) {
+        final Set<String> owned = new HashSet<>();
+
+        // bindings created before usernames were recorded are named after their id
+        final Query bindings = query(new Criteria().orOperator(where("_id").in(names), where("username").in(names)));
+        bindings.fields().include("username");
+        for (final ServiceInstanceBinding binding : mongoOperations.find(bindings, ServiceInstanceBinding.class)) {
+            owned.add(binding.getUsername());
+        }
+
+        final Query entries = query(where("username").in(names).and("state").ne(WarmPoolEntry.State.FAILED));
+        entries.fields().include("username");
+        for (final WarmPoolEntry entry : mongoOperations.find(entries, WarmPoolEntry.class)) {
+            owned.add(entry.getUsername());
+        }
+
+        // a retry of an unfinished binding resumes with the user it made, named after the binding until recorded
+        final Query operations = query(new Criteria().orOperator(where("username").in(names), where("bindingId").in(names)));
+        operations.fields().include("username").include("bindingId");
+        for (final JournalEntry operation : mongoOperations.find(operations, JournalEntry.class)) {
+            if (names.contains(operation.getUsername())) {
+                owned.add(operation.getUsername());
+            }
+            if (names.contains(operation.getBindingId())) {
+                owned.add(operation.getBindingId());
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * Track an orphan, and remove it once past the grace period
+     *
+     * @param run
+     * @param key
+     * @param removal
+     */
+    private void orphan(final Run run, final String key, final Removal removal) {
+        Long firstFound = suspects.get(key);
+        if (firstFound == null) {
+            firstFound = run.started;
+        }
+        if (run.suspects.size() < maxSuspects) {
+            run.suspects.put(key, firstFound);
+        } else if (!run.suspectsCapped) {
+            run.suspectsCapped = true;
+            logger.warn("More than {} orphans found, the others are tracked from a later run", maxSuspects);
+        }
+        if (run.started - firstFound < gracePeriod) {
+            return;
+        }
+
+        if (key.startsWith("database:")) {
+            run.report.orphanDatabases.incrementAndGet();
+            orphanDatabases.inc();
+        } else {
+            run.report.orphanUsers.incrementAndGet();
+            orphanUsers.inc();
+        }
+        if (dryRun) {
+            logger.info("Found orphan {}", key);
+            return;
+        }
+        run.remove(key, removal);
+    }
+
+    /**
+     * Report instances whose database is missing from a scanned cluster
+     *
+     * @param run
+     */
+    private void checkInstances(final Run run) {
+        final Set<String> inProgress = new HashSet<>();
+        final Query operations = query(where("state").is(OperationState.IN_PROGRESS));
+        operations.fields().include("_id");
+        for (final ServiceInstanceOperation operation : mongoOperations.find(operations, ServiceInstanceOperation.class)) {
+            inProgress.add(operation.getServiceInstanceId());
+        }
+
+        final Query instances = new Query();
+        instances.fields().include("databaseName").include("clusterId");
+        try (CloseableIterator<ServiceInstance> iterator = mongoOperations.stream(instances, ServiceInstance.class)) {
+            while (iterator.hasNext() && run.renew()) {
+                final ServiceInstance instance = iterator.next();
+                final String clusterId = instance.getClusterId() == null
+                        ? clusterRegistry.getDefault().getId()
+                        : instance.getClusterId();
+                if (run.scannedClusters.contains(clusterId)
+                        && !inProgress.contains(instance.getServiceInstanceId())
+                        && !run.databases.mightContain(key(clusterId, instance.getDatabaseName()))) {
+                    run.report.danglingInstances.incrementAndGet();
+                    danglingInstances.inc();
+                    logger.warn("Service instance {} has no database {} on Atlas cluster {}",
+                            instance.getServiceInstanceId(), instance.getDatabaseName(), clusterId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Report bindings whose user is missing
+     *
+     * @param run
+     */
+    private void checkBindings(final Run run) {
+        final Query bindings = new Query();
+        bindings.fields().include("username");
+        try (CloseableIterator<ServiceInstanceBinding> iterator = mongoOperations.stream(bindings, ServiceInstanceBinding.class)) {
+            while (iterator.hasNext() && run.renew()) {
+                final ServiceInstanceBinding binding = iterator.next();
+                if (!run.users.mightContain(binding.getUsername())) {
+                    run.report.danglingBindings.incrementAndGet();
+                    danglingBindings.inc();
+                    logger.warn("Service instance binding {} has no user {}", binding.getId(), binding.getUsername());
+                }
+            }
+        }
+    }
+
+    private boolean isOn(final AtlasCluster cluster, final String clusterId) {
+        return clusterId == null ? cluster == clusterRegistry.getDefault() : clusterId.equals(cluster.getId());
+    }
+
+    private static String key(final String location, final String name) {
+        return location + '/' + name;
+    }
+
+    /**
+     * Removal of an orphan
+     */
+    private abstract static class Removal {
+
+        abstract boolean isOwned();
+
+        abstract void remove();
+    }
+
+    /**
+     * State of a reconciliation run
+     */
+    private class Run {
+
+        private final ReconcileReport report;
+
+        private final long started = System.currentTimeMillis();
+
+        private final BloomFilter<CharSequence> databases =
+                BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedObjects, 0.01);
+
+        private final BloomFilter<CharSequence> users =
+                BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedObjects, 0.01);
+
+        private final Set<String> scannedClusters = new HashSet<>();
+
+        private final Map<String, Long> suspects = new HashMap<>();
+
+        private boolean suspectsCapped;
+
+        private final Semaphore removals = new Semaphore(parallelism);
+
+        private final Lease lease;
+
+        private boolean lost;
+
+        private Run(final ReconcileReport report, final Lease lease) {
+            this.report = report;
+            this.lease = lease;
+        }
+
+        /**
+         * Renew the lease of the run, if any
+         *
+         * @return false once the lease was lost and the run should stop
+         */
+        private boolean renew() {
+            if (lease != null && !lost && !leaseService.renew(lease)) {
+                lost = true;
+            }
+            return !lost;
+        }
+
+        /**
+         * Remove an orphan on the reconcile executor, waiting while ATLAS_RECONCILE_PARALLELISM are in progress
+         *
+         * @param key
+         * @param removal
+         */
+        private void remove(final String key, final Removal removal) {
+            removals.acquireUninterruptibly();
+            try {
+                reconcileExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (removal.isOwned()) {
+                                logger.info("Orphan {} was claimed meanwhile", key);
+                                return;
+                            }
+                            removal.remove();
+                            report.removed.incrementAndGet();
+                            removed.inc();
+                            logger.info("Removed orphan {}", key);
+                        } catch (RuntimeException e) {
+                            report.failed.incrementAndGet();
+                            failed.inc();
+                            logger.warn("Failed to remove orphan {}", key, e);
+                        } finally {
+                            removals.release();
+                        }
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                removals.release();
+                report.failed.incrementAndGet();
+                failed.inc();
+                logger.warn("Failed to remove orphan {}", key, e);
+            }
+        }
+
+        private void awaitRemovals() {
+            removals.acquireUninterruptibly(parallelism);
+            removals.release(parallelism);
+        }
+    }
+}
@@ -1,13 +1,56 @@
 package org.springframework.cloud.servicebroker.mongodb.atlas.repository;
 
+import org.springframework.cache.annotation.CacheConfig;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.util.List;
 
 /**
  * Repository for ServiceInstanceBinding objects
+ * <p>
+ * NOTE:
+ *   Lookups by id are served from the "serviceInstanceBindings" cache,
+ *   including misses, which is written through on save and delete.
+ *   Entries may be stale when other replicas write the same bindings, so
+ *   checks guarding writes use the uncached findById.
  *
  * @author ipolyzos
  */
+@CacheConfig(cacheNames = "serviceInstanceBindings")
 public interface AtlasServiceInstanceBindingRepository extends MongoRepository<ServiceInstanceBinding, String> {
 
-}
\ No newline at end of file
+	@Override
+	@Cacheable
+	ServiceInstanceBinding findOne(String id);
+
+	/**
+	 * Uncached lookup, seeing the writes of every replica
+	 *
+	 * @param id
+	 * @return
+	 */
+	ServiceInstanceBinding findById(String id);
+
+	/**
+	 * Uncached lookup of the bindings of an instance, reading only their
+	 * id and user
+	 *
+	 * @param serviceInstanceId
+	 * @return
+	 */
+	@Query(value = "{ 'serviceInstanceId' : ?0 }", fields = "{ 'username' : 1 }")
+	List<ServiceInstanceBinding> findByServiceInstanceId(String serviceInstanceId);
+
+	@Override
+	@CachePut(key = "#p0.id")
+	<S extends ServiceInstanceBinding> S save(S binding);
+
+	@Override
+	@CacheEvict
+	void delete(String id);
+}
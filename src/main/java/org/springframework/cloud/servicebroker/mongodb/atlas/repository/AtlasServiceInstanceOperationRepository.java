@@ -0,0 +1,13 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.repository;
+
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+/**
+ * Repository for ServiceInstanceOperation objects
+ *
+ * @author ipolyzos
+ */
+public interface AtlasServiceInstanceOperationRepository extends MongoRepository<ServiceInstanceOperation, String> {
+
+}
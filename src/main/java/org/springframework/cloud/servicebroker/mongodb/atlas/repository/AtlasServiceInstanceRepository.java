@@ -1,13 +1,43 @@
 package org.springframework.cloud.servicebroker.mongodb.atlas.repository;
 
+import org.springframework.cache.annotation.CacheConfig;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 /**
  * Repository for ServiceInstance objects
+ * <p>
+ * NOTE:
+ *   Lookups by id are served from the "serviceInstances" cache, including
+ *   misses, which is written through on save and delete. Entries may be
+ *   stale when other replicas write the same instances, so checks guarding
+ *   writes use the uncached findById.
  * 
  * @author ipolyzos
  */
+@CacheConfig(cacheNames = "serviceInstances")
 public interface AtlasServiceInstanceRepository extends MongoRepository<ServiceInstance, String> {
 
-}
\ No newline at end of file
+	@Override
+	@Cacheable
+	ServiceInstance findOne(String id);
+
+	/**
+	 * Uncached lookup, seeing the writes of every replica
+	 *
+	 * @param id
+	 * @return
+	 */
+	ServiceInstance findById(String id);
+
+	@Override
+	@CachePut(key = "#p0.serviceInstanceId")
+	<S extends ServiceInstance> S save(S instance);
+
+	@Override
+	@CacheEvict
+	void delete(String id);
+}
@@ -0,0 +1,56 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.repository;
+
+import com.mongodb.WriteResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.context.ApplicationListener;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Versions the instance and binding records written before records were
+ * versioned.
+ * <p>
+ * NOTE:
+ *   A record without a version reads as a new one, which saving would try
+ *   to insert again. Stamping them with version 0 on startup makes their
+ *   next save a conditional update; replicas starting together stamp the
+ *   same records with the same version, so the migration may run anywhere.
+ *
+ * @author ipolyzos
+ */
+@Component
+public class RecordVersionMigration implements ApplicationListener<ApplicationReadyEvent> {
+
+    private Logger logger = LoggerFactory.getLogger(RecordVersionMigration.class);
+
+    private MongoOperations mongoOperations;
+
+    @Autowired
+    public RecordVersionMigration(final MongoOperations mongoOperations) {
+        this.mongoOperations = mongoOperations;
+    }
+
+    @Override
+    public void onApplicationEvent(final ApplicationReadyEvent event) {
+        for (final Class<?> type : new Class<?>[] {ServiceInstance.class, ServiceInstanceBinding.class}) {
+            try {
+                final WriteResult result = mongoOperations.updateMulti(query(where("version").exists(false)),
+                        new Update().set("version", 0L), type);
+                if (result.getN() > 0) {
+                    logger.info("Versioned {} {} records", result.getN(), type.getSimpleName());
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to version {} records, retried on next start", type.getSimpleName(), e);
+            }
+        }
+    }
+}
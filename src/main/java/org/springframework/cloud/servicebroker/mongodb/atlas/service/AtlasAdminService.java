@@ -1,7 +1,8 @@
 package org.springframework.cloud.servicebroker.mongodb.atlas.service;
 
-import com.google.common.collect.Iterables;
-import com.mongodb.ConnectionString;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
@@ -9,17 +10,26 @@ import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.AtlasRequestExecutor;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
 import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.Nullable;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-
-import static com.google.common.base.Joiner.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utility class for manipulating Atlas Mongo database.
@@ -28,6 +38,9 @@ import static com.google.common.base.Joiner.*;
  *   Some operation apply through Atlas Rest API therefore both
  *   mongodb driver and restfull clients used.
  *
+ *   Database operations are routed to the cluster owning the database,
+ *   user operations to the Atlas group of that cluster.
+ *
  * @author ipolyzos
  */
 @Service
@@ -41,52 +54,79 @@ public class AtlasAdminService {
     public static final String ADMIN_DB = "admin";
 
     /**
-     * MongoDB client
+     * Role granted to binding users on their instance database
+     */
+    public static final String READ_WRITE_ROLE = "readWrite";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Clusters hosting the databases
      */
-    private MongoClient mongoClient;
+    private ClusterRegistry clusterRegistry;
 
     /**
      * Jersey Rest Client
      */
     private Client restClient;
 
+    /**
+     * Rate limiting and retrying executor of Atlas API calls
+     */
+    private AtlasRequestExecutor requestExecutor;
+
+    /**
+     * databaseUsers targets, per API base and group
+     */
+    private final ConcurrentMap<String, WebTarget> databaseUsersTargets = new ConcurrentHashMap<>();
+
     @Autowired
-    public AtlasAdminService(final MongoClient dbClient,
-                             final Client restClient) {
-        this.mongoClient = dbClient;
+    public AtlasAdminService(final ClusterRegistry clusterRegistry,
+                             final Client restClient,
+                             final AtlasRequestExecutor requestExecutor) {
+        this.clusterRegistry = clusterRegistry;
         this.restClient = restClient;
+        this.requestExecutor = requestExecutor;
     }
 
     /**
      * Check if Database exists
+     * <p>
+     * NOTE:
+     *   A database exists as long as it holds a collection, therefore the
+     *   check lists at most one collection of the target database rather
+     *   than every database name of the cluster.
      *
+     * @param clusterId
      * @param databaseName
      * @return
      * @throws AtlasServiceException
      */
-    public boolean databaseExists(final String databaseName) throws AtlasServiceException {
-        return Iterables.contains(mongoClient.listDatabaseNames(), databaseName);
+    public boolean databaseExists(final String clusterId, final String databaseName) throws AtlasServiceException {
+        return mongoClient(clusterId).getDatabase(databaseName).listCollectionNames().batchSize(1).first() != null;
     }
 
     /**
      * Drop MongoDB Database
      *
+     * @param clusterId
      * @param databaseName
      * @throws AtlasServiceException
      */
-    public void deleteDatabase(final String databaseName) throws AtlasServiceException {
-        mongoClient.getDatabase(databaseName).drop();
+    public void deleteDatabase(final String clusterId, final String databaseName) throws AtlasServiceException {
+        mongoClient(clusterId).getDatabase(databaseName).drop();
     }
 
     /**
      * Create a MongoDB Database
      *
+     * @param clusterId
      * @param databaseName
      * @return
      * @throws AtlasServiceException
      */
-    public MongoDatabase createDatabase(final String databaseName) throws AtlasServiceException {
-        final MongoDatabase db = mongoClient.getDatabase(databaseName);
+    public MongoDatabase createDatabase(final String clusterId, final String databaseName) throws AtlasServiceException {
+        final MongoDatabase db = mongoClient(clusterId).getDatabase(databaseName);
 
         // retrieve collection if exist
         final MongoCollection<org.bson.Document> collection = db.getCollection("foobar");
@@ -99,7 +139,7 @@ public class AtlasAdminService {
     }
 
     /**
-     * Create a MongoDB user for database
+     * Create a MongoDB user with the readWrite role on a database
      *
      * @param apiBase
      * @param groupId
@@ -113,75 +153,231 @@ public class AtlasAdminService {
                            final String database,
                            final String username,
                            final String password) throws AtlasServiceException {
-        // Construct and set target URI for the REST call
-        final String target = String.format("%s/groups/%s/databaseUsers", apiBase, groupId);
-        final WebTarget webTarget = restClient.target(target);
+        createUser(apiBase, groupId, new DatabaseUser(username, password).withRole(database, READ_WRITE_ROLE));
+    }
+
+    /**
+     * Create a MongoDB user
+     * <p>
+     * NOTE:
+     *   The payload is streamed into the request by the DatabaseUserWriter
+     *   registered on the rest client.
+     *
+     * @param apiBase
+     * @param groupId
+     * @param user
+     * @throws AtlasServiceException
+     */
+    public void createUser(final String apiBase,
+                           final String groupId,
+                           final DatabaseUser user) throws AtlasServiceException {
+        final WebTarget webTarget = databaseUsersTarget(apiBase, groupId);
 
         // call create user API
-        final Response response = webTarget.request(MediaType.APPLICATION_JSON)
-                .post(Entity.json(createAddUserJsonRequest(database, username, password)));
+        final Invocation invocation = webTarget.request(MediaType.APPLICATION_JSON)
+                .buildPost(Entity.entity(user, MediaType.APPLICATION_JSON_TYPE));
+        checkResponse(requestExecutor.execute(groupId, invocation, false), "create user " + user.getUsername(), false);
     }
 
     /**
-     * Delete MogoDB Database and User from MongoDB
+     * Replace the roles of a MongoDB user
      * <p>
      * NOTE:
-     * This action delete the MongoDB database
+     *   A user without a password is written without one, leaving the
+     *   password unchanged.
      *
-     * @param database
-     * @param username
+     * @param apiBase
+     * @param groupId
+     * @param user
      * @throws AtlasServiceException
      */
-    public void deleteDatabaseAndUser(final String apiBase,
-                                      final String groupId,
-                                      final String database,
-                                      final String username) throws AtlasServiceException {
-        /**
-         * Delete USER
-         */
-        // Construct and set target URImin the REST call
-        final String target = String.format("%s/groups/%s/databaseUsers/admin/%s",apiBase, groupId, username);
-        final WebTarget webTarget = restClient.target(target);
-
-        // call delete user API
-        final Response response = webTarget.request(MediaType.APPLICATION_JSON).delete();
-
-        /**
-         *  Drop MongoDB DATABASE
-         */
-        mongoClient.getDatabase(database).drop();
+    public void updateUser(final String apiBase,
+                           final String groupId,
+                           final DatabaseUser user) throws AtlasServiceException {
+        final WebTarget webTarget = databaseUsersTarget(apiBase, groupId).path(ADMIN_DB).path(user.getUsername());
+
+        // call update user API
+        final Invocation invocation = webTarget.request(MediaType.APPLICATION_JSON)
+                .build("PATCH", Entity.entity(user, MediaType.APPLICATION_JSON_TYPE));
+        checkResponse(requestExecutor.execute(groupId, invocation), "update user " + user.getUsername(), false);
     }
 
-    /* ********************************************************************* Utility methods */
+    /**
+     * List a page of the MongoDB users of a group
+     * <p>
+     * NOTE:
+     *   The page is read with a streaming parser keeping only the username
+     *   and roles of each user.
+     *
+     * @param apiBase
+     * @param groupId
+     * @param pageNum      page number, from 1
+     * @param itemsPerPage users per page, at most 500
+     * @return users of the page, fewer than itemsPerPage on the last one
+     * @throws AtlasServiceException
+     */
+    public List<DatabaseUser> listUsers(final String apiBase,
+                                        final String groupId,
+                                        final int pageNum,
+                                        final int itemsPerPage) throws AtlasServiceException {
+        final WebTarget webTarget = databaseUsersTarget(apiBase, groupId)
+                .queryParam("pageNum", pageNum)
+                .queryParam("itemsPerPage", itemsPerPage);
+
+        // call list users API
+        final Invocation invocation = webTarget.request(MediaType.APPLICATION_JSON).buildGet();
+        final Response response = requestExecutor.execute(groupId, invocation);
+        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+            checkResponse(response, "list users", false);
+        }
+
+        try (JsonParser parser = JSON_FACTORY.createParser(response.readEntity(InputStream.class))) {
+            return readUsers(parser);
+        } catch (IOException e) {
+            throw new AtlasServiceException("Atlas API returned an unreadable page of users: " + e.getMessage());
+        } finally {
+            response.close();
+        }
+    }
 
     /**
-     * Simplistic method to build the Add User reques's JSON payload
+     * Delete a MongoDB user
      *
-     * @param databaseName
+     * @param apiBase
+     * @param groupId
      * @param username
-     * @param password
+     * @throws AtlasServiceException
+     */
+    public void deleteUser(final String apiBase,
+                           final String groupId,
+                           final String username) throws AtlasServiceException {
+        final WebTarget webTarget = databaseUsersTarget(apiBase, groupId).path(ADMIN_DB).path(username);
+
+        // call delete user API, a user already gone counts as deleted
+        final Invocation invocation = webTarget.request(MediaType.APPLICATION_JSON).buildDelete();
+        checkResponse(requestExecutor.execute(groupId, invocation), "delete user " + username, true);
+    }
+
+    /**
+     * Read the users of a databaseUsers page
+     *
+     * @param parser
      * @return
+     * @throws IOException
      */
-    public static String createAddUserJsonRequest(final String databaseName,
-                                                  final String username,
-                                                  final String password) {
-        return String.format("{ " +
-                "  \"databaseName\" : \"admin\", \n" +
-                "  \"roles\" : [ { \n" +
-                "    \"databaseName\" : \"%s\", \n" +
-                "    \"roleName\" : \"readWrite\"" +
-                "  }],\n" +
-                "  \"username\" : \"%s\",\n" +
-                "  \"password\" : \"%s\"\n" +
-                "}", databaseName, username, password);
+    private static List<DatabaseUser> readUsers(final JsonParser parser) throws IOException {
+        final List<DatabaseUser> users = new ArrayList<>();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("expected an object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_ARRAY && "results".equals(field)) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    users.add(readUser(parser));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return users;
     }
 
+    private static DatabaseUser readUser(final JsonParser parser) throws IOException {
+        String username = null;
+        final List<DatabaseUser.Role> roles = new ArrayList<>(1);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("username".equals(field)) {
+                username = parser.getText();
+            } else if ("roles".equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    final Map<String, String> role = new HashMap<>(4);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String name = parser.getCurrentName();
+                        parser.nextToken();
+                        role.put(name, parser.getValueAsString());
+                        parser.skipChildren();
+                    }
+                    roles.add(new DatabaseUser.Role(role.get("databaseName"), role.get("collectionName"), role.get("roleName")));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        final DatabaseUser user = new DatabaseUser(username, null);
+        for (final DatabaseUser.Role role : roles) {
+            user.withRole(role);
+        }
+        return user;
+    }
+
+    /**
+     * Client of the cluster owning a database
+     *
+     * @param clusterId cluster id, null for the default cluster
+     * @return
+     */
+    private MongoClient mongoClient(final String clusterId) {
+        return clusterRegistry.get(clusterId).getMongoClient();
+    }
+
+    /**
+     * Return the databaseUsers target of a group, building it on first use
+     *
+     * @param apiBase
+     * @param groupId
+     * @return
+     */
+    private WebTarget databaseUsersTarget(final String apiBase, final String groupId) {
+        final String key = apiBase + '|' + groupId;
+        WebTarget webTarget = databaseUsersTargets.get(key);
+        if (webTarget == null) {
+            webTarget = restClient.target(apiBase).path("groups").path(groupId).path("databaseUsers");
+            final WebTarget existing = databaseUsersTargets.putIfAbsent(key, webTarget);
+            if (existing != null) {
+                webTarget = existing;
+            }
+        }
+        return webTarget;
+    }
+
+    /**
+     * Close an Atlas API response, failing unless it reports success
+     *
+     * @param response
+     * @param action description of the call for the error message
+     * @param notFoundAccepted whether 404 counts as success
+     * @throws AtlasServiceException
+     */
+    private void checkResponse(final Response response,
+                               final String action,
+                               final boolean notFoundAccepted) throws AtlasServiceException {
+        try {
+            final int status = response.getStatus();
+            if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL
+                    || (notFoundAccepted && status == Response.Status.NOT_FOUND.getStatusCode())) {
+                return;
+            }
+
+            final String body = response.hasEntity() ? response.readEntity(String.class) : "";
+            logger.error("Atlas API failed to {}: HTTP {} {}", action, status, body);
+            throw new AtlasServiceException(String.format("Atlas API failed to %s: HTTP %d", action, status));
+        } finally {
+            response.close();
+        }
+    }
+
+    /* ********************************************************************* Utility methods */
 
     /**
      * Generate a connection string for new bindings
      *
      * NOTE:
-     *  ToDO: cleanup & proper check for null values
+     *  Parses the endpoint on every call; bindings format the
+     *  ConnectionStringTemplate built once per cluster.
      *
      * @param endpoint
      * @param database
@@ -193,43 +389,6 @@ public class AtlasAdminService {
                                       final String database,
                                       final String username,
                                       final String password) {
-        //extract endpoint values  values
-        final ConnectionString cs = new ConnectionString(endpoint);
-        final String hosts = cs.getHosts() == null ? "" : on(",").join(cs.getHosts());
-        final String ssl = cs.getSslEnabled() == null ? "ssl=false" : safeOptionToString("ssl",Boolean.toString(cs.getSslEnabled()));
-        final String maxIdleTimeMS = cs.getMaxConnectionIdleTime() == null ? "" : safeOptionToString("&maxIdleTimeMS",Integer.toString(cs.getMaxConnectionIdleTime()));
-        final String replicaSet = cs.getRequiredReplicaSetName() == null ? "" : safeOptionToString("&replicaSet",cs.getRequiredReplicaSetName());
-
-        //costruct and return connection string
-        return new StringBuilder()
-                .append("mongodb://")
-                .append(username)
-                .append(":")
-                .append(password)
-                .append("@")
-                .append(hosts)
-                .append("/")
-                .append(database)
-                .append("?")
-                .append(ssl)
-                .append(maxIdleTimeMS)
-                .append(replicaSet)
-                .append("&authSource=admin")
-                .toString();
-    }
-
-    /**
-     * Safely return on key/value pair
-     *
-     * NOTE:
-     *   Target options in the MongoDB URI
-     *
-     * @param key
-     * @param value
-     * @return
-     */
-    private static String safeOptionToString(final String key,
-                                             final @Nullable String value) {
-        return value == null ? "" : String.format("%s=%s", key, value);
+        return new ConnectionStringTemplate(endpoint).format(database, username, password);
     }
 }
@@ -1,20 +1,36 @@
 package org.springframework.cloud.servicebroker.mongodb.atlas.service;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceBindingDoesNotExistException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceBindingExistsException;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceAppBindingResponse;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingResponse;
 import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
 import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
 import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
 import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceRepository;
 import org.springframework.cloud.servicebroker.service.ServiceInstanceBindingService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 /**
@@ -26,6 +42,30 @@ import org.springframework.stereotype.Service;
  *     2. Creates a new user in the database with default pwd of "P@55w0rd"
  *     3. Saves the ServiceInstanceBinding info to the Mongo "admin" repository
  *
+ *   The first binding of an instance backed by a warm pool database takes
+ *   the user pre-created for it instead of creating one, recording it in
+ *   the journal before taking it out of the pool, and sets its password.
+ *
+ *   Users are created in the Atlas group of the cluster hosting the
+ *   instance and credentials point to that cluster.
+ *
+ *   Unbinding only deletes the user; the database belongs to the instance.
+ *
+ *   Every step is recorded in the OperationJournal once done, so a retry
+ *   of an interrupted binding or unbinding resumes where it stopped. The
+ *   journal keeps no password, so a binding resumed after its user was
+ *   created resets the password of that user.
+ *
+ *   Duplicate binding requests, e.g. retries of one that timed out, are
+ *   coalesced by the RequestCoalescer and get the credentials of a single
+ *   binding.
+ *
+ *   Requests hold the lease of the service instance while they check and
+ *   write its bindings, so that broker replicas can serve them concurrently.
+ *   They are rejected with a 422 ConcurrencyError while an asynchronous
+ *   operation of the instance is in progress, and binding an instance
+ *   whose creation failed is refused.
+ *
  *  @author ipolyzos
  */
 @Service
@@ -37,35 +77,140 @@ public class AtlasServiceInstanceBindingService implements ServiceInstanceBindin
 
     private AtlasServiceInstanceBindingRepository bindingRepository;
 
+    private AtlasServiceInstanceRepository instanceRepository;
+
+    private WarmPoolService warmPoolService;
+
+    private ClusterRegistry clusterRegistry;
+
+    private OperationJournal journal;
+
+    private LeaseService leaseService;
+
+    private RequestCoalescer coalescer;
+
+    private OperationTracker operations;
+
     @Autowired
     public AtlasServiceInstanceBindingService(final AtlasAdminService atlasAdminService,
                                               final BrokerConfig brokerConfig,
-                                              final AtlasServiceInstanceBindingRepository bindingRepository) {
+                                              final AtlasServiceInstanceBindingRepository bindingRepository,
+                                              final AtlasServiceInstanceRepository instanceRepository,
+                                              final WarmPoolService warmPoolService,
+                                              final ClusterRegistry clusterRegistry,
+                                              final OperationJournal journal,
+                                              final LeaseService leaseService,
+                                              final RequestCoalescer coalescer,
+                                              final OperationTracker operations) {
         this.atlasAdminService = atlasAdminService;
         this.brokerConfig = brokerConfig;
         this.bindingRepository = bindingRepository;
+        this.instanceRepository = instanceRepository;
+        this.warmPoolService = warmPoolService;
+        this.clusterRegistry = clusterRegistry;
+        this.journal = journal;
+        this.leaseService = leaseService;
+        this.coalescer = coalescer;
+        this.operations = operations;
     }
 
     @Override
     public CreateServiceInstanceBindingResponse createServiceInstanceBinding(final CreateServiceInstanceBindingRequest request) {
+        // retries of a binding in progress, or just completed, get its credentials
+        return coalescer.execute(JournalEntry.key(JournalEntry.Type.CREATE_BINDING, request.getBindingId()),
+                Arrays.asList(request.getServiceInstanceId(), request.getServiceDefinitionId(), request.getPlanId(),
+                        request.getBoundAppGuid(), request.getParameters()),
+                new Callable<CreateServiceInstanceBindingResponse>() {
+                    @Override
+                    public CreateServiceInstanceBindingResponse call() {
+                        return bindOnce(request);
+                    }
+                });
+    }
+
+    /**
+     * Create a binding unless it exists
+     *
+     * @param request
+     * @return
+     */
+    private CreateServiceInstanceBindingResponse bindOnce(final CreateServiceInstanceBindingRequest request) {
         final String bindingId = request.getBindingId();
         final String serviceInstanceId = request.getServiceInstanceId();
 
-        ServiceInstanceBinding binding = bindingRepository.findOne(bindingId);
-        if (binding != null) {
+        final Lease lease = leaseService.acquire(Lease.instanceKey(serviceInstanceId));
+        try {
+            // not the cache, which may hold a binding another replica deleted or miss one it created
+            if (bindingRepository.findById(bindingId) != null) {
+                throw new ServiceInstanceBindingExistsException(serviceInstanceId, bindingId);
+            }
+            return bind(request);
+        } catch (DuplicateKeyException e) {
             throw new ServiceInstanceBindingExistsException(serviceInstanceId, bindingId);
+        } finally {
+            leaseService.release(lease);
         }
+    }
 
-        // early attempt toward secure password generation
-        final String password =  UUID.randomUUID().toString();
-        atlasAdminService.createUser(brokerConfig.getApiBase(), brokerConfig.getGroupId(),serviceInstanceId, bindingId, password);
+    /**
+     * Create a binding known not to exist
+     *
+     * @param request
+     * @return
+     */
+    private CreateServiceInstanceBindingResponse bind(final CreateServiceInstanceBindingRequest request) {
+        final String bindingId = request.getBindingId();
+        final String serviceInstanceId = request.getServiceInstanceId();
+        // the database of an instance created asynchronously exists once its creation succeeded
+        final ServiceInstanceOperation operation = operations.checkNotInProgress(serviceInstanceId);
+        if (operation != null && operation.getType() == ServiceInstanceOperation.Type.CREATE
+                && operation.getState() == OperationState.FAILED) {
+            throw new ServiceBrokerException("Creation of service instance " + serviceInstanceId
+                    + " failed, it cannot be bound");
+        }
+        final ServiceInstance instance = instanceRepository.findById(serviceInstanceId);
+        final AtlasCluster cluster = getCluster(instance);
+        final String database = getDatabaseName(serviceInstanceId, instance);
 
-        final Map<String, Object> credentials = Collections.singletonMap("uri", (Object) atlasAdminService.getConnectionString(brokerConfig.getEndpoint(), serviceInstanceId, bindingId, password));
+        final JournalEntry entry = journal.begin(
+                JournalEntry.createBinding(serviceInstanceId, bindingId, request.getBoundAppGuid()));
+        try {
+            String password = null;
+            if (!entry.isDone(JournalEntry.Step.CREATE_USER)) {
+                claimPooledUser(entry, serviceInstanceId);
+                final String username;
+                if (entry.isDone(JournalEntry.Step.CLAIM_USER)) {
+                    username = entry.getUsername();
+                } else {
+                    // early attempt toward secure password generation
+                    username = bindingId;
+                    password = UUID.randomUUID().toString();
+                    createUser(entry, cluster.getGroupId(), database, username, password);
+                }
+                journal.completed(entry.withUsername(username), JournalEntry.Step.CREATE_USER,
+                        new Update().set("username", username));
+            }
+            if (password == null) {
+                // neither the journal nor the pool keeps passwords, so a pooled user or one an earlier attempt
+                // created gets a new one
+                password = UUID.randomUUID().toString();
+                atlasAdminService.updateUser(brokerConfig.getApiBase(), cluster.getGroupId(),
+                        new DatabaseUser(entry.getUsername(), password).withRole(database, AtlasAdminService.READ_WRITE_ROLE));
+            }
 
-        binding = new ServiceInstanceBinding(bindingId, serviceInstanceId, credentials, null, request.getBoundAppGuid());
-        bindingRepository.save(binding);
+            final Map<String, Object> credentials = Collections.singletonMap("uri",
+                    (Object) cluster.getConnectionStringTemplate().format(database, entry.getUsername(), password));
 
-        return new CreateServiceInstanceAppBindingResponse().withCredentials(credentials);
+            final ServiceInstanceBinding binding = new ServiceInstanceBinding(bindingId, serviceInstanceId, credentials, null, request.getBoundAppGuid())
+                    .withUsername(entry.getUsername());
+            bindingRepository.save(binding);
+            journal.finish(entry);
+
+            return new CreateServiceInstanceAppBindingResponse().withCredentials(credentials);
+        } catch (RuntimeException e) {
+            journal.fail(entry, e);
+            throw e;
+        }
     }
 
     @Override
@@ -73,16 +218,119 @@ public class AtlasServiceInstanceBindingService implements ServiceInstanceBindin
         final String bindingId = request.getBindingId();
         final String serviceInstanceId = request.getServiceInstanceId();
 
-        final ServiceInstanceBinding binding = getServiceInstanceBinding(bindingId);
-        if (binding == null) {
-            throw new ServiceInstanceBindingDoesNotExistException(bindingId);
+        final Lease lease = leaseService.acquire(Lease.instanceKey(serviceInstanceId));
+        try {
+            final ServiceInstanceBinding binding = bindingRepository.findById(bindingId);
+            if (binding == null) {
+                throw new ServiceInstanceBindingDoesNotExistException(bindingId);
+            }
+            operations.checkNotInProgress(serviceInstanceId);
+            unbind(binding);
+        } finally {
+            leaseService.release(lease);
         }
+    }
+
+    /**
+     * Delete an existing binding
+     *
+     * @param binding its record
+     */
+    private void unbind(final ServiceInstanceBinding binding) {
+        final String bindingId = binding.getId();
+        coalescer.forget(JournalEntry.key(JournalEntry.Type.CREATE_BINDING, bindingId));
+        final String serviceInstanceId = binding.getServiceInstanceId();
+        // read under the lease, the cache may be behind writes of another replica
+        final ServiceInstance instance = instanceRepository.findById(serviceInstanceId);
+        final AtlasCluster cluster = getCluster(instance);
+        final JournalEntry entry = journal.begin(
+                JournalEntry.deleteBinding(serviceInstanceId, bindingId, binding.getUsername()));
+        try {
+            journal.step(entry, JournalEntry.Step.DELETE_USER, new Runnable() {
+                @Override
+                public void run() {
+                    // the database belongs to the instance and outlives its bindings
+                    atlasAdminService.deleteUser(brokerConfig.getApiBase(), cluster.getGroupId(), binding.getUsername());
+                }
+            });
+            bindingRepository.delete(bindingId);
+            journal.finish(entry);
+        } catch (RuntimeException e) {
+            journal.fail(entry, e);
+            throw e;
+        }
+    }
 
-        atlasAdminService.deleteDatabaseAndUser(brokerConfig.getApiBase(), brokerConfig.getGroupId(), serviceInstanceId, bindingId);
-        bindingRepository.delete(bindingId);
+    /**
+     * Take the pooled user of the instance, if any. Its username is journaled
+     * before it leaves the pool, so that an interrupted bind cannot leave it
+     * without an owner.
+     *
+     * @param entry journal of the binding
+     * @param serviceInstanceId
+     */
+    private void claimPooledUser(final JournalEntry entry, final String serviceInstanceId) {
+        if (!entry.isDone(JournalEntry.Step.CLAIM_USER)) {
+            // the lease of the instance keeps other bindings from claiming it meanwhile
+            final WarmPoolEntry pooled = warmPoolService.findUser(serviceInstanceId);
+            if (pooled == null) {
+                return;
+            }
+            journal.completed(entry.withUsername(pooled.getUsername()), JournalEntry.Step.CLAIM_USER,
+                    new Update().set("username", pooled.getUsername()));
+        }
+        // repeated by a resumed attempt, which may have stopped before it
+        warmPoolService.claimUser(serviceInstanceId, entry.getUsername());
     }
 
     protected ServiceInstanceBinding getServiceInstanceBinding(final String bindingId) {
         return bindingRepository.findOne(bindingId);
     }
+
+    /**
+     * Create the user of a binding; a user left by an earlier attempt gets
+     * the new password instead
+     *
+     * @param entry journal of the binding
+     * @param groupId
+     * @param database
+     * @param username
+     * @param password
+     */
+    private void createUser(final JournalEntry entry,
+                            final String groupId,
+                            final String database,
+                            final String username,
+                            final String password) {
+        try {
+            atlasAdminService.createUser(brokerConfig.getApiBase(), groupId, database, username, password);
+        } catch (AtlasServiceException e) {
+            if (entry.getAttempts() == 1) {
+                throw e;
+            }
+            atlasAdminService.updateUser(brokerConfig.getApiBase(), groupId,
+                    new DatabaseUser(username, password).withRole(database, AtlasAdminService.READ_WRITE_ROLE));
+        }
+    }
+
+    /**
+     * Database backing a service instance
+     *
+     * @param serviceInstanceId
+     * @param instance the instance record, if any
+     * @return
+     */
+    private static String getDatabaseName(final String serviceInstanceId, final ServiceInstance instance) {
+        return instance == null ? serviceInstanceId : instance.getDatabaseName();
+    }
+
+    /**
+     * Cluster hosting a service instance
+     *
+     * @param instance the instance record, if any
+     * @return
+     */
+    private AtlasCluster getCluster(final ServiceInstance instance) {
+        return clusterRegistry.get(instance == null ? null : instance.getClusterId());
+    }
 }
\ No newline at end of file
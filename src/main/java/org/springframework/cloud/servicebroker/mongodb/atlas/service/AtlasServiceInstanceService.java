@@ -1,9 +1,16 @@
 package org.springframework.cloud.servicebroker.mongodb.atlas.service;
 
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.mongodb.client.MongoDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
 import org.springframework.cloud.servicebroker.exception.ServiceInstanceExistsException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceUpdateNotSupportedException;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.CreateServiceInstanceResponse;
 import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceRequest;
@@ -13,13 +20,34 @@ import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResp
 import org.springframework.cloud.servicebroker.model.OperationState;
 import org.springframework.cloud.servicebroker.model.UpdateServiceInstanceRequest;
 import org.springframework.cloud.servicebroker.model.UpdateServiceInstanceResponse;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
 import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
 import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceRepository;
 import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanCatalogService;
 import org.springframework.cloud.servicebroker.service.ServiceInstanceService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
 /**
  * Service Instance Service implementation to manage service instances.
  * <p>
@@ -28,48 +56,282 @@ import org.springframework.stereotype.Service;
  *
  * 		1. Creates a new database
  * 		2. Saves the ServiceInstance info to the Mongo repository.
+ *
+ *   The database is created on the Atlas cluster the ClusterRegistry chooses among those serving its plan,
+ *   which is recorded on the instance. When the warm pool holds a pre-provisioned
+ *   database on that cluster, creation only assigns it to the instance.
+ *
+ *   Otherwise, when the platform accepts incomplete operations, creation and deletion
+ *   are handed to the provisioning executor and their progress is tracked
+ *   by a ServiceInstanceOperation reported through getLastOperation.
+ *   The OperationTracker holds their state in memory as well, so polls
+ *   are answered without reading the broker database, or held until the
+ *   operation completes in long-poll mode. While one is in progress, updates
+ *   and deletions of the instance are rejected with a 422 ConcurrencyError,
+ *   and the operation of a deletion is removed once reported succeeded.
+ *   In non-blocking mode their database and Atlas calls run on the
+ *   asynchronous clients instead, so waiting operations hold no thread;
+ *   the executor only records their outcome.
+ *
+ *   Every step is recorded in the OperationJournal once done, so a retry
+ *   resumes an interrupted operation where it stopped. Asynchronous
+ *   operations interrupted by a restart are resumed by the broker itself,
+ *   as the platform keeps polling them rather than retrying.
+ *
+ *   Deleting an instance first deletes its bindings through the
+ *   BindingCascade, then only queues the drop of its database, which the
+ *   DatabaseDropper carries out in the background at a limited rate.
+ *
+ *   Updates change the plan of an instance in place, without moving its
+ *   database, so a plan its cluster does not serve, e.g. a dedicated plan
+ *   for an instance on a shared cluster, is rejected: moving the data
+ *   between clusters is left to a new instance.
+ *
+ *   Duplicate creation requests, e.g. retries of one that timed out, are
+ *   coalesced by the RequestCoalescer into a single creation.
+ *
+ *   Requests hold the lease of their instance while they check and write
+ *   its records, so that broker replicas can serve the same instance
+ *   concurrently; records are versioned, so a concurrent creation fails
+ *   to insert and a concurrent update fails to overwrite.
  *  
  * @author ipolyzos
  */
 @Service
 public class AtlasServiceInstanceService implements ServiceInstanceService {
 
+	private Logger logger = LoggerFactory.getLogger(AtlasServiceInstanceService.class);
+
 	private AtlasAdminService atlasAdminService;
 	
 	private AtlasServiceInstanceRepository repository;
 
+	private OperationTracker operations;
+
+	private TaskExecutor provisioningExecutor;
+
+	private WarmPoolService warmPoolService;
+
+	private ClusterRegistry clusterRegistry;
+
+	private PlanCatalogService catalogService;
+
+	private OperationJournal journal;
+
+	private LeaseService leaseService;
+
+	private DatabaseDropper dropper;
+
+	private BindingCascade bindingCascade;
+
+	private RequestCoalescer coalescer;
+
+	private NonBlockingAtlasAdminService nonBlockingAdminService;
+
+	private Semaphore nonBlockingPermits;
+
+	/**
+	 * Runs outcome bookkeeping on the provisioning executor, or in place when its queue is full
+	 */
+	private final Executor completionExecutor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			try {
+				provisioningExecutor.execute(command);
+			} catch (TaskRejectedException e) {
+				command.run();
+			}
+		}
+	};
+
 	@Autowired
-	public AtlasServiceInstanceService(AtlasAdminService mongo, AtlasServiceInstanceRepository repository) {
+	public AtlasServiceInstanceService(AtlasAdminService mongo,
+									   AtlasServiceInstanceRepository repository,
+									   OperationTracker operations,
+									   @Qualifier("provisioningExecutor") TaskExecutor provisioningExecutor,
+									   WarmPoolService warmPoolService,
+									   ClusterRegistry clusterRegistry,
+									   PlanCatalogService catalogService,
+									   OperationJournal journal,
+									   LeaseService leaseService,
+									   DatabaseDropper dropper,
+									   BindingCascade bindingCascade,
+									   RequestCoalescer coalescer) {
 		this.atlasAdminService = mongo;
 		this.repository = repository;
+		this.operations = operations;
+		this.provisioningExecutor = provisioningExecutor;
+		this.warmPoolService = warmPoolService;
+		this.clusterRegistry = clusterRegistry;
+		this.catalogService = catalogService;
+		this.journal = journal;
+		this.leaseService = leaseService;
+		this.dropper = dropper;
+		this.bindingCascade = bindingCascade;
+		this.coalescer = coalescer;
+
+		// creations are resumed only once their instance was recorded and the platform polls them
+		journal.register(where("async").is(true).orOperator(
+				where("type").is(JournalEntry.Type.DELETE_INSTANCE),
+				where("type").is(JournalEntry.Type.CREATE_INSTANCE).and("steps").is(JournalEntry.Step.SAVE_INSTANCE)),
+				new OperationJournal.Recovery() {
+					@Override
+					public boolean resume(JournalEntry entry) {
+						return AtlasServiceInstanceService.this.resume(entry);
+					}
+				});
 	}
 	
+	/**
+	 * Enable the non-blocking provisioning mode
+	 *
+	 * @param nonBlockingAdminService
+	 * @param maxInFlight operations in flight before new requests are rejected
+	 */
+	@Autowired(required = false)
+	public void setNonBlockingAdminService(NonBlockingAtlasAdminService nonBlockingAdminService,
+										   @Value("${ATLAS_NON_BLOCKING_MAX_IN_FLIGHT:10000}") int maxInFlight) {
+		this.nonBlockingAdminService = nonBlockingAdminService;
+		this.nonBlockingPermits = new Semaphore(maxInFlight);
+	}
+
 	@Override
-	public CreateServiceInstanceResponse createServiceInstance(CreateServiceInstanceRequest request) {
-		ServiceInstance instance = repository.findOne(request.getServiceInstanceId());
-		if (instance != null) {
-			throw new ServiceInstanceExistsException(request.getServiceInstanceId(), request.getServiceDefinitionId());
+	public CreateServiceInstanceResponse createServiceInstance(final CreateServiceInstanceRequest request) {
+		// retries of a creation in progress, or just completed, get its outcome
+		return coalescer.execute(JournalEntry.key(JournalEntry.Type.CREATE_INSTANCE, request.getServiceInstanceId()),
+				Arrays.asList(request.getServiceDefinitionId(), request.getPlanId(), request.getOrganizationGuid(),
+						request.getSpaceGuid(), request.getParameters(), request.isAsyncAccepted()),
+				new Callable<CreateServiceInstanceResponse>() {
+					@Override
+					public CreateServiceInstanceResponse call() {
+						return createOnce(request);
+					}
+				});
+	}
+
+	/**
+	 * Create an instance unless it exists
+	 *
+	 * @param request
+	 * @return
+	 */
+	private CreateServiceInstanceResponse createOnce(final CreateServiceInstanceRequest request) {
+		final String instanceId = request.getServiceInstanceId();
+		final Lease lease = leaseService.acquire(Lease.instanceKey(instanceId));
+		try {
+			// not the cache, which may hold an instance another replica deleted or miss one it created
+			if (repository.findById(instanceId) != null) {
+				throw new ServiceInstanceExistsException(instanceId, request.getServiceDefinitionId());
+			}
+			return create(request);
+		} catch (DuplicateKeyException e) {
+			throw new ServiceInstanceExistsException(instanceId, request.getServiceDefinitionId());
+		} finally {
+			leaseService.release(lease);
 		}
+	}
 
-		instance = new ServiceInstance(request);
+	/**
+	 * Create an instance known not to exist
+	 *
+	 * @param request
+	 * @return
+	 */
+	private CreateServiceInstanceResponse create(final CreateServiceInstanceRequest request) {
+		final ServiceInstance instance = new ServiceInstance(request);
+		final String instanceId = instance.getServiceInstanceId();
+		final JournalEntry entry = journal.begin(JournalEntry.createInstance(instance, request.isAsyncAccepted()));
+		final String clusterId;
+		try {
+			if (!entry.isDone(JournalEntry.Step.PLACE)) {
+				final AtlasCluster cluster = clusterRegistry.place(instance, catalogService.getPlan(request.getPlanId()));
+				journal.completed(entry.withClusterId(cluster.getId()), JournalEntry.Step.PLACE,
+						new Update().set("clusterId", cluster.getId()));
+			}
+			clusterId = entry.getClusterId();
+			instance.withClusterId(clusterId);
 
-		if (atlasAdminService.databaseExists(instance.getServiceInstanceId())) {
-			// ensure the instance is empty
-			atlasAdminService.deleteDatabase(instance.getServiceInstanceId());
+			if (!entry.isDone(JournalEntry.Step.CLAIM_POOL)) {
+				final WarmPoolEntry pooled = warmPoolService.claimDatabase(instanceId, clusterId);
+				final String databaseName = pooled == null ? null : pooled.getDatabaseName();
+				journal.completed(entry.withDatabaseName(databaseName), JournalEntry.Step.CLAIM_POOL,
+						new Update().set("databaseName", databaseName));
+			}
+
+			if (entry.getDatabaseName() != null) {
+				saveInstance(entry, instance.withDatabaseName(entry.getDatabaseName()));
+				operations.delete(instanceId);
+				journal.finish(entry);
+				return new CreateServiceInstanceResponse();
+			}
+
+			// a drop of a database left by an earlier instance with the same id would empty the new one
+			dropper.cancel(clusterId, instanceId);
+
+			if (!request.isAsyncAccepted()) {
+				createDatabase(entry);
+				saveInstance(entry, instance);
+				// forget operations of any earlier instance with the same id
+				operations.delete(instanceId);
+				journal.finish(entry);
+				return new CreateServiceInstanceResponse();
+			}
+
+			// the record is saved up front so that retries are detected while in progress
+			saveInstance(entry, instance);
+		} catch (RuntimeException e) {
+			journal.fail(entry, e);
+			throw e;
 		}
 
-		final MongoDatabase db = atlasAdminService.createDatabase(instance.getServiceInstanceId());
-		if (db == null) {
-			throw new ServiceBrokerException("Failed to create new DB instance: " + instance.getServiceInstanceId());
+		final ServiceInstanceOperation operation = new ServiceInstanceOperation(instanceId, ServiceInstanceOperation.Type.CREATE);
+		try {
+			if (nonBlockingAdminService != null) {
+				execute(operation, entry, new Callable<ListenableFuture<Void>>() {
+					@Override
+					public ListenableFuture<Void> call() {
+						return nonBlockingAdminService.createDatabase(clusterId, instanceId);
+					}
+				}, null);
+			} else {
+				execute(operation, entry, new Runnable() {
+					@Override
+					public void run() {
+						createDatabase(entry);
+					}
+				});
+			}
+		} catch (ServiceBrokerException e) {
+			repository.delete(instanceId);
+			journal.finish(entry);
+			throw e;
 		}
-		repository.save(instance);
 
-		return new CreateServiceInstanceResponse();
+		return new CreateServiceInstanceResponse().withAsync(true);
 	}
 
 	@Override
 	public GetLastServiceOperationResponse getLastOperation(GetLastServiceOperationRequest request) {
-		return new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED);
+		final String instanceId = request.getServiceInstanceId();
+		final ServiceInstanceOperation operation = operations.poll(instanceId);
+		if (operation == null) {
+			// instances provisioned synchronously have no operation record, and a cached miss
+			// may predate their creation on another replica
+			if (repository.findOne(instanceId) == null && repository.findById(instanceId) == null) {
+				throw new ServiceInstanceDoesNotExistException(instanceId);
+			}
+			return new GetLastServiceOperationResponse().withOperationState(OperationState.SUCCEEDED);
+		}
+
+		if (operation.isDeleteOperation() && operation.getState() == OperationState.SUCCEEDED) {
+			// the platform stops polling, and polls of the deleted instance then get 410 Gone
+			operations.delete(instanceId);
+		}
+
+		return new GetLastServiceOperationResponse()
+				.withOperationState(operation.getState())
+				.withDescription(operation.getDescription())
+				.withDeleteOperation(operation.isDeleteOperation());
 	}
 
 	public ServiceInstance getServiceInstance(String id) {
@@ -79,27 +341,319 @@ public class AtlasServiceInstanceService implements ServiceInstanceService {
 	@Override
 	public DeleteServiceInstanceResponse deleteServiceInstance(DeleteServiceInstanceRequest request) throws AtlasServiceException {
 		final String instanceId = request.getServiceInstanceId();
-		final ServiceInstance instance = repository.findOne(instanceId);
-		if (instance == null) {
-			throw new ServiceInstanceDoesNotExistException(instanceId);
+		final Lease lease = leaseService.acquire(Lease.instanceKey(instanceId));
+		try {
+			final ServiceInstance instance = repository.findById(instanceId);
+			if (instance == null) {
+				throw new ServiceInstanceDoesNotExistException(instanceId);
+			}
+			operations.checkNotInProgress(instanceId);
+			return delete(request, instance);
+		} finally {
+			leaseService.release(lease);
+		}
+	}
+
+	/**
+	 * Delete an existing instance
+	 *
+	 * @param request
+	 * @param instance its record
+	 * @return
+	 */
+	private DeleteServiceInstanceResponse delete(final DeleteServiceInstanceRequest request, final ServiceInstance instance) {
+		final String instanceId = instance.getServiceInstanceId();
+		// a new instance with the same id must not get the outcome of this one
+		coalescer.forget(JournalEntry.key(JournalEntry.Type.CREATE_INSTANCE, instanceId));
+		final JournalEntry entry = journal.begin(JournalEntry.deleteInstance(instance, request.isAsyncAccepted()));
+		if (!request.isAsyncAccepted()) {
+			try {
+				deleteInstance(entry);
+			} catch (RuntimeException e) {
+				journal.fail(entry, e);
+				throw e;
+			}
+			return new DeleteServiceInstanceResponse();
 		}
 
-		atlasAdminService.deleteDatabase(instanceId);
-		repository.delete(instanceId);
-		return new DeleteServiceInstanceResponse();
+		final ServiceInstanceOperation operation = new ServiceInstanceOperation(instanceId, ServiceInstanceOperation.Type.DELETE);
+		if (nonBlockingAdminService != null) {
+			execute(operation, entry, new Callable<ListenableFuture<Void>>() {
+				@Override
+				public ListenableFuture<Void> call() {
+					return Futures.transformAsync(bindingCascade.deleteBindings(instanceId, instance.getClusterId(),
+									nonBlockingAdminService, completionExecutor),
+							new AsyncFunction<Void, Void>() {
+								@Override
+								public ListenableFuture<Void> apply(Void deleted) {
+									return warmPoolService.release(instanceId, nonBlockingAdminService);
+								}
+							}, completionExecutor);
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					dropper.enqueue(instance.getClusterId(), instance.getDatabaseName(), instanceId);
+					repository.delete(instanceId);
+					journal.forget(instanceId);
+				}
+			});
+		} else {
+			execute(operation, entry, new Runnable() {
+				@Override
+				public void run() {
+					deleteInstance(entry);
+				}
+			});
+		}
+
+		return new DeleteServiceInstanceResponse().withAsync(true);
 	}
 
 	@Override
 	public UpdateServiceInstanceResponse updateServiceInstance(UpdateServiceInstanceRequest request) {
 		final String instanceId = request.getServiceInstanceId();
-		final ServiceInstance instance = repository.findOne(instanceId);
-		if (instance == null) {
-			throw new ServiceInstanceDoesNotExistException(instanceId);
+		final Lease lease = leaseService.acquire(Lease.instanceKey(instanceId));
+		try {
+			final ServiceInstance instance = repository.findById(instanceId);
+			if (instance == null) {
+				throw new ServiceInstanceDoesNotExistException(instanceId);
+			}
+			operations.checkNotInProgress(instanceId);
+
+			final String planId = request.getPlanId();
+			if (planId == null || planId.equals(instance.getPlanId())) {
+				return new UpdateServiceInstanceResponse();
+			}
+			if (!clusterRegistry.get(instance.getClusterId()).serves(catalogService.getPlan(planId))) {
+				throw new ServiceInstanceUpdateNotSupportedException("Plan " + planId
+						+ " is not served by the cluster of service instance " + instanceId
+						+ ", create a new service instance instead");
+			}
+
+			// updated in place, unless written since it was read
+			repository.save(instance.withPlanId(planId));
+			return new UpdateServiceInstanceResponse();
+		} catch (OptimisticLockingFailureException e) {
+			throw new ServiceBrokerException("Service instance was modified concurrently, retry later: " + instanceId);
+		} finally {
+			leaseService.release(lease);
 		}
+	}
 
+	/**
+	 * Resume an asynchronous operation left in progress by a broker that
+	 * stopped, e.g. on restart
+	 *
+	 * @param entry claimed journal of the operation
+	 * @return false when the provisioning queue is full
+	 */
+	private boolean resume(final JournalEntry entry) {
+		final boolean create = entry.getType() == JournalEntry.Type.CREATE_INSTANCE;
+		final ServiceInstanceOperation operation = new ServiceInstanceOperation(entry.getServiceInstanceId(),
+				create ? ServiceInstanceOperation.Type.CREATE : ServiceInstanceOperation.Type.DELETE);
+		try {
+			execute(operation, entry, new Runnable() {
+				@Override
+				public void run() {
+					if (!create) {
+						deleteInstance(entry);
+					} else if (entry.getDatabaseName() == null) {
+						// a pooled database was assigned as it is
+						createDatabase(entry);
+					}
+				}
+			});
+			return true;
+		} catch (ServiceBrokerException e) {
+			// still in progress, so claimed again once stale
+			logger.warn("Failed to resume {}: {}", entry.getId(), e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Create an empty database for the instance, dropping any leftovers
+	 *
+	 * @param entry journal of the creation
+	 */
+	private void createDatabase(final JournalEntry entry) {
+		final String clusterId = entry.getClusterId();
+		final String instanceId = entry.getServiceInstanceId();
+		if (!entry.isDone(JournalEntry.Step.CHECK_DATABASE)) {
+			final boolean leftover = atlasAdminService.databaseExists(clusterId, instanceId);
+			journal.completed(entry.withLeftover(leftover), JournalEntry.Step.CHECK_DATABASE,
+					new Update().set("leftover", leftover));
+		}
+
+		if (entry.isLeftover()) {
+			// ensure the instance is empty
+			journal.step(entry, JournalEntry.Step.DROP_DATABASE, new Runnable() {
+				@Override
+				public void run() {
+					atlasAdminService.deleteDatabase(clusterId, instanceId);
+				}
+			});
+		}
+
+		journal.step(entry, JournalEntry.Step.CREATE_DATABASE, new Runnable() {
+			@Override
+			public void run() {
+				final MongoDatabase db = atlasAdminService.createDatabase(clusterId, instanceId);
+				if (db == null) {
+					throw new ServiceBrokerException("Failed to create new DB instance: " + instanceId);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Save the record of a created instance
+	 *
+	 * @param entry journal of the creation
+	 * @param instance
+	 */
+	private void saveInstance(final JournalEntry entry, final ServiceInstance instance) {
+		journal.step(entry, JournalEntry.Step.SAVE_INSTANCE, new Runnable() {
+			@Override
+			public void run() {
+				repository.save(instance);
+			}
+		});
+	}
+
+	/**
+	 * Delete the bindings of the instance and any unclaimed pooled user,
+	 * queue the drop of its database and remove its record
+	 *
+	 * @param entry journal of the deletion
+	 */
+	private void deleteInstance(final JournalEntry entry) {
+		final String instanceId = entry.getServiceInstanceId();
+		journal.step(entry, JournalEntry.Step.DELETE_BINDINGS, new Runnable() {
+			@Override
+			public void run() {
+				bindingCascade.deleteBindings(instanceId, entry.getClusterId());
+			}
+		});
+		journal.step(entry, JournalEntry.Step.RELEASE_POOL, new Runnable() {
+			@Override
+			public void run() {
+				warmPoolService.release(instanceId);
+			}
+		});
+		journal.step(entry, JournalEntry.Step.QUEUE_DROP, new Runnable() {
+			@Override
+			public void run() {
+				dropper.enqueue(entry.getClusterId(), entry.getDatabaseName(), instanceId);
+			}
+		});
 		repository.delete(instanceId);
-		final ServiceInstance updatedInstance = new ServiceInstance(request);
-		repository.save(updatedInstance);
-		return new UpdateServiceInstanceResponse();
+		// the instance is gone, along with any operation of it left in the journal
+		journal.forget(instanceId);
+	}
+
+	/**
+	 * Persist the operation as in progress and hand its work to the provisioning
+	 * executor; the outcome is recorded on the operation once the work completes.
+	 *
+	 * @param operation
+	 * @param entry journal of the operation
+	 * @param work
+	 * @throws ServiceBrokerException when the provisioning queue is full
+	 */
+	private void execute(final ServiceInstanceOperation operation, final JournalEntry entry, final Runnable work) {
+		operations.save(operation);
+
+		journal.queued(entry);
+		try {
+			provisioningExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!journal.renew(entry)) {
+						// resumed by the recovery while queued
+						return;
+					}
+					try {
+						work.run();
+						journal.finish(entry);
+						operations.save(operation.withState(OperationState.SUCCEEDED, null));
+					} catch (RuntimeException e) {
+						logger.error("Operation {} failed for service instance {}",
+								operation.getType(), operation.getServiceInstanceId(), e);
+						journal.fail(entry, e);
+						operations.save(operation.withState(OperationState.FAILED, e.getMessage()));
+					}
+				}
+			});
+		} catch (TaskRejectedException e) {
+			journal.dequeued(entry);
+			operations.delete(operation.getServiceInstanceId());
+			throw new ServiceBrokerException("Provisioning queue is full, retry later: " + operation.getServiceInstanceId());
+		}
+	}
+
+	/**
+	 * Persist the operation as in progress and start its non-blocking work;
+	 * once the work completes, the completion and the outcome are recorded
+	 * by the provisioning executor.
+	 *
+	 * @param operation
+	 * @param entry journal of the operation
+	 * @param work starts the work
+	 * @param completion bookkeeping after successful work, or null
+	 * @throws ServiceBrokerException when too many operations are in flight
+	 */
+	private void execute(final ServiceInstanceOperation operation,
+						 final JournalEntry entry,
+						 final Callable<ListenableFuture<Void>> work,
+						 final Runnable completion) {
+		if (!nonBlockingPermits.tryAcquire()) {
+			throw new ServiceBrokerException("Provisioning queue is full, retry later: " + operation.getServiceInstanceId());
+		}
+
+		ListenableFuture<Void> future;
+		try {
+			operations.save(operation);
+			future = work.call();
+		} catch (RuntimeException e) {
+			nonBlockingPermits.release();
+			throw e;
+		} catch (Exception e) {
+			future = Futures.immediateFailedFuture(e);
+		}
+
+		Futures.addCallback(future, new FutureCallback<Void>() {
+			@Override
+			public void onSuccess(Void result) {
+				try {
+					if (completion != null) {
+						completion.run();
+					}
+					journal.finish(entry);
+					operations.save(operation.withState(OperationState.SUCCEEDED, null));
+				} catch (RuntimeException e) {
+					failed(e);
+				} finally {
+					nonBlockingPermits.release();
+				}
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				try {
+					failed(t);
+				} finally {
+					nonBlockingPermits.release();
+				}
+			}
+
+			private void failed(Throwable t) {
+				logger.error("Operation {} failed for service instance {}",
+						operation.getType(), operation.getServiceInstanceId(), t);
+				journal.fail(entry, t);
+				operations.save(operation.withState(OperationState.FAILED, t.getMessage()));
+			}
+		}, completionExecutor);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,200 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceBindingRepository;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Deletes the bindings of a service instance being deleted.
+ * <p>
+ * NOTE:
+ *   The platform deletes an instance without unbinding it first, which
+ *   would leave the Atlas users of its bindings and their records behind.
+ *   The bindings are read with one indexed query, and their users deleted
+ *   concurrently, ATLAS_CASCADE_PARALLELISM at a time, so deleting an
+ *   instance with many bindings takes about as long as a few Atlas calls.
+ *   Every record is deleted right after its user, so a cascade that failed
+ *   partway resumes with the bindings left.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class BindingCascade {
+
+    private Logger logger = LoggerFactory.getLogger(BindingCascade.class);
+
+    private AtlasAdminService atlasAdminService;
+
+    private BrokerConfig brokerConfig;
+
+    private AtlasServiceInstanceBindingRepository bindingRepository;
+
+    private ClusterRegistry clusterRegistry;
+
+    private AsyncTaskExecutor cascadeExecutor;
+
+    private RequestCoalescer coalescer;
+
+    private MetricRegistry metricRegistry;
+
+    @Value("${ATLAS_CASCADE_PARALLELISM:16}")
+    private int parallelism;
+
+    @Autowired
+    public BindingCascade(final AtlasAdminService atlasAdminService,
+                          final BrokerConfig brokerConfig,
+                          final AtlasServiceInstanceBindingRepository bindingRepository,
+                          final ClusterRegistry clusterRegistry,
+                          @Qualifier("cascadeExecutor") final AsyncTaskExecutor cascadeExecutor,
+                          final RequestCoalescer coalescer,
+                          final MetricRegistry metricRegistry) {
+        this.atlasAdminService = atlasAdminService;
+        this.brokerConfig = brokerConfig;
+        this.bindingRepository = bindingRepository;
+        this.clusterRegistry = clusterRegistry;
+        this.cascadeExecutor = cascadeExecutor;
+        this.coalescer = coalescer;
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * Delete the users and records of every binding of an instance
+     *
+     * @param serviceInstanceId
+     * @param clusterId cluster hosting the instance, null for the default one
+     * @throws ServiceBrokerException when some bindings could not be deleted
+     */
+    public void deleteBindings(final String serviceInstanceId, final String clusterId) {
+        final List<ServiceInstanceBinding> bindings = bindingRepository.findByServiceInstanceId(serviceInstanceId);
+        if (bindings.isEmpty()) {
+            return;
+        }
+
+        final String groupId = clusterRegistry.get(clusterId).getGroupId();
+        final List<Future<?>> deletions = new ArrayList<>(bindings.size());
+        for (final ServiceInstanceBinding binding : bindings) {
+            deletions.add(cascadeExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    atlasAdminService.deleteUser(brokerConfig.getApiBase(), groupId, binding.getUsername());
+                    deleted(binding);
+                }
+            }));
+        }
+
+        int failed = 0;
+        for (final Future<?> deletion : deletions) {
+            try {
+                deletion.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceBrokerException("Interrupted deleting the bindings of " + serviceInstanceId);
+            } catch (ExecutionException e) {
+                failed++;
+                logger.warn("Failed to delete a binding of service instance {}", serviceInstanceId, e.getCause());
+            }
+        }
+        if (failed > 0) {
+            throw new ServiceBrokerException("Failed to delete " + failed + " of " + bindings.size()
+                    + " bindings of service instance " + serviceInstanceId);
+        }
+    }
+
+    /**
+     * Non-blocking cascade: users are deleted through the non-blocking
+     * Atlas client, ATLAS_CASCADE_PARALLELISM at a time, and the records
+     * on the given executor
+     *
+     * @param serviceInstanceId
+     * @param clusterId cluster hosting the instance, null for the default one
+     * @param adminService
+     * @param executor runs the record deletions
+     * @return
+     */
+    public ListenableFuture<Void> deleteBindings(final String serviceInstanceId,
+                                                 final String clusterId,
+                                                 final NonBlockingAtlasAdminService adminService,
+                                                 final Executor executor) {
+        final Queue<ServiceInstanceBinding> bindings =
+                new ConcurrentLinkedQueue<>(bindingRepository.findByServiceInstanceId(serviceInstanceId));
+        if (bindings.isEmpty()) {
+            return Futures.immediateFuture(null);
+        }
+
+        final String groupId = clusterRegistry.get(clusterId).getGroupId();
+        final int workerCount = Math.min(parallelism, bindings.size());
+        final List<ListenableFuture<Void>> workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(deleteNext(bindings, groupId, adminService, executor));
+        }
+        return Futures.transform(Futures.allAsList(workers), new Function<List<Void>, Void>() {
+            @Override
+            public Void apply(List<Void> done) {
+                return null;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Delete the bindings left in the queue one after the other
+     *
+     * @param bindings
+     * @param groupId
+     * @param adminService
+     * @param executor
+     * @return
+     */
+    private ListenableFuture<Void> deleteNext(final Queue<ServiceInstanceBinding> bindings,
+                                              final String groupId,
+                                              final NonBlockingAtlasAdminService adminService,
+                                              final Executor executor) {
+        final ServiceInstanceBinding binding = bindings.poll();
+        if (binding == null) {
+            return Futures.immediateFuture(null);
+        }
+
+        return Futures.transformAsync(adminService.deleteUser(brokerConfig.getApiBase(), groupId, binding.getUsername()),
+                new AsyncFunction<Void, Void>() {
+                    @Override
+                    public ListenableFuture<Void> apply(Void ignored) {
+                        deleted(binding);
+                        return deleteNext(bindings, groupId, adminService, executor);
+                    }
+                }, executor);
+    }
+
+    /**
+     * Delete the record of a binding whose user is gone
+     *
+     * @param binding
+     */
+    private void deleted(final ServiceInstanceBinding binding) {
+        bindingRepository.delete(binding.getId());
+        coalescer.forget(JournalEntry.key(JournalEntry.Type.CREATE_BINDING, binding.getId()));
+        metricRegistry.counter("cascade.bindings.deleted").inc();
+    }
+}
@@ -0,0 +1,140 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.mongodb.ConnectionString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Connection string of bindings, precompiled from the broker endpoint.
+ * <p>
+ * NOTE:
+ *   The endpoint is parsed once; hosts and every option other than
+ *   authSource are kept as given, ssl=false is added unless ssl or tls
+ *   is set and authSource=admin always closes the options. Formatting
+ *   a binding only escapes and splices in its database and credentials.
+ *
+ * @author ipolyzos
+ */
+public final class ConnectionStringTemplate {
+
+    private static final String AUTH_SOURCE = "authSource";
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * scheme, up to the credentials
+     */
+    private final String prefix;
+
+    /**
+     * hosts, between the credentials and the database
+     */
+    private final String hosts;
+
+    /**
+     * options, after the database
+     */
+    private final String suffix;
+
+    public ConnectionStringTemplate(final String endpoint) {
+        // validates the endpoint
+        final ConnectionString cs = new ConnectionString(endpoint);
+
+        final int hostsStart = endpoint.indexOf("://") + 3;
+        int hostsEnd = endpoint.indexOf('/', hostsStart);
+        if (hostsEnd < 0) {
+            hostsEnd = endpoint.length();
+        }
+        final String hostsAndUser = endpoint.substring(hostsStart, hostsEnd);
+
+        final int optionsStart = endpoint.indexOf('?', hostsEnd);
+        final List<String> options = new ArrayList<>();
+        boolean ssl = false;
+        if (optionsStart >= 0) {
+            for (String option : endpoint.substring(optionsStart + 1).split("[&;]")) {
+                final String key = option.indexOf('=') < 0 ? option : option.substring(0, option.indexOf('='));
+                if (option.isEmpty() || key.equalsIgnoreCase(AUTH_SOURCE)) {
+                    continue;
+                }
+                ssl |= key.equalsIgnoreCase("ssl") || key.equalsIgnoreCase("tls");
+                options.add(option);
+            }
+        }
+        if (!ssl) {
+            options.add(0, "ssl=" + Boolean.TRUE.equals(cs.getSslEnabled()));
+        }
+
+        final StringBuilder suffix = new StringBuilder("?");
+        for (String option : options) {
+            suffix.append(option).append('&');
+        }
+
+        this.prefix = endpoint.substring(0, hostsStart);
+        this.hosts = '@' + hostsAndUser.substring(hostsAndUser.lastIndexOf('@') + 1) + '/';
+        this.suffix = suffix.append(AUTH_SOURCE).append('=').append(AtlasAdminService.ADMIN_DB).toString();
+    }
+
+    /**
+     * Connection string of a database user
+     *
+     * @param database
+     * @param username
+     * @param password
+     * @return
+     */
+    public String format(final String database, final String username, final String password) {
+        final String db = escape(checkNotNull(database, "database"));
+        final String user = escape(checkNotNull(username, "username"));
+        final String pass = escape(checkNotNull(password, "password"));
+
+        return new StringBuilder(prefix.length() + user.length() + 1 + pass.length()
+                + hosts.length() + db.length() + suffix.length())
+                .append(prefix)
+                .append(user)
+                .append(':')
+                .append(pass)
+                .append(hosts)
+                .append(db)
+                .append(suffix)
+                .toString();
+    }
+
+    /**
+     * Percent-encode all but the URI unreserved characters, returning
+     * values that need no escaping, such as generated ids, as they are.
+     *
+     * @param value
+     * @return
+     */
+    static String escape(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!isUnreserved(value.charAt(i))) {
+                return escape(value, i);
+            }
+        }
+        return value;
+    }
+
+    private static String escape(final String value, final int from) {
+        final byte[] bytes = value.substring(from).getBytes(StandardCharsets.UTF_8);
+        final StringBuilder escaped = new StringBuilder(from + bytes.length * 3).append(value, 0, from);
+        for (byte b : bytes) {
+            final int c = b & 0xFF;
+            if (isUnreserved(c)) {
+                escaped.append((char) c);
+            } else {
+                escaped.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static boolean isUnreserved(final int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+}
@@ -0,0 +1,334 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseDrop;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Background dropper of the databases of deleted service instances.
+ * <p>
+ * NOTE:
+ *   Dropping a large database stalls the cluster hosting it, and with it
+ *   the other tenants of a shared cluster. Deleting an instance therefore
+ *   only queues the drop of its database in the databaseDrop collection,
+ *   which keeps it across restarts, and the dropper works the queue off in
+ *   the background: at most ATLAS_DROPS_PER_MINUTE drops, oldest first,
+ *   spread over the ATLAS_DROP_INTERVAL_MS between runs, and only within
+ *   the ATLAS_DROP_WINDOW, e.g. "01:00-05:00" in the ATLAS_DROP_TIMEZONE,
+ *   when one is set.
+ *
+ *   Drops are claimed with findAndModify, and those whose dropper stopped
+ *   are claimed again after ATLAS_DROP_STALE_AFTER_MS. A failed drop is
+ *   retried after a backoff doubling from ATLAS_DROP_RETRY_BACKOFF_MS. A drop
+ *   whose instance is busy did not fail: it is requeued for the next run,
+ *   without counting as an attempt or raising the backoff.
+ *
+ *   A new instance may be created with the id of one whose database is
+ *   still queued, so the drop is cancelled on creation, and the dropper
+ *   holds the lease of the instance while it checks that no instance or
+ *   pool entry owns the database and drops it.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class DatabaseDropper {
+
+    private Logger logger = LoggerFactory.getLogger(DatabaseDropper.class);
+
+    private static final Pattern WINDOW = Pattern.compile("(\\d{1,2}):(\\d{2})-(\\d{1,2}):(\\d{2})");
+
+    /**
+     * Longest backoff between attempts of a failing drop
+     */
+    private static final long MAX_RETRY_BACKOFF = 24 * 60 * 60 * 1000L;
+
+    private AtlasAdminService atlasAdminService;
+
+    private MongoOperations mongoOperations;
+
+    private ClusterRegistry clusterRegistry;
+
+    private LeaseService leaseService;
+
+    private MetricRegistry metricRegistry;
+
+    private final RateLimiter rateLimiter;
+
+    private final TimeZone timeZone;
+
+    /**
+     * Start and end of the off-peak window in minutes of the day, or -1 to drop at any time
+     */
+    private final int windowStart;
+
+    private final int windowEnd;
+
+    @Value("${ATLAS_DROP_STALE_AFTER_MS:3600000}")
+    private long staleAfter;
+
+    @Value("${ATLAS_DROP_RETRY_BACKOFF_MS:300000}")
+    private long retryBackoff;
+
+    @Value("${ATLAS_DROP_INTERVAL_MS:10000}")
+    private long interval;
+
+    @Autowired
+    public DatabaseDropper(final AtlasAdminService atlasAdminService,
+                           final MongoOperations mongoOperations,
+                           final ClusterRegistry clusterRegistry,
+                           final LeaseService leaseService,
+                           final MetricRegistry metricRegistry,
+                           @Value("${ATLAS_DROPS_PER_MINUTE:6}") final double dropsPerMinute,
+                           @Value("${ATLAS_DROP_WINDOW:}") final String window,
+                           @Value("${ATLAS_DROP_TIMEZONE:UTC}") final String timeZone) {
+        this.atlasAdminService = atlasAdminService;
+        this.mongoOperations = mongoOperations;
+        this.clusterRegistry = clusterRegistry;
+        this.leaseService = leaseService;
+        this.metricRegistry = metricRegistry;
+        this.rateLimiter = RateLimiter.create(dropsPerMinute / 60);
+        this.timeZone = TimeZone.getTimeZone(timeZone);
+
+        if (window.trim().isEmpty()) {
+            this.windowStart = -1;
+            this.windowEnd = -1;
+        } else {
+            final Matcher matcher = WINDOW.matcher(window.trim());
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("ATLAS_DROP_WINDOW must read HH:mm-HH:mm: " + window);
+            }
+            this.windowStart = Integer.parseInt(matcher.group(1)) * 60 + Integer.parseInt(matcher.group(2));
+            this.windowEnd = Integer.parseInt(matcher.group(3)) * 60 + Integer.parseInt(matcher.group(4));
+        }
+    }
+
+    /**
+     * Queue the drop of a database; queueing it again keeps a single drop
+     *
+     * @param clusterId
+     * @param databaseName
+     * @param serviceInstanceId instance the database belonged to
+     */
+    public void enqueue(final String clusterId, final String databaseName, final String serviceInstanceId) {
+        final Date now = new Date();
+        mongoOperations.upsert(query(where("_id").is(DatabaseDrop.key(clusterId, databaseName))),
+                new Update()
+                        .setOnInsert("clusterId", clusterId)
+                        .setOnInsert("databaseName", databaseName)
+                        .setOnInsert("state", DatabaseDrop.State.PENDING)
+                        .setOnInsert("enqueuedAt", now)
+                        .setOnInsert("notBefore", now)
+                        .set("serviceInstanceId", serviceInstanceId)
+                        .set("lastUpdated", now),
+                DatabaseDrop.class);
+        metricRegistry.counter("drops.queued").inc();
+    }
+
+    /**
+     * Cancel the queued drop of a database about to be reused
+     *
+     * @param clusterId
+     * @param databaseName
+     */
+    public void cancel(final String clusterId, final String databaseName) {
+        mongoOperations.remove(query(where("_id").is(DatabaseDrop.key(clusterId, databaseName))), DatabaseDrop.class);
+    }
+
+    /**
+     * Whether a database is queued to be dropped
+     *
+     * @param clusterId
+     * @param databaseName
+     * @return
+     */
+    public boolean isQueued(final String clusterId, final String databaseName) {
+        return mongoOperations.exists(query(where("_id").is(DatabaseDrop.key(clusterId, databaseName))),
+                DatabaseDrop.class);
+    }
+
+    /**
+     * Drop the databases due, as the rate limit allows, within the off-peak window
+     */
+    @Scheduled(fixedDelayString = "${ATLAS_DROP_INTERVAL_MS:10000}")
+    public void drain() {
+        if (!isOffPeak(new Date())) {
+            return;
+        }
+
+        final Lease lease = leaseService.tryAcquire(Lease.jobKey("database-drops"));
+        if (lease == null) {
+            // another replica is dropping
+            return;
+        }
+        try {
+            // wait for the permits due until the next run, so that rates above one drop per run are reached
+            final long deadline = System.currentTimeMillis() + interval;
+            while (rateLimiter.tryAcquire(1, Math.max(deadline - System.currentTimeMillis(), 0),
+                    TimeUnit.MILLISECONDS)) {
+                if (!leaseService.renew(lease)) {
+                    return;
+                }
+                final DatabaseDrop drop = claimNext();
+                if (drop == null) {
+                    return;
+                }
+                drop(drop);
+            }
+        } finally {
+            leaseService.release(lease);
+        }
+    }
+
+    /**
+     * Whether a time falls within the off-peak window
+     *
+     * @param time
+     * @return
+     */
+    boolean isOffPeak(final Date time) {
+        if (windowStart < 0) {
+            return true;
+        }
+
+        final Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTime(time);
+        final int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        return windowStart <= windowEnd
+                ? minute >= windowStart && minute < windowEnd
+                // the window spans midnight
+                : minute >= windowStart || minute < windowEnd;
+    }
+
+    /**
+     * Claim the oldest drop due, or one whose dropper stopped
+     *
+     * @return the claimed drop or null when none is due
+     */
+    private DatabaseDrop claimNext() {
+        final Date now = new Date();
+        final Query due = query(new Criteria().orOperator(
+                where("state").is(DatabaseDrop.State.PENDING).and("notBefore").lte(now),
+                where("state").is(DatabaseDrop.State.DROPPING)
+                        .and("lastUpdated").lt(new Date(now.getTime() - staleAfter))))
+                .with(new Sort(Sort.Direction.ASC, "enqueuedAt"));
+        return mongoOperations.findAndModify(due,
+                new Update()
+                        .set("state", DatabaseDrop.State.DROPPING)
+                        .inc("attempts", 1)
+                        .set("lastUpdated", now),
+                FindAndModifyOptions.options().returnNew(true),
+                DatabaseDrop.class);
+    }
+
+    /**
+     * Drop a claimed database unless it was reused meanwhile
+     *
+     * @param drop
+     */
+    private void drop(final DatabaseDrop drop) {
+        final Lease lease = leaseService.tryAcquire(Lease.instanceKey(drop.getServiceInstanceId()));
+        if (lease == null) {
+            // the instance is being worked on, possibly recreated
+            requeue(drop);
+            return;
+        }
+        try {
+            if (isOwned(drop)) {
+                logger.info("Skipping drop of database {} on cluster {}, reused meanwhile",
+                        drop.getDatabaseName(), drop.getClusterId());
+            } else {
+                atlasAdminService.deleteDatabase(drop.getClusterId(), drop.getDatabaseName());
+                logger.info("Dropped database {} on cluster {}", drop.getDatabaseName(), drop.getClusterId());
+                metricRegistry.counter("drops.completed").inc();
+            }
+            mongoOperations.remove(query(where("_id").is(drop.getId())), DatabaseDrop.class);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to drop database {} on cluster {}", drop.getDatabaseName(), drop.getClusterId(), e);
+            metricRegistry.counter("drops.failed").inc();
+            retry(drop, e.getMessage());
+        } finally {
+            leaseService.release(lease);
+        }
+    }
+
+    /**
+     * Put a claimed drop back in the queue for the next run, undoing the attempt of its claim
+     *
+     * @param drop
+     */
+    private void requeue(final DatabaseDrop drop) {
+        final Date now = new Date();
+        mongoOperations.updateFirst(query(where("_id").is(drop.getId())),
+                new Update()
+                        .set("state", DatabaseDrop.State.PENDING)
+                        .inc("attempts", -1)
+                        .set("notBefore", new Date(now.getTime() + interval))
+                        .set("lastUpdated", now),
+                DatabaseDrop.class);
+        metricRegistry.counter("drops.requeued").inc();
+    }
+
+    /**
+     * Put a claimed drop back in the queue until its backoff elapses
+     *
+     * @param drop
+     * @param failure
+     */
+    private void retry(final DatabaseDrop drop, final String failure) {
+        final int doublings = Math.min(Math.max(drop.getAttempts() - 1, 0), 16);
+        final long backoff = Math.min(retryBackoff << doublings, MAX_RETRY_BACKOFF);
+        final Date now = new Date();
+        mongoOperations.updateFirst(query(where("_id").is(drop.getId())),
+                new Update()
+                        .set("state", DatabaseDrop.State.PENDING)
+                        .set("failure", failure)
+                        .set("notBefore", new Date(now.getTime() + backoff))
+                        .set("lastUpdated", now),
+                DatabaseDrop.class);
+    }
+
+    /**
+     * Whether an instance or a pool entry owns the database of a drop
+     *
+     * @param drop
+     * @return
+     */
+    private boolean isOwned(final DatabaseDrop drop) {
+        final String name = drop.getDatabaseName();
+        final Query instances = query(new Criteria().orOperator(where("_id").is(name), where("databaseName").is(name)));
+        instances.fields().include("databaseName").include("clusterId");
+        for (final ServiceInstance instance : mongoOperations.find(instances, ServiceInstance.class)) {
+            if (name.equals(instance.getDatabaseName())
+                    && clusterRegistry.get(instance.getClusterId()) == clusterRegistry.get(drop.getClusterId())) {
+                return true;
+            }
+        }
+        return mongoOperations.exists(query(where("_id").is(name)), WarmPoolEntry.class);
+    }
+}
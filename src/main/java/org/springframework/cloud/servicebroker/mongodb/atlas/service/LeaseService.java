@@ -0,0 +1,153 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.WriteResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Leases serializing the work of broker replicas on a shared resource.
+ * <p>
+ * NOTE:
+ *   A lease is acquired by inserting its document, or by taking over an
+ *   expired one with a conditional update, so that exactly one replica
+ *   holds it at a time without any coordination besides MongoDB.
+ *
+ *   Requests on a service instance or its bindings hold the lease of the
+ *   instance while they check and write its records; requests arriving
+ *   meanwhile wait for it up to the wait period before being rejected.
+ *   Leases expire so that those of a stopped replica do not block others
+ *   for longer than the lease duration.
+ *
+ *   Background jobs may run for longer than that, so they renew their
+ *   lease between units of work and stop once it was lost. Renewals only
+ *   write once a third of the duration has elapsed, so they are cheap to
+ *   call often.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class LeaseService {
+
+    private MongoOperations mongoOperations;
+
+    private MetricRegistry metricRegistry;
+
+    @Value("${ATLAS_LEASE_DURATION_MS:120000}")
+    private long duration;
+
+    @Value("${ATLAS_LEASE_WAIT_MS:5000}")
+    private long wait;
+
+    @Autowired
+    public LeaseService(final MongoOperations mongoOperations,
+                        final MetricRegistry metricRegistry) {
+        this.mongoOperations = mongoOperations;
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * Acquire a lease, waiting while another replica holds it
+     *
+     * @param key
+     * @return the lease to release once done
+     * @throws ServiceBrokerException when the lease is still held after the wait period
+     */
+    public Lease acquire(final String key) {
+        final long deadline = System.currentTimeMillis() + wait;
+        long backoff = 10;
+        while (true) {
+            final Lease lease = tryAcquire(key);
+            if (lease != null) {
+                return lease;
+            }
+            if (System.currentTimeMillis() + backoff > deadline) {
+                metricRegistry.counter("lease.rejected").inc();
+                throw new ServiceBrokerException("Another operation is in progress on " + key + ", retry later");
+            }
+
+            metricRegistry.counter("lease.waits").inc();
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceBrokerException("Interrupted waiting for " + key);
+            }
+            backoff = Math.min(backoff * 2, 500);
+        }
+    }
+
+    /**
+     * Acquire a lease unless another replica holds it
+     *
+     * @param key
+     * @return the lease to release once done, or null when held elsewhere
+     */
+    public Lease tryAcquire(final String key) {
+        final Date now = new Date();
+        final Lease lease = new Lease(key, UUID.randomUUID().toString(), new Date(now.getTime() + duration));
+        try {
+            mongoOperations.insert(lease);
+            return lease;
+        } catch (DuplicateKeyException e) {
+            // held, possibly by a replica that stopped
+        }
+
+        final WriteResult result = mongoOperations.updateFirst(
+                query(where("_id").is(key).and("expiresAt").lt(now)),
+                new Update().set("owner", lease.getOwner()).set("expiresAt", lease.getExpiresAt()),
+                Lease.class);
+        if (result.getN() == 0) {
+            return null;
+        }
+        metricRegistry.counter("lease.expired").inc();
+        return lease;
+    }
+
+    /**
+     * Extend a lease by the lease duration, unless it expired and was taken over meanwhile
+     *
+     * @param lease
+     * @return false when the lease was lost and the work it guards should stop
+     */
+    public boolean renew(final Lease lease) {
+        final Date now = new Date();
+        if (lease.getExpiresAt().getTime() - now.getTime() > duration * 2 / 3) {
+            // renewed recently, and so still held
+            return true;
+        }
+
+        final Date expiresAt = new Date(now.getTime() + duration);
+        final WriteResult result = mongoOperations.updateFirst(
+                query(where("_id").is(lease.getKey()).and("owner").is(lease.getOwner())),
+                new Update().set("expiresAt", expiresAt),
+                Lease.class);
+        if (result.getN() == 0) {
+            metricRegistry.counter("lease.lost").inc();
+            return false;
+        }
+        lease.renewed(expiresAt);
+        return true;
+    }
+
+    /**
+     * Release a lease, unless it expired and was taken over meanwhile
+     *
+     * @param lease
+     */
+    public void release(final Lease lease) {
+        mongoOperations.remove(query(where("_id").is(lease.getKey()).and("owner").is(lease.getOwner())), Lease.class);
+    }
+}
@@ -0,0 +1,233 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.MongoClient;
+import com.mongodb.async.client.MongoDatabase;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.DatabaseUserWriter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.NonBlockingAtlasClient;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Non-blocking counterpart of AtlasAdminService.
+ * <p>
+ * NOTE:
+ *   Database operations go through the asynchronous MongoDB driver and
+ *   Atlas API calls through the NonBlockingAtlasClient. Every operation
+ *   returns at once with a future completed from the driver or I/O reactor
+ *   threads, which callers must not block. Like their blocking counterparts,
+ *   database operations are routed to the cluster owning the database.
+ *
+ * @author ipolyzos
+ */
+public class NonBlockingAtlasAdminService {
+
+    private Logger logger = LoggerFactory.getLogger(NonBlockingAtlasAdminService.class);
+
+    /**
+     * Clusters hosting the databases
+     */
+    private ClusterRegistry clusterRegistry;
+
+    /**
+     * Asynchronous MongoDB clients, per cluster id
+     */
+    private Map<String, MongoClient> mongoClients;
+
+    /**
+     * Non-blocking Atlas API client
+     */
+    private NonBlockingAtlasClient atlasClient;
+
+    public NonBlockingAtlasAdminService(final ClusterRegistry clusterRegistry,
+                                        final Map<String, MongoClient> mongoClients,
+                                        final NonBlockingAtlasClient atlasClient) {
+        this.clusterRegistry = clusterRegistry;
+        this.mongoClients = mongoClients;
+        this.atlasClient = atlasClient;
+    }
+
+    /**
+     * Check if Database exists, see AtlasAdminService#databaseExists
+     *
+     * @param clusterId
+     * @param databaseName
+     * @return
+     */
+    public ListenableFuture<Boolean> databaseExists(final String clusterId, final String databaseName) {
+        final SettableFuture<String> first = SettableFuture.create();
+        mongoClient(clusterId).getDatabase(databaseName).listCollectionNames().batchSize(1).first(callback(first));
+        return Futures.transform(first, new Function<String, Boolean>() {
+            @Override
+            public Boolean apply(final String collectionName) {
+                return collectionName != null;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Drop MongoDB Database
+     *
+     * @param clusterId
+     * @param databaseName
+     * @return
+     */
+    public ListenableFuture<Void> deleteDatabase(final String clusterId, final String databaseName) {
+        final SettableFuture<Void> dropped = SettableFuture.create();
+        mongoClient(clusterId).getDatabase(databaseName).drop(callback(dropped));
+        return dropped;
+    }
+
+    /**
+     * Create an empty MongoDB Database, dropping any leftovers first
+     *
+     * @param clusterId
+     * @param databaseName
+     * @return
+     */
+    public ListenableFuture<Void> createDatabase(final String clusterId, final String databaseName) {
+        final ListenableFuture<Void> empty = Futures.transformAsync(databaseExists(clusterId, databaseName),
+                new AsyncFunction<Boolean, Void>() {
+                    @Override
+                    public ListenableFuture<Void> apply(final Boolean exists) {
+                        return exists ? deleteDatabase(clusterId, databaseName) : Futures.<Void>immediateFuture(null);
+                    }
+                }, MoreExecutors.directExecutor());
+
+        return Futures.transformAsync(empty, new AsyncFunction<Void, Void>() {
+            @Override
+            public ListenableFuture<Void> apply(final Void ignored) {
+                // write a document to force db and collection creation
+                final MongoDatabase db = mongoClient(clusterId).getDatabase(databaseName);
+                final SettableFuture<Void> inserted = SettableFuture.create();
+                db.getCollection("foobar").insertOne(new Document("foo", "bar"), callback(inserted));
+                return inserted;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Create a MongoDB user
+     *
+     * @param apiBase
+     * @param groupId
+     * @param user
+     * @return
+     */
+    public ListenableFuture<Void> createUser(final String apiBase,
+                                             final String groupId,
+                                             final DatabaseUser user) {
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+        try {
+            DatabaseUserWriter.write(user, payload);
+        } catch (IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+
+        final HttpPost request = new HttpPost(databaseUsersUri(apiBase, groupId, null));
+        request.setEntity(new ByteArrayEntity(payload.toByteArray(), ContentType.APPLICATION_JSON));
+        return checkResponse(atlasClient.execute(groupId, request), "create user " + user.getUsername(), false);
+    }
+
+    /**
+     * Delete a MongoDB user, a user already gone counts as deleted
+     *
+     * @param apiBase
+     * @param groupId
+     * @param username
+     * @return
+     */
+    public ListenableFuture<Void> deleteUser(final String apiBase,
+                                             final String groupId,
+                                             final String username) {
+        final HttpDelete request = new HttpDelete(databaseUsersUri(apiBase, groupId, username));
+        return checkResponse(atlasClient.execute(groupId, request), "delete user " + username, true);
+    }
+
+    /**
+     * Close the clients of every cluster
+     */
+    public void close() {
+        for (final MongoClient mongoClient : mongoClients.values()) {
+            mongoClient.close();
+        }
+    }
+
+    /**
+     * Client of the cluster owning a database
+     *
+     * @param clusterId cluster id, null for the default cluster
+     * @return
+     */
+    private MongoClient mongoClient(final String clusterId) {
+        return mongoClients.get(clusterRegistry.get(clusterId).getId());
+    }
+
+    private static URI databaseUsersUri(final String apiBase, final String groupId, final String username) {
+        final StringBuilder uri = new StringBuilder(apiBase)
+                .append("/groups/").append(ConnectionStringTemplate.escape(groupId))
+                .append("/databaseUsers");
+        if (username != null) {
+            uri.append('/').append(AtlasAdminService.ADMIN_DB)
+                    .append('/').append(ConnectionStringTemplate.escape(username));
+        }
+        return URI.create(uri.toString());
+    }
+
+    /**
+     * Consume an Atlas API response, failing unless it reports success
+     */
+    private ListenableFuture<Void> checkResponse(final ListenableFuture<HttpResponse> response,
+                                                 final String action,
+                                                 final boolean notFoundAccepted) {
+        return Futures.transformAsync(response, new AsyncFunction<HttpResponse, Void>() {
+            @Override
+            public ListenableFuture<Void> apply(final HttpResponse response) throws IOException {
+                final int status = response.getStatusLine().getStatusCode();
+                final String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+                if ((status >= 200 && status < 300) || (notFoundAccepted && status == HttpStatus.SC_NOT_FOUND)) {
+                    return Futures.immediateFuture(null);
+                }
+
+                logger.error("Atlas API failed to {}: HTTP {} {}", action, status, body);
+                return Futures.immediateFailedFuture(
+                        new AtlasServiceException(String.format("Atlas API failed to %s: HTTP %d", action, status)));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static <T> SingleResultCallback<T> callback(final SettableFuture<T> future) {
+        return new SingleResultCallback<T>() {
+            @Override
+            public void onResult(final T result, final Throwable t) {
+                if (t != null) {
+                    future.setException(t);
+                } else {
+                    future.set(result);
+                }
+            }
+        };
+    }
+}
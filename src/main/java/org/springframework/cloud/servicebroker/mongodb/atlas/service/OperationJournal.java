@@ -0,0 +1,351 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.WriteResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Write-ahead journal of provisioning operations.
+ * <p>
+ * NOTE:
+ *   Operations record every step in their JournalEntry as soon as it
+ *   completes. A retry of the same request, or the recovery of an
+ *   asynchronous operation interrupted by a restart, resumes the entry and
+ *   skips the steps already done instead of starting over.
+ *
+ *   Writes are conditional on the version of the entry, so an operation
+ *   taken over by another attempt stops with an
+ *   OptimisticLockingFailureException at its next step, and its finish
+ *   leaves the entry to the attempt which took it over. An attempt counts
+ *   as abandoned once its entry has not been written for the stale period.
+ *
+ *   Operations waiting in a queue of this replica write nothing until their
+ *   work starts, so every recovery run renews them first; the recovery
+ *   interval must therefore stay below the stale period.
+ *
+ *   Services register the operations they resume on their own, those the
+ *   platform does not retry, and get them handed back by the recovery.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class OperationJournal {
+
+    private Logger logger = LoggerFactory.getLogger(OperationJournal.class);
+
+    /**
+     * Resumes operations claimed by the recovery
+     */
+    public interface Recovery {
+
+        /**
+         * @param entry claimed entry of the operation to resume
+         * @return false to stop recovering until the next run, e.g. when busy
+         */
+        boolean resume(JournalEntry entry);
+    }
+
+    private final Map<Criteria, Recovery> recoveries = new ConcurrentHashMap<>();
+
+    /**
+     * Entries of operations whose work waits in a queue of this replica
+     */
+    private final Set<JournalEntry> queued = Collections.newSetFromMap(new ConcurrentHashMap<JournalEntry, Boolean>());
+
+    private MongoOperations mongoOperations;
+
+    private MetricRegistry metricRegistry;
+
+    @Value("${ATLAS_JOURNAL_STALE_AFTER_MS:120000}")
+    private long staleAfter;
+
+    @Autowired
+    public OperationJournal(final MongoOperations mongoOperations,
+                            final MetricRegistry metricRegistry) {
+        this.mongoOperations = mongoOperations;
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * Start an operation, or resume an earlier attempt of it that failed or
+     * was abandoned
+     *
+     * @param proposed entry of a new attempt
+     * @return the entry to record the steps on
+     * @throws ServiceBrokerException when another attempt is still in progress
+     */
+    public JournalEntry begin(final JournalEntry proposed) {
+        try {
+            mongoOperations.insert(proposed.started());
+            return proposed;
+        } catch (DuplicateKeyException e) {
+            // an earlier attempt of the same operation left its entry
+        }
+
+        final JournalEntry existing = mongoOperations.findById(proposed.getId(), JournalEntry.class);
+        if (existing == null) {
+            // completed meanwhile, so this is a new operation
+            mongoOperations.insert(proposed);
+            return proposed;
+        }
+
+        final JournalEntry resumed = existing.getState() == JournalEntry.State.FAILED || isStale(existing)
+                ? claim(existing) : null;
+        if (resumed == null) {
+            throw new ServiceBrokerException("Operation already in progress, retry later: " + proposed.getId());
+        }
+
+        logger.info("Resuming {} after steps {}", resumed.getId(), resumed.getSteps());
+        metricRegistry.counter("journal.resumed").inc();
+        return resumed;
+    }
+
+    /**
+     * Run a step of an operation unless an earlier attempt completed it
+     *
+     * @param entry
+     * @param step
+     * @param action
+     */
+    public void step(final JournalEntry entry, final JournalEntry.Step step, final Runnable action) {
+        if (entry.isDone(step)) {
+            metricRegistry.counter("journal.steps.skipped").inc();
+            return;
+        }
+
+        action.run();
+        completed(entry, step, new Update());
+    }
+
+    /**
+     * Record a completed step, along with what it decided
+     *
+     * @param entry
+     * @param step
+     * @param update fields the step set on the entry
+     * @throws OptimisticLockingFailureException when another attempt took the operation over
+     */
+    public void completed(final JournalEntry entry, final JournalEntry.Step step, final Update update) {
+        final Date now = new Date();
+        write(entry, update.push("steps", step).set("lastUpdated", now));
+        entry.completed(step, now);
+    }
+
+    /**
+     * Keep an operation from counting as abandoned while its work waits in a
+     * queue, until renew marks the work as started
+     *
+     * @param entry
+     */
+    public void queued(final JournalEntry entry) {
+        queued.add(entry);
+    }
+
+    /**
+     * Stop keeping a queued operation alive, e.g. when the queue rejected it
+     *
+     * @param entry
+     */
+    public void dequeued(final JournalEntry entry) {
+        queued.remove(entry);
+    }
+
+    /**
+     * Mark the operation as still being worked on, e.g. when its queued work starts
+     *
+     * @param entry
+     * @return false when another attempt took the operation over
+     */
+    public boolean renew(final JournalEntry entry) {
+        synchronized (entry) {
+            queued.remove(entry);
+            return touch(entry);
+        }
+    }
+
+    /**
+     * Keep a failed operation for its retry to resume
+     *
+     * @param entry
+     * @param failure
+     */
+    public void fail(final JournalEntry entry, final Throwable failure) {
+        try {
+            write(entry, new Update()
+                    .set("state", JournalEntry.State.FAILED)
+                    .set("failure", failure.getMessage())
+                    .set("lastUpdated", new Date()));
+        } catch (RuntimeException e) {
+            logger.warn("Failed to record failure of {}", entry.getId(), e);
+        }
+    }
+
+    /**
+     * Remove the entry of an operation completed or abandoned before any side effect
+     *
+     * @param entry
+     */
+    public void finish(final JournalEntry entry) {
+        queued.remove(entry);
+        final WriteResult result = mongoOperations.remove(
+                query(where("_id").is(entry.getId()).and("version").is(entry.getVersion())), JournalEntry.class);
+        if (result.getN() == 0) {
+            logger.warn("Operation {} was taken over by another attempt, its entry is kept", entry.getId());
+        }
+    }
+
+    /**
+     * Remove the entries of every operation of a deleted service instance
+     *
+     * @param serviceInstanceId
+     */
+    public void forget(final String serviceInstanceId) {
+        mongoOperations.remove(query(where("serviceInstanceId").is(serviceInstanceId)), JournalEntry.class);
+    }
+
+    /**
+     * Have abandoned operations resumed by the recovery
+     *
+     * @param criteria selects the operations to resume
+     * @param recovery
+     */
+    public void register(final Criteria criteria, final Recovery recovery) {
+        recoveries.put(criteria, recovery);
+    }
+
+    /**
+     * Take over the abandoned operations of the registered recoveries,
+     * including those interrupted by a restart
+     */
+    @Scheduled(initialDelayString = "${ATLAS_JOURNAL_RECOVERY_INTERVAL_MS:60000}",
+            fixedDelayString = "${ATLAS_JOURNAL_RECOVERY_INTERVAL_MS:60000}")
+    public void recover() {
+        renewQueued();
+        for (final Map.Entry<Criteria, Recovery> recovery : recoveries.entrySet()) {
+            for (final JournalEntry entry : claimStale(recovery.getKey())) {
+                logger.info("Recovering {} after steps {}", entry.getId(), entry.getSteps());
+                metricRegistry.counter("journal.recovered").inc();
+                if (!recovery.getValue().resume(entry)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Renew the operations waiting in a queue, so that no other replica takes them over
+     */
+    private void renewQueued() {
+        for (final JournalEntry entry : queued) {
+            synchronized (entry) {
+                // unless its work started meanwhile
+                if (queued.contains(entry) && !touch(entry)) {
+                    queued.remove(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take over the abandoned operations matching a criteria
+     *
+     * @param criteria
+     * @return the entries claimed
+     */
+    private List<JournalEntry> claimStale(final Criteria criteria) {
+        final List<JournalEntry> claimed = new ArrayList<>();
+        final List<JournalEntry> stale = mongoOperations.find(
+                query(new Criteria().andOperator(criteria,
+                        where("state").is(JournalEntry.State.IN_PROGRESS)
+                                .and("lastUpdated").lt(new Date(System.currentTimeMillis() - staleAfter)))),
+                JournalEntry.class);
+        for (final JournalEntry entry : stale) {
+            final JournalEntry resumed = claim(entry);
+            if (resumed != null) {
+                claimed.add(resumed);
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Atomically start a new attempt of an operation
+     *
+     * @param entry as read from the journal
+     * @return the claimed entry, or null when another attempt got it first
+     */
+    private JournalEntry claim(final JournalEntry entry) {
+        return mongoOperations.findAndModify(
+                query(where("_id").is(entry.getId()).and("version").is(entry.getVersion())),
+                new Update()
+                        .set("state", JournalEntry.State.IN_PROGRESS)
+                        .unset("failure")
+                        .inc("attempts", 1)
+                        .inc("version", 1)
+                        .set("lastUpdated", new Date()),
+                FindAndModifyOptions.options().returnNew(true),
+                JournalEntry.class);
+    }
+
+    /**
+     * Stamp an entry as written now
+     *
+     * @param entry
+     * @return false when another attempt took the operation over
+     */
+    private boolean touch(final JournalEntry entry) {
+        final Date now = new Date();
+        try {
+            write(entry, new Update().set("lastUpdated", now));
+        } catch (OptimisticLockingFailureException e) {
+            return false;
+        }
+        entry.written(now);
+        return true;
+    }
+
+    /**
+     * Write to an entry unless another attempt changed it since it was read
+     *
+     * @param entry
+     * @param update
+     */
+    private void write(final JournalEntry entry, final Update update) {
+        final WriteResult result = mongoOperations.updateFirst(
+                query(where("_id").is(entry.getId()).and("version").is(entry.getVersion())),
+                update.inc("version", 1),
+                JournalEntry.class);
+        if (result.getN() == 0) {
+            throw new OptimisticLockingFailureException("Operation taken over by another attempt: " + entry.getId());
+        }
+    }
+
+    private boolean isStale(final JournalEntry entry) {
+        return entry.getLastUpdated() == null
+                || entry.getLastUpdated().getTime() < System.currentTimeMillis() - staleAfter;
+    }
+}
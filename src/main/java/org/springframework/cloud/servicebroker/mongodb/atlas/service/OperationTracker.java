@@ -0,0 +1,276 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.ServiceInstanceConcurrencyException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceOperationRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of the asynchronous operations of service instances, as reported
+ * to the platform polling them.
+ * <p>
+ * NOTE:
+ *   Operations are persisted as ServiceInstanceOperation records, and held
+ *   in memory as the workers of this replica update them, so that polls are
+ *   answered without reading the broker database. As other replicas may
+ *   run or take over the operation of an instance, a state is read again
+ *   once written or read more than ATLAS_OPERATION_REFRESH_MS ago, which
+ *   bounds the reads per instance whatever the poll rate. States not polled
+ *   for ATLAS_OPERATION_RETENTION_MS are dropped from memory.
+ *
+ *   The refresh interval defaults to 90 seconds, above the interval of
+ *   about a minute the platform polls at, so that most polls of an
+ *   operation are answered from memory. The cost is staleness: the outcome
+ *   of an operation run by another replica may be reported up to the
+ *   refresh interval late, while operations run by this replica are
+ *   reported as soon as they complete.
+ *
+ *   With ATLAS_LAST_OPERATION_LONG_POLL_MS set, a poll of an operation in
+ *   progress is held until the operation completes or the period elapses,
+ *   so the platform gets the outcome with its next poll instead of many.
+ *   Held polls occupy a request thread each, so at most
+ *   ATLAS_LAST_OPERATION_MAX_WAITERS are held at a time and others are
+ *   answered right away.
+ *
+ *   Requests changing an instance or its bindings are rejected while an
+ *   operation of the instance is in progress. They check the stored state
+ *   under the lease of the instance, as another replica may have started
+ *   an operation since the state held in memory was read, unless that state
+ *   is fresh and already in progress: such requests are rejected without a
+ *   read, at the cost of rejecting them for up to the refresh interval
+ *   after another replica completed the operation.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class OperationTracker {
+
+    /**
+     * State of the operation of an instance as known to this replica
+     */
+    private static final class Tracked {
+
+        /** snapshot of the operation, null when the instance has none */
+        private final ServiceInstanceOperation operation;
+
+        /** when the state was written or read, in milliseconds of the ticker */
+        private final long readAt;
+
+        /** released when the state is replaced */
+        private final CountDownLatch replaced = new CountDownLatch(1);
+
+        private Tracked(final ServiceInstanceOperation operation, final long readAt) {
+            this.operation = operation;
+            this.readAt = readAt;
+        }
+
+        private boolean isInProgress() {
+            return operation != null && operation.getState() == OperationState.IN_PROGRESS;
+        }
+    }
+
+    private final ConcurrentMap<String, Tracked> operations;
+
+    private final Semaphore waiters;
+
+    private AtlasServiceInstanceOperationRepository repository;
+
+    private MetricRegistry metricRegistry;
+
+    private final long refreshInterval;
+
+    private final long longPoll;
+
+    private final Ticker ticker;
+
+    @Autowired
+    public OperationTracker(final AtlasServiceInstanceOperationRepository repository,
+                            final MetricRegistry metricRegistry,
+                            @Value("${ATLAS_OPERATION_REFRESH_MS:90000}") final long refreshInterval,
+                            @Value("${ATLAS_OPERATION_RETENTION_MS:600000}") final long retention,
+                            @Value("${ATLAS_LAST_OPERATION_LONG_POLL_MS:0}") final long longPoll,
+                            @Value("${ATLAS_LAST_OPERATION_MAX_WAITERS:200}") final int maxWaiters) {
+        this(repository, metricRegistry, refreshInterval, retention, longPoll, maxWaiters, Ticker.systemTicker());
+    }
+
+    OperationTracker(final AtlasServiceInstanceOperationRepository repository,
+                     final MetricRegistry metricRegistry,
+                     final long refreshInterval,
+                     final long retention,
+                     final long longPoll,
+                     final int maxWaiters,
+                     final Ticker ticker) {
+        this.repository = repository;
+        this.metricRegistry = metricRegistry;
+        this.refreshInterval = refreshInterval;
+        this.longPoll = longPoll;
+        this.ticker = ticker;
+        this.waiters = new Semaphore(maxWaiters);
+        this.operations = CacheBuilder.newBuilder()
+                .expireAfterAccess(retention, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .<String, Tracked>build()
+                .asMap();
+    }
+
+    /**
+     * Persist the state of an operation run by this replica
+     *
+     * @param operation
+     */
+    public void save(final ServiceInstanceOperation operation) {
+        repository.save(operation);
+        replace(operation.getServiceInstanceId(), new Tracked(operation.snapshot(), now()));
+    }
+
+    /**
+     * Forget the operation of an instance
+     *
+     * @param serviceInstanceId
+     */
+    public void delete(final String serviceInstanceId) {
+        repository.delete(serviceInstanceId);
+        replace(serviceInstanceId, new Tracked(null, now()));
+    }
+
+    /**
+     * Current state of the operation of an instance
+     *
+     * @param serviceInstanceId
+     * @return a snapshot of the operation, or null when the instance has none
+     */
+    public ServiceInstanceOperation get(final String serviceInstanceId) {
+        return tracked(serviceInstanceId).operation;
+    }
+
+    /**
+     * Reject a request while an operation of an instance is in progress
+     *
+     * @param serviceInstanceId
+     * @return the last operation of the instance, or null when it has none
+     * @throws ServiceInstanceConcurrencyException when an operation is in progress
+     */
+    public ServiceInstanceOperation checkNotInProgress(final String serviceInstanceId) {
+        Tracked tracked = operations.get(serviceInstanceId);
+        if (tracked == null || !isFresh(tracked) || !tracked.isInProgress()) {
+            // another replica may have started an operation since it was last read
+            tracked = read(serviceInstanceId, tracked);
+        }
+        if (tracked.isInProgress()) {
+            throw new ServiceInstanceConcurrencyException(serviceInstanceId, tracked.operation.getType());
+        }
+        return tracked.operation;
+    }
+
+    /**
+     * State of the operation of an instance to report to a poll, waiting
+     * for an operation in progress to complete in long-poll mode
+     *
+     * @param serviceInstanceId
+     * @return a snapshot of the operation, or null when the instance has none
+     */
+    public ServiceInstanceOperation poll(final String serviceInstanceId) {
+        metricRegistry.counter("operations.polls").inc();
+        if (longPoll <= 0 || !waiters.tryAcquire()) {
+            return get(serviceInstanceId);
+        }
+        try {
+            return await(serviceInstanceId, System.currentTimeMillis() + longPoll);
+        } finally {
+            waiters.release();
+        }
+    }
+
+    /**
+     * Wait for an operation in progress to complete
+     *
+     * @param serviceInstanceId
+     * @param deadline
+     * @return a snapshot of the operation, or null when the instance has none
+     */
+    private ServiceInstanceOperation await(final String serviceInstanceId, final long deadline) {
+        while (true) {
+            final Tracked tracked = tracked(serviceInstanceId);
+            final long remaining = deadline - System.currentTimeMillis();
+            if (tracked.operation == null || tracked.operation.getState() != OperationState.IN_PROGRESS
+                    || remaining <= 0) {
+                return tracked.operation;
+            }
+
+            try {
+                // writes of other replicas go unnoticed, so the state is read again meanwhile
+                tracked.replaced.await(Math.min(remaining, refreshInterval), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return tracked.operation;
+            }
+        }
+    }
+
+    /**
+     * State known of the operation of an instance, read from the database
+     * unless written or read recently
+     *
+     * @param serviceInstanceId
+     * @return
+     */
+    private Tracked tracked(final String serviceInstanceId) {
+        final Tracked tracked = operations.get(serviceInstanceId);
+        if (tracked != null && isFresh(tracked)) {
+            return tracked;
+        }
+        return read(serviceInstanceId, tracked);
+    }
+
+    /**
+     * Read the state of the operation of an instance from the database,
+     * replacing the state held unless a worker wrote it meanwhile
+     *
+     * @param serviceInstanceId
+     * @param tracked the state held, if any
+     * @return
+     */
+    private Tracked read(final String serviceInstanceId, final Tracked tracked) {
+        metricRegistry.counter("operations.reads").inc();
+        final ServiceInstanceOperation operation = repository.findOne(serviceInstanceId);
+        final Tracked loaded = new Tracked(operation == null ? null : operation.snapshot(), now());
+        final boolean stored = tracked == null
+                ? operations.putIfAbsent(serviceInstanceId, loaded) == null
+                : operations.replace(serviceInstanceId, tracked, loaded);
+        if (!stored) {
+            // written by a worker meanwhile
+            final Tracked current = operations.get(serviceInstanceId);
+            return current == null ? loaded : current;
+        }
+        if (tracked != null) {
+            tracked.replaced.countDown();
+        }
+        return loaded;
+    }
+
+    private boolean isFresh(final Tracked tracked) {
+        return now() - tracked.readAt < refreshInterval;
+    }
+
+    private long now() {
+        return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+    }
+
+    private void replace(final String serviceInstanceId, final Tracked tracked) {
+        final Tracked previous = operations.put(serviceInstanceId, tracked);
+        if (previous != null) {
+            previous.replaced.countDown();
+        }
+    }
+}
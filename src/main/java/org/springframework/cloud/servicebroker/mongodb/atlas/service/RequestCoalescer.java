@@ -0,0 +1,146 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-flight execution of duplicate broker requests.
+ * <p>
+ * NOTE:
+ *   The platform retries provisioning and binding requests which timed
+ *   out while the first attempt may still be running. A request arriving
+ *   while an identical one with the same key is in progress waits for it
+ *   and gets its outcome, instead of running the operation again only to
+ *   be rejected as a conflict. Successful outcomes are kept for
+ *   ATLAS_SINGLE_FLIGHT_RETENTION_MS, so that retries arriving just after
+ *   get them as well; failures are not kept, so retries run again.
+ *
+ *   Requests are identical when their key, i.e. the idempotency key of
+ *   their operation, and the attributes given are equal; a request with
+ *   the same key but other attributes runs on its own and gets its
+ *   conflict. Deleting the resource forgets its outcome.
+ *
+ *   Coalescing happens within a broker replica; requests on other replicas
+ *   are serialized by the lease of their instance.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class RequestCoalescer {
+
+    /**
+     * An operation in progress or completed, along with the attributes of its request
+     */
+    private static final class Flight {
+
+        private final Object request;
+
+        private final SettableFuture<Object> outcome = SettableFuture.create();
+
+        private Flight(final Object request) {
+            this.request = request;
+        }
+    }
+
+    private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    private final Cache<String, Flight> completed;
+
+    private MetricRegistry metricRegistry;
+
+    @Autowired
+    public RequestCoalescer(final MetricRegistry metricRegistry,
+                            @Value("${ATLAS_SINGLE_FLIGHT_RETENTION_MS:30000}") final long retention,
+                            @Value("${ATLAS_SINGLE_FLIGHT_MAX_RETAINED:10000}") final long maxRetained) {
+        this.metricRegistry = metricRegistry;
+        this.completed = CacheBuilder.newBuilder()
+                .expireAfterWrite(retention, TimeUnit.MILLISECONDS)
+                .maximumSize(maxRetained)
+                .build();
+    }
+
+    /**
+     * Run an operation, unless an identical request is running it or ran it recently
+     *
+     * @param key idempotency key of the operation
+     * @param request attributes of the request, compared with equals
+     * @param operation
+     * @param <T>
+     * @return the outcome of the operation
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(final String key, final Object request, final Callable<T> operation) {
+        final Flight done = completed.getIfPresent(key);
+        if (done != null && done.request.equals(request)) {
+            metricRegistry.counter("singleflight.replayed").inc();
+            return (T) Futures.getUnchecked(done.outcome);
+        }
+
+        final Flight flight = new Flight(request);
+        final Flight running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            if (!running.request.equals(request)) {
+                return call(operation);
+            }
+            metricRegistry.counter("singleflight.coalesced").inc();
+            return (T) await(key, running);
+        }
+
+        try {
+            final T outcome = call(operation);
+            flight.outcome.set(outcome);
+            // retained before leaving flight, so that no retry runs it again in between
+            completed.put(key, flight);
+            return outcome;
+        } catch (RuntimeException e) {
+            flight.outcome.setException(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Forget the outcome of an operation whose resource was deleted
+     *
+     * @param key
+     */
+    public void forget(final String key) {
+        completed.invalidate(key);
+    }
+
+    private static <T> T call(final Callable<T> operation) {
+        try {
+            return operation.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServiceBrokerException(e.getMessage());
+        }
+    }
+
+    private static Object await(final String key, final Flight flight) {
+        try {
+            return flight.outcome.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBrokerException("Interrupted waiting for " + key);
+        } catch (ExecutionException e) {
+            // the same failure as the request being waited for
+            throw (RuntimeException) e.getCause();
+        }
+    }
+}
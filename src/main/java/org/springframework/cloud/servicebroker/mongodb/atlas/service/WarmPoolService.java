@@ -0,0 +1,357 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Pool of pre-provisioned databases and users.
+ * <p>
+ * NOTE:
+ *   Every pool entry is a database created up front together with a user
+ *   holding the readWrite role on it. A new service instance claims an
+ *   available database and the first binding of that instance claims its
+ *   user, so neither has to wait for MongoDB or for the creation of an
+ *   Atlas user. Passwords of pooled users are not kept: a user is created
+ *   with a password nobody keeps and the binding claiming it sets a new
+ *   one. Claims are atomic findAndModify/remove operations on the pool
+ *   collection, which also keeps the pool across restarts.
+ *
+ *   Every cluster taking new instances has a pool of its own, refilled in
+ *   the background up to the high watermark whenever it drops below the
+ *   low watermark. Refills take a job lease, so that broker replicas do
+ *   not overfill the pools by refilling them at the same time, and renew
+ *   it before every entry, stopping once it was lost.
+ *
+ *   Entries left half-built are provisioned again, updating the user an
+ *   earlier attempt may have created, and marked FAILED once
+ *   ATLAS_WARM_POOL_MAX_ATTEMPTS attempts failed, so that they no longer
+ *   count toward the pool size.
+ *
+ * @author ipolyzos
+ */
+@Service
+public class WarmPoolService {
+
+    private Logger logger = LoggerFactory.getLogger(WarmPoolService.class);
+
+    /**
+     * Prefix of pooled database names
+     */
+    public static final String POOL_DATABASE_PREFIX = "pool-";
+
+    private AtlasAdminService atlasAdminService;
+
+    private BrokerConfig brokerConfig;
+
+    private MongoOperations mongoOperations;
+
+    private ClusterRegistry clusterRegistry;
+
+    private LeaseService leaseService;
+
+    @Value("${ATLAS_WARM_POOL_ENABLED:false}")
+    private boolean enabled;
+
+    @Value("${ATLAS_WARM_POOL_LOW_WATERMARK:5}")
+    private int lowWatermark;
+
+    @Value("${ATLAS_WARM_POOL_HIGH_WATERMARK:20}")
+    private int highWatermark;
+
+    @Value("${ATLAS_WARM_POOL_PROVISIONING_TIMEOUT_MS:600000}")
+    private long provisioningTimeout;
+
+    @Value("${ATLAS_WARM_POOL_MAX_ATTEMPTS:3}")
+    private int maxAttempts;
+
+    @Autowired
+    public WarmPoolService(final AtlasAdminService atlasAdminService,
+                           final BrokerConfig brokerConfig,
+                           final MongoOperations mongoOperations,
+                           final ClusterRegistry clusterRegistry,
+                           final LeaseService leaseService) {
+        this.atlasAdminService = atlasAdminService;
+        this.brokerConfig = brokerConfig;
+        this.mongoOperations = mongoOperations;
+        this.clusterRegistry = clusterRegistry;
+        this.leaseService = leaseService;
+    }
+
+    /**
+     * Assign an available pooled database of a cluster to a service instance
+     *
+     * @param serviceInstanceId
+     * @param clusterId cluster the instance is placed on
+     * @return the assigned entry or null when the pool is disabled or empty
+     */
+    public WarmPoolEntry claimDatabase(final String serviceInstanceId, final String clusterId) {
+        if (!enabled) {
+            return null;
+        }
+
+        return mongoOperations.findAndModify(
+                query(onCluster(clusterRegistry.get(clusterId)).and("state").is(WarmPoolEntry.State.AVAILABLE)),
+                new Update()
+                        .set("state", WarmPoolEntry.State.ASSIGNED)
+                        .set("serviceInstanceId", serviceInstanceId)
+                        .set("lastUpdated", new Date()),
+                FindAndModifyOptions.options().returnNew(true),
+                WarmPoolEntry.class);
+    }
+
+    /**
+     * Pre-created user of the instance's pooled database, if still unclaimed.
+     * Only the first binding of an instance gets one.
+     *
+     * @param serviceInstanceId
+     * @return the entry or null when no pooled user is left
+     */
+    public WarmPoolEntry findUser(final String serviceInstanceId) {
+        return mongoOperations.findOne(unclaimedUser(serviceInstanceId), WarmPoolEntry.class);
+    }
+
+    /**
+     * Hand the pre-created user of the instance's pooled database to a
+     * binding which recorded it as its own; claiming it again is a no-op
+     *
+     * @param serviceInstanceId
+     * @param username user found by findUser
+     */
+    public void claimUser(final String serviceInstanceId, final String username) {
+        mongoOperations.remove(unclaimedUser(serviceInstanceId).addCriteria(where("username").is(username)),
+                WarmPoolEntry.class);
+    }
+
+    /**
+     * Delete the unclaimed pooled user of a service instance being deleted
+     *
+     * @param serviceInstanceId
+     */
+    public void release(final String serviceInstanceId) {
+        final WarmPoolEntry entry = mongoOperations.findAndRemove(unclaimedUser(serviceInstanceId), WarmPoolEntry.class);
+        if (entry != null) {
+            atlasAdminService.deleteUser(brokerConfig.getApiBase(), getGroupId(entry), entry.getUsername());
+        }
+    }
+
+    /**
+     * Non-blocking release: the pool entry is claimed right away and its
+     * user deleted through the non-blocking Atlas client
+     *
+     * @param serviceInstanceId
+     * @param adminService
+     * @return
+     */
+    public ListenableFuture<Void> release(final String serviceInstanceId,
+                                          final NonBlockingAtlasAdminService adminService) {
+        final WarmPoolEntry entry = mongoOperations.findAndRemove(unclaimedUser(serviceInstanceId), WarmPoolEntry.class);
+        if (entry == null) {
+            return Futures.immediateFuture(null);
+        }
+        return adminService.deleteUser(brokerConfig.getApiBase(), getGroupId(entry), entry.getUsername());
+    }
+
+    /**
+     * Top the pool up to the high watermark once it drops below the low one
+     */
+    @Scheduled(fixedDelayString = "${ATLAS_WARM_POOL_REFILL_INTERVAL_MS:30000}")
+    public void refill() {
+        if (!enabled) {
+            return;
+        }
+
+        final Lease lease = leaseService.tryAcquire(Lease.jobKey("warm-pool-refill"));
+        if (lease == null) {
+            // another replica is refilling
+            return;
+        }
+        try {
+            refillPools(lease);
+        } finally {
+            leaseService.release(lease);
+        }
+    }
+
+    /**
+     * Provision the entries left half-built, then top up every pool
+     *
+     * @param lease lease of the refill job
+     */
+    private void refillPools(final Lease lease) {
+        // entries left half-built, e.g. by a restart, are provisioned again
+        final List<WarmPoolEntry> stale = mongoOperations.find(
+                query(where("state").is(WarmPoolEntry.State.PROVISIONING)
+                        .and("lastUpdated").lt(new Date(System.currentTimeMillis() - provisioningTimeout))),
+                WarmPoolEntry.class);
+        for (final WarmPoolEntry entry : stale) {
+            if (!leaseService.renew(lease)) {
+                return;
+            }
+            // a failing entry does not hold up the others
+            provision(entry);
+        }
+
+        for (final AtlasCluster cluster : clusterRegistry.getClusters()) {
+            if (cluster.isPlaceable() && !refill(cluster, lease)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Top the pool of a cluster up to the high watermark once it drops below the low one
+     *
+     * @param cluster
+     * @param lease lease of the refill job
+     * @return false when the lease was lost and refilling should stop
+     */
+    private boolean refill(final AtlasCluster cluster, final Lease lease) {
+        final long pooled = mongoOperations.count(
+                query(onCluster(cluster).and("state").in(WarmPoolEntry.State.PROVISIONING, WarmPoolEntry.State.AVAILABLE)),
+                WarmPoolEntry.class);
+        if (pooled >= lowWatermark) {
+            return true;
+        }
+
+        logger.info("Refilling warm pool of cluster {} from {} to {} entries", cluster.getId(), pooled, highWatermark);
+        for (long i = pooled; i < highWatermark; i++) {
+            final WarmPoolEntry entry = new WarmPoolEntry(POOL_DATABASE_PREFIX + UUID.randomUUID().toString(),
+                    UUID.randomUUID().toString(),
+                    cluster.getId());
+            if (!leaseService.renew(lease)) {
+                return false;
+            }
+            if (!provision(entry)) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create the database and user of an entry and make it available
+     *
+     * @param entry
+     * @return false when provisioning failed and refilling should stop
+     */
+    private boolean provision(final WarmPoolEntry entry) {
+        mongoOperations.upsert(query(where("_id").is(entry.getDatabaseName())),
+                new Update()
+                        .set("username", entry.getUsername())
+                        // left by entries provisioned before passwords were dropped
+                        .unset("password")
+                        .set("clusterId", entry.getClusterId())
+                        .set("state", WarmPoolEntry.State.PROVISIONING)
+                        .inc("attempts", 1)
+                        .set("lastUpdated", new Date()),
+                WarmPoolEntry.class);
+
+        try {
+            atlasAdminService.createDatabase(entry.getClusterId(), entry.getDatabaseName());
+            createUser(entry);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to provision warm pool database {}", entry.getDatabaseName(), e);
+            if (entry.getAttempts() + 1 >= maxAttempts) {
+                logger.error("Giving up on warm pool database {} after {} attempts",
+                        entry.getDatabaseName(), entry.getAttempts() + 1);
+                setState(entry, WarmPoolEntry.State.FAILED);
+            }
+            return false;
+        }
+
+        setState(entry, WarmPoolEntry.State.AVAILABLE);
+        return true;
+    }
+
+    /**
+     * Create the user of an entry; a user left by an earlier attempt gets
+     * the role of the entry instead. Either way its password is not kept.
+     *
+     * @param entry
+     */
+    private void createUser(final WarmPoolEntry entry) {
+        final String password = UUID.randomUUID().toString();
+        try {
+            atlasAdminService.createUser(brokerConfig.getApiBase(), getGroupId(entry),
+                    entry.getDatabaseName(), entry.getUsername(), password);
+        } catch (AtlasServiceException e) {
+            if (entry.getAttempts() == 0) {
+                throw e;
+            }
+            atlasAdminService.updateUser(brokerConfig.getApiBase(), getGroupId(entry),
+                    new DatabaseUser(entry.getUsername(), password)
+                            .withRole(entry.getDatabaseName(), AtlasAdminService.READ_WRITE_ROLE));
+        }
+    }
+
+    /**
+     * Move an entry being provisioned on to another state
+     *
+     * @param entry
+     * @param state
+     */
+    private void setState(final WarmPoolEntry entry, final WarmPoolEntry.State state) {
+        mongoOperations.updateFirst(
+                query(where("_id").is(entry.getDatabaseName()).and("state").is(WarmPoolEntry.State.PROVISIONING)),
+                new Update().set("state", state).set("lastUpdated", new Date()),
+                WarmPoolEntry.class);
+    }
+
+    /**
+     * Entry of an instance whose user no binding claimed yet
+     *
+     * @param serviceInstanceId
+     * @return
+     */
+    private static Query unclaimedUser(final String serviceInstanceId) {
+        return query(where("serviceInstanceId").is(serviceInstanceId).and("state").is(WarmPoolEntry.State.ASSIGNED));
+    }
+
+    /**
+     * Atlas group of the cluster hosting a pooled database
+     *
+     * @param entry
+     * @return
+     */
+    private String getGroupId(final WarmPoolEntry entry) {
+        return clusterRegistry.get(entry.getClusterId()).getGroupId();
+    }
+
+    /**
+     * Entries of a cluster; those of the default cluster include entries created before placement
+     *
+     * @param cluster
+     * @return
+     */
+    private Criteria onCluster(final AtlasCluster cluster) {
+        if (cluster == clusterRegistry.getDefault()) {
+            return where("clusterId").in(cluster.getId(), null);
+        }
+        return where("clusterId").is(cluster.getId());
+    }
+}
@@ -0,0 +1,139 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.startup;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * Warms the clients of the broker in the background while it starts.
+ * <p>
+ * NOTE:
+ *   The clients are built without any I/O, so the first requests after a
+ *   start would pay for the MongoDB server discovery, the TLS handshakes
+ *   and authentication of new connections, the Jersey runtime set up on
+ *   first use and the Atlas digest challenge. Once all beans exist, and
+ *   while the web server starts, every pool is filled in parallel instead:
+ *   ATLAS_WARM_UP_MONGO_CONNECTIONS concurrent pings per cluster, and
+ *   ATLAS_WARM_UP_API_CONNECTIONS concurrent reads of the Atlas group,
+ *   which leave authenticated keep-alive connections and the digest nonce
+ *   behind. Failures are only logged: requests connect on demand anyway.
+ *
+ * @author ipolyzos
+ */
+public class ConnectionWarmer implements SmartInitializingSingleton {
+
+    private Logger logger = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+    private final ClusterRegistry clusterRegistry;
+
+    private final Client restClient;
+
+    private final String apiBase;
+
+    private final int mongoConnections;
+
+    private final int apiConnections;
+
+    private final StartupReport report;
+
+    public ConnectionWarmer(final ClusterRegistry clusterRegistry,
+                            final Client restClient,
+                            final String apiBase,
+                            final int mongoConnections,
+                            final int apiConnections,
+                            final StartupReport report) {
+        this.clusterRegistry = clusterRegistry;
+        this.restClient = restClient;
+        this.apiBase = apiBase;
+        this.mongoConnections = mongoConnections;
+        this.apiConnections = apiConnections;
+        this.report = report;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        warmUp();
+    }
+
+    /**
+     * Start warming every pool
+     *
+     * @return the outcome of every connection, null when it failed, once all are done
+     */
+    public ListenableFuture<List<Object>> warmUp() {
+        final List<Callable<Object>> tasks = new ArrayList<>();
+        for (final AtlasCluster cluster : clusterRegistry.getClusters()) {
+            for (int i = 0; i < mongoConnections; i++) {
+                tasks.add(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return cluster.getMongoClient().getDatabase("admin").runCommand(new Document("ping", 1));
+                    }
+                });
+            }
+        }
+        for (int i = 0; i < apiConnections; i++) {
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    final Response response = restClient.target(apiBase)
+                            .path("groups")
+                            .path(clusterRegistry.getDefault().getGroupId())
+                            .request(MediaType.APPLICATION_JSON)
+                            .get();
+                    // reading the entity returns the connection to the pool
+                    response.readEntity(String.class);
+                    return response.getStatus();
+                }
+            });
+        }
+        if (tasks.isEmpty()) {
+            return Futures.immediateFuture(Collections.<Object>emptyList());
+        }
+
+        // one thread per connection, so that each task opens one of its own
+        final ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(
+                tasks.size(), new ThreadFactoryBuilder().setNameFormat("atlas-warm-up-%d").setDaemon(true).build()));
+        final long start = System.currentTimeMillis();
+        final List<ListenableFuture<Object>> warmed = new ArrayList<>(tasks.size());
+        for (final Callable<Object> task : tasks) {
+            warmed.add(executor.submit(task));
+        }
+        executor.shutdown();
+
+        // failed connections are null, and reported along with the others
+        return Futures.transform(Futures.successfulAsList(warmed), new Function<List<Object>, List<Object>>() {
+            @Override
+            public List<Object> apply(final List<Object> results) {
+                int failed = 0;
+                for (final Object result : results) {
+                    if (result == null) {
+                        failed++;
+                    }
+                }
+                logger.info("Warmed {} of {} connections in {} ms", results.size() - failed, results.size(),
+                        System.currentTimeMillis() - start);
+                report.warmedUp();
+                return results;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+}
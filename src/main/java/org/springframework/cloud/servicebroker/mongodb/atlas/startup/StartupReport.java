@@ -0,0 +1,110 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.startup;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports how long the broker took to start serving.
+ * <p>
+ * NOTE:
+ *   Times are counted from the start of the JVM, as the platform sees
+ *   them: until the application is ready, until the first broker request
+ *   was served and, in fast-start mode, until the connection pools were
+ *   warm. Each is logged once and served as a "startup.[phase]" gauge of
+ *   milliseconds, -1 until reached.
+ *
+ *   Registered as a filter of the broker endpoints, where it costs a
+ *   volatile read per request once the first one was served.
+ *
+ * @author ipolyzos
+ */
+public class StartupReport extends OncePerRequestFilter implements ApplicationListener<ApplicationReadyEvent> {
+
+    private Logger logger = LoggerFactory.getLogger(StartupReport.class);
+
+    private final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    private final AtomicBoolean served = new AtomicBoolean();
+
+    private volatile long ready = -1;
+
+    private volatile long firstRequest = -1;
+
+    private volatile long warm = -1;
+
+    public StartupReport(final MetricRegistry metricRegistry) {
+        metricRegistry.register("startup.ready", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return ready;
+            }
+        });
+        metricRegistry.register("startup.first_request", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return firstRequest;
+            }
+        });
+        metricRegistry.register("startup.warm", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return warm;
+            }
+        });
+    }
+
+    @Override
+    public void onApplicationEvent(final ApplicationReadyEvent event) {
+        ready = sinceJvmStart();
+        logger.info("Ready {} ms after JVM start", ready);
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request,
+                                    final HttpServletResponse response,
+                                    final FilterChain chain) throws ServletException, IOException {
+        chain.doFilter(request, response);
+        if (firstRequest < 0 && served.compareAndSet(false, true)) {
+            firstRequest = sinceJvmStart();
+            logger.info("Served first request {} {} {} ms after JVM start",
+                    request.getMethod(), request.getRequestURI(), firstRequest);
+        }
+    }
+
+    /**
+     * Record that the connection pools are warm
+     */
+    public void warmedUp() {
+        warm = sinceJvmStart();
+        logger.info("Connection pools warm {} ms after JVM start", warm);
+    }
+
+    public long getReady() {
+        return ready;
+    }
+
+    public long getFirstRequest() {
+        return firstRequest;
+    }
+
+    public long getWarm() {
+        return warm;
+    }
+
+    private long sinceJvmStart() {
+        return System.currentTimeMillis() - jvmStart;
+    }
+}
@@ -0,0 +1,58 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+/**
+ * Records a client span per HTTP exchange with the Atlas API.
+ * <p>
+ * NOTE:
+ *   The trace context is propagated to Atlas in the traceparent header.
+ *   Like the metrics filter, this filter runs closest to the wire, so that
+ *   digest challenges show up as 401 exchanges of their own, next to the
+ *   authenticated retry.
+ *
+ * @author ipolyzos
+ */
+@Priority(Priorities.USER + 1000)
+public class AtlasApiTracingFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    private static final String SPAN_PROPERTY = AtlasApiTracingFilter.class.getName() + ".span";
+
+    private final Tracer tracer;
+
+    public AtlasApiTracingFilter(final Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public void filter(final ClientRequestContext request) {
+        final Span span = tracer.start("HTTP " + request.getMethod(), Span.Kind.CLIENT);
+        if (!span.isRecording()) {
+            return;
+        }
+
+        span.tag("http.method", request.getMethod())
+                .tag("http.url", request.getUri().toString());
+        request.getHeaders().putSingle(TracingFilter.TRACEPARENT, span.traceparent());
+        request.setProperty(SPAN_PROPERTY, span);
+    }
+
+    @Override
+    public void filter(final ClientRequestContext request, final ClientResponseContext response) {
+        final Span span = (Span) request.getProperty(SPAN_PROPERTY);
+        if (span == null) {
+            return;
+        }
+
+        span.tag("http.status_code", response.getStatus());
+        if (response.getStatus() >= 500) {
+            span.error("HTTP " + response.getStatus());
+        }
+        span.end();
+    }
+}
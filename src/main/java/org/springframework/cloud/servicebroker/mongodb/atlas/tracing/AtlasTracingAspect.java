@@ -0,0 +1,72 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records a span per AtlasAdminService and NonBlockingAtlasAdminService call.
+ * <p>
+ * NOTE:
+ *   The span is current while the call runs, so the Atlas API exchanges
+ *   and MongoDB commands it makes become its children. Spans of
+ *   non-blocking calls end when their future completes.
+ *
+ * @author ipolyzos
+ */
+@Aspect
+@Component
+public class AtlasTracingAspect {
+
+    private final Tracer tracer;
+
+    @Autowired
+    public AtlasTracingAspect(final Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Around("execution(public * org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasAdminService.*(..))"
+            + " || execution(public * org.springframework.cloud.servicebroker.mongodb.atlas.service.NonBlockingAtlasAdminService.*(..))")
+    public Object trace(final ProceedingJoinPoint joinPoint) throws Throwable {
+        final Span span = tracer.start(joinPoint.getSignature().getDeclaringType().getSimpleName()
+                + "." + joinPoint.getSignature().getName(), Span.Kind.INTERNAL);
+        if (!span.isRecording()) {
+            return joinPoint.proceed();
+        }
+
+        final Span previous = tracer.enter(span);
+        boolean pending = false;
+        try {
+            final Object result = joinPoint.proceed();
+            if (result instanceof ListenableFuture) {
+                pending = true;
+                Futures.addCallback((ListenableFuture<?>) result, new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(final Object value) {
+                        span.end();
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable t) {
+                        span.error(t).end();
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+            return result;
+        } catch (Throwable t) {
+            span.error(t);
+            throw t;
+        } finally {
+            tracer.exit(previous);
+            if (!pending) {
+                span.end();
+            }
+        }
+    }
+}
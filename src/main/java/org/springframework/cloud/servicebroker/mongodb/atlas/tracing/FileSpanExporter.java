@@ -0,0 +1,200 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes spans to a local file in the OTLP JSON format.
+ * <p>
+ * NOTE:
+ *   Every line of the file is an OTLP ExportTraceServiceRequest holding a
+ *   batch of spans, as read by the otlpjsonfile receiver of the
+ *   OpenTelemetry Collector, which forwards them to any tracing backend.
+ *
+ *   Ended spans are queued and written by a background thread, so request
+ *   threads never wait for the file; spans beyond the queue capacity are
+ *   dropped and counted by the "tracing.spans.dropped" counter.
+ *
+ * @author ipolyzos
+ */
+public class FileSpanExporter implements SpanExporter {
+
+    private static final String SERVICE_NAME = "mongodb-atlas-broker";
+
+    private static final int MAX_BATCH = 512;
+
+    private static final byte[] NEWLINE = "\n".getBytes(StandardCharsets.UTF_8);
+
+    private Logger logger = LoggerFactory.getLogger(FileSpanExporter.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final BlockingQueue<Span> queue;
+
+    private final OutputStream out;
+
+    private final Thread writer;
+
+    private final Counter exported;
+
+    private final Counter dropped;
+
+    private volatile boolean closed;
+
+    public FileSpanExporter(final String path,
+                            final int queueCapacity,
+                            final MetricRegistry metricRegistry) throws IOException {
+        this(new FileOutputStream(path, true), queueCapacity, metricRegistry);
+    }
+
+    FileSpanExporter(final OutputStream out, final int queueCapacity, final MetricRegistry metricRegistry) {
+        this.out = out;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.exported = metricRegistry.counter("tracing.spans.exported");
+        this.dropped = metricRegistry.counter("tracing.spans.dropped");
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "atlas-trace-exporter");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void export(final Span span) {
+        if (!queue.offer(span)) {
+            dropped.inc();
+        }
+    }
+
+    /**
+     * Write the spans queued so far and stop
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+    }
+
+    private void drain() {
+        final List<Span> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                final Span first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                }
+            } catch (InterruptedException e) {
+                // closing: write whatever is left
+            }
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+            if (closed && queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private void write(final List<Span> batch) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(request(batch)));
+            out.write(NEWLINE);
+            out.flush();
+            exported.inc(batch.size());
+        } catch (IOException e) {
+            dropped.inc(batch.size());
+            logger.warn("Failed to write {} spans", batch.size(), e);
+        }
+    }
+
+    /**
+     * OTLP ExportTraceServiceRequest of a batch of spans
+     *
+     * @param batch
+     * @return
+     */
+    static Map<String, Object> request(final List<Span> batch) {
+        final List<Object> spans = new ArrayList<>(batch.size());
+        for (final Span span : batch) {
+            spans.add(span(span));
+        }
+
+        final Map<String, Object> scopeSpans = new LinkedHashMap<>();
+        scopeSpans.put("scope", Collections.singletonMap("name", SERVICE_NAME));
+        scopeSpans.put("spans", spans);
+
+        final Map<String, Object> resourceSpans = new LinkedHashMap<>();
+        resourceSpans.put("resource", Collections.singletonMap("attributes",
+                Collections.singletonList(attribute("service.name", SERVICE_NAME))));
+        resourceSpans.put("scopeSpans", Collections.singletonList(scopeSpans));
+
+        return Collections.<String, Object>singletonMap("resourceSpans", Collections.singletonList(resourceSpans));
+    }
+
+    private static Map<String, Object> span(final Span span) {
+        final Map<String, Object> json = new LinkedHashMap<>();
+        json.put("traceId", span.getTraceId());
+        json.put("spanId", span.getSpanId());
+        if (span.getParentSpanId() != null) {
+            json.put("parentSpanId", span.getParentSpanId());
+        }
+        json.put("name", span.getName());
+        // OTLP span kinds: 1 internal, 2 server, 3 client
+        json.put("kind", span.getKind().ordinal() + 1);
+        json.put("startTimeUnixNano", String.valueOf(span.getStartEpochNanos()));
+        json.put("endTimeUnixNano", String.valueOf(span.getEndEpochNanos()));
+
+        final List<Object> attributes = new ArrayList<>(span.getAttributes().size());
+        for (final Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+            attributes.add(attribute(attribute.getKey(), attribute.getValue()));
+        }
+        json.put("attributes", attributes);
+
+        final Map<String, Object> status = new LinkedHashMap<>();
+        if (span.getError() == null) {
+            status.put("code", 1);
+        } else {
+            status.put("code", 2);
+            status.put("message", span.getError());
+        }
+        json.put("status", status);
+
+        return json;
+    }
+
+    private static Map<String, Object> attribute(final String key, final Object value) {
+        final Map<String, Object> attribute = new LinkedHashMap<>();
+        attribute.put("key", key);
+        attribute.put("value", value instanceof Long
+                ? Collections.singletonMap("intValue", String.valueOf(value))
+                : Collections.singletonMap("stringValue", String.valueOf(value)));
+        return attribute;
+    }
+}
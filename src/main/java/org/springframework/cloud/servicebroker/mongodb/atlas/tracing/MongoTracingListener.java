@@ -0,0 +1,62 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records a client span per MongoDB driver command.
+ * <p>
+ * NOTE:
+ *   Commands are traced when started on a thread working for a sampled
+ *   trace, e.g. the inserts of repository saves or the commands creating
+ *   and dropping databases. Their spans are matched to the completion
+ *   events by request id, as the asynchronous driver completes commands
+ *   on its own threads.
+ *
+ * @author ipolyzos
+ */
+public class MongoTracingListener implements CommandListener {
+
+    private final Tracer tracer;
+
+    private final ConcurrentMap<Integer, Span> commands = new ConcurrentHashMap<>();
+
+    public MongoTracingListener(final Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public void commandStarted(final CommandStartedEvent event) {
+        final Span span = tracer.start(event.getCommandName() + " " + event.getDatabaseName(), Span.Kind.CLIENT);
+        if (!span.isRecording()) {
+            return;
+        }
+
+        span.tag("db.system", "mongodb")
+                .tag("db.name", event.getDatabaseName())
+                .tag("db.operation", event.getCommandName())
+                .tag("net.peer.name", event.getConnectionDescription().getServerAddress().toString());
+        commands.put(event.getRequestId(), span);
+    }
+
+    @Override
+    public void commandSucceeded(final CommandSucceededEvent event) {
+        final Span span = commands.remove(event.getRequestId());
+        if (span != null) {
+            span.end();
+        }
+    }
+
+    @Override
+    public void commandFailed(final CommandFailedEvent event) {
+        final Span span = commands.remove(event.getRequestId());
+        if (span != null) {
+            span.error(event.getThrowable()).end();
+        }
+    }
+}
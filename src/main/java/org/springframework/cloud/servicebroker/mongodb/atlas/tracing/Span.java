@@ -0,0 +1,158 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed operation of a trace, e.g. a broker request, an Atlas API call
+ * or a MongoDB command.
+ * <p>
+ * NOTE:
+ *   Spans of traces that were not sampled are the NOOP span, which records
+ *   nothing, so that instrumented code needs no checks of its own.
+ *
+ * @author ipolyzos
+ */
+public class Span {
+
+    public enum Kind {
+        INTERNAL,
+        SERVER,
+        CLIENT
+    }
+
+    public static final Span NOOP = new Span(null, null, null, null, null, Kind.INTERNAL);
+
+    private final Tracer tracer;
+
+    private final String traceId;
+
+    private final String spanId;
+
+    private final String parentSpanId;
+
+    private String name;
+
+    private final Kind kind;
+
+    private final long startEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+
+    private final long startNanos = System.nanoTime();
+
+    private long durationNanos = -1;
+
+    private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+    private String error;
+
+    Span(final Tracer tracer,
+         final String traceId,
+         final String spanId,
+         final String parentSpanId,
+         final String name,
+         final Kind kind) {
+        this.tracer = tracer;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.name = name;
+        this.kind = kind;
+    }
+
+    public boolean isRecording() {
+        return this != NOOP;
+    }
+
+    public Span rename(final String name) {
+        if (isRecording()) {
+            this.name = name;
+        }
+        return this;
+    }
+
+    public Span tag(final String key, final String value) {
+        if (isRecording() && value != null) {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    public Span tag(final String key, final long value) {
+        if (isRecording()) {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    public Span error(final Throwable t) {
+        if (isRecording()) {
+            error = t.getClass().getSimpleName() + (t.getMessage() == null ? "" : ": " + t.getMessage());
+        }
+        return this;
+    }
+
+    public Span error(final String message) {
+        if (isRecording()) {
+            error = message;
+        }
+        return this;
+    }
+
+    /**
+     * End the span and hand it to the exporter; ending it again has no effect
+     */
+    public void end() {
+        if (!isRecording() || durationNanos >= 0) {
+            return;
+        }
+        durationNanos = System.nanoTime() - startNanos;
+        tracer.export(this);
+    }
+
+    /**
+     * W3C trace context of the span, to propagate it to the callee
+     *
+     * @return the value of a traceparent header
+     */
+    public String traceparent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getStartEpochNanos() {
+        return startEpochNanos;
+    }
+
+    public long getEndEpochNanos() {
+        return startEpochNanos + durationNanos;
+    }
+
+    public Map<String, Object> getAttributes() {
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,18 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import java.io.Closeable;
+
+/**
+ * Destination of the spans ended by the Tracer.
+ *
+ * @author ipolyzos
+ */
+public interface SpanExporter extends Closeable {
+
+    /**
+     * Export an ended span; called on the thread ending it, so it must not block
+     *
+     * @param span
+     */
+    void export(Span span);
+}
@@ -0,0 +1,180 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import org.springframework.core.task.TaskDecorator;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Starts the spans of broker requests and propagates their trace context.
+ * <p>
+ * NOTE:
+ *   The span a thread currently works for is held in a thread local;
+ *   spans started meanwhile are its children, and tasks handed to the
+ *   decorated executors carry it over to their worker thread.
+ *
+ *   Whether a trace is recorded is decided once, by its root: a request
+ *   carrying a W3C traceparent header follows the decision of its caller,
+ *   any other is sampled at ATLAS_TRACE_SAMPLE_RATE. Spans of traces not
+ *   sampled are the NOOP span, so unsampled requests only cost a thread
+ *   local lookup per instrumented call. Without an exporter tracing is
+ *   disabled altogether.
+ *
+ * @author ipolyzos
+ */
+public class Tracer implements TaskDecorator {
+
+    private static final Pattern TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+
+    private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+
+    private static final String INVALID_SPAN_ID = "0000000000000000";
+
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+
+    private final double sampleRate;
+
+    private final SpanExporter exporter;
+
+    /**
+     * @param sampleRate share of the requests without trace context to trace, from 0 to 1
+     * @param exporter destination of the spans, null to disable tracing
+     */
+    public Tracer(final double sampleRate, final SpanExporter exporter) {
+        this.sampleRate = sampleRate;
+        this.exporter = exporter;
+    }
+
+    /**
+     * Start the root span of a request received by the broker
+     *
+     * @param name
+     * @param traceparent trace context of the caller, null when none
+     * @return the span, NOOP when the trace is not sampled
+     */
+    public Span startServer(final String name, final String traceparent) {
+        if (exporter == null) {
+            return Span.NOOP;
+        }
+
+        final Matcher context = traceparent == null ? null : TRACEPARENT.matcher(traceparent.trim());
+        if (context != null && context.matches()
+                && !INVALID_TRACE_ID.equals(context.group(1)) && !INVALID_SPAN_ID.equals(context.group(2))) {
+            final boolean sampled = (Integer.parseInt(context.group(3), 16) & 1) == 1;
+            return sampled
+                    ? new Span(this, context.group(1), spanId(), context.group(2), name, Span.Kind.SERVER)
+                    : Span.NOOP;
+        }
+
+        return ThreadLocalRandom.current().nextDouble() < sampleRate
+                ? new Span(this, traceId(), spanId(), null, name, Span.Kind.SERVER)
+                : Span.NOOP;
+    }
+
+    /**
+     * Start a child of the current span
+     *
+     * @param name
+     * @param kind
+     * @return the span, NOOP when the current trace is not sampled
+     */
+    public Span start(final String name, final Span.Kind kind) {
+        final Span parent = current.get();
+        if (parent == null || !parent.isRecording()) {
+            return Span.NOOP;
+        }
+        return new Span(this, parent.getTraceId(), spanId(), parent.getSpanId(), name, kind);
+    }
+
+    /**
+     * Make a span the current one of this thread
+     *
+     * @param span
+     * @return the span current so far, to restore through exit
+     */
+    public Span enter(final Span span) {
+        final Span previous = current.get();
+        current.set(span);
+        return previous;
+    }
+
+    /**
+     * Restore the span current before enter
+     *
+     * @param previous
+     */
+    public void exit(final Span previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * The span this thread currently works for
+     *
+     * @return the span, NOOP when none
+     */
+    public Span current() {
+        final Span span = current.get();
+        return span == null ? Span.NOOP : span;
+    }
+
+    /**
+     * Carry the current span over to the thread running a task
+     *
+     * @param runnable
+     * @return
+     */
+    @Override
+    public Runnable decorate(final Runnable runnable) {
+        final Span span = current.get();
+        if (span == null || !span.isRecording()) {
+            return runnable;
+        }
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                final Span previous = enter(span);
+                try {
+                    runnable.run();
+                } finally {
+                    exit(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Stop exporting, writing the spans ended so far
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (exporter != null) {
+            exporter.close();
+        }
+    }
+
+    void export(final Span span) {
+        exporter.export(span);
+    }
+
+    private static String traceId() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return hex(random.nextLong() | 1) + hex(random.nextLong());
+    }
+
+    private static String spanId() {
+        return hex(ThreadLocalRandom.current().nextLong() | 1);
+    }
+
+    private static String hex(final long value) {
+        final String hex = Long.toHexString(value);
+        return INVALID_SPAN_ID.substring(hex.length()) + hex;
+    }
+}
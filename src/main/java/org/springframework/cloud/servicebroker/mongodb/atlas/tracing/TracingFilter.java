@@ -0,0 +1,64 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Starts the root span of every service broker request.
+ * <p>
+ * NOTE:
+ *   The span continues the trace of the traceparent header of the
+ *   platform, if any, and is named after the endpoint, e.g.
+ *   "PUT /v2/service_instances/{instanceId}/service_bindings/{bindingId}",
+ *   so that spans of an endpoint group together whatever the ids.
+ *
+ * @author ipolyzos
+ */
+public class TracingFilter extends OncePerRequestFilter {
+
+    static final String TRACEPARENT = "traceparent";
+
+    private final Tracer tracer;
+
+    public TracingFilter(final Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request,
+                                    final HttpServletResponse response,
+                                    final FilterChain chain) throws ServletException, IOException {
+        final Span span = tracer.startServer(request.getMethod() + " " + request.getRequestURI(),
+                request.getHeader(TRACEPARENT));
+        if (!span.isRecording()) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final Span previous = tracer.enter(span);
+        try {
+            chain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            tracer.exit(previous);
+            final Object route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (route != null) {
+                span.rename(request.getMethod() + " " + route).tag("http.route", route.toString());
+            }
+            span.tag("http.method", request.getMethod())
+                    .tag("http.status_code", response.getStatus());
+            if (response.getStatus() >= 500 && span.getError() == null) {
+                span.error("HTTP " + response.getStatus());
+            }
+            span.end();
+        }
+    }
+}
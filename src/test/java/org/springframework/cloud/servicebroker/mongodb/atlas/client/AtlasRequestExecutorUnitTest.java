@@ -0,0 +1,198 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AtlasRequestExecutorUnitTest {
+
+    private static AtlasRequestExecutor executor(final int maxRetries, final long deadline, final AdaptiveConcurrencyLimit limit) {
+        return new AtlasRequestExecutor(1000, maxRetries, 1, 5, deadline, limit);
+    }
+
+    private static Response response(final int status) {
+        final Response response = mock(Response.class);
+        when(response.getStatus()).thenReturn(status);
+        return response;
+    }
+
+    @Test
+    public void retriesThrottledCallsTest() {
+        final Invocation invocation = mock(Invocation.class);
+        final Response throttled = response(429);
+        final Response unavailable = response(503);
+        final Response created = response(201);
+        when(invocation.invoke()).thenReturn(throttled, unavailable, created);
+
+        assertSame(created, executor(5, 10000, new AdaptiveConcurrencyLimit(10, 1, 50)).execute("group", invocation));
+        verify(invocation, times(3)).invoke();
+        verify(throttled).close();
+        verify(unavailable).close();
+    }
+
+    @Test
+    public void returnsLastResponseOnceRetriesExhaustedTest() {
+        final Invocation invocation = mock(Invocation.class);
+        final Response unavailable = response(503);
+        when(invocation.invoke()).thenReturn(unavailable);
+
+        assertSame(unavailable, executor(2, 10000, new AdaptiveConcurrencyLimit(10, 1, 50)).execute("group", invocation));
+        verify(invocation, times(3)).invoke();
+    }
+
+    @Test
+    public void retriesUnansweredCallsTest() {
+        final Invocation invocation = mock(Invocation.class);
+        final Response ok = response(200);
+        when(invocation.invoke()).thenThrow(new ProcessingException("connection reset")).thenReturn(ok);
+
+        assertSame(ok, executor(5, 10000, new AdaptiveConcurrencyLimit(10, 1, 50)).execute("group", invocation));
+    }
+
+    @Test
+    public void doesNotRetryNonIdempotentCallAtlasMayHaveReceivedTest() {
+        final Invocation invocation = mock(Invocation.class);
+        when(invocation.invoke()).thenThrow(new ProcessingException(new SocketTimeoutException("Read timed out")))
+                .thenReturn(response(201));
+
+        try {
+            executor(5, 10000, new AdaptiveConcurrencyLimit(10, 1, 50)).execute("group", invocation, false);
+            fail("call retried");
+        } catch (AtlasServiceException e) {
+            verify(invocation, times(1)).invoke();
+        }
+    }
+
+    @Test
+    public void retriesNonIdempotentCallWhichNeverReachedAtlasTest() {
+        final Invocation invocation = mock(Invocation.class);
+        final Response created = response(201);
+        when(invocation.invoke()).thenThrow(new ProcessingException(new ConnectException("Connection refused")))
+                .thenReturn(created);
+
+        assertSame(created, executor(5, 10000, new AdaptiveConcurrencyLimit(10, 1, 50))
+                .execute("group", invocation, false));
+    }
+
+    @Test(expected = AtlasServiceException.class)
+    public void retryAfterBeyondDeadlineFailsTest() {
+        final Invocation invocation = mock(Invocation.class);
+        final Response throttled = response(429);
+        when(throttled.getHeaderString(HttpHeaders.RETRY_AFTER)).thenReturn("120");
+        when(invocation.invoke()).thenReturn(throttled);
+
+        executor(5, 1000, new AdaptiveConcurrencyLimit(10, 1, 50)).execute("group", invocation);
+    }
+
+    @Test
+    public void retryAfterSecondsTest() {
+        final Response throttled = response(429);
+        when(throttled.getHeaderString(HttpHeaders.RETRY_AFTER)).thenReturn("3");
+
+        assertEquals(3000, AtlasRequestExecutor.retryAfter(throttled));
+    }
+
+    @Test
+    public void limitDecreasesMultiplicativelyAndIncreasesAdditivelyTest() throws Exception {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 1, 50);
+
+        limit.acquire(System.currentTimeMillis()).onThrottled();
+        assertEquals(8, limit.getLimit());
+
+        // grows by about one slot per window of successful calls
+        for (int i = 0; i < 16; i++) {
+            limit.acquire(System.currentTimeMillis()).onSuccess();
+        }
+        assertEquals(9, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    public void limitDecreasesOncePerWindowTest() throws Exception {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 1, 50);
+
+        // a burst of calls throttled together halves the limit once
+        final List<AdaptiveConcurrencyLimit.Permit> burst = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            burst.add(limit.acquire(System.currentTimeMillis()));
+        }
+        for (final AdaptiveConcurrencyLimit.Permit permit : burst) {
+            permit.onThrottled();
+        }
+        assertEquals(8, limit.getLimit());
+
+        // a call sent after the decrease halves it again
+        limit.acquire(System.currentTimeMillis()).onThrottled();
+        assertEquals(4, limit.getLimit());
+        assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    public void callsSentAfterDecreaseAreNotSettledByEarlierOnesTest() throws Exception {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(16, 1, 50);
+        final AdaptiveConcurrencyLimit.Permit first = limit.acquire(System.currentTimeMillis());
+        final AdaptiveConcurrencyLimit.Permit second = limit.acquire(System.currentTimeMillis());
+        first.onThrottled();
+        assertEquals(8, limit.getLimit());
+
+        // completing quickly, calls sent after the decrease do not use up the window of the one still in flight
+        for (int i = 0; i < 4; i++) {
+            limit.acquire(System.currentTimeMillis()).onSuccess();
+        }
+        second.onThrottled();
+        assertEquals(8, limit.getLimit());
+
+        limit.acquire(System.currentTimeMillis()).onThrottled();
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void permitIsReleasedOnceTest() throws Exception {
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 50);
+        final AdaptiveConcurrencyLimit.Permit permit = limit.acquire(System.currentTimeMillis());
+        limit.acquire(System.currentTimeMillis());
+
+        permit.onThrottled();
+        permit.onThrottled();
+        permit.onIgnored();
+
+        assertEquals(1, limit.getInFlight());
+        assertEquals(1, limit.getLimit());
+        assertNull(limit.tryAcquire());
+    }
+
+    @Test
+    public void failingCloseOfRetriedResponseReleasesSlotOnceTest() {
+        final Invocation invocation = mock(Invocation.class);
+        final Response unavailable = response(503);
+        doThrow(new ProcessingException("connection reset")).when(unavailable).close();
+        final Response ok = response(200);
+        when(invocation.invoke()).thenReturn(unavailable, ok);
+        final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 50);
+
+        assertSame(ok, executor(5, 10000, limit).execute("group", invocation));
+
+        // released and halved once for the throttled attempt
+        assertEquals(0, limit.getInFlight());
+        assertEquals(5, limit.getLimit());
+        verify(invocation, times(2)).invoke();
+    }
+}
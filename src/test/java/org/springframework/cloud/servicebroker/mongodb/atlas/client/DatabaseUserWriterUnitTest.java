@@ -0,0 +1,62 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DatabaseUserWriterUnitTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void writesReadWriteUserTest() throws IOException {
+        final JsonNode json = write(new DatabaseUser("userA", "passA").withRole("testDB", "readWrite"));
+
+        assertEquals("admin", json.get("databaseName").asText());
+        assertEquals(1, json.get("roles").size());
+        assertEquals("testDB", json.get("roles").get(0).get("databaseName").asText());
+        assertEquals("readWrite", json.get("roles").get(0).get("roleName").asText());
+        assertFalse(json.get("roles").get(0).has("collectionName"));
+        assertFalse(json.has("scopes"));
+        assertFalse(json.has("deleteAfterDate"));
+        assertEquals("userA", json.get("username").asText());
+        assertEquals("passA", json.get("password").asText());
+    }
+
+    @Test
+    public void writesRolesScopesAndDeleteAfterDateTest() throws IOException {
+        final JsonNode json = write(new DatabaseUser("userA", "passA")
+                .withRole("testDB", "readWrite")
+                .withRole(new DatabaseUser.Role("otherDB", "events", "read"))
+                .withScope(new DatabaseUser.Scope("Cluster0", "CLUSTER"))
+                .withScope(new DatabaseUser.Scope("Lake0", "DATA_LAKE"))
+                .withDeleteAfterDate(new Date(1500000000000L)));
+
+        assertEquals(2, json.get("roles").size());
+        assertEquals("events", json.get("roles").get(1).get("collectionName").asText());
+        assertEquals(2, json.get("scopes").size());
+        assertEquals("Cluster0", json.get("scopes").get(0).get("name").asText());
+        assertEquals("DATA_LAKE", json.get("scopes").get(1).get("type").asText());
+        assertEquals("2017-07-14T02:40:00Z", json.get("deleteAfterDate").asText());
+    }
+
+    @Test
+    public void escapesPasswordTest() throws IOException {
+        final String password = "p\"a\\s\ns\u0001wérd☃";
+        assertEquals(password, write(new DatabaseUser("userA", password)).get("password").asText());
+    }
+
+    private JsonNode write(final DatabaseUser user) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DatabaseUserWriter.write(user, out);
+        return mapper.readTree(out.toByteArray());
+    }
+}
@@ -0,0 +1,305 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DigestAuthenticationFilterUnitTest {
+
+    private static final String API = "https://cloud.mongodb.com/api/atlas/v1.0/groups/group-id/databaseUsers";
+
+    private static final String CHALLENGE = "Digest realm=\"MMS Public API\", domain=\"\", nonce=\"nonce-1\", "
+            + "algorithm=MD5, qop=\"auth\", stale=false";
+
+    private DigestAuthenticationFilter filter;
+
+    private Client client;
+
+    private Invocation.Builder builder;
+
+    @Before
+    public void setup() {
+        filter = new DigestAuthenticationFilter("user", "api-key");
+
+        // repeated requests are accepted
+        client = mock(Client.class);
+        final WebTarget target = mock(WebTarget.class);
+        builder = mock(Invocation.Builder.class);
+        final Invocation invocation = mock(Invocation.class);
+        when(client.target(any(URI.class))).thenReturn(target);
+        when(target.request()).thenReturn(builder);
+        when(builder.build(anyString())).thenReturn(invocation);
+        when(invocation.invoke()).thenAnswer(new Answer<Response>() {
+            @Override
+            public Response answer(InvocationOnMock invocationOnMock) {
+                return Response.ok().header("X-Request-Id", "retried").build();
+            }
+        });
+    }
+
+    /**
+     * Request context keeping its headers and properties
+     *
+     * @param uri
+     * @return
+     */
+    private ClientRequestContext request(final String uri) {
+        final ClientRequestContext request = mock(ClientRequestContext.class);
+        final MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        final Map<String, Object> properties = new HashMap<>();
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getUri()).thenReturn(URI.create(uri));
+        when(request.getHeaders()).thenReturn(headers);
+        when(request.getClient()).thenReturn(client);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                properties.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(request).setProperty(anyString(), any());
+        when(request.getProperty(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return properties.get(invocation.getArguments()[0]);
+            }
+        });
+        return request;
+    }
+
+    private static ClientResponseContext response(final int status, final String wwwAuthenticate) {
+        final ClientResponseContext response = mock(ClientResponseContext.class);
+        final MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+        if (wwwAuthenticate != null) {
+            headers.add(HttpHeaders.WWW_AUTHENTICATE, wwwAuthenticate);
+        }
+        when(response.getStatus()).thenReturn(status);
+        when(response.getHeaders()).thenReturn(headers);
+        return response;
+    }
+
+    /**
+     * Send a request through the filter, answering it with a response
+     *
+     * @param request
+     * @param response
+     */
+    private void exchange(final ClientRequestContext request, final ClientResponseContext response) {
+        filter.filter(request);
+        filter.filter(request, response);
+    }
+
+    private static String authorization(final ClientRequestContext request) {
+        return (String) request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+    }
+
+    /**
+     * Authorization header the last repeated request carried
+     */
+    @SuppressWarnings("unchecked")
+    private String repeatedAuthorization() {
+        final ArgumentCaptor<MultivaluedMap> headers = ArgumentCaptor.forClass(MultivaluedMap.class);
+        verify(builder, atLeastOnce()).headers(headers.capture());
+        return (String) headers.getValue().getFirst(HttpHeaders.AUTHORIZATION);
+    }
+
+    @Test
+    public void rfc2617ExampleResponseTest() {
+        final String response = DigestAuthenticationFilter.digestResponse("Mufasa", "Circle Of Life",
+                "testrealm@host.com", "dcd98b7102dd2f0e8b11d0f600bfb0c093", null,
+                "auth", "00000001", "0a4f113b", "GET", "/dir/index.html");
+
+        assertEquals("6629fae49393a05397450978507c4ef1", response);
+    }
+
+    @Test
+    public void responseWithoutQopTest() {
+        // MD5(MD5("user:realm:pass") + ":nonce:" + MD5("DELETE:/path"))
+        final String response = DigestAuthenticationFilter.digestResponse("user", "pass",
+                "realm", "nonce", "MD5", null, null, null, "DELETE", "/path");
+
+        assertEquals(32, response.length());
+        assertEquals(response, DigestAuthenticationFilter.digestResponse("user", "pass",
+                "realm", "nonce", "MD5", null, "00000009", "ignored", "DELETE", "/path"));
+    }
+
+    @Test
+    public void firstRequestToHostAnswersChallengeTest() {
+        final ClientRequestContext request = request(API);
+        final ClientResponseContext response = response(401, CHALLENGE);
+
+        exchange(request, response);
+
+        assertNull(authorization(request));
+        final String authorization = repeatedAuthorization();
+        assertTrue(authorization.startsWith("Digest username=\"user\", realm=\"MMS Public API\", nonce=\"nonce-1\""));
+        assertTrue(authorization.contains("nc=00000001"));
+        // the outcome of the repeated request replaces the challenge
+        verify(response).setStatus(200);
+        assertEquals("retried", response.getHeaders().getFirst("X-Request-Id"));
+        assertEquals(0, filter.getChallengeHits());
+        assertEquals(1, filter.getChallengeMisses());
+    }
+
+    @Test
+    public void cachedChallengeIsSentPreemptivelyToHostTest() {
+        exchange(request(API), response(401, CHALLENGE));
+
+        final ClientRequestContext request = request(API + "/admin/user-2?pretty=true");
+        final ClientResponseContext response = response(200, null);
+        exchange(request, response);
+
+        final String authorization = authorization(request);
+        assertTrue(authorization.contains("nonce=\"nonce-1\""));
+        assertTrue(authorization.contains("uri=\"/api/atlas/v1.0/groups/group-id/databaseUsers/admin/user-2?pretty=true\""));
+        assertTrue(authorization.contains("nc=00000002"));
+        verify(response, never()).setStatus(anyInt());
+        assertEquals(1, filter.getChallengeHits());
+        assertEquals(1, filter.getChallengeMisses());
+
+        // challenges are not shared across hosts
+        final ClientRequestContext other = request("https://other.mongodb.com/api/atlas/v1.0/groups");
+        filter.filter(other);
+        assertNull(authorization(other));
+    }
+
+    @Test
+    public void staleNonceIsAnsweredAndReplacedTest() {
+        exchange(request(API), response(401, CHALLENGE));
+
+        final ClientRequestContext request = request(API);
+        exchange(request, response(401, "Digest realm=\"MMS Public API\", nonce=\"nonce-2\", qop=\"auth\", stale=true"));
+
+        assertTrue(authorization(request).contains("nonce=\"nonce-1\""));
+        final String authorization = repeatedAuthorization();
+        assertTrue(authorization.contains("nonce=\"nonce-2\""));
+        assertTrue(authorization.contains("nc=00000001"));
+        assertEquals(0, filter.getChallengeHits());
+        assertEquals(2, filter.getChallengeMisses());
+
+        final ClientRequestContext next = request(API);
+        exchange(next, response(200, null));
+        assertTrue(authorization(next).contains("nonce=\"nonce-2\""));
+        assertEquals(1, filter.getChallengeHits());
+    }
+
+    @Test
+    public void repeatedRequestDoesNotAnswerAnotherChallengeTest() {
+        final ClientRequestContext request = request(API);
+        request.setProperty(DigestAuthenticationFilter.class.getName() + ".retry", Boolean.TRUE);
+        request.getHeaders().add(HttpHeaders.AUTHORIZATION, "Digest username=\"user\"");
+        final ClientResponseContext response = response(401, CHALLENGE);
+
+        exchange(request, response);
+
+        verify(client, never()).target(any(URI.class));
+        verify(response, never()).setStatus(eq(200));
+        assertEquals(0, filter.getChallengeMisses());
+    }
+
+    @Test
+    public void responseWithoutDigestChallengeIsLeftAsIsTest() {
+        final ClientResponseContext response = response(401, "Basic realm=\"other\"");
+
+        exchange(request(API), response);
+
+        verify(client, never()).target(any(URI.class));
+        assertEquals(0, filter.getChallengeMisses());
+        assertFalse(response.getHeaders().isEmpty());
+    }
+
+    @Test
+    public void challengesDoNotLeakPooledConnectionsTest() throws Exception {
+        // every request answers a stale nonce, the retry gets no content
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        final AtomicInteger nonces = new AtomicInteger();
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String authorization = exchange.getRequestHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+                if (authorization != null && authorization.contains("nonce=\"nonce-" + nonces.get() + "\"")) {
+                    nonces.incrementAndGet();
+                    exchange.sendResponseHeaders(204, -1);
+                } else {
+                    final byte[] body = "{\"error\":401}".getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().add(HttpHeaders.WWW_AUTHENTICATE,
+                            "Digest realm=\"MMS Public API\", nonce=\"nonce-" + nonces.get() + "\", qop=\"auth\", stale=true");
+                    exchange.sendResponseHeaders(401, body.length);
+                    exchange.getResponseBody().write(body);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        // a challenge still holding the only connection would starve its own retry
+        connectionManager.setDefaultMaxPerRoute(1);
+        final Client pooled = ClientBuilder.newClient(new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ClientProperties.READ_TIMEOUT, 5000)
+                .property(ApacheClientProperties.REQUEST_CONFIG,
+                        RequestConfig.custom().setConnectionRequestTimeout(2000).build()));
+        pooled.register(filter);
+        try {
+            final String uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/atlas/v1.0/groups";
+            for (int i = 0; i < 5; i++) {
+                final Response response = pooled.target(uri).request().delete();
+                assertEquals(204, response.getStatus());
+                response.close();
+            }
+
+            assertEquals(5, filter.getChallengeMisses());
+            assertEquals(0, connectionManager.getTotalStats().getLeased());
+        } finally {
+            pooled.close();
+            connectionManager.shutdown();
+            server.stop(0);
+        }
+    }
+}
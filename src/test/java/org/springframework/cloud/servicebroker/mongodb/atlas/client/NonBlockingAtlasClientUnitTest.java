@@ -0,0 +1,131 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.client;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NonBlockingAtlasClientUnitTest {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    private final CloseableHttpAsyncClient httpClient = mock(CloseableHttpAsyncClient.class);
+
+    private final List<String> authorizations = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private NonBlockingAtlasClient client(final int maxRetries, final long deadline) {
+        return new NonBlockingAtlasClient(httpClient,
+                new AtlasRequestExecutor(1000, maxRetries, 1, 5, deadline, new AdaptiveConcurrencyLimit(10, 1, 50)),
+                new DigestAuthenticationFilter("user", "key"), timer);
+    }
+
+    /**
+     * Answer successive calls with the given responses, a null one failing the call
+     */
+    @SuppressWarnings("unchecked")
+    private void respond(final HttpResponse... responses) {
+        final List<HttpResponse> remaining = new ArrayList<>(Arrays.asList(responses));
+        when(httpClient.execute(any(HttpRequestBase.class), any(FutureCallback.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                final HttpRequestBase request = (HttpRequestBase) invocation.getArguments()[0];
+                authorizations.add(request.getFirstHeader("Authorization") == null
+                        ? null : request.getFirstHeader("Authorization").getValue());
+                final FutureCallback<HttpResponse> callback = (FutureCallback<HttpResponse>) invocation.getArguments()[1];
+                final HttpResponse response = remaining.remove(0);
+                if (response == null) {
+                    callback.failed(new IOException("connection reset"));
+                } else {
+                    callback.completed(response);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static HttpResponse response(final int status) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+    }
+
+    @Test
+    public void retriesThrottledAndUnansweredCallsTest() throws Exception {
+        respond(response(429), null, response(503), response(204));
+
+        final HttpResponse response = client(5, 10000).execute("group", new HttpDelete("https://atlas/users/a"))
+                .get(5, TimeUnit.SECONDS);
+        assertEquals(204, response.getStatusLine().getStatusCode());
+        assertEquals(4, authorizations.size());
+    }
+
+    @Test
+    public void answersDigestChallengeOnceTest() throws Exception {
+        final HttpResponse challenge = response(401);
+        challenge.addHeader("WWW-Authenticate", "Digest realm=\"MMS Public API\", nonce=\"abc\", qop=\"auth\"");
+        respond(challenge, response(204), response(204));
+
+        final NonBlockingAtlasClient client = client(5, 10000);
+        assertEquals(204, client.execute("group", new HttpDelete("https://atlas/users/a"))
+                .get(5, TimeUnit.SECONDS).getStatusLine().getStatusCode());
+        assertEquals(204, client.execute("group", new HttpDelete("https://atlas/users/b"))
+                .get(5, TimeUnit.SECONDS).getStatusLine().getStatusCode());
+
+        assertEquals(null, authorizations.get(0));
+        assertTrue(authorizations.get(1).contains("nonce=\"abc\", uri=\"/users/a\""));
+        assertTrue(authorizations.get(2).contains("nonce=\"abc\", uri=\"/users/b\""));
+    }
+
+    @Test
+    public void failsOnceRetriesExhaustedTest() throws Exception {
+        respond(null, null);
+
+        try {
+            client(1, 10000).execute("group", new HttpDelete("https://atlas/users/a")).get(5, TimeUnit.SECONDS);
+            fail("call succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AtlasServiceException);
+        }
+    }
+
+    @Test
+    public void doesNotRetryPostAtlasMayHaveReceivedTest() throws Exception {
+        respond(null, response(201));
+
+        try {
+            client(5, 10000).execute("group", new HttpPost("https://atlas/users")).get(5, TimeUnit.SECONDS);
+            fail("call retried");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AtlasServiceException);
+            assertEquals(1, authorizations.size());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.cluster;
+
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanDefinition;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ClusterRegistryUnitTest {
+
+    private final AtlasCluster cluster0 = cluster("cluster0");
+
+    private final AtlasCluster cluster1 = cluster("cluster1");
+
+    private static AtlasCluster cluster(final String id) {
+        return new AtlasCluster(id, "mongodb://" + id + ":27017", "group-id", null);
+    }
+
+    private static ServiceInstance instance(final String organizationGuid, final String spaceGuid) {
+        return new ServiceInstance("instance-id", "service-id", "plan-id", organizationGuid, spaceGuid, null);
+    }
+
+    @Test
+    public void instancesWithoutClusterLiveOnTheDefaultOne() {
+        final ClusterRegistry registry = new ClusterRegistry(Arrays.asList(cluster0, cluster1), new LeastDatabasesPlacement());
+
+        assertSame(cluster0, registry.get(null));
+        assertSame(cluster1, registry.get("cluster1"));
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void unknownClusterIsRejected() {
+        new ClusterRegistry(cluster0).get("cluster1");
+    }
+
+    @Test
+    public void leastDatabasesSpreadsPlacementsBetweenSamples() {
+        final ClusterRegistry registry = new ClusterRegistry(Arrays.asList(cluster0, cluster1), new LeastDatabasesPlacement());
+        cluster0.sampled(10, 0);
+        cluster1.sampled(9, 0);
+
+        assertSame(cluster1, registry.place(null));
+        assertSame(cluster0, registry.place(null));
+        assertEquals(11, cluster0.getDatabases());
+        assertEquals(10, cluster1.getDatabases());
+    }
+
+    @Test
+    public void leastDatabasesIsRelativeToWeight() {
+        cluster0.sampled(10, 0);
+        cluster1.withWeight(3).sampled(20, 0);
+
+        assertSame(cluster1, new LeastDatabasesPlacement().place(null, Arrays.asList(cluster0, cluster1)));
+    }
+
+    @Test
+    public void leastStorageChoosesTheEmptiestCluster() {
+        cluster0.sampled(1, 2048);
+        cluster1.sampled(5, 1024);
+
+        assertSame(cluster1, new LeastStoragePlacement().place(null, Arrays.asList(cluster0, cluster1)));
+    }
+
+    @Test
+    public void drainedClustersTakeNoInstances() {
+        final ClusterRegistry registry = new ClusterRegistry(Arrays.asList(cluster0.withWeight(0), cluster1),
+                new WeightedPlacement());
+
+        for (int i = 0; i < 10; i++) {
+            assertSame(cluster1, registry.place(null));
+        }
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void placementFailsWhenEveryClusterIsDrained() {
+        new ClusterRegistry(cluster0.withWeight(0)).place(null);
+    }
+
+    @Test
+    public void affinityReservesClustersForOrganizationsAndSpaces() {
+        final AtlasCluster reserved = cluster("reserved").withSpaces(Collections.singleton("space-guid"));
+        final PlacementStrategy placement = new AffinityPlacement(new LeastDatabasesPlacement());
+        reserved.sampled(100, 0);
+
+        assertSame(reserved, placement.place(instance("org-guid", "space-guid"), Arrays.asList(cluster0, reserved)));
+        assertSame(cluster0, placement.place(instance("org-guid", "other-space-guid"), Arrays.asList(cluster0, reserved)));
+        assertSame(reserved, placement.place(instance("org-guid", "other-space-guid"), Collections.singletonList(reserved)));
+    }
+
+    @Test
+    public void plansAreServedByClustersOfTheirTierAndPlacement() {
+        final AtlasCluster m10 = cluster("m10").withTier("M10");
+        final AtlasCluster dedicated = cluster("dedicated").withTier("M30").withDedicated(true);
+        final ClusterRegistry registry = new ClusterRegistry(Arrays.asList(cluster0, m10, dedicated),
+                new LeastDatabasesPlacement());
+        cluster0.sampled(100, 0);
+        dedicated.sampled(0, 0);
+        m10.sampled(50, 0);
+
+        assertSame(m10, registry.place(null));
+        assertSame(m10, registry.place(null, new PlanDefinition("small", "small", null).withTier("M10")));
+        assertSame(dedicated, registry.place(null, new PlanDefinition("large", "large", null)
+                .withPlacement(PlanDefinition.DEDICATED)));
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void placementFailsWhenNoClusterServesThePlan() {
+        new ClusterRegistry(cluster0).place(null, new PlanDefinition("small", "small", null).withTier("M10"));
+    }
+}
@@ -0,0 +1,43 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.exception;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ConcurrencyExceptionResolverUnitTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConcurrencyExceptionResolver resolver = new ConcurrencyExceptionResolver(objectMapper);
+
+    @Test
+    public void concurrencyExceptionIsReportedAsConcurrencyError() throws Exception {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertNotNull(resolver.resolveException(new MockHttpServletRequest(), response, null,
+                new ServiceInstanceConcurrencyException("service-instance-id", ServiceInstanceOperation.Type.CREATE)));
+
+        assertEquals(422, response.getStatus());
+        final JsonNode body = objectMapper.readTree(response.getContentAsString());
+        assertEquals("ConcurrencyError", body.get("error").asText());
+        assertEquals("Operation CREATE is in progress on service instance service-instance-id, retry later",
+                body.get("description").asText());
+    }
+
+    @Test
+    public void otherExceptionsAreLeftToControllers() {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertNull(resolver.resolveException(new MockHttpServletRequest(), response, null,
+                new ServiceBrokerException("failed")));
+        assertEquals(200, response.getStatus());
+    }
+}
@@ -0,0 +1,92 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientResponseContext;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AtlasApiMetricsFilterUnitTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final AtlasApiMetricsFilter filter = new AtlasApiMetricsFilter(metricRegistry);
+
+    /**
+     * Request context keeping its properties
+     *
+     * @param method
+     * @return
+     */
+    private static ClientRequestContext request(final String method) {
+        final ClientRequestContext request = mock(ClientRequestContext.class);
+        final Map<String, Object> properties = new HashMap<>();
+        when(request.getMethod()).thenReturn(method);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                properties.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(request).setProperty(anyString(), any());
+        when(request.getProperty(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return properties.get(invocation.getArguments()[0]);
+            }
+        });
+        return request;
+    }
+
+    private static ClientResponseContext response(final int status) {
+        final ClientResponseContext response = mock(ClientResponseContext.class);
+        when(response.getStatus()).thenReturn(status);
+        return response;
+    }
+
+    @Test
+    public void exchangeIsTimedPerMethodAndCountedPerStatusTest() throws InterruptedException {
+        final ClientRequestContext request = request("POST");
+        filter.filter(request);
+        Thread.sleep(5);
+        filter.filter(request, response(201));
+
+        assertEquals(1, metricRegistry.timer("atlas.api.POST").getCount());
+        assertTrue(metricRegistry.timer("atlas.api.POST").getSnapshot().getMax() >= 5000000L);
+        assertEquals(1, metricRegistry.meter("atlas.api.status.201").getCount());
+    }
+
+    @Test
+    public void challengeIsCountedAsExchangeOfItsOwnTest() {
+        final ClientRequestContext challenged = request("GET");
+        filter.filter(challenged);
+        filter.filter(challenged, response(401));
+        final ClientRequestContext repeated = request("GET");
+        filter.filter(repeated);
+        filter.filter(repeated, response(200));
+
+        assertEquals(2, metricRegistry.timer("atlas.api.GET").getCount());
+        assertEquals(1, metricRegistry.meter("atlas.api.status.401").getCount());
+        assertEquals(1, metricRegistry.meter("atlas.api.status.200").getCount());
+    }
+
+    @Test
+    public void responseOfRequestNotSeenIsIgnoredTest() {
+        filter.filter(request("DELETE"), response(204));
+
+        assertEquals(0, metricRegistry.timer("atlas.api.DELETE").getCount());
+        assertEquals(0, metricRegistry.meter("atlas.api.status.204").getCount());
+    }
+}
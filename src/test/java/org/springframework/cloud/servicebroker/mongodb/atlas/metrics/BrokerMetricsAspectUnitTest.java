@@ -0,0 +1,81 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingResponse;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceResponse;
+import org.springframework.cloud.servicebroker.service.ServiceInstanceBindingService;
+import org.springframework.cloud.servicebroker.service.ServiceInstanceService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BrokerMetricsAspectUnitTest {
+
+    private MetricRegistry metricRegistry;
+
+    private BrokerMetricsAspect aspect;
+
+    @Before
+    public void setup() {
+        metricRegistry = new MetricRegistry();
+        aspect = new BrokerMetricsAspect(metricRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T advised(final T target) {
+        final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addAspect(aspect);
+        return (T) factory.getProxy();
+    }
+
+    @Test
+    public void callIsTimedAndCountedInFlightTest() {
+        final ServiceInstanceService target = mock(ServiceInstanceService.class);
+        final long[] inFlight = new long[1];
+        when(target.createServiceInstance(any(CreateServiceInstanceRequest.class)))
+                .thenAnswer(new Answer<CreateServiceInstanceResponse>() {
+                    @Override
+                    public CreateServiceInstanceResponse answer(InvocationOnMock invocation) {
+                        inFlight[0] = metricRegistry.counter("broker.requests.inflight").getCount();
+                        return new CreateServiceInstanceResponse();
+                    }
+                });
+
+        advised(target).createServiceInstance(new CreateServiceInstanceRequest());
+
+        assertEquals(1, inFlight[0]);
+        assertEquals(0, metricRegistry.counter("broker.requests.inflight").getCount());
+        assertEquals(1, metricRegistry.timer("broker.createServiceInstance").getCount());
+        assertEquals(0, metricRegistry.meter("broker.createServiceInstance.errors").getCount());
+    }
+
+    @Test
+    public void failedCallIsCountedAsErrorTest() {
+        final ServiceInstanceBindingService target = mock(ServiceInstanceBindingService.class);
+        when(target.createServiceInstanceBinding(any(CreateServiceInstanceBindingRequest.class)))
+                .thenThrow(new ServiceBrokerException("failed"));
+
+        try {
+            final CreateServiceInstanceBindingResponse response =
+                    advised(target).createServiceInstanceBinding(new CreateServiceInstanceBindingRequest());
+            fail("bound with " + response);
+        } catch (ServiceBrokerException e) {
+            assertEquals("failed", e.getMessage());
+        }
+
+        assertEquals(1, metricRegistry.timer("broker.createServiceInstanceBinding").getCount());
+        assertEquals(1, metricRegistry.meter("broker.createServiceInstanceBinding.errors").getCount());
+        assertEquals(0, metricRegistry.counter("broker.requests.inflight").getCount());
+    }
+}
@@ -0,0 +1,87 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionAddedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueEnteredEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueExitedEvent;
+import org.bson.BsonDocument;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MongoMetricsListenerUnitTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final MongoMetricsListener listener = new MongoMetricsListener(metricRegistry);
+
+    private final ServerId serverId = new ServerId(new ClusterId(), new ServerAddress("host0", 27017));
+
+    private final ConnectionDescription connection = new ConnectionDescription(serverId);
+
+    private final ConnectionId connectionId = connection.getConnectionId();
+
+    @Test
+    public void commandsAreTimedByNameTest() {
+        listener.commandSucceeded(new CommandSucceededEvent(1, connection, "find", new BsonDocument(),
+                TimeUnit.MILLISECONDS.toNanos(3)));
+        listener.commandFailed(new CommandFailedEvent(2, connection, "find", TimeUnit.MILLISECONDS.toNanos(7),
+                new MongoException("failed")));
+
+        assertEquals(2, metricRegistry.timer("mongodb.command.find").getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(7), metricRegistry.timer("mongodb.command.find").getSnapshot().getMax());
+        assertEquals(1, metricRegistry.meter("mongodb.command.find.errors").getCount());
+    }
+
+    @Test
+    public void poolWaitIsPairedOnThreadOfCheckOutTest() throws InterruptedException {
+        listener.waitQueueEntered(new ConnectionPoolWaitQueueEnteredEvent(serverId));
+        assertEquals(1, metricRegistry.counter("mongodb.pool.waitqueue").getCount());
+        Thread.sleep(5);
+        listener.waitQueueExited(new ConnectionPoolWaitQueueExitedEvent(serverId));
+        listener.connectionCheckedOut(new ConnectionCheckedOutEvent(connectionId));
+
+        assertEquals(0, metricRegistry.counter("mongodb.pool.waitqueue").getCount());
+        assertEquals(1, metricRegistry.counter("mongodb.pool.checkedout").getCount());
+        assertEquals(1, metricRegistry.histogram("mongodb.pool.wait").getCount());
+        assertTrue(metricRegistry.histogram("mongodb.pool.wait").getSnapshot().getMax() >= TimeUnit.MILLISECONDS.toNanos(5));
+
+        // a wait is recorded once, and only on the thread which entered the queue
+        listener.waitQueueExited(new ConnectionPoolWaitQueueExitedEvent(serverId));
+        final Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                listener.waitQueueEntered(new ConnectionPoolWaitQueueEnteredEvent(serverId));
+            }
+        });
+        other.start();
+        other.join();
+        listener.waitQueueExited(new ConnectionPoolWaitQueueExitedEvent(serverId));
+        assertEquals(1, metricRegistry.histogram("mongodb.pool.wait").getCount());
+    }
+
+    @Test
+    public void poolSizeAndCheckedOutConnectionsAreCountedTest() {
+        listener.connectionAdded(new ConnectionAddedEvent(connectionId));
+        listener.connectionAdded(new ConnectionAddedEvent(connectionId));
+        listener.connectionCheckedOut(new ConnectionCheckedOutEvent(connectionId));
+        listener.connectionCheckedOut(new ConnectionCheckedOutEvent(connectionId));
+        listener.connectionCheckedIn(new ConnectionCheckedInEvent(connectionId));
+
+        assertEquals(2, metricRegistry.counter("mongodb.pool.size").getCount());
+        assertEquals(1, metricRegistry.counter("mongodb.pool.checkedout").getCount());
+    }
+}
@@ -0,0 +1,70 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.plan;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.mongodb.atlas.quota.QuotaLimits;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CatalogFilterUnitTest {
+
+    private PlanCatalogService catalogService;
+
+    private CatalogFilter filter;
+
+    @Before
+    public void setup() throws IOException {
+        catalogService = new PlanCatalogService(new ObjectMapper(), "", "", new QuotaLimits(100, 50), false);
+        filter = new CatalogFilter(catalogService);
+    }
+
+    private MockHttpServletResponse get(final String ifNoneMatch) throws IOException, ServletException {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v2/catalog");
+        if (ifNoneMatch != null) {
+            request.addHeader("If-None-Match", ifNoneMatch);
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+        assertNull(chain.getRequest());
+        return response;
+    }
+
+    @Test
+    public void catalogIsServedWithItsETag() throws IOException, ServletException {
+        final MockHttpServletResponse response = get(null);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(catalogService.getCatalogBody().getETag(), response.getHeader("ETag"));
+        assertArrayEquals(catalogService.getCatalogBody().getBytes(), response.getContentAsByteArray());
+    }
+
+    @Test
+    public void unchangedCatalogIsNotSentAgain() throws IOException, ServletException {
+        final String eTag = catalogService.getCatalogBody().getETag();
+
+        final MockHttpServletResponse response = get("\"other\", " + eTag);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        assertEquals(200, get("\"other\"").getStatus());
+    }
+
+    @Test
+    public void entityTagsAreCompared() {
+        assertTrue(CatalogFilter.matches("W/\"abc\"", "\"abc\""));
+        assertTrue(CatalogFilter.matches("*", "\"abc\""));
+        assertFalse(CatalogFilter.matches("\"abd\"", "\"abc\""));
+    }
+}
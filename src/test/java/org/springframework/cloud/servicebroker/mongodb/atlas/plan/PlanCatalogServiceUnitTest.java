@@ -0,0 +1,117 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.plan;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.cloud.servicebroker.model.Plan;
+import org.springframework.cloud.servicebroker.mongodb.atlas.quota.QuotaLimits;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlanCatalogServiceUnitTest {
+
+    private static final String PLANS = "[{\"id\": \"shared\", \"name\": \"shared\"},"
+            + " {\"id\": \"dedicated\", \"name\": \"dedicated\", \"free\": false, \"monthlyCost\": 20.0,"
+            + " \"storageMb\": 1000, \"connections\": 0, \"tier\": \"M30\", \"placement\": \"dedicated\"}]";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final QuotaLimits defaults = new QuotaLimits(100, 50);
+
+    @Test
+    public void defaultPlanWhenNoneIsConfigured() throws IOException {
+        final PlanCatalogService service = new PlanCatalogService(mapper, "", "", defaults, false);
+
+        final List<Plan> plans = service.getCatalog().getServiceDefinitions().get(0).getPlans();
+        assertEquals(1, plans.size());
+        assertEquals(PlanCatalogService.DEFAULT_PLAN_ID, plans.get(0).getId());
+        assertEquals(Arrays.asList("Shared MongoDB Cluster", "100 MB Storage (not enforced)", "50 concurrent connections (not enforced)"),
+                plans.get(0).getMetadata().get("bullets"));
+        assertSame(service.getServiceDefinition(PlanCatalogService.SERVICE_ID), service.getCatalog().getServiceDefinitions().get(0));
+    }
+
+    @Test
+    public void plansCarryTheirResourceProfile() throws IOException {
+        final PlanCatalogService service = new PlanCatalogService(mapper, PLANS, "", defaults, true);
+
+        assertEquals(50, service.getLimits("shared").getConnections());
+        assertEquals(1000, service.getLimits("dedicated").getStorageMb());
+        assertEquals(0, service.getLimits("dedicated").getConnections());
+        assertEquals(100, service.getLimits("removed-plan").getStorageMb());
+        assertTrue(service.getPlan("dedicated").isDedicated());
+        assertEquals("M30", service.getPlan("dedicated").getTier());
+
+        final Plan dedicated = service.getCatalog().getServiceDefinitions().get(0).getPlans().get(1);
+        assertEquals(Arrays.asList("Dedicated MongoDB Cluster (M30)", "1000 MB Storage"),
+                dedicated.getMetadata().get("bullets"));
+    }
+
+    @Test
+    public void catalogBodyIsRenderedOnce() throws IOException {
+        final PlanCatalogService service = new PlanCatalogService(mapper, PLANS, "", defaults, true);
+
+        assertSame(service.getCatalogBody(), service.getCatalogBody());
+        assertArrayEquals(mapper.writeValueAsBytes(service.getCatalog()), service.getCatalogBody().getBytes());
+    }
+
+    @Test
+    public void changedPlansFileIsReloaded() throws IOException {
+        final File file = folder.newFile("plans.json");
+        Files.write(file.toPath(), "[{\"id\": \"shared\", \"name\": \"shared\"}]".getBytes(StandardCharsets.UTF_8));
+        final PlanCatalogService service = new PlanCatalogService(mapper, "", file.getPath(), defaults, true);
+        final PlanCatalogService.CatalogBody body = service.getCatalogBody();
+
+        service.reload();
+        assertSame(body, service.getCatalogBody());
+
+        Files.write(file.toPath(), PLANS.getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(file.lastModified() + 1000);
+        service.reload();
+        assertEquals(2, service.getPlans().size());
+        assertNotEquals(body.getETag(), service.getCatalogBody().getETag());
+
+        // a malformed file keeps the current catalog
+        final PlanCatalogService.CatalogBody reloaded = service.getCatalogBody();
+        Files.write(file.toPath(), "[{\"id\": \"shared\"".getBytes(StandardCharsets.UTF_8));
+        file.setLastModified(file.lastModified() + 1000);
+        service.reload();
+        assertSame(reloaded, service.getCatalogBody());
+    }
+
+    @Test
+    public void plansAreUpdateableOnlyWhenTwoMayShareCluster() throws IOException {
+        assertFalse(new PlanCatalogService(mapper, "", "", defaults, true)
+                .getServiceDefinition(PlanCatalogService.SERVICE_ID).isPlanUpdateable());
+        // shared and dedicated plans never share a cluster
+        assertFalse(new PlanCatalogService(mapper, PLANS, "", defaults, true)
+                .getServiceDefinition(PlanCatalogService.SERVICE_ID).isPlanUpdateable());
+        assertFalse(new PlanCatalogService(mapper, "[{\"id\": \"m10\", \"name\": \"m10\", \"tier\": \"M10\"},"
+                + " {\"id\": \"m20\", \"name\": \"m20\", \"tier\": \"M20\"}]", "", defaults, true)
+                .getServiceDefinition(PlanCatalogService.SERVICE_ID).isPlanUpdateable());
+
+        assertTrue(new PlanCatalogService(mapper, "[{\"id\": \"small\", \"name\": \"small\", \"storageMb\": 100},"
+                + " {\"id\": \"large\", \"name\": \"large\", \"storageMb\": 1000}]", "", defaults, true)
+                .getServiceDefinition(PlanCatalogService.SERVICE_ID).isPlanUpdateable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPlacementIsRejected() throws IOException {
+        new PlanCatalogService(mapper, "[{\"id\": \"p\", \"name\": \"p\", \"placement\": \"elsewhere\"}]", "", defaults, true);
+    }
+}
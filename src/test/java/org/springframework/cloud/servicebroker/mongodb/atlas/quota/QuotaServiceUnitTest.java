@@ -0,0 +1,227 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.quota;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.client.DatabaseUserWriter;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.QuotaEnforcement;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanCatalogService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasAdminService;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QuotaServiceUnitTest {
+
+    private static final String INSTANCE_ID = "instance-id";
+
+    private static final long MB = 1024L * 1024L;
+
+    @Mock
+    private MongoClient mongoClient;
+
+    @Mock
+    private MongoDatabase admin;
+
+    @Mock
+    private MongoDatabase tenant;
+
+    @Mock
+    private MongoDatabase small;
+
+    @Mock
+    private AtlasAdminService atlasAdminService;
+
+    @Mock
+    private BrokerConfig brokerConfig;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private final List<Document> connections = new ArrayList<>();
+
+    private long tenantSize = 200 * MB;
+
+    private final ServiceInstance instance = new ServiceInstance(INSTANCE_ID, "service-id", "plan-id",
+            "org-guid", "space-guid", null);
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(brokerConfig.getApiBase()).thenReturn("https://cloud.mongodb.com/api/atlas/v1.0");
+        when(mongoClient.getDatabase(AtlasAdminService.ADMIN_DB)).thenReturn(admin);
+        when(mongoClient.getDatabase(INSTANCE_ID)).thenReturn(tenant);
+        when(mongoClient.getDatabase("small")).thenReturn(small);
+        when(admin.runCommand(any(Document.class))).thenAnswer(new Answer<Document>() {
+            @Override
+            public Document answer(InvocationOnMock invocation) {
+                final Document command = (Document) invocation.getArguments()[0];
+                if (command.containsKey("listDatabases")) {
+                    return new Document("databases", Arrays.asList(
+                            new Document("name", INSTANCE_ID).append("sizeOnDisk", tenantSize),
+                            new Document("name", "small").append("sizeOnDisk", MB)));
+                }
+                return new Document("inprog", connections);
+            }
+        });
+        when(tenant.runCommand(any(Document.class))).thenReturn(
+                new Document("storageSize", 150 * MB).append("indexSize", 10 * MB));
+
+        when(mongoOperations.find(any(Query.class), eq(ServiceInstance.class)))
+                .thenReturn(Collections.singletonList(instance));
+        when(mongoOperations.findById(INSTANCE_ID, ServiceInstance.class)).thenReturn(instance);
+        when(mongoOperations.find(any(Query.class), eq(ServiceInstanceBinding.class))).thenReturn(Collections.singletonList(
+                new ServiceInstanceBinding("binding-id", INSTANCE_ID, null, null, "app-guid").withUsername("user")));
+    }
+
+    private QuotaService service(final String action) throws IOException {
+        final ClusterRegistry clusterRegistry = new ClusterRegistry(
+                new AtlasCluster("default", "mongodb://host0:27017", "group-id", mongoClient));
+        final QuotaService service = new QuotaService(clusterRegistry, atlasAdminService, brokerConfig, mongoOperations,
+                new TaskExecutorAdapter(new SyncTaskExecutor()), eventPublisher, new MetricRegistry(),
+                new PlanCatalogService(new ObjectMapper(), "", "", new QuotaLimits(100, 2), true), action);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "batchSize", 10);
+        ReflectionTestUtils.setField(service, "recheckInterval", 600000L);
+        return service;
+    }
+
+    @Test
+    public void storageAboveQuotaDowngradesUsers() throws IOException {
+        service("read-only").sample();
+
+        final ArgumentCaptor<DatabaseUser> user = ArgumentCaptor.forClass(DatabaseUser.class);
+        verify(atlasAdminService).updateUser(anyString(), eq("group-id"), user.capture());
+        assertEquals("user", user.getValue().getUsername());
+        assertEquals(QuotaService.READ_ROLE, user.getValue().getRoles().get(0).getRoleName());
+
+        final ArgumentCaptor<QuotaEnforcement> enforcement = ArgumentCaptor.forClass(QuotaEnforcement.class);
+        verify(mongoOperations).save(enforcement.capture());
+        assertEquals(Collections.singleton("user"), enforcement.getValue().getUsernames());
+
+        final ArgumentCaptor<QuotaEvent> event = ArgumentCaptor.forClass(QuotaEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(QuotaEvent.Type.EXCEEDED, event.getValue().getType());
+        assertEquals(160 * MB, event.getValue().getUsage());
+
+        // databases far below every quota are never measured
+        verify(small, never()).runCommand(any(Document.class));
+    }
+
+    @Test
+    public void connectionsAboveQuotaOnlyPublishEvent() throws IOException {
+        tenantSize = MB;
+        for (int i = 0; i < 3; i++) {
+            connections.add(new Document("effectiveUsers",
+                    Collections.singletonList(new Document("user", "user").append("db", "admin"))));
+        }
+
+        service("event").sample();
+
+        final ArgumentCaptor<QuotaEvent> event = ArgumentCaptor.forClass(QuotaEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(QuotaEnforcement.Resource.CONNECTIONS, event.getValue().getResource());
+        assertEquals(3, event.getValue().getUsage());
+        verify(atlasAdminService, never()).updateUser(anyString(), anyString(), any(DatabaseUser.class));
+    }
+
+    @Test
+    public void instanceBackWithinQuotaIsRestored() throws IOException {
+        tenantSize = MB;
+        final QuotaEnforcement enforcement = new QuotaEnforcement(INSTANCE_ID, "default", INSTANCE_ID,
+                QuotaEnforcement.Resource.STORAGE, "read-only").withUsernames(Collections.singleton("user"));
+        when(mongoOperations.findAll(QuotaEnforcement.class)).thenReturn(Collections.singletonList(enforcement));
+
+        service("read-only").sample();
+
+        final ArgumentCaptor<DatabaseUser> user = ArgumentCaptor.forClass(DatabaseUser.class);
+        verify(atlasAdminService).updateUser(anyString(), eq("group-id"), user.capture());
+        assertEquals(AtlasAdminService.READ_WRITE_ROLE, user.getValue().getRoles().get(0).getRoleName());
+        verify(mongoOperations).remove(enforcement);
+
+        final ArgumentCaptor<QuotaEvent> event = ArgumentCaptor.forClass(QuotaEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(QuotaEvent.Type.RESTORED, event.getValue().getType());
+    }
+
+    @Test
+    public void revokeKeepsUsersWithRoleOnEmptyCollection() throws IOException {
+        service("revoke").sample();
+
+        final ArgumentCaptor<DatabaseUser> user = ArgumentCaptor.forClass(DatabaseUser.class);
+        verify(atlasAdminService).updateUser(anyString(), eq("group-id"), user.capture());
+        assertEquals(1, user.getValue().getRoles().size());
+
+        // the PATCH replaces the roles of the user with exactly these
+        final ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        DatabaseUserWriter.write(user.getValue(), patch);
+        assertTrue(new String(patch.toByteArray(), StandardCharsets.UTF_8).contains("\"roles\":[{\"databaseName\":\""
+                + instance.getDatabaseName() + "\",\"collectionName\":\"" + QuotaService.REVOKED_COLLECTION
+                + "\",\"roleName\":\"" + QuotaService.READ_ROLE + "\"}]"));
+    }
+
+    @Test
+    public void restoreFailingMidwayKeepsOnlyUsersNotRestored() throws IOException {
+        tenantSize = MB;
+        final QuotaEnforcement enforcement = new QuotaEnforcement(INSTANCE_ID, "default", INSTANCE_ID,
+                QuotaEnforcement.Resource.STORAGE, "read-only")
+                .withUsernames(new HashSet<>(Arrays.asList("user", "other")));
+        when(mongoOperations.findAll(QuotaEnforcement.class)).thenReturn(Collections.singletonList(enforcement));
+        doNothing().doThrow(new ServiceBrokerException("unavailable"))
+                .when(atlasAdminService).updateUser(anyString(), anyString(), any(DatabaseUser.class));
+
+        service("read-only").sample();
+
+        final ArgumentCaptor<DatabaseUser> user = ArgumentCaptor.forClass(DatabaseUser.class);
+        verify(atlasAdminService, times(2)).updateUser(anyString(), eq("group-id"), user.capture());
+        final String failed = user.getAllValues().get(1).getUsername();
+
+        // saved once the first user was restored, so that only the other one is restored again
+        verify(mongoOperations).save(enforcement);
+        assertEquals(Collections.singleton(failed), enforcement.getUsernames());
+        verify(mongoOperations, never()).remove(enforcement);
+        verify(eventPublisher, never()).publishEvent(any(QuotaEvent.class));
+    }
+}
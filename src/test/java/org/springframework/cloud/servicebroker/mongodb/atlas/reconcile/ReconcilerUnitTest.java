@@ -0,0 +1,234 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.reconcile;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.AtlasAdminService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.service.LeaseService;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReconcilerUnitTest {
+
+    private static final String API_BASE = "https://cloud.mongodb.com/api/atlas/v1.0";
+
+    private static final String OWNED_DATABASE = "11111111-1111-1111-1111-111111111111";
+
+    private static final String ORPHAN_DATABASE = "22222222-2222-2222-2222-222222222222";
+
+    private static final String POOL_DATABASE = "pool-33333333-3333-3333-3333-333333333333";
+
+    private static final String BINDING_USER = "44444444-4444-4444-4444-444444444444";
+
+    private static final String ORPHAN_USER = "55555555-5555-5555-5555-555555555555";
+
+    private static final String POOL_USER = "66666666-6666-6666-6666-666666666666";
+
+    @Mock
+    private MongoClient mongoClient;
+
+    @Mock
+    private AtlasAdminService atlasAdminService;
+
+    @Mock
+    private BrokerConfig brokerConfig;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    private final ServiceInstance owned = new ServiceInstance(OWNED_DATABASE, "service-id", "plan-id",
+            "org-guid", "space-guid", null);
+
+    private final ServiceInstance dangling = new ServiceInstance("77777777-7777-7777-7777-777777777777", "service-id",
+            "plan-id", "org-guid", "space-guid", null);
+
+    private final ServiceInstanceBinding binding = new ServiceInstanceBinding("binding-id", OWNED_DATABASE, null, null,
+            "app-guid").withUsername(BINDING_USER);
+
+    private final ServiceInstanceBinding danglingBinding = new ServiceInstanceBinding("dangling-binding-id",
+            OWNED_DATABASE, null, null, "app-guid");
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(brokerConfig.getApiBase()).thenReturn(API_BASE);
+
+        final MongoIterable<String> databaseNames = mock(MongoIterable.class);
+        when(databaseNames.iterator()).thenAnswer(new Answer<MongoCursor<String>>() {
+            @Override
+            public MongoCursor<String> answer(InvocationOnMock invocation) {
+                return cursor(Arrays.asList("admin", "test", OWNED_DATABASE, ORPHAN_DATABASE, POOL_DATABASE));
+            }
+        });
+        when(mongoClient.listDatabaseNames()).thenReturn(databaseNames);
+        when(atlasAdminService.listUsers(eq(API_BASE), eq("group-id"), eq(1), anyInt())).thenReturn(Arrays.asList(
+                new DatabaseUser("admin-user", null),
+                new DatabaseUser(BINDING_USER, null),
+                new DatabaseUser(ORPHAN_USER, null),
+                new DatabaseUser(POOL_USER, null)));
+
+        final WarmPoolEntry entry = new WarmPoolEntry(POOL_DATABASE, POOL_USER, null);
+        when(mongoOperations.find(any(Query.class), eq(ServiceInstance.class))).thenReturn(Collections.singletonList(owned));
+        when(mongoOperations.find(any(Query.class), eq(WarmPoolEntry.class))).thenReturn(Collections.singletonList(entry));
+        when(mongoOperations.find(any(Query.class), eq(ServiceInstanceBinding.class)))
+                .thenReturn(Collections.singletonList(binding));
+        when(mongoOperations.find(any(Query.class), eq(ServiceInstanceOperation.class)))
+                .thenReturn(Collections.<ServiceInstanceOperation>emptyList());
+        when(mongoOperations.stream(any(Query.class), eq(ServiceInstance.class))).thenAnswer(new Answer<CloseableIterator<ServiceInstance>>() {
+            @Override
+            public CloseableIterator<ServiceInstance> answer(InvocationOnMock invocation) {
+                return iterator(Arrays.asList(owned, dangling));
+            }
+        });
+        when(mongoOperations.stream(any(Query.class), eq(ServiceInstanceBinding.class))).thenAnswer(new Answer<CloseableIterator<ServiceInstanceBinding>>() {
+            @Override
+            public CloseableIterator<ServiceInstanceBinding> answer(InvocationOnMock invocation) {
+                return iterator(Arrays.asList(binding, danglingBinding));
+            }
+        });
+    }
+
+    private Reconciler reconciler(final boolean dryRun, final long gracePeriod) {
+        final Reconciler reconciler = new Reconciler(
+                new ClusterRegistry(new AtlasCluster("default", "mongodb://host0:27017", "group-id", mongoClient)),
+                atlasAdminService, brokerConfig, mongoOperations, new TaskExecutorAdapter(new SyncTaskExecutor()),
+                mock(LeaseService.class), new MetricRegistry(),
+                "(pool-)?[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}",
+                "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+        ReflectionTestUtils.setField(reconciler, "dryRun", dryRun);
+        ReflectionTestUtils.setField(reconciler, "pageSize", 2);
+        ReflectionTestUtils.setField(reconciler, "gracePeriod", gracePeriod);
+        ReflectionTestUtils.setField(reconciler, "parallelism", 2);
+        ReflectionTestUtils.setField(reconciler, "expectedObjects", 1000);
+        ReflectionTestUtils.setField(reconciler, "maxSuspects", 100);
+        return reconciler;
+    }
+
+    @Test
+    public void dryRunOnlyReports() {
+        final ReconcileReport report = reconciler(true, 0).reconcile();
+
+        assertEquals(3, report.getDatabases());
+        assertEquals(3, report.getUsers());
+        assertEquals(1, report.getOrphanDatabases());
+        assertEquals(1, report.getOrphanUsers());
+        assertEquals(0, report.getRemoved());
+        assertEquals(1, report.getDanglingInstances());
+        assertEquals(1, report.getDanglingBindings());
+        verify(atlasAdminService, never()).deleteDatabase(anyString(), anyString());
+        verify(atlasAdminService, never()).deleteUser(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void orphansAreRemovedOnceFoundForTheGracePeriod() throws InterruptedException {
+        final Reconciler reconciler = reconciler(false, 100);
+
+        assertEquals(0, reconciler.reconcile().getRemoved());
+        verify(atlasAdminService, never()).deleteDatabase(anyString(), anyString());
+
+        Thread.sleep(150);
+        final ReconcileReport report = reconciler.reconcile();
+        assertEquals(2, report.getRemoved());
+        verify(atlasAdminService).deleteDatabase("default", ORPHAN_DATABASE);
+        verify(atlasAdminService).deleteUser(API_BASE, "group-id", ORPHAN_USER);
+    }
+
+    @Test
+    public void resourcesOfUnfinishedOperationsAreNotOrphans() {
+        // a bind which failed after creating its user, and an async create which failed after creating its database
+        final JournalEntry failedBinding = JournalEntry.createBinding(OWNED_DATABASE, "failed-binding-id", "app-guid")
+                .withUsername(ORPHAN_USER);
+        final JournalEntry failedCreate = JournalEntry.createInstance(new ServiceInstance(ORPHAN_DATABASE, "service-id",
+                "plan-id", "org-guid", "space-guid", null), true).withClusterId("default");
+        ReflectionTestUtils.setField(failedBinding, "state", JournalEntry.State.FAILED);
+        ReflectionTestUtils.setField(failedCreate, "state", JournalEntry.State.FAILED);
+        when(mongoOperations.find(any(Query.class), eq(JournalEntry.class)))
+                .thenReturn(Arrays.asList(failedBinding, failedCreate));
+
+        final ReconcileReport report = reconciler(false, 0).reconcile();
+
+        assertEquals(0, report.getOrphanDatabases());
+        assertEquals(0, report.getOrphanUsers());
+        verify(atlasAdminService, never()).deleteDatabase(anyString(), anyString());
+        verify(atlasAdminService, never()).deleteUser(anyString(), anyString(), anyString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MongoCursor<String> cursor(final List<String> names) {
+        final Iterator<String> iterator = names.iterator();
+        final MongoCursor<String> cursor = mock(MongoCursor.class);
+        when(cursor.hasNext()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                return iterator.hasNext();
+            }
+        });
+        when(cursor.next()).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return iterator.next();
+            }
+        });
+        return cursor;
+    }
+
+    private static <T> CloseableIterator<T> iterator(final List<T> items) {
+        final Iterator<T> iterator = items.iterator();
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
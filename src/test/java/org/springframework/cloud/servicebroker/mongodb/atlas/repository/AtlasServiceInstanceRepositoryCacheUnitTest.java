@@ -0,0 +1,91 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.guava.GuavaCacheManager;
+import org.springframework.cloud.servicebroker.mongodb.atlas.fixture.ServiceInstanceFixture;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class AtlasServiceInstanceRepositoryCacheUnitTest {
+
+    private static final AtlasServiceInstanceRepository backingRepository = mock(AtlasServiceInstanceRepository.class);
+
+    private AnnotationConfigApplicationContext context;
+
+    private AtlasServiceInstanceRepository repository;
+
+    @Configuration
+    @EnableCaching
+    static class CacheConfiguration {
+
+        @Bean
+        public CacheManager cacheManager() {
+            return new GuavaCacheManager("serviceInstances");
+        }
+
+        @Bean
+        public AtlasServiceInstanceRepository repository() {
+            return backingRepository;
+        }
+    }
+
+    @Before
+    public void setup() {
+        reset(backingRepository);
+        context = new AnnotationConfigApplicationContext(CacheConfiguration.class);
+        repository = context.getBean(AtlasServiceInstanceRepository.class);
+    }
+
+    @After
+    public void teardown() {
+        context.close();
+    }
+
+    @Test
+    public void missingInstanceIsCached() {
+        assertNull(repository.findOne("service-instance-id"));
+        assertNull(repository.findOne("service-instance-id"));
+
+        verify(backingRepository, times(1)).findOne("service-instance-id");
+    }
+
+    @Test
+    public void saveWritesThrough() {
+        final ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
+        assertNull(repository.findOne(instance.getServiceInstanceId()));
+
+        when(backingRepository.save(instance)).thenReturn(instance);
+        repository.save(instance);
+        reset(backingRepository);
+
+        assertSame(instance, repository.findOne(instance.getServiceInstanceId()));
+        verifyZeroInteractions(backingRepository);
+    }
+
+    @Test
+    public void deleteEvicts() {
+        final ServiceInstance instance = ServiceInstanceFixture.getServiceInstance();
+        when(backingRepository.save(instance)).thenReturn(instance);
+        repository.save(instance);
+
+        repository.delete(instance.getServiceInstanceId());
+        assertNull(repository.findOne(instance.getServiceInstanceId()));
+
+        verify(backingRepository).findOne(instance.getServiceInstanceId());
+    }
+}
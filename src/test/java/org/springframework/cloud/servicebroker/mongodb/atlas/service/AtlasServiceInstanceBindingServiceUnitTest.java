@@ -0,0 +1,317 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceAppBindingResponse;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceBindingRequest;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.ServiceInstanceConcurrencyException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.fixture.ServiceInstanceFixture;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceBindingRepository;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceOperationRepository;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceRepository;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AtlasServiceInstanceBindingServiceUnitTest {
+
+    private static final String API_BASE = "https://cloud.mongodb.com/api/atlas/v1.0";
+
+    private static final String INSTANCE_ID = "service-instance-id";
+
+    private static final String BINDING_ID = "binding-id";
+
+    private static final String CLUSTER_ID = "cluster-id";
+
+    private static final String DATABASE = "database-name";
+
+    private final ClusterRegistry clusterRegistry = new ClusterRegistry(
+            new AtlasCluster(CLUSTER_ID, "mongodb://host0:27017", "group-id", null));
+
+    @Mock
+    private AtlasAdminService atlasAdminService;
+
+    @Mock
+    private BrokerConfig brokerConfig;
+
+    @Mock
+    private AtlasServiceInstanceBindingRepository bindingRepository;
+
+    @Mock
+    private AtlasServiceInstanceRepository instanceRepository;
+
+    @Mock
+    private AtlasServiceInstanceOperationRepository operationRepository;
+
+    @Mock
+    private WarmPoolService warmPoolService;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    private AtlasServiceInstanceBindingService service;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(brokerConfig.getApiBase()).thenReturn(API_BASE);
+        when(instanceRepository.findById(INSTANCE_ID)).thenReturn(
+                ServiceInstanceFixture.getServiceInstance().withClusterId(CLUSTER_ID).withDatabaseName(DATABASE));
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(1, true, null));
+        when(mongoOperations.remove(any(Query.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(1, false, null));
+
+        final OperationJournal journal = new OperationJournal(mongoOperations, new MetricRegistry());
+        ReflectionTestUtils.setField(journal, "staleAfter", 60000L);
+        service = new AtlasServiceInstanceBindingService(atlasAdminService, brokerConfig, bindingRepository,
+                instanceRepository, warmPoolService, clusterRegistry, journal,
+                new LeaseService(mongoOperations, new MetricRegistry()),
+                new RequestCoalescer(new MetricRegistry(), 0, 0),
+                new OperationTracker(operationRepository, new MetricRegistry(), 5000, 600000, 0, 10));
+    }
+
+    private static CreateServiceInstanceBindingRequest bindRequest() {
+        return new CreateServiceInstanceBindingRequest("service-definition-id", "plan-id", "app-guid", null)
+                .withServiceInstanceId(INSTANCE_ID)
+                .withBindingId(BINDING_ID);
+    }
+
+    /**
+     * Have the bind resume the failed attempt of an earlier request
+     *
+     * @param steps steps the earlier attempt completed
+     * @return the entry of the resumed attempt
+     */
+    private JournalEntry resumed(final JournalEntry.Step... steps) {
+        final JournalEntry failed = JournalEntry.createBinding(INSTANCE_ID, BINDING_ID, "app-guid").started();
+        ReflectionTestUtils.setField(failed, "state", JournalEntry.State.FAILED);
+        final JournalEntry claimed = JournalEntry.createBinding(INSTANCE_ID, BINDING_ID, "app-guid").started().started();
+        for (final JournalEntry.Step step : steps) {
+            claimed.completed(step, new Date());
+        }
+
+        // only the journal insert collides, the lease is free
+        doThrow(new DuplicateKeyException("E11000")).when(mongoOperations).insert(isA(JournalEntry.class));
+        when(mongoOperations.findById(JournalEntry.key(JournalEntry.Type.CREATE_BINDING, BINDING_ID), JournalEntry.class))
+                .thenReturn(failed);
+        when(mongoOperations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(JournalEntry.class))).thenReturn(claimed);
+        return claimed;
+    }
+
+    private static String uri(final Object response) {
+        return (String) ((CreateServiceInstanceAppBindingResponse) response).getCredentials().get("uri");
+    }
+
+    @Test
+    public void bindCreatesUserOnClusterOfInstance() {
+        final String uri = uri(service.createServiceInstanceBinding(bindRequest()));
+
+        verify(atlasAdminService).createUser(eq(API_BASE), eq("group-id"), eq(DATABASE), eq(BINDING_ID), anyString());
+        verify(bindingRepository).save(any(ServiceInstanceBinding.class));
+        verify(mongoOperations).remove(any(Query.class), eq(JournalEntry.class));
+        assertTrue(uri.startsWith("mongodb://" + BINDING_ID + ":"));
+        assertTrue(uri.contains("@host0:27017/" + DATABASE));
+    }
+
+    @Test
+    public void bindIgnoresCachedBindingDeletedByOtherReplica() {
+        when(bindingRepository.findOne(BINDING_ID)).thenReturn(mock(ServiceInstanceBinding.class));
+
+        service.createServiceInstanceBinding(bindRequest());
+
+        verify(atlasAdminService).createUser(eq(API_BASE), eq("group-id"), eq(DATABASE), eq(BINDING_ID), anyString());
+        verify(bindingRepository).save(any(ServiceInstanceBinding.class));
+    }
+
+    @Test
+    public void pooledUserIsJournaledBeforeItIsClaimed() {
+        when(warmPoolService.findUser(INSTANCE_ID)).thenReturn(new WarmPoolEntry(DATABASE, "pool-user", CLUSTER_ID));
+
+        final String uri = uri(service.createServiceInstanceBinding(bindRequest()));
+
+        final InOrder order = inOrder(mongoOperations, warmPoolService);
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        order.verify(mongoOperations).updateFirst(any(Query.class), update.capture(), eq(JournalEntry.class));
+        order.verify(warmPoolService).claimUser(INSTANCE_ID, "pool-user");
+        assertEquals(JournalEntry.Step.CLAIM_USER,
+                ((DBObject) update.getValue().getUpdateObject().get("$push")).get("steps"));
+        assertEquals("pool-user", ((DBObject) update.getValue().getUpdateObject().get("$set")).get("username"));
+
+        // the pool keeps no password, the binding sets one
+        verify(atlasAdminService, never()).createUser(anyString(), anyString(), anyString(), anyString(), anyString());
+        final ArgumentCaptor<DatabaseUser> user = ArgumentCaptor.forClass(DatabaseUser.class);
+        verify(atlasAdminService).updateUser(eq(API_BASE), eq("group-id"), user.capture());
+        assertEquals("pool-user", user.getValue().getUsername());
+        assertTrue(uri.startsWith("mongodb://pool-user:" + user.getValue().getPassword() + "@host0:27017/" + DATABASE));
+    }
+
+    @Test
+    public void resumedBindClaimsPooledUserItJournaled() {
+        resumed(JournalEntry.Step.CLAIM_USER).withUsername("pool-user");
+
+        final String uri = uri(service.createServiceInstanceBinding(bindRequest()));
+
+        verify(warmPoolService, never()).findUser(anyString());
+        verify(warmPoolService).claimUser(INSTANCE_ID, "pool-user");
+        verify(atlasAdminService, never()).createUser(anyString(), anyString(), anyString(), anyString(), anyString());
+        assertTrue(uri.startsWith("mongodb://pool-user:"));
+    }
+
+    @Test
+    public void firstAttemptFailingToCreateUserFails() {
+        doThrow(new AtlasServiceException("Atlas API failed to create user: HTTP 500")).when(atlasAdminService)
+                .createUser(eq(API_BASE), eq("group-id"), eq(DATABASE), eq(BINDING_ID), anyString());
+
+        try {
+            service.createServiceInstanceBinding(bindRequest());
+            fail("bind succeeded");
+        } catch (AtlasServiceException e) {
+            verify(atlasAdminService, never()).updateUser(anyString(), anyString(), any(DatabaseUser.class));
+            verify(bindingRepository, never()).save(any(ServiceInstanceBinding.class));
+        }
+
+        // kept for the retry to resume
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoOperations).updateFirst(any(Query.class), update.capture(), eq(JournalEntry.class));
+        assertEquals(JournalEntry.State.FAILED, ((DBObject) update.getValue().getUpdateObject().get("$set")).get("state"));
+    }
+
+    @Test
+    public void resumedBindUpdatesUserLeftByEarlierAttempt() {
+        resumed();
+        doThrow(new AtlasServiceException("Atlas API failed to create user: HTTP 409")).when(atlasAdminService)
+                .createUser(eq(API_BASE), eq("group-id"), eq(DATABASE), eq(BINDING_ID), anyString());
+
+        final String uri = uri(service.createServiceInstanceBinding(bindRequest()));
+
+        final ArgumentCaptor<DatabaseUser> user = ArgumentCaptor.forClass(DatabaseUser.class);
+        verify(atlasAdminService).updateUser(eq(API_BASE), eq("group-id"), user.capture());
+        assertEquals(BINDING_ID, user.getValue().getUsername());
+        assertEquals(DATABASE, user.getValue().getRoles().get(0).getDatabaseName());
+        // the credentials returned carry the password the user was updated with
+        assertTrue(uri.contains(":" + user.getValue().getPassword() + "@"));
+        verify(bindingRepository).save(any(ServiceInstanceBinding.class));
+    }
+
+    @Test
+    public void resumedBindResetsPasswordOfUserCreatedByEarlierAttempt() {
+        resumed(JournalEntry.Step.CREATE_USER).withUsername(BINDING_ID);
+
+        final String uri = uri(service.createServiceInstanceBinding(bindRequest()));
+
+        verify(atlasAdminService, never()).createUser(anyString(), anyString(), anyString(), anyString(), anyString());
+        final ArgumentCaptor<DatabaseUser> user = ArgumentCaptor.forClass(DatabaseUser.class);
+        verify(atlasAdminService).updateUser(eq(API_BASE), eq("group-id"), user.capture());
+        assertEquals(BINDING_ID, user.getValue().getUsername());
+        assertEquals(DATABASE, user.getValue().getRoles().get(0).getDatabaseName());
+        assertTrue(uri.startsWith("mongodb://" + BINDING_ID + ":" + user.getValue().getPassword() + "@host0:27017/" + DATABASE));
+        verify(bindingRepository).save(any(ServiceInstanceBinding.class));
+    }
+
+    @Test
+    public void journalDoesNotKeepPassword() {
+        service.createServiceInstanceBinding(bindRequest());
+
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoOperations).updateFirst(any(Query.class), update.capture(), eq(JournalEntry.class));
+        final DBObject set = (DBObject) update.getValue().getUpdateObject().get("$set");
+        assertEquals(BINDING_ID, set.get("username"));
+        assertFalse(set.containsField("password"));
+    }
+
+    @Test
+    public void bindIsRejectedWhileCreateInProgress() {
+        when(operationRepository.findOne(INSTANCE_ID))
+                .thenReturn(new ServiceInstanceOperation(INSTANCE_ID, ServiceInstanceOperation.Type.CREATE));
+
+        try {
+            service.createServiceInstanceBinding(bindRequest());
+            fail("bound instance being created");
+        } catch (ServiceInstanceConcurrencyException e) {
+            verify(atlasAdminService, never()).createUser(anyString(), anyString(), anyString(), anyString(), anyString());
+            verify(mongoOperations, never()).insert(isA(JournalEntry.class));
+        }
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void bindOfFailedCreateIsRefused() {
+        when(operationRepository.findOne(INSTANCE_ID)).thenReturn(
+                new ServiceInstanceOperation(INSTANCE_ID, ServiceInstanceOperation.Type.CREATE)
+                        .withState(OperationState.FAILED, "timeout"));
+
+        try {
+            service.createServiceInstanceBinding(bindRequest());
+        } finally {
+            verify(atlasAdminService, never()).createUser(anyString(), anyString(), anyString(), anyString(), anyString());
+        }
+    }
+
+    @Test(expected = ServiceInstanceConcurrencyException.class)
+    public void unbindIsRejectedWhileDeleteInProgress() {
+        when(bindingRepository.findById(BINDING_ID)).thenReturn(
+                new ServiceInstanceBinding(BINDING_ID, INSTANCE_ID, null, null, "app-guid").withUsername(BINDING_ID));
+        when(operationRepository.findOne(INSTANCE_ID))
+                .thenReturn(new ServiceInstanceOperation(INSTANCE_ID, ServiceInstanceOperation.Type.DELETE));
+
+        try {
+            service.deleteServiceInstanceBinding(new DeleteServiceInstanceBindingRequest(INSTANCE_ID, BINDING_ID,
+                    "service-definition-id", "plan-id", null));
+        } finally {
+            verify(atlasAdminService, never()).deleteUser(anyString(), anyString(), anyString());
+        }
+    }
+
+    @Test
+    public void unbindDeletesUserOnClusterOfInstance() {
+        when(bindingRepository.findById(BINDING_ID)).thenReturn(
+                new ServiceInstanceBinding(BINDING_ID, INSTANCE_ID, null, null, "app-guid").withUsername(BINDING_ID));
+
+        service.deleteServiceInstanceBinding(new DeleteServiceInstanceBindingRequest(INSTANCE_ID, BINDING_ID,
+                "service-definition-id", "plan-id", null));
+
+        verify(atlasAdminService).deleteUser(API_BASE, "group-id", BINDING_ID);
+        verify(instanceRepository, never()).findOne(anyString());
+        verify(bindingRepository).delete(BINDING_ID);
+    }
+}
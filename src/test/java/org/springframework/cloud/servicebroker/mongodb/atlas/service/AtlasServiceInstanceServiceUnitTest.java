@@ -0,0 +1,541 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.SettableFuture;
+import com.mongodb.WriteResult;
+import com.mongodb.client.MongoDatabase;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceDoesNotExistException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceExistsException;
+import org.springframework.cloud.servicebroker.exception.ServiceInstanceUpdateNotSupportedException;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.model.CreateServiceInstanceResponse;
+import org.springframework.cloud.servicebroker.model.DeleteServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationRequest;
+import org.springframework.cloud.servicebroker.model.GetLastServiceOperationResponse;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.model.UpdateServiceInstanceRequest;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.ServiceInstanceConcurrencyException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.fixture.ServiceInstanceFixture;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanCatalogService;
+import org.springframework.cloud.servicebroker.mongodb.atlas.plan.PlanDefinition;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceOperationRepository;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceRepository;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AtlasServiceInstanceServiceUnitTest {
+
+    private static final String INSTANCE_ID = "service-instance-id";
+
+    private static final String CLUSTER_ID = "cluster-id";
+
+    private final ClusterRegistry clusterRegistry = new ClusterRegistry(
+            new AtlasCluster(CLUSTER_ID, "mongodb://host0:27017", "group-id", null));
+
+    @Mock
+    private AtlasAdminService atlasAdminService;
+
+    @Mock
+    private AtlasServiceInstanceRepository repository;
+
+    @Mock
+    private AtlasServiceInstanceOperationRepository operationRepository;
+
+    @Mock
+    private WarmPoolService warmPoolService;
+
+    @Mock
+    private PlanCatalogService catalogService;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Mock
+    private DatabaseDropper dropper;
+
+    @Mock
+    private BindingCascade bindingCascade;
+
+    private OperationJournal journal;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(atlasAdminService.createDatabase(CLUSTER_ID, INSTANCE_ID)).thenReturn(mock(MongoDatabase.class));
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(1, true, null));
+        when(mongoOperations.remove(any(Query.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(1, false, null));
+        journal = new OperationJournal(mongoOperations, new MetricRegistry());
+    }
+
+    private AtlasServiceInstanceService service(final TaskExecutor executor) {
+        return new AtlasServiceInstanceService(atlasAdminService, repository,
+                new OperationTracker(operationRepository, new MetricRegistry(), 5000, 600000, 0, 10), executor, warmPoolService,
+                clusterRegistry, catalogService, journal, new LeaseService(mongoOperations, new MetricRegistry()),
+                dropper, bindingCascade, new RequestCoalescer(new MetricRegistry(), 30000, 100));
+    }
+
+    /**
+     * Journal entry of an interrupted creation that completed some steps
+     *
+     * @param async
+     * @param steps
+     * @return
+     */
+    private static JournalEntry interruptedCreate(final boolean async, final JournalEntry.Step... steps) {
+        final JournalEntry entry = JournalEntry.createInstance(new ServiceInstance(createRequest(async)), async)
+                .withClusterId(CLUSTER_ID)
+                .started();
+        for (final JournalEntry.Step step : steps) {
+            entry.completed(step, new Date(0));
+        }
+        return entry;
+    }
+
+    private static CreateServiceInstanceRequest createRequest(final boolean async) {
+        return new CreateServiceInstanceRequest("service-definition-id", "plan-id", "org-guid", "space-guid")
+                .withServiceInstanceId(INSTANCE_ID)
+                .withAsyncAccepted(async);
+    }
+
+    @Test
+    public void synchronousCreateDoesNotTrackOperation() {
+        final TaskExecutor executor = mock(TaskExecutor.class);
+        final CreateServiceInstanceResponse response = service(executor).createServiceInstance(createRequest(false));
+
+        assertFalse(response.isAsync());
+        verify(atlasAdminService).createDatabase(CLUSTER_ID, INSTANCE_ID);
+        verify(executor, never()).execute(any(Runnable.class));
+        verify(operationRepository, never()).save(any(ServiceInstanceOperation.class));
+
+        final ArgumentCaptor<ServiceInstance> instance = ArgumentCaptor.forClass(ServiceInstance.class);
+        verify(repository).save(instance.capture());
+        assertEquals(CLUSTER_ID, instance.getValue().getClusterId());
+    }
+
+    @Test
+    public void pooledCreateOnlyAssignsDatabase() {
+        final WarmPoolEntry entry = new WarmPoolEntry("pool-db", "pool-user", CLUSTER_ID);
+        when(warmPoolService.claimDatabase(INSTANCE_ID, CLUSTER_ID)).thenReturn(entry);
+        final TaskExecutor executor = mock(TaskExecutor.class);
+
+        final CreateServiceInstanceResponse response = service(executor).createServiceInstance(createRequest(true));
+
+        assertFalse(response.isAsync());
+        final ArgumentCaptor<ServiceInstance> instance = ArgumentCaptor.forClass(ServiceInstance.class);
+        verify(repository).save(instance.capture());
+        assertEquals("pool-db", instance.getValue().getDatabaseName());
+        verify(atlasAdminService, never()).createDatabase(any(String.class), any(String.class));
+        verify(executor, never()).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void asynchronousCreateReturnsBeforeProvisioning() {
+        final TaskExecutor executor = mock(TaskExecutor.class);
+        final CreateServiceInstanceResponse response = service(executor).createServiceInstance(createRequest(true));
+
+        assertTrue(response.isAsync());
+        verify(executor).execute(any(Runnable.class));
+        verify(atlasAdminService, never()).createDatabase(CLUSTER_ID, INSTANCE_ID);
+
+        final ArgumentCaptor<ServiceInstanceOperation> operation = ArgumentCaptor.forClass(ServiceInstanceOperation.class);
+        verify(operationRepository).save(operation.capture());
+        assertEquals(OperationState.IN_PROGRESS, operation.getValue().getState());
+    }
+
+    @Test
+    public void asynchronousCreateRecordsFailure() {
+        when(atlasAdminService.createDatabase(CLUSTER_ID, INSTANCE_ID)).thenThrow(new IllegalStateException("atlas unavailable"));
+
+        service(new SyncTaskExecutor()).createServiceInstance(createRequest(true));
+
+        final ArgumentCaptor<ServiceInstanceOperation> operation = ArgumentCaptor.forClass(ServiceInstanceOperation.class);
+        verify(operationRepository, times(2)).save(operation.capture());
+        assertEquals(OperationState.FAILED, operation.getValue().getState());
+        assertEquals("atlas unavailable", operation.getValue().getDescription());
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void rejectedCreateRollsBackInstance() {
+        final TaskExecutor executor = mock(TaskExecutor.class);
+        doThrow(new TaskRejectedException("full")).when(executor).execute(any(Runnable.class));
+
+        try {
+            service(executor).createServiceInstance(createRequest(true));
+        } finally {
+            verify(repository).delete(INSTANCE_ID);
+            verify(operationRepository).delete(INSTANCE_ID);
+        }
+    }
+
+    @Test
+    public void lastOperationReportsSucceededDelete() {
+        when(repository.findById(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+
+        final AtlasServiceInstanceService service = service(new SyncTaskExecutor());
+        service.deleteServiceInstance(new DeleteServiceInstanceRequest(INSTANCE_ID, "service-definition-id", "plan-id", null, true));
+
+        final ArgumentCaptor<ServiceInstanceOperation> operation = ArgumentCaptor.forClass(ServiceInstanceOperation.class);
+        verify(operationRepository, times(2)).save(operation.capture());
+
+        final GetLastServiceOperationResponse response = service.getLastOperation(new GetLastServiceOperationRequest(INSTANCE_ID));
+        assertEquals(OperationState.SUCCEEDED, response.getState());
+        assertTrue(response.isDeleteOperation());
+        // read once to check no operation is in progress, the poll is answered from the state held in memory
+        verify(operationRepository, times(1)).findOne(INSTANCE_ID);
+        verify(repository).delete(INSTANCE_ID);
+    }
+
+    @Test
+    public void succeededDeleteIsForgottenOnceReported() {
+        when(repository.findById(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+        final AtlasServiceInstanceService service = service(new SyncTaskExecutor());
+        service.deleteServiceInstance(new DeleteServiceInstanceRequest(INSTANCE_ID, "service-definition-id", "plan-id", null, true));
+
+        assertEquals(OperationState.SUCCEEDED,
+                service.getLastOperation(new GetLastServiceOperationRequest(INSTANCE_ID)).getState());
+
+        verify(operationRepository).delete(INSTANCE_ID);
+        when(repository.findById(INSTANCE_ID)).thenReturn(null);
+        try {
+            service.getLastOperation(new GetLastServiceOperationRequest(INSTANCE_ID));
+            fail("deleted instance has an operation");
+        } catch (ServiceInstanceDoesNotExistException e) {
+            // reported as gone
+        }
+    }
+
+    @Test
+    public void deleteIsRejectedWhileCreateInProgress() {
+        when(repository.findById(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+        when(operationRepository.findOne(INSTANCE_ID))
+                .thenReturn(new ServiceInstanceOperation(INSTANCE_ID, ServiceInstanceOperation.Type.CREATE));
+
+        try {
+            service(new SyncTaskExecutor()).deleteServiceInstance(
+                    new DeleteServiceInstanceRequest(INSTANCE_ID, "service-definition-id", "plan-id", null, true));
+            fail("deleted instance being created");
+        } catch (ServiceInstanceConcurrencyException e) {
+            verify(bindingCascade, never()).deleteBindings(any(String.class), any(String.class));
+            verify(dropper, never()).enqueue(any(String.class), any(String.class), any(String.class));
+            verify(repository, never()).delete(INSTANCE_ID);
+        }
+    }
+
+    @Test
+    public void deleteOfFailedCreateProceeds() {
+        when(repository.findById(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+        when(operationRepository.findOne(INSTANCE_ID)).thenReturn(
+                new ServiceInstanceOperation(INSTANCE_ID, ServiceInstanceOperation.Type.CREATE)
+                        .withState(OperationState.FAILED, "timeout"));
+
+        service(new SyncTaskExecutor()).deleteServiceInstance(
+                new DeleteServiceInstanceRequest(INSTANCE_ID, "service-definition-id", "plan-id", null, false));
+
+        verify(repository).delete(INSTANCE_ID);
+    }
+
+    @Test(expected = ServiceInstanceConcurrencyException.class)
+    public void updateIsRejectedWhileDeleteInProgress() {
+        when(repository.findById(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+        when(operationRepository.findOne(INSTANCE_ID))
+                .thenReturn(new ServiceInstanceOperation(INSTANCE_ID, ServiceInstanceOperation.Type.DELETE));
+
+        try {
+            service(new SyncTaskExecutor()).updateServiceInstance(
+                    new UpdateServiceInstanceRequest("service-definition-id", "other-plan-id").withServiceInstanceId(INSTANCE_ID));
+        } finally {
+            verify(repository, never()).save(any(ServiceInstance.class));
+        }
+    }
+
+    @Test
+    public void deleteQueuesDropOfDatabase() {
+        final ServiceInstance instance = ServiceInstanceFixture.getServiceInstance().withClusterId(CLUSTER_ID);
+        when(repository.findById(INSTANCE_ID)).thenReturn(instance);
+
+        service(new SyncTaskExecutor()).deleteServiceInstance(
+                new DeleteServiceInstanceRequest(INSTANCE_ID, "service-definition-id", "plan-id", null, false));
+
+        verify(dropper).enqueue(CLUSTER_ID, instance.getDatabaseName(), INSTANCE_ID);
+        verify(atlasAdminService, never()).deleteDatabase(any(String.class), any(String.class));
+        verify(repository).delete(INSTANCE_ID);
+    }
+
+    @Test
+    public void deleteRemovesBindingsBeforeDatabase() {
+        final ServiceInstance instance = ServiceInstanceFixture.getServiceInstance().withClusterId(CLUSTER_ID);
+        when(repository.findById(INSTANCE_ID)).thenReturn(instance);
+
+        service(new SyncTaskExecutor()).deleteServiceInstance(
+                new DeleteServiceInstanceRequest(INSTANCE_ID, "service-definition-id", "plan-id", null, false));
+
+        final InOrder order = inOrder(bindingCascade, dropper, repository);
+        order.verify(bindingCascade).deleteBindings(INSTANCE_ID, CLUSTER_ID);
+        order.verify(dropper).enqueue(CLUSTER_ID, instance.getDatabaseName(), INSTANCE_ID);
+        order.verify(repository).delete(INSTANCE_ID);
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void failedCascadeKeepsInstance() {
+        when(repository.findById(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+        doThrow(new ServiceBrokerException("Failed to delete 1 of 2 bindings"))
+                .when(bindingCascade).deleteBindings(eq(INSTANCE_ID), any(String.class));
+
+        try {
+            service(new SyncTaskExecutor()).deleteServiceInstance(
+                    new DeleteServiceInstanceRequest(INSTANCE_ID, "service-definition-id", "plan-id", null, false));
+        } finally {
+            verify(dropper, never()).enqueue(any(String.class), any(String.class), any(String.class));
+            verify(repository, never()).delete(INSTANCE_ID);
+        }
+    }
+
+    @Test
+    public void retriedCreateGetsOutcomeOfFirst() {
+        final AtlasServiceInstanceService service = service(new SyncTaskExecutor());
+        service.createServiceInstance(createRequest(false));
+        final CreateServiceInstanceResponse retried = service.createServiceInstance(createRequest(false));
+
+        assertFalse(retried.isAsync());
+        verify(atlasAdminService).createDatabase(CLUSTER_ID, INSTANCE_ID);
+        verify(repository).save(any(ServiceInstance.class));
+    }
+
+    @Test
+    public void createCancelsQueuedDropOfSameDatabase() {
+        service(new SyncTaskExecutor()).createServiceInstance(createRequest(false));
+
+        verify(dropper).cancel(CLUSTER_ID, INSTANCE_ID);
+    }
+
+    @Test
+    public void nonBlockingCreateRecordsOutcomeOnCompletion() {
+        final NonBlockingAtlasAdminService nonBlockingAdminService = mock(NonBlockingAtlasAdminService.class);
+        final SettableFuture<Void> created = SettableFuture.create();
+        when(nonBlockingAdminService.createDatabase(CLUSTER_ID, INSTANCE_ID)).thenReturn(created);
+        final TaskExecutor executor = mock(TaskExecutor.class);
+        final AtlasServiceInstanceService service = service(executor);
+        service.setNonBlockingAdminService(nonBlockingAdminService, 10);
+
+        assertTrue(service.createServiceInstance(createRequest(true)).isAsync());
+        verify(executor, never()).execute(any(Runnable.class));
+        verify(atlasAdminService, never()).createDatabase(CLUSTER_ID, INSTANCE_ID);
+
+        // outcome bookkeeping runs in place once the executor queue is full
+        doThrow(new TaskRejectedException("full")).when(executor).execute(any(Runnable.class));
+        created.set(null);
+
+        final ArgumentCaptor<ServiceInstanceOperation> operation = ArgumentCaptor.forClass(ServiceInstanceOperation.class);
+        verify(operationRepository, times(2)).save(operation.capture());
+        assertEquals(OperationState.SUCCEEDED, operation.getValue().getState());
+    }
+
+    @Test
+    public void nonBlockingCreateIsBoundedByInFlightOperations() {
+        final NonBlockingAtlasAdminService nonBlockingAdminService = mock(NonBlockingAtlasAdminService.class);
+        when(nonBlockingAdminService.createDatabase(any(String.class), any(String.class))).thenReturn(SettableFuture.<Void>create());
+        final AtlasServiceInstanceService service = service(new SyncTaskExecutor());
+        service.setNonBlockingAdminService(nonBlockingAdminService, 1);
+
+        service.createServiceInstance(createRequest(true));
+        try {
+            service.createServiceInstance(createRequest(true).withServiceInstanceId("other-instance-id"));
+        } catch (ServiceBrokerException e) {
+            verify(repository).delete("other-instance-id");
+            return;
+        }
+        fail("second operation accepted");
+    }
+
+    @Test
+    public void retriedCreateSkipsCompletedSteps() {
+        final JournalEntry entry = interruptedCreate(false, JournalEntry.Step.PLACE, JournalEntry.Step.CLAIM_POOL,
+                JournalEntry.Step.CHECK_DATABASE, JournalEntry.Step.CREATE_DATABASE);
+        ReflectionTestUtils.setField(entry, "state", JournalEntry.State.FAILED);
+        doThrow(new DuplicateKeyException("exists")).when(mongoOperations).insert(isA(JournalEntry.class));
+        when(mongoOperations.findById(entry.getId(), JournalEntry.class)).thenReturn(entry);
+        when(mongoOperations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(JournalEntry.class))).thenReturn(entry);
+
+        service(new SyncTaskExecutor()).createServiceInstance(createRequest(false));
+
+        // the database created before the failure is neither checked nor dropped again
+        verify(atlasAdminService, never()).databaseExists(any(String.class), any(String.class));
+        verify(atlasAdminService, never()).deleteDatabase(any(String.class), any(String.class));
+        verify(atlasAdminService, never()).createDatabase(any(String.class), any(String.class));
+        verify(warmPoolService, never()).claimDatabase(any(String.class), any(String.class));
+        final ArgumentCaptor<ServiceInstance> instance = ArgumentCaptor.forClass(ServiceInstance.class);
+        verify(repository).save(instance.capture());
+        assertEquals(CLUSTER_ID, instance.getValue().getClusterId());
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void createInProgressIsNotStartedTwice() {
+        final JournalEntry entry = interruptedCreate(false, JournalEntry.Step.PLACE);
+        entry.written(new Date());
+        doThrow(new DuplicateKeyException("exists")).when(mongoOperations).insert(isA(JournalEntry.class));
+        when(mongoOperations.findById(entry.getId(), JournalEntry.class)).thenReturn(entry);
+        ReflectionTestUtils.setField(journal, "staleAfter", 60000L);
+
+        try {
+            service(new SyncTaskExecutor()).createServiceInstance(createRequest(false));
+        } finally {
+            verify(atlasAdminService, never()).createDatabase(any(String.class), any(String.class));
+        }
+    }
+
+    @Test
+    public void recoveryResumesInterruptedAsynchronousCreate() {
+        final JournalEntry entry = interruptedCreate(true, JournalEntry.Step.PLACE, JournalEntry.Step.CLAIM_POOL,
+                JournalEntry.Step.SAVE_INSTANCE, JournalEntry.Step.CHECK_DATABASE);
+        when(mongoOperations.find(any(Query.class), eq(JournalEntry.class))).thenReturn(Collections.singletonList(entry));
+        when(mongoOperations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(JournalEntry.class))).thenReturn(entry);
+
+        service(new SyncTaskExecutor());
+        journal.recover();
+
+        verify(atlasAdminService, never()).databaseExists(any(String.class), any(String.class));
+        verify(atlasAdminService).createDatabase(CLUSTER_ID, INSTANCE_ID);
+        verify(repository, never()).save(any(ServiceInstance.class));
+        final ArgumentCaptor<ServiceInstanceOperation> operation = ArgumentCaptor.forClass(ServiceInstanceOperation.class);
+        verify(operationRepository, times(2)).save(operation.capture());
+        assertEquals(OperationState.SUCCEEDED, operation.getValue().getState());
+    }
+
+    @Test(expected = ServiceInstanceExistsException.class)
+    public void createSeesInstanceOfOtherReplica() {
+        when(repository.findById(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+
+        try {
+            service(new SyncTaskExecutor()).createServiceInstance(createRequest(false));
+        } finally {
+            verify(atlasAdminService, never()).databaseExists(any(String.class), any(String.class));
+            // the lease is released once the request is done
+            verify(mongoOperations).remove(any(Query.class), eq(Lease.class));
+        }
+    }
+
+    @Test
+    public void createIgnoresCachedInstanceDeletedByOtherReplica() {
+        when(repository.findOne(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+
+        service(new SyncTaskExecutor()).createServiceInstance(createRequest(false));
+
+        verify(atlasAdminService).createDatabase(CLUSTER_ID, INSTANCE_ID);
+        verify(repository).save(any(ServiceInstance.class));
+    }
+
+    @Test
+    public void lastOperationFindsInstanceCreatedByOtherReplica() {
+        // the cached miss predates the synchronous creation
+        when(repository.findById(INSTANCE_ID)).thenReturn(ServiceInstanceFixture.getServiceInstance());
+
+        final GetLastServiceOperationResponse response = service(new SyncTaskExecutor())
+                .getLastOperation(new GetLastServiceOperationRequest(INSTANCE_ID));
+
+        assertEquals(OperationState.SUCCEEDED, response.getState());
+    }
+
+    @Test
+    public void concurrentCreateIsReportedAsExisting() {
+        when(repository.save(any(ServiceInstance.class))).thenThrow(new DuplicateKeyException("exists"));
+
+        try {
+            service(new SyncTaskExecutor()).createServiceInstance(createRequest(false));
+            fail("instance created twice");
+        } catch (ServiceInstanceExistsException e) {
+            verify(repository, never()).delete(INSTANCE_ID);
+        }
+    }
+
+    @Test
+    public void updateKeepsInstanceAttributes() {
+        final ServiceInstance instance = ServiceInstanceFixture.getServiceInstance().withClusterId(CLUSTER_ID);
+        when(repository.findById(INSTANCE_ID)).thenReturn(instance);
+
+        service(new SyncTaskExecutor()).updateServiceInstance(
+                new UpdateServiceInstanceRequest("service-definition-id", "other-plan-id").withServiceInstanceId(INSTANCE_ID));
+
+        verify(repository, never()).delete(INSTANCE_ID);
+        final ArgumentCaptor<ServiceInstance> saved = ArgumentCaptor.forClass(ServiceInstance.class);
+        verify(repository).save(saved.capture());
+        assertEquals("other-plan-id", saved.getValue().getPlanId());
+        assertEquals(CLUSTER_ID, saved.getValue().getClusterId());
+        assertEquals(instance.getOrganizationGuid(), saved.getValue().getOrganizationGuid());
+    }
+
+    @Test(expected = ServiceInstanceUpdateNotSupportedException.class)
+    public void updateRejectsPlanNotServedByClusterOfInstance() {
+        when(repository.findById(INSTANCE_ID))
+                .thenReturn(ServiceInstanceFixture.getServiceInstance().withClusterId(CLUSTER_ID));
+        when(catalogService.getPlan("dedicated-plan-id")).thenReturn(
+                new PlanDefinition("dedicated-plan-id", "dedicated", "").withPlacement(PlanDefinition.DEDICATED));
+
+        try {
+            service(new SyncTaskExecutor()).updateServiceInstance(
+                    new UpdateServiceInstanceRequest("service-definition-id", "dedicated-plan-id").withServiceInstanceId(INSTANCE_ID));
+        } finally {
+            // the database stays on its shared cluster under its former plan
+            verify(repository, never()).save(any(ServiceInstance.class));
+        }
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void createWaitsForLeaseOfOtherReplica() {
+        doThrow(new DuplicateKeyException("held")).when(mongoOperations).insert(isA(Lease.class));
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(Lease.class)))
+                .thenReturn(new WriteResult(0, true, null));
+        final AtlasServiceInstanceService service = service(new SyncTaskExecutor());
+        final LeaseService leaseService = new LeaseService(mongoOperations, new MetricRegistry());
+        ReflectionTestUtils.setField(leaseService, "wait", 50L);
+        ReflectionTestUtils.setField(service, "leaseService", leaseService);
+
+        try {
+            service.createServiceInstance(createRequest(false));
+        } finally {
+            verify(atlasAdminService, never()).databaseExists(any(String.class), any(String.class));
+        }
+    }
+}
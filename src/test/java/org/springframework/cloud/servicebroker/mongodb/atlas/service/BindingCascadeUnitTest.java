@@ -0,0 +1,140 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceBinding;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceBindingRepository;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BindingCascadeUnitTest {
+
+    private static final String INSTANCE_ID = "instance-id";
+
+    private static final String API_BASE = "https://cloud.mongodb.com/api/atlas/v1.0";
+
+    private final ClusterRegistry clusterRegistry = new ClusterRegistry(
+            new AtlasCluster("cluster-id", "mongodb://host0:27017", "group-id", null));
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @Mock
+    private AtlasAdminService atlasAdminService;
+
+    @Mock
+    private BrokerConfig brokerConfig;
+
+    @Mock
+    private AtlasServiceInstanceBindingRepository bindingRepository;
+
+    private BindingCascade cascade;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(brokerConfig.getApiBase()).thenReturn(API_BASE);
+        cascade = new BindingCascade(atlasAdminService, brokerConfig, bindingRepository, clusterRegistry,
+                new TaskExecutorAdapter(executor), new RequestCoalescer(new MetricRegistry(), 30000, 100),
+                new MetricRegistry());
+        ReflectionTestUtils.setField(cascade, "parallelism", 2);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void bindings(final String... ids) {
+        final List<ServiceInstanceBinding> bindings = new ArrayList<>();
+        for (final String id : ids) {
+            bindings.add(new ServiceInstanceBinding(id, INSTANCE_ID, null, null, null));
+        }
+        when(bindingRepository.findByServiceInstanceId(INSTANCE_ID)).thenReturn(bindings);
+    }
+
+    @Test
+    public void deletesUserAndRecordOfEveryBinding() {
+        bindings("binding-1", "binding-2", "binding-3");
+
+        cascade.deleteBindings(INSTANCE_ID, "cluster-id");
+
+        for (final String id : Arrays.asList("binding-1", "binding-2", "binding-3")) {
+            verify(atlasAdminService).deleteUser(API_BASE, "group-id", id);
+            verify(bindingRepository).delete(id);
+        }
+    }
+
+    @Test
+    public void failedBindingFailsCascadeAndIsKept() {
+        bindings("binding-1", "binding-2");
+        doThrow(new RuntimeException("Atlas unavailable"))
+                .when(atlasAdminService).deleteUser(API_BASE, "group-id", "binding-2");
+
+        try {
+            cascade.deleteBindings(INSTANCE_ID, "cluster-id");
+            throw new AssertionError("cascade should fail");
+        } catch (ServiceBrokerException e) {
+            assertTrue(e.getMessage().contains("1 of 2"));
+        }
+        verify(bindingRepository).delete("binding-1");
+        verify(bindingRepository, never()).delete("binding-2");
+    }
+
+    @Test
+    public void nonBlockingCascadeIsBoundedByParallelism() {
+        bindings("binding-1", "binding-2", "binding-3", "binding-4", "binding-5");
+        final NonBlockingAtlasAdminService adminService = mock(NonBlockingAtlasAdminService.class);
+        final List<SettableFuture<Void>> inFlight = new ArrayList<>();
+        when(adminService.deleteUser(eq(API_BASE), eq("group-id"), anyString())).thenAnswer(new Answer<ListenableFuture<Void>>() {
+            @Override
+            public ListenableFuture<Void> answer(InvocationOnMock invocation) {
+                final SettableFuture<Void> deleted = SettableFuture.create();
+                inFlight.add(deleted);
+                return deleted;
+            }
+        });
+
+        final ListenableFuture<Void> cascaded = cascade.deleteBindings(INSTANCE_ID, "cluster-id", adminService,
+                MoreExecutors.directExecutor());
+
+        assertEquals(2, inFlight.size());
+        for (int i = 0; i < inFlight.size(); i++) {
+            assertFalse(cascaded.isDone());
+            inFlight.get(i).set(null);
+        }
+        assertEquals(5, inFlight.size());
+        assertTrue(cascaded.isDone());
+        verify(bindingRepository, times(5)).delete(anyString());
+    }
+}
@@ -0,0 +1,202 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.fixture.ServiceInstanceFixture;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseDrop;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstance;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DatabaseDropperUnitTest {
+
+    private static final String CLUSTER_ID = "cluster-id";
+
+    private static final String DATABASE = "database-name";
+
+    private final ClusterRegistry clusterRegistry = new ClusterRegistry(
+            new AtlasCluster(CLUSTER_ID, "mongodb://host0:27017", "group-id", null));
+
+    @Mock
+    private AtlasAdminService atlasAdminService;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(mongoOperations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(DatabaseDrop.class)))
+                .thenReturn(new DatabaseDrop(CLUSTER_ID, DATABASE, "instance-id"), (DatabaseDrop) null);
+        when(mongoOperations.find(any(Query.class), eq(ServiceInstance.class)))
+                .thenReturn(Collections.<ServiceInstance>emptyList());
+    }
+
+    private DatabaseDropper dropper(final String window) {
+        return dropper(window, 60000);
+    }
+
+    private DatabaseDropper dropper(final String window, final double dropsPerMinute) {
+        final LeaseService leaseService = new LeaseService(mongoOperations, new MetricRegistry());
+        ReflectionTestUtils.setField(leaseService, "duration", 120000L);
+        return new DatabaseDropper(atlasAdminService, mongoOperations, clusterRegistry,
+                leaseService, new MetricRegistry(), dropsPerMinute, window, "UTC");
+    }
+
+    private static Date at(final int hour, final int minute) {
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(2017, Calendar.JUNE, 1, hour, minute);
+        return calendar.getTime();
+    }
+
+    @Test
+    public void offPeakWindowMaySpanMidnight() {
+        final DatabaseDropper dropper = dropper("22:00-04:30");
+
+        assertTrue(dropper.isOffPeak(at(22, 0)));
+        assertTrue(dropper.isOffPeak(at(2, 15)));
+        assertFalse(dropper.isOffPeak(at(4, 30)));
+        assertFalse(dropper.isOffPeak(at(12, 0)));
+    }
+
+    @Test
+    public void drainDropsQueuedDatabase() {
+        dropper("").drain();
+
+        verify(atlasAdminService).deleteDatabase(CLUSTER_ID, DATABASE);
+        verify(mongoOperations).remove(any(Query.class), eq(DatabaseDrop.class));
+    }
+
+    @Test
+    public void drainReachesRatesAboveOneDropPerRun() {
+        when(mongoOperations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(DatabaseDrop.class)))
+                .thenReturn(new DatabaseDrop(CLUSTER_ID, "database-0", "instance-0"),
+                        new DatabaseDrop(CLUSTER_ID, "database-1", "instance-1"),
+                        new DatabaseDrop(CLUSTER_ID, "database-2", "instance-2"),
+                        new DatabaseDrop(CLUSTER_ID, "database-3", "instance-3"),
+                        new DatabaseDrop(CLUSTER_ID, "database-4", "instance-4"),
+                        null);
+
+        // 600 per minute is a drop every 100 ms, five of them within a run every second
+        final DatabaseDropper dropper = dropper("", 600);
+        ReflectionTestUtils.setField(dropper, "interval", 1000L);
+        dropper.drain();
+
+        verify(atlasAdminService, times(5)).deleteDatabase(eq(CLUSTER_ID), anyString());
+    }
+
+    @Test
+    public void drainStopsAtRateLimit() {
+        when(mongoOperations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(DatabaseDrop.class)))
+                .thenReturn(new DatabaseDrop(CLUSTER_ID, "database-0", "instance-0"),
+                        new DatabaseDrop(CLUSTER_ID, "database-1", "instance-1"));
+
+        // 6 per minute is a drop every 10 s, one of them within a run every second
+        final DatabaseDropper dropper = dropper("", 6);
+        ReflectionTestUtils.setField(dropper, "interval", 1000L);
+        dropper.drain();
+
+        verify(atlasAdminService, times(1)).deleteDatabase(eq(CLUSTER_ID), anyString());
+    }
+
+    @Test
+    public void drainSkipsDatabaseReusedMeanwhile() {
+        when(mongoOperations.find(any(Query.class), eq(ServiceInstance.class))).thenReturn(Collections.singletonList(
+                ServiceInstanceFixture.getServiceInstance().withClusterId(CLUSTER_ID).withDatabaseName(DATABASE)));
+
+        dropper("").drain();
+
+        verify(atlasAdminService, never()).deleteDatabase(anyString(), anyString());
+        verify(mongoOperations).remove(any(Query.class), eq(DatabaseDrop.class));
+    }
+
+    @Test
+    public void drainSkipsDatabaseOfPool() {
+        when(mongoOperations.exists(any(Query.class), eq(WarmPoolEntry.class))).thenReturn(true);
+
+        dropper("").drain();
+
+        verify(atlasAdminService, never()).deleteDatabase(anyString(), anyString());
+    }
+
+    @Test
+    public void failedDropIsQueuedAgain() {
+        doThrow(new RuntimeException("timeout")).when(atlasAdminService).deleteDatabase(CLUSTER_ID, DATABASE);
+
+        final DatabaseDropper dropper = dropper("");
+        ReflectionTestUtils.setField(dropper, "retryBackoff", 60000L);
+        dropper.drain();
+
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoOperations).updateFirst(any(Query.class), update.capture(), eq(DatabaseDrop.class));
+        final DBObject set = (DBObject) update.getValue().getUpdateObject().get("$set");
+        assertEquals(DatabaseDrop.State.PENDING, set.get("state"));
+        assertTrue(((Date) set.get("notBefore")).after(new Date()));
+        verify(mongoOperations, never()).remove(any(Query.class), eq(DatabaseDrop.class));
+    }
+
+    @Test
+    public void dropOfBusyInstanceIsRequeuedWithoutBackoff() {
+        // another replica holds the lease of the instance
+        doThrow(new DuplicateKeyException("E11000")).when(mongoOperations).insert(argThat(new ArgumentMatcher<Lease>() {
+            @Override
+            public boolean matches(final Object lease) {
+                return Lease.instanceKey("instance-id").equals(((Lease) lease).getKey());
+            }
+        }));
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(Lease.class)))
+                .thenReturn(new WriteResult(0, false, null));
+
+        final DatabaseDropper dropper = dropper("");
+        ReflectionTestUtils.setField(dropper, "retryBackoff", 3600000L);
+        dropper.drain();
+
+        verify(atlasAdminService, never()).deleteDatabase(anyString(), anyString());
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoOperations).updateFirst(any(Query.class), update.capture(), eq(DatabaseDrop.class));
+        final DBObject set = (DBObject) update.getValue().getUpdateObject().get("$set");
+        assertEquals(DatabaseDrop.State.PENDING, set.get("state"));
+        assertFalse(set.containsField("failure"));
+        // due by the next run rather than after the failure backoff
+        assertTrue(((Date) set.get("notBefore")).getTime() <= System.currentTimeMillis() + 10000);
+        // the claim is not counted as an attempt
+        assertEquals(-1, ((DBObject) update.getValue().getUpdateObject().get("$inc")).get("attempts"));
+    }
+}
@@ -0,0 +1,148 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LeaseServiceUnitTest {
+
+    private static final String KEY = Lease.jobKey("reconcile");
+
+    private static final long DURATION = 120000;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    private LeaseService leaseService;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        leaseService = new LeaseService(mongoOperations, new MetricRegistry());
+        ReflectionTestUtils.setField(leaseService, "duration", DURATION);
+        ReflectionTestUtils.setField(leaseService, "wait", 50L);
+    }
+
+    /**
+     * Have the insert of the lease collide with a lease held elsewhere
+     *
+     * @param expired whether the lease held elsewhere expired
+     */
+    private void held(final boolean expired) {
+        doThrow(new DuplicateKeyException("E11000")).when(mongoOperations).insert(any(Lease.class));
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(Lease.class)))
+                .thenReturn(new WriteResult(expired ? 1 : 0, expired, null));
+    }
+
+    @Test
+    public void freeLeaseIsAcquiredByInsert() {
+        final long before = System.currentTimeMillis();
+
+        final Lease lease = leaseService.tryAcquire(KEY);
+
+        verify(mongoOperations).insert(lease);
+        verify(mongoOperations, never()).updateFirst(any(Query.class), any(Update.class), eq(Lease.class));
+        assertEquals(KEY, lease.getKey());
+        assertTrue(lease.getExpiresAt().getTime() >= before + DURATION);
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() {
+        held(true);
+
+        final Lease lease = leaseService.tryAcquire(KEY);
+
+        assertNotNull(lease);
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoOperations).updateFirst(query.capture(), update.capture(), eq(Lease.class));
+        // only a lease which expired is taken over
+        assertEquals(KEY, query.getValue().getQueryObject().get("_id"));
+        assertTrue(((DBObject) query.getValue().getQueryObject().get("expiresAt")).containsField("$lt"));
+        assertEquals(lease.getOwner(), ((DBObject) update.getValue().getUpdateObject().get("$set")).get("owner"));
+    }
+
+    @Test
+    public void leaseHeldElsewhereIsNotAcquired() {
+        held(false);
+
+        assertNull(leaseService.tryAcquire(KEY));
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void acquireGivesUpAfterWaitPeriod() {
+        held(false);
+
+        leaseService.acquire(KEY);
+    }
+
+    @Test
+    public void releaseOnlyRemovesLeaseOfOwner() {
+        final Lease lease = leaseService.tryAcquire(KEY);
+
+        leaseService.release(lease);
+
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).remove(query.capture(), eq(Lease.class));
+        assertEquals(KEY, query.getValue().getQueryObject().get("_id"));
+        assertEquals(lease.getOwner(), query.getValue().getQueryObject().get("owner"));
+    }
+
+    @Test
+    public void renewSkipsWriteWhileLeaseIsFresh() {
+        final Lease lease = leaseService.tryAcquire(KEY);
+
+        assertTrue(leaseService.renew(lease));
+        verify(mongoOperations, never()).updateFirst(any(Query.class), any(Update.class), eq(Lease.class));
+    }
+
+    @Test
+    public void renewExtendsLeaseOfOwner() {
+        final Lease lease = new Lease(KEY, "owner", new Date(System.currentTimeMillis() + DURATION / 3));
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(Lease.class)))
+                .thenReturn(new WriteResult(1, true, null));
+        final Date expiresAt = lease.getExpiresAt();
+
+        assertTrue(leaseService.renew(lease));
+
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).updateFirst(query.capture(), any(Update.class), eq(Lease.class));
+        assertEquals("owner", query.getValue().getQueryObject().get("owner"));
+        assertTrue(lease.getExpiresAt().after(expiresAt));
+    }
+
+    @Test
+    public void renewFailsOnceLeaseWasTakenOver() {
+        final Lease lease = new Lease(KEY, "owner", new Date(System.currentTimeMillis() - 1000));
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(Lease.class)))
+                .thenReturn(new WriteResult(0, false, null));
+
+        assertFalse(leaseService.renew(lease));
+    }
+}
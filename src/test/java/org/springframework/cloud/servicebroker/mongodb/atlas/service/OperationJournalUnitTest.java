@@ -0,0 +1,232 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.JournalEntry;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OperationJournalUnitTest {
+
+    private static final String BINDING_KEY = JournalEntry.key(JournalEntry.Type.CREATE_BINDING, "binding-id");
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    private OperationJournal journal;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(1, true, null));
+        when(mongoOperations.remove(any(Query.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(1, false, null));
+        journal = new OperationJournal(mongoOperations, new MetricRegistry());
+        ReflectionTestUtils.setField(journal, "staleAfter", 60000L);
+    }
+
+    private static JournalEntry binding() {
+        return JournalEntry.createBinding("service-instance-id", "binding-id", "app-guid");
+    }
+
+    /**
+     * Entry an earlier attempt left in the journal
+     *
+     * @param state
+     * @param lastUpdated
+     * @return
+     */
+    private JournalEntry left(final JournalEntry.State state, final Date lastUpdated) {
+        final JournalEntry entry = binding().started().completed(JournalEntry.Step.CREATE_USER, lastUpdated);
+        ReflectionTestUtils.setField(entry, "state", state);
+        doThrow(new DuplicateKeyException("E11000")).when(mongoOperations).insert(any(JournalEntry.class));
+        when(mongoOperations.findById(BINDING_KEY, JournalEntry.class)).thenReturn(entry);
+        return entry;
+    }
+
+    /**
+     * Have the claim of the entry left return it as the next attempt
+     *
+     * @return
+     */
+    private JournalEntry claimed() {
+        final JournalEntry claimed = binding().started().started().completed(JournalEntry.Step.CREATE_USER, new Date());
+        when(mongoOperations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(JournalEntry.class))).thenReturn(claimed);
+        return claimed;
+    }
+
+    @Test
+    public void beginStartsNewOperation() {
+        final JournalEntry proposed = binding();
+
+        assertSame(proposed, journal.begin(proposed));
+        assertEquals(1, proposed.getAttempts());
+        assertEquals(JournalEntry.State.IN_PROGRESS, proposed.getState());
+    }
+
+    @Test
+    public void beginTakesOverStaleAttempt() {
+        final JournalEntry stale = left(JournalEntry.State.IN_PROGRESS, new Date(System.currentTimeMillis() - 120000));
+        final JournalEntry claimed = claimed();
+
+        final JournalEntry resumed = journal.begin(binding());
+
+        assertSame(claimed, resumed);
+        assertTrue(resumed.isDone(JournalEntry.Step.CREATE_USER));
+
+        // the claim only succeeds on the version read
+        final ArgumentCaptor<Query> claim = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).findAndModify(claim.capture(), any(Update.class), any(FindAndModifyOptions.class),
+                eq(JournalEntry.class));
+        assertEquals(stale.getVersion(), claim.getValue().getQueryObject().get("version"));
+    }
+
+    @Test
+    public void beginResumesFailedAttempt() {
+        left(JournalEntry.State.FAILED, new Date());
+        final JournalEntry claimed = claimed();
+
+        assertSame(claimed, journal.begin(binding()));
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void beginRejectsAttemptInProgress() {
+        left(JournalEntry.State.IN_PROGRESS, new Date());
+
+        try {
+            journal.begin(binding());
+        } finally {
+            verify(mongoOperations, never()).findAndModify(any(Query.class), any(Update.class),
+                    any(FindAndModifyOptions.class), eq(JournalEntry.class));
+        }
+    }
+
+    @Test(expected = ServiceBrokerException.class)
+    public void beginRejectsClaimLostToAnotherAttempt() {
+        left(JournalEntry.State.FAILED, new Date());
+        when(mongoOperations.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(JournalEntry.class))).thenReturn(null);
+
+        journal.begin(binding());
+    }
+
+    @Test
+    public void stepIsSkippedOnceCompleted() {
+        final JournalEntry entry = journal.begin(binding());
+        final int[] runs = new int[1];
+        final Runnable action = new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        };
+
+        journal.step(entry, JournalEntry.Step.CREATE_USER, action);
+        journal.step(entry, JournalEntry.Step.CREATE_USER, action);
+
+        assertEquals(1, runs[0]);
+        assertEquals(1, entry.getVersion());
+    }
+
+    @Test
+    public void writesAreConditionalOnVersionRead() {
+        final JournalEntry entry = journal.begin(binding());
+        journal.completed(entry, JournalEntry.Step.CREATE_USER, new Update().set("username", "user"));
+
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        final ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoOperations).updateFirst(query.capture(), update.capture(), eq(JournalEntry.class));
+        assertEquals(0L, query.getValue().getQueryObject().get("version"));
+        assertEquals(1, ((DBObject) update.getValue().getUpdateObject().get("$inc")).get("version"));
+        assertEquals(1, entry.getVersion());
+    }
+
+    @Test
+    public void writeAfterTakeOverFails() {
+        final JournalEntry entry = journal.begin(binding());
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(0, false, null));
+
+        try {
+            journal.completed(entry, JournalEntry.Step.CREATE_USER, new Update());
+            fail("write of a lost operation succeeded");
+        } catch (OptimisticLockingFailureException e) {
+            assertFalse(entry.isDone(JournalEntry.Step.CREATE_USER));
+        }
+        assertFalse(journal.renew(entry));
+    }
+
+    @Test
+    public void finishOnlyRemovesEntryOfVersionRead() {
+        final JournalEntry entry = journal.begin(binding());
+        journal.completed(entry, JournalEntry.Step.CREATE_USER, new Update());
+
+        journal.finish(entry);
+
+        final ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoOperations).remove(query.capture(), eq(JournalEntry.class));
+        assertEquals(BINDING_KEY, query.getValue().getQueryObject().get("_id"));
+        assertEquals(1L, query.getValue().getQueryObject().get("version"));
+    }
+
+    @Test
+    public void recoveryRenewsQueuedOperations() {
+        final JournalEntry entry = journal.begin(binding());
+        journal.queued(entry);
+
+        journal.recover();
+        journal.recover();
+
+        // written by both runs, so that other replicas do not take it over
+        verify(mongoOperations, times(2)).updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class));
+        assertEquals(2, entry.getVersion());
+
+        // no longer once its work started
+        assertTrue(journal.renew(entry));
+        journal.recover();
+        verify(mongoOperations, times(3)).updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class));
+    }
+
+    @Test
+    public void queuedOperationTakenOverIsNoLongerRenewed() {
+        final JournalEntry entry = journal.begin(binding());
+        journal.queued(entry);
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class)))
+                .thenReturn(new WriteResult(0, false, null));
+
+        journal.recover();
+        journal.recover();
+
+        verify(mongoOperations, times(1)).updateFirst(any(Query.class), any(Update.class), eq(JournalEntry.class));
+        assertFalse(journal.renew(entry));
+    }
+}
@@ -0,0 +1,224 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.model.OperationState;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.ServiceInstanceConcurrencyException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.ServiceInstanceOperation;
+import org.springframework.cloud.servicebroker.mongodb.atlas.repository.AtlasServiceInstanceOperationRepository;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OperationTrackerUnitTest {
+
+    private static final String INSTANCE_ID = "instance-id";
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Mock
+    private AtlasServiceInstanceOperationRepository repository;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** the interval the platform polls the last operation at */
+    private static final long POLL_INTERVAL = 60000;
+
+    private static ServiceInstanceOperation creation() {
+        return new ServiceInstanceOperation(INSTANCE_ID, ServiceInstanceOperation.Type.CREATE);
+    }
+
+    /**
+     * A ticker advanced by the test
+     */
+    private static final class ManualTicker extends Ticker {
+
+        private long nanos;
+
+        private void advance(final long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    /**
+     * Poll an operation run by another replica once per poll interval of the platform
+     *
+     * @param refreshInterval
+     * @return the reads of the broker database
+     */
+    private long readsOfPlatformPolls(final long refreshInterval) {
+        final MetricRegistry registry = new MetricRegistry();
+        final ManualTicker ticker = new ManualTicker();
+        final OperationTracker tracker = new OperationTracker(repository, registry, refreshInterval, 600000, 0, 10, ticker);
+        when(repository.findOne(INSTANCE_ID)).thenReturn(creation());
+
+        for (int i = 0; i < 30; i++) {
+            tracker.poll(INSTANCE_ID);
+            ticker.advance(POLL_INTERVAL);
+        }
+        assertEquals(30, registry.counter("operations.polls").getCount());
+        return registry.counter("operations.reads").getCount();
+    }
+
+    @Test
+    public void pollsAreAnsweredFromMemory() {
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 60000, 600000, 0, 10);
+        tracker.save(creation());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(OperationState.IN_PROGRESS, tracker.poll(INSTANCE_ID).getState());
+        }
+        verify(repository, never()).findOne(INSTANCE_ID);
+        assertEquals(100, metricRegistry.counter("operations.polls").getCount());
+    }
+
+    @Test
+    public void stateIsReadAgainOnceOlderThanRefreshInterval() {
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 0, 600000, 0, 10);
+        // completed by another replica
+        when(repository.findOne(INSTANCE_ID)).thenReturn(creation(),
+                creation().withState(OperationState.SUCCEEDED, null));
+
+        assertEquals(OperationState.IN_PROGRESS, tracker.poll(INSTANCE_ID).getState());
+        assertEquals(OperationState.SUCCEEDED, tracker.poll(INSTANCE_ID).getState());
+        verify(repository, times(2)).findOne(INSTANCE_ID);
+    }
+
+    @Test
+    public void snapshotIsUnaffectedByLaterChanges() {
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 60000, 600000, 0, 10);
+        final ServiceInstanceOperation operation = creation();
+        tracker.save(operation);
+
+        operation.withState(OperationState.SUCCEEDED, null);
+
+        assertEquals(OperationState.IN_PROGRESS, tracker.get(INSTANCE_ID).getState());
+    }
+
+    @Test
+    public void deletedOperationIsForgotten() {
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 60000, 600000, 0, 10);
+        tracker.save(creation());
+
+        tracker.delete(INSTANCE_ID);
+
+        assertNull(tracker.poll(INSTANCE_ID));
+        verify(repository).delete(INSTANCE_ID);
+        verify(repository, never()).findOne(INSTANCE_ID);
+    }
+
+    @Test
+    public void longPollReturnsOnceOperationCompletes() throws Exception {
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 60000, 600000, 30000, 10);
+        final ServiceInstanceOperation operation = creation();
+        tracker.save(operation);
+
+        final Future<ServiceInstanceOperation> polled = executor.submit(new Callable<ServiceInstanceOperation>() {
+            @Override
+            public ServiceInstanceOperation call() {
+                return tracker.poll(INSTANCE_ID);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(polled.isDone());
+
+        tracker.save(operation.withState(OperationState.SUCCEEDED, null));
+
+        assertEquals(OperationState.SUCCEEDED, polled.get(5, TimeUnit.SECONDS).getState());
+    }
+
+    @Test
+    public void longPollTimesOutWithOperationInProgress() {
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 60000, 600000, 50, 10);
+        tracker.save(creation());
+
+        final long start = System.currentTimeMillis();
+        assertEquals(OperationState.IN_PROGRESS, tracker.poll(INSTANCE_ID).getState());
+        assertFalse(System.currentTimeMillis() - start < 50);
+    }
+
+    @Test
+    public void pollsBeyondMaxWaitersAreAnsweredRightAway() {
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 60000, 600000, 30000, 0);
+        tracker.save(creation());
+
+        assertEquals(OperationState.IN_PROGRESS, tracker.poll(INSTANCE_ID).getState());
+    }
+
+    @Test
+    public void refreshAbovePollIntervalReadsOnlyEveryOtherPoll() {
+        // a refresh below the poll interval reads on every poll
+        assertEquals(30, readsOfPlatformPolls(5000));
+
+        final long reads = readsOfPlatformPolls(90000);
+        assertEquals(15, reads);
+        assertTrue(reads < 30);
+    }
+
+    @Test
+    public void freshOperationInProgressIsRejectedWithoutRead() {
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 90000, 600000, 0, 10);
+        tracker.save(creation());
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                tracker.checkNotInProgress(INSTANCE_ID);
+            } catch (ServiceInstanceConcurrencyException e) {
+                continue;
+            }
+            throw new AssertionError("operation in progress was not rejected");
+        }
+        verify(repository, never()).findOne(INSTANCE_ID);
+        assertEquals(0, metricRegistry.counter("operations.reads").getCount());
+    }
+
+    @Test
+    public void operationStartedByOtherReplicaIsCheckedInDatabase() {
+        final ManualTicker ticker = new ManualTicker();
+        final OperationTracker tracker = new OperationTracker(repository, metricRegistry, 90000, 600000, 0, 10, ticker);
+        tracker.save(creation().withState(OperationState.SUCCEEDED, null));
+        when(repository.findOne(INSTANCE_ID))
+                .thenReturn(new ServiceInstanceOperation(INSTANCE_ID, ServiceInstanceOperation.Type.DELETE));
+
+        try {
+            tracker.checkNotInProgress(INSTANCE_ID);
+            throw new AssertionError("operation in progress was not rejected");
+        } catch (ServiceInstanceConcurrencyException e) {
+            // the state read also answers the polls which follow
+        }
+        assertEquals(OperationState.IN_PROGRESS, tracker.poll(INSTANCE_ID).getState());
+        verify(repository, times(1)).findOne(INSTANCE_ID);
+    }
+}
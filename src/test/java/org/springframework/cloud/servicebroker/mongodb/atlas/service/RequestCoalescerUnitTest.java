@@ -0,0 +1,109 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.exception.ServiceBrokerException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RequestCoalescerUnitTest {
+
+    private static final String KEY = "create-instance:instance-id";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+
+    private final RequestCoalescer coalescer = new RequestCoalescer(metricRegistry, 30000, 100);
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private Callable<Integer> counting() {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return calls.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void concurrentDuplicatesShareOneExecution() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<Integer> first = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return coalescer.execute(KEY, "plan", new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws InterruptedException {
+                            started.countDown();
+                            release.await();
+                            return calls.incrementAndGet();
+                        }
+                    });
+                }
+            });
+            started.await();
+
+            final Future<Integer> second = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return coalescer.execute(KEY, "plan", counting());
+                }
+            });
+            while (metricRegistry.counter("singleflight.coalesced").getCount() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(1), second.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void completedOutcomeIsReplayedUntilForgotten() {
+        assertEquals(Integer.valueOf(1), coalescer.execute(KEY, "plan", counting()));
+        assertEquals(Integer.valueOf(1), coalescer.execute(KEY, "plan", counting()));
+
+        coalescer.forget(KEY);
+        assertEquals(Integer.valueOf(2), coalescer.execute(KEY, "plan", counting()));
+    }
+
+    @Test
+    public void requestWithOtherAttributesRunsOnItsOwn() {
+        coalescer.execute(KEY, "plan", counting());
+
+        assertEquals(Integer.valueOf(2), coalescer.execute(KEY, "other-plan", counting()));
+    }
+
+    @Test
+    public void failuresAreNotRetained() {
+        try {
+            coalescer.execute(KEY, "plan", new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    throw new ServiceBrokerException("Atlas unavailable");
+                }
+            });
+            fail("failure should be thrown");
+        } catch (ServiceBrokerException e) {
+            assertEquals("Atlas unavailable", e.getMessage());
+        }
+
+        assertEquals(Integer.valueOf(1), coalescer.execute(KEY, "plan", counting()));
+    }
+}
@@ -0,0 +1,191 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.config.BrokerConfig;
+import org.springframework.cloud.servicebroker.mongodb.atlas.exception.AtlasServiceException;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.DatabaseUser;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.Lease;
+import org.springframework.cloud.servicebroker.mongodb.atlas.model.WarmPoolEntry;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WarmPoolServiceUnitTest {
+
+    private static final String CLUSTER_ID = "cluster-id";
+
+    private static final String API_BASE = "https://cloud.mongodb.com/api/atlas/v1.0";
+
+    private final ClusterRegistry clusterRegistry = new ClusterRegistry(
+            new AtlasCluster(CLUSTER_ID, "mongodb://host0:27017", "group-id", null));
+
+    @Mock
+    private AtlasAdminService atlasAdminService;
+
+    @Mock
+    private BrokerConfig brokerConfig;
+
+    @Mock
+    private MongoOperations mongoOperations;
+
+    private LeaseService leaseService;
+
+    private WarmPoolService service;
+
+    @Before
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        when(brokerConfig.getApiBase()).thenReturn(API_BASE);
+        // the pool is full unless a test empties it
+        when(mongoOperations.count(any(Query.class), eq(WarmPoolEntry.class))).thenReturn(20L);
+        when(mongoOperations.find(any(Query.class), eq(WarmPoolEntry.class)))
+                .thenReturn(Collections.<WarmPoolEntry>emptyList());
+
+        leaseService = new LeaseService(mongoOperations, new MetricRegistry());
+        ReflectionTestUtils.setField(leaseService, "duration", 120000L);
+        service = new WarmPoolService(atlasAdminService, brokerConfig, mongoOperations, clusterRegistry, leaseService);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "lowWatermark", 1);
+        ReflectionTestUtils.setField(service, "highWatermark", 2);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+    }
+
+    private static WarmPoolEntry entry(final String databaseName, final int attempts) {
+        final WarmPoolEntry entry = new WarmPoolEntry(databaseName, databaseName + "-user", CLUSTER_ID);
+        ReflectionTestUtils.setField(entry, "attempts", attempts);
+        return entry;
+    }
+
+    private void stale(final WarmPoolEntry... entries) {
+        when(mongoOperations.find(any(Query.class), eq(WarmPoolEntry.class))).thenReturn(Arrays.asList(entries));
+    }
+
+    /**
+     * States the entries were moved on to, in order
+     */
+    private List<Object> states() {
+        final ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoOperations, atLeast(0)).updateFirst(any(Query.class), updates.capture(), eq(WarmPoolEntry.class));
+        final List<Object> states = new ArrayList<>();
+        for (final Update update : updates.getAllValues()) {
+            states.add(((DBObject) update.getUpdateObject().get("$set")).get("state"));
+        }
+        return states;
+    }
+
+    @Test
+    public void refillTopsUpPoolBelowLowWatermark() {
+        when(mongoOperations.count(any(Query.class), eq(WarmPoolEntry.class))).thenReturn(0L);
+
+        service.refill();
+
+        verify(atlasAdminService, times(2)).createDatabase(eq(CLUSTER_ID), anyString());
+        verify(atlasAdminService, times(2)).createUser(eq(API_BASE), eq("group-id"), anyString(), anyString(), anyString());
+        assertEquals(Arrays.<Object>asList(WarmPoolEntry.State.AVAILABLE, WarmPoolEntry.State.AVAILABLE), states());
+    }
+
+    @Test
+    public void poolDoesNotKeepPasswords() {
+        when(mongoOperations.count(any(Query.class), eq(WarmPoolEntry.class))).thenReturn(0L);
+        ReflectionTestUtils.setField(service, "highWatermark", 1);
+
+        service.refill();
+
+        final ArgumentCaptor<Update> upsert = ArgumentCaptor.forClass(Update.class);
+        verify(mongoOperations).upsert(any(Query.class), upsert.capture(), eq(WarmPoolEntry.class));
+        assertFalse(((DBObject) upsert.getValue().getUpdateObject().get("$set")).containsField("password"));
+        assertTrue(((DBObject) upsert.getValue().getUpdateObject().get("$unset")).containsField("password"));
+        verify(atlasAdminService).createUser(eq(API_BASE), eq("group-id"), anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void staleEntryUpdatesUserCreatedByEarlierAttempt() {
+        stale(entry("pool-a", 1));
+        doThrow(new AtlasServiceException("Atlas API failed to create user pool-a-user: HTTP 409"))
+                .when(atlasAdminService).createUser(eq(API_BASE), eq("group-id"), eq("pool-a"), eq("pool-a-user"), anyString());
+
+        service.refill();
+
+        final ArgumentCaptor<DatabaseUser> user = ArgumentCaptor.forClass(DatabaseUser.class);
+        verify(atlasAdminService).updateUser(eq(API_BASE), eq("group-id"), user.capture());
+        assertEquals("pool-a-user", user.getValue().getUsername());
+        assertEquals("pool-a", user.getValue().getRoles().get(0).getDatabaseName());
+        assertEquals(Collections.<Object>singletonList(WarmPoolEntry.State.AVAILABLE), states());
+    }
+
+    @Test
+    public void failingStaleEntryDoesNotStopRefill() {
+        stale(entry("pool-a", 1), entry("pool-b", 1));
+        doThrow(new RuntimeException("timeout")).when(atlasAdminService).createDatabase(CLUSTER_ID, "pool-a");
+
+        service.refill();
+
+        verify(atlasAdminService).createUser(eq(API_BASE), eq("group-id"), eq("pool-b"), eq("pool-b-user"), anyString());
+        assertEquals(Collections.<Object>singletonList(WarmPoolEntry.State.AVAILABLE), states());
+    }
+
+    @Test
+    public void entryFailingEveryAttemptIsMarkedFailed() {
+        stale(entry("pool-a", 2));
+        doThrow(new RuntimeException("timeout")).when(atlasAdminService).createDatabase(CLUSTER_ID, "pool-a");
+
+        service.refill();
+
+        assertEquals(Collections.<Object>singletonList(WarmPoolEntry.State.FAILED), states());
+    }
+
+    @Test
+    public void newEntryFailingStopsRefillOfCluster() {
+        when(mongoOperations.count(any(Query.class), eq(WarmPoolEntry.class))).thenReturn(0L);
+        doThrow(new AtlasServiceException("Atlas API failed to create user: HTTP 500")).when(atlasAdminService)
+                .createUser(eq(API_BASE), eq("group-id"), anyString(), anyString(), anyString());
+
+        service.refill();
+
+        verify(atlasAdminService, times(1)).createDatabase(eq(CLUSTER_ID), anyString());
+        verify(atlasAdminService, never()).updateUser(anyString(), anyString(), any(DatabaseUser.class));
+        assertFalse(states().contains(WarmPoolEntry.State.FAILED));
+    }
+
+    @Test
+    public void refillStopsOnceLeaseLost() {
+        when(mongoOperations.count(any(Query.class), eq(WarmPoolEntry.class))).thenReturn(0L);
+        // every renewal is due, and finds the lease taken over
+        ReflectionTestUtils.setField(leaseService, "duration", 0L);
+        when(mongoOperations.updateFirst(any(Query.class), any(Update.class), eq(Lease.class)))
+                .thenReturn(new WriteResult(0, false, null));
+
+        service.refill();
+
+        verify(atlasAdminService, never()).createDatabase(anyString(), anyString());
+        verify(mongoOperations).remove(any(Query.class), eq(Lease.class));
+    }
+}
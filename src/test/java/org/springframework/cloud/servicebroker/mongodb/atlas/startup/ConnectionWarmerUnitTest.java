@@ -0,0 +1,94 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.startup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.AtlasCluster;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.ClusterRegistry;
+import org.springframework.cloud.servicebroker.mongodb.atlas.cluster.LeastDatabasesPlacement;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConnectionWarmerUnitTest {
+
+    private static final String API_BASE = "https://cloud.mongodb.com/api/atlas/v1.0";
+
+    private final MongoClient mongoClient0 = mock(MongoClient.class);
+
+    private final MongoClient mongoClient1 = mock(MongoClient.class);
+
+    private final MongoDatabase admin0 = mock(MongoDatabase.class);
+
+    private final MongoDatabase admin1 = mock(MongoDatabase.class);
+
+    private final Client restClient = mock(Client.class);
+
+    private final Response apiResponse = mock(Response.class);
+
+    private final ClusterRegistry clusterRegistry = new ClusterRegistry(Arrays.asList(
+            new AtlasCluster("cluster0", "mongodb://cluster0:27017", "group-id", mongoClient0),
+            new AtlasCluster("cluster1", "mongodb://cluster1:27017", "group-id", mongoClient1)),
+            new LeastDatabasesPlacement());
+
+    private final StartupReport report = new StartupReport(new MetricRegistry());
+
+    @Before
+    public void setup() {
+        when(mongoClient0.getDatabase("admin")).thenReturn(admin0);
+        when(mongoClient1.getDatabase("admin")).thenReturn(admin1);
+
+        // the calls are stubbed up front, as the warm-up makes them concurrently
+        final WebTarget target = mock(WebTarget.class);
+        final Invocation.Builder builder = mock(Invocation.Builder.class);
+        when(restClient.target(API_BASE)).thenReturn(target);
+        when(target.path(anyString())).thenReturn(target);
+        when(target.request(MediaType.APPLICATION_JSON)).thenReturn(builder);
+        when(builder.get()).thenReturn(apiResponse);
+        when(apiResponse.getStatus()).thenReturn(200);
+    }
+
+    @Test
+    public void warmsEveryPoolConcurrently() throws Exception {
+        final List<Object> warmed = new ConnectionWarmer(clusterRegistry, restClient, API_BASE, 3, 2, report)
+                .warmUp().get(5, TimeUnit.SECONDS);
+
+        assertEquals(3 + 3 + 2, warmed.size());
+        verify(admin0, times(3)).runCommand(new Document("ping", 1));
+        verify(admin1, times(3)).runCommand(new Document("ping", 1));
+        verify(apiResponse, times(2)).readEntity(String.class);
+        assertTrue(report.getWarm() > 0);
+    }
+
+    @Test
+    public void unreachableClusterDoesNotFailWarmUp() throws Exception {
+        when(admin1.runCommand(any(Document.class)))
+                .thenThrow(new MongoTimeoutException("Timed out"));
+
+        final List<Object> warmed = new ConnectionWarmer(clusterRegistry, restClient, API_BASE, 1, 0, report)
+                .warmUp().get(5, TimeUnit.SECONDS);
+
+        assertNull(warmed.get(1));
+        assertTrue(report.getWarm() > 0);
+    }
+}
@@ -0,0 +1,131 @@
+package org.springframework.cloud.servicebroker.mongodb.atlas.tracing;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TracerUnitTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+
+    private static final String PARENT_ID = "00f067aa0ba902b7";
+
+    private final List<Span> exported = new ArrayList<>();
+
+    private final SpanExporter exporter = new SpanExporter() {
+        @Override
+        public void export(final Span span) {
+            exported.add(span);
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Test
+    public void childrenOfCurrentSpanShareItsTrace() {
+        final Tracer tracer = new Tracer(1, exporter);
+        final Span root = tracer.startServer("PUT /v2/service_instances/{instanceId}", null);
+        final Span previous = tracer.enter(root);
+        final Span call = tracer.start("AtlasAdminService.createUser", Span.Kind.INTERNAL);
+        tracer.exit(previous);
+
+        assertEquals(root.getTraceId(), call.getTraceId());
+        assertEquals(root.getSpanId(), call.getParentSpanId());
+        assertNull(root.getParentSpanId());
+        assertSame(Span.NOOP, tracer.current());
+
+        call.end();
+        root.end();
+        root.end();
+        assertEquals(Arrays.asList(call, root), exported);
+    }
+
+    @Test
+    public void callerDecidesSampling() {
+        final Tracer tracer = new Tracer(0, exporter);
+
+        final Span sampled = tracer.startServer("GET /v2/catalog", "00-" + TRACE_ID + "-" + PARENT_ID + "-01");
+        assertEquals(TRACE_ID, sampled.getTraceId());
+        assertEquals(PARENT_ID, sampled.getParentSpanId());
+        assertTrue(sampled.traceparent().startsWith("00-" + TRACE_ID + "-"));
+
+        assertSame(Span.NOOP, tracer.startServer("GET /v2/catalog", "00-" + TRACE_ID + "-" + PARENT_ID + "-00"));
+        // malformed context: sampled at the rate, i.e. never here
+        assertSame(Span.NOOP, tracer.startServer("GET /v2/catalog", "00-" + TRACE_ID + "-xyz-01"));
+    }
+
+    @Test
+    public void nothingIsRecordedWhenNotSampled() {
+        final Tracer tracer = new Tracer(0, exporter);
+        final Span previous = tracer.enter(tracer.startServer("GET /v2/catalog", null));
+        final Span call = tracer.start("AtlasAdminService.createUser", Span.Kind.INTERNAL);
+        tracer.exit(previous);
+
+        assertFalse(call.isRecording());
+        call.tag("http.status_code", 200).end();
+        assertTrue(exported.isEmpty());
+    }
+
+    @Test
+    public void tracingIsDisabledWithoutExporter() {
+        final Tracer tracer = new Tracer(1, null);
+
+        assertSame(Span.NOOP, tracer.startServer("GET /v2/catalog", "00-" + TRACE_ID + "-" + PARENT_ID + "-01"));
+    }
+
+    @Test
+    public void decoratedTaskContinuesTrace() throws InterruptedException {
+        final Tracer tracer = new Tracer(1, exporter);
+        final Span root = tracer.startServer("PUT /v2/service_instances/{instanceId}", null);
+        final Span previous = tracer.enter(root);
+        final List<Span> children = new ArrayList<>();
+        final Runnable task = tracer.decorate(new Runnable() {
+            @Override
+            public void run() {
+                children.add(tracer.start("AtlasAdminService.createDatabase", Span.Kind.INTERNAL));
+            }
+        });
+        tracer.exit(previous);
+
+        final Thread worker = new Thread(task);
+        worker.start();
+        worker.join();
+
+        assertEquals(root.getSpanId(), children.get(0).getParentSpanId());
+    }
+
+    @Test
+    public void exporterWritesOtlpJsonLines() throws IOException {
+        final Tracer tracer = new Tracer(1, null);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final FileSpanExporter fileExporter = new FileSpanExporter(out, 10, new MetricRegistry());
+        final Span span = new Span(tracer, TRACE_ID, "b7ad6b7169203331", PARENT_ID, "HTTP POST", Span.Kind.CLIENT)
+                .tag("http.method", "POST")
+                .tag("http.status_code", 401);
+        fileExporter.export(span);
+        fileExporter.close();
+
+        final JsonNode request = new ObjectMapper().readTree(out.toString("UTF-8").trim());
+        final JsonNode json = request.path("resourceSpans").path(0).path("scopeSpans").path(0).path("spans").path(0);
+        assertEquals(TRACE_ID, json.path("traceId").asText());
+        assertEquals(PARENT_ID, json.path("parentSpanId").asText());
+        assertEquals(3, json.path("kind").asInt());
+        assertEquals("POST", json.path("attributes").path(0).path("value").path("stringValue").asText());
+        assertEquals("401", json.path("attributes").path(1).path("value").path("intValue").asText());
+    }
+}